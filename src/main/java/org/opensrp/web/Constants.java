@@ -15,6 +15,7 @@ public interface Constants {
     String MSG = "msg";
     String EVENTS = "events";
     String NO_OF_EVENTS = "no_of_events";
+    String STREAM = "stream";
     String ERROR_OCCURRED = "Error occurred";
     String FAILURE = "Failure occurred";
     String DEFAULT_EXCEPTION_HANDLER_MESSAGE = "The server encountered an error processing the request." ;
@@ -22,6 +23,8 @@ public interface Constants {
     public static final String RETURN_COUNT= "return_count";
     public static final String TOTAL_RECORDS = "total_records";
 
+    public static final String CONTINUATION_TOKEN = "continuation_token";
+
     public static final String PAGE_NUMBER = "pageNumber";
 
     public static final String PAGE_SIZE = "pageSize";
@@ -0,0 +1,122 @@
+package org.opensrp.web.bean;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Progress of an asynchronous <code>/rest/event/add</code> upload, identified by its ingest token.
+ */
+public class IngestStatus {
+	
+	public enum State {
+		QUEUED, PROCESSING, COMPLETED, INTERRUPTED
+	}
+	
+	private String token;
+	
+	private State status;
+	
+	private int clients;
+	
+	private int events;
+	
+	@JsonProperty("processed_clients")
+	private int processedClients;
+	
+	@JsonProperty("processed_events")
+	private int processedEvents;
+	
+	@JsonProperty("failed_clients")
+	private List<String> failedClients = new ArrayList<>();
+	
+	@JsonProperty("failed_events")
+	private List<String> failedEvents = new ArrayList<>();
+	
+	public IngestStatus() {
+	}
+	
+	public IngestStatus(String token) {
+		this.token = token;
+		this.status = State.QUEUED;
+	}
+	
+	public synchronized String getToken() {
+		return token;
+	}
+	
+	public synchronized void setToken(String token) {
+		this.token = token;
+	}
+	
+	public synchronized State getStatus() {
+		return status;
+	}
+	
+	public synchronized void setStatus(State status) {
+		this.status = status;
+	}
+	
+	public synchronized int getClients() {
+		return clients;
+	}
+	
+	public synchronized void setClients(int clients) {
+		this.clients = clients;
+	}
+	
+	public synchronized int getEvents() {
+		return events;
+	}
+	
+	public synchronized void setEvents(int events) {
+		this.events = events;
+	}
+	
+	public synchronized int getProcessedClients() {
+		return processedClients;
+	}
+	
+	public synchronized void setProcessedClients(int processedClients) {
+		this.processedClients = processedClients;
+	}
+	
+	public synchronized int getProcessedEvents() {
+		return processedEvents;
+	}
+	
+	public synchronized void setProcessedEvents(int processedEvents) {
+		this.processedEvents = processedEvents;
+	}
+	
+	public synchronized List<String> getFailedClients() {
+		return new ArrayList<>(failedClients);
+	}
+	
+	public synchronized void setFailedClients(List<String> failedClients) {
+		this.failedClients = new ArrayList<>(failedClients);
+	}
+	
+	public synchronized List<String> getFailedEvents() {
+		return new ArrayList<>(failedEvents);
+	}
+	
+	public synchronized void setFailedEvents(List<String> failedEvents) {
+		this.failedEvents = new ArrayList<>(failedEvents);
+	}
+	
+	public synchronized void recordClient(boolean processed, String id) {
+		processedClients++;
+		if (!processed) {
+			failedClients.add(id);
+		}
+	}
+	
+	public synchronized void recordEvent(boolean processed, String id) {
+		processedEvents++;
+		if (!processed) {
+			failedEvents.add(id);
+		}
+	}
+}
@@ -18,6 +18,8 @@ public class SyncParam {
 	private Integer limit;
 	@JsonProperty("return_count")
 	private boolean returnCount;
+	@JsonProperty("continuation_token")
+	private String continuationToken;
 
 	public String getProviderId() {
 		return providerId;
@@ -83,4 +85,12 @@ public class SyncParam {
 		this.returnCount = returnCount;
 	}
 	
+	public String getContinuationToken() {
+		return continuationToken;
+	}
+	
+	public void setContinuationToken(String continuationToken) {
+		this.continuationToken = continuationToken;
+	}
+	
 }
@@ -0,0 +1,33 @@
+package org.opensrp.web.config;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.opensrp.web.utils.ContinuationTokenSigner;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * The signer of sync continuation tokens. All nodes behind the same load balancer must be configured
+ * with the same secret, otherwise a token issued by one node is rejected by the others. Without a
+ * secret each node signs with a random key, which only suits a single node.
+ */
+@Configuration
+public class ContinuationTokenConfig {
+	
+	private static final Logger logger = LogManager.getLogger(ContinuationTokenConfig.class.toString());
+	
+	@Value("#{opensrp['opensrp.sync.continuation.token.secret'] ?: ''}")
+	private String secret;
+	
+	@Bean
+	public ContinuationTokenSigner continuationTokenSigner() {
+		if (StringUtils.isBlank(secret)) {
+			logger.warn("opensrp.sync.continuation.token.secret is not set, continuation tokens are signed with a random"
+			        + " key and are rejected by other nodes and after a restart");
+			return ContinuationTokenSigner.withRandomKey();
+		}
+		return new ContinuationTokenSigner(secret);
+	}
+}
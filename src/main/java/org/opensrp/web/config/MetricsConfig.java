@@ -0,0 +1,20 @@
+package org.opensrp.web.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+
+/**
+ * Registry for the application metrics. It keeps the metrics in the Prometheus format so that they
+ * can be scraped from {@link org.opensrp.web.rest.MetricsResource}.
+ */
+@Configuration
+public class MetricsConfig {
+	
+	@Bean
+	public PrometheusMeterRegistry prometheusMeterRegistry() {
+		return new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+	}
+}
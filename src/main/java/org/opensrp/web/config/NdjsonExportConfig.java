@@ -0,0 +1,27 @@
+package org.opensrp.web.config;
+
+import java.util.concurrent.Executor;
+
+import org.opensrp.web.utils.NdjsonExporterFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Newline delimited JSON exports of the getAll endpoints. Chunks of
+ * {@code opensrp.export.ndjson.fetch.size} records are read, the next one being prefetched on the
+ * sync executor.
+ */
+@Configuration
+public class NdjsonExportConfig {
+	
+	@Value("#{opensrp['opensrp.export.ndjson.fetch.size'] ?: 1000}")
+	private int fetchSize = 1000;
+	
+	@Bean
+	public NdjsonExporterFactory ndjsonExporterFactory(
+	        @Qualifier(TaskExecutorConfig.SYNC_TASK_EXECUTOR) Executor syncTaskExecutor) {
+		return new NdjsonExporterFactory(fetchSize, syncTaskExecutor);
+	}
+}
@@ -0,0 +1,68 @@
+package org.opensrp.web.config;
+
+import java.util.concurrent.TimeUnit;
+
+import org.opensrp.web.utils.CountCache;
+import org.opensrp.web.utils.LocationHierarchy;
+import org.opensrp.web.utils.PhoneNumberIndex;
+import org.opensrp.web.utils.StructureIndex;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Search indexes shared by the resources that update them and the resources that read them. The
+ * phone number index is updated as events are saved and read by contact phone number searches. The
+ * location hierarchy is refreshed by the location resource and read by the hierarchy endpoints,
+ * settings resolution and the user details returned on authentication. The structure index is
+ * refreshed by the location resource and read by radius searches. The client count cache holds
+ * the totals of client searches and is cleared by the client and event resources as clients are
+ * saved.
+ */
+@Configuration
+public class SearchIndexConfig {
+	
+	public static final String CLIENT_COUNT_CACHE = "clientCountCache";
+	
+	private static final int COUNT_CACHE_MAX_ENTRIES = 10000;
+	
+	@Value("#{opensrp['opensrp.search.phone.index.enabled'] ?: false}")
+	private boolean phoneNumberIndexEnabled;
+	
+	@Value("#{opensrp['opensrp.search.phone.default.country.code'] ?: ''}")
+	private String defaultCountryCode;
+	
+	@Value("#{opensrp['opensrp.location.hierarchy.cache.enabled'] ?: false}")
+	private boolean locationHierarchyEnabled;
+	
+	@Value("#{opensrp['opensrp.location.structure.index.enabled'] ?: false}")
+	private boolean structureIndexEnabled;
+	
+	@Value("#{opensrp['opensrp.location.structure.index.cell.size'] ?: 0.01}")
+	private double structureIndexCellSize;
+	
+	@Value("#{opensrp['opensrp.client.search.count.cache.ttl.seconds'] ?: 60}")
+	private long clientCountCacheTimeToLiveSeconds = 60;
+	
+	@Bean
+	public PhoneNumberIndex phoneNumberIndex(MeterRegistry meterRegistry) {
+		return new PhoneNumberIndex(phoneNumberIndexEnabled, defaultCountryCode, meterRegistry);
+	}
+	
+	@Bean
+	public LocationHierarchy locationHierarchy(MeterRegistry meterRegistry) {
+		return new LocationHierarchy(locationHierarchyEnabled, meterRegistry);
+	}
+	
+	@Bean
+	public StructureIndex structureIndex(MeterRegistry meterRegistry) {
+		return new StructureIndex(structureIndexEnabled, structureIndexCellSize, meterRegistry);
+	}
+	
+	@Bean(name = CLIENT_COUNT_CACHE)
+	public CountCache clientCountCache() {
+		return new CountCache(COUNT_CACHE_MAX_ENTRIES, TimeUnit.SECONDS.toMillis(clientCountCacheTimeToLiveSeconds));
+	}
+}
@@ -0,0 +1,94 @@
+package org.opensrp.web.config;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+/**
+ * Bounded executors used by the sync endpoints. The sync executor runs independent database lookups
+ * concurrently; when its queue is full the calling request thread runs the task itself, which keeps
+ * the number of in-flight lookups bounded under load. The ingest executor drains asynchronous
+ * uploads and rejects new uploads when its queue is full. The bulk ingest executor runs the
+ * partitions of an upload being saved, apart from the sync lookups so that large uploads do not
+ * hold up sync; it also runs tasks on the calling thread when full. The index scheduler runs the background
+ * builds and refreshes of the search indexes.
+ */
+@Configuration
+public class TaskExecutorConfig {
+	
+	public static final String SYNC_TASK_EXECUTOR = "syncTaskExecutor";
+	
+	public static final String INGEST_TASK_EXECUTOR = "ingestTaskExecutor";
+	
+	public static final String BULK_INGEST_TASK_EXECUTOR = "bulkIngestTaskExecutor";
+	
+	public static final String INDEX_TASK_SCHEDULER = "indexTaskScheduler";
+	
+	@Value("#{opensrp['opensrp.sync.executor.pool.size'] ?: 8}")
+	private int poolSize = 8;
+	
+	@Value("#{opensrp['opensrp.sync.executor.queue.capacity'] ?: 200}")
+	private int queueCapacity = 200;
+	
+	@Value("#{opensrp['opensrp.sync.ingest.async.workers'] ?: 2}")
+	private int ingestWorkers = 2;
+	
+	@Value("#{opensrp['opensrp.sync.ingest.async.queue.capacity'] ?: 100}")
+	private int ingestQueueCapacity = 100;
+	
+	@Value("#{opensrp['opensrp.sync.ingest.executor.pool.size'] ?: 4}")
+	private int bulkIngestPoolSize = 4;
+	
+	@Value("#{opensrp['opensrp.sync.ingest.executor.queue.capacity'] ?: 100}")
+	private int bulkIngestQueueCapacity = 100;
+	
+	@Value("#{opensrp['opensrp.search.index.scheduler.pool.size'] ?: 2}")
+	private int indexSchedulerPoolSize = 2;
+	
+	@Bean(name = SYNC_TASK_EXECUTOR)
+	public ThreadPoolTaskExecutor syncTaskExecutor() {
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(poolSize);
+		executor.setMaxPoolSize(poolSize);
+		executor.setQueueCapacity(queueCapacity);
+		executor.setThreadNamePrefix("opensrp-sync-");
+		executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.setWaitForTasksToCompleteOnShutdown(true);
+		return executor;
+	}
+	
+	@Bean(name = INGEST_TASK_EXECUTOR)
+	public ThreadPoolTaskExecutor ingestTaskExecutor() {
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(ingestWorkers);
+		executor.setMaxPoolSize(ingestWorkers);
+		executor.setQueueCapacity(ingestQueueCapacity);
+		executor.setThreadNamePrefix("opensrp-ingest-");
+		executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+		return executor;
+	}
+	
+	@Bean(name = BULK_INGEST_TASK_EXECUTOR)
+	public ThreadPoolTaskExecutor bulkIngestTaskExecutor() {
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(bulkIngestPoolSize);
+		executor.setMaxPoolSize(bulkIngestPoolSize);
+		executor.setQueueCapacity(bulkIngestQueueCapacity);
+		executor.setThreadNamePrefix("opensrp-bulk-ingest-");
+		executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.setWaitForTasksToCompleteOnShutdown(true);
+		return executor;
+	}
+	
+	@Bean(name = INDEX_TASK_SCHEDULER)
+	public ThreadPoolTaskScheduler indexTaskScheduler() {
+		ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+		scheduler.setPoolSize(indexSchedulerPoolSize);
+		scheduler.setThreadNamePrefix("opensrp-index-");
+		return scheduler;
+	}
+}
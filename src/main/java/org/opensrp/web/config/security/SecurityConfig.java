@@ -14,6 +14,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
 
+import org.apache.commons.lang3.StringUtils;
 import org.keycloak.adapters.KeycloakDeployment;
 import org.keycloak.adapters.KeycloakDeploymentBuilder;
 import org.keycloak.adapters.springsecurity.KeycloakConfiguration;
@@ -52,6 +53,14 @@ public class SecurityConfig extends KeycloakWebSecurityConfigurerAdapter {
 	@Value("#{opensrp['opensrp.cors.max.age']}")
 	private long corsMaxAge;
 	
+	/**
+	 * Address allowed to scrape the metrics without the OPENMRS role, none by default. Only set it
+	 * when the address cannot be a proxy in front of the server, every request forwarded by a proxy
+	 * comes from the proxy's address.
+	 */
+	@Value("#{opensrp['opensrp.metrics.scrape.allowed.address'] ?: ''}")
+	private String metricsScrapeAllowedAddress;
+	
 	@Value("${keycloak.configurationFile:WEB-INF/keycloak.json}")
 	private Resource keycloakConfigFileResource;
 	
@@ -96,6 +105,7 @@ public class SecurityConfig extends KeycloakWebSecurityConfigurerAdapter {
 			.mvcMatchers("/rest/viewconfiguration/**").permitAll()
 			.mvcMatchers("/rest/config/keycloak").permitAll()
 			.mvcMatchers("/rest/*/getAll").hasRole(Role.ALL_EVENTS)
+			.mvcMatchers(GET, "/rest/metrics").access(metricsAccess())
 			.mvcMatchers(OPTIONS,"/**").permitAll()
 			.mvcMatchers("/rest/**").hasRole(Role.OPENMRS)
 			.anyRequest().authenticated()
@@ -108,6 +118,12 @@ public class SecurityConfig extends KeycloakWebSecurityConfigurerAdapter {
 		/* @formatter:on */
 	}
 	
+	private String metricsAccess() {
+		String hasRole = "hasRole('" + Role.OPENMRS + "')";
+		return StringUtils.isBlank(metricsScrapeAllowedAddress) ? hasRole
+		        : "hasIpAddress('" + metricsScrapeAllowedAddress.trim() + "') or " + hasRole;
+	}
+	
 	@Override
 	public void configure(WebSecurity web) throws Exception {
 		/* @formatter:off */
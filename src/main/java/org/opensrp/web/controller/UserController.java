@@ -51,6 +51,8 @@ import org.opensrp.service.PlanService;
 import org.opensrp.service.PractitionerService;
 import org.opensrp.web.exceptions.MissingTeamAssignmentException;
 import org.opensrp.web.rest.RestUtils;
+import org.opensrp.web.utils.LocationHierarchy;
+import org.opensrp.web.utils.LocationHierarchySnapshot;
 import org.slf4j.LoggerFactory;
 import org.smartregister.domain.Jurisdiction;
 import org.smartregister.domain.PhysicalLocation;
@@ -88,6 +90,8 @@ public class UserController {
 	
 	private PlanService planService;
 	
+	private LocationHierarchy locationHierarchy;
+	
 	@Value("#{opensrp['openmrs.version']}")
 	protected String OPENMRS_VERSION;
 	
@@ -136,6 +140,14 @@ public class UserController {
 		this.planService = planService;
 	}
 	
+	/**
+	 * @param locationHierarchy the locationHierarchy to set
+	 */
+	@Autowired
+	public void setLocationHierarchy(LocationHierarchy locationHierarchy) {
+		this.locationHierarchy = locationHierarchy;
+	}
+	
 	@RequestMapping(method = RequestMethod.GET, value = "/authenticate-user")
 	public ResponseEntity<HttpStatus> authenticateUser() {
 		return new ResponseEntity<>(null, allowOrigin(opensrpAllowedSources), OK);
@@ -237,8 +249,11 @@ public class UserController {
 			        "User not mapped on any location. Make sure that user is assigned to an organization with valid Location(s) ");
 		}
 		
-		LocationTree l = locationService
-		        .buildLocationHierachy(jurisdictions.stream().map(j -> j.getId()).collect(Collectors.toSet()), false, true);
+		Set<String> jurisdictionIds = jurisdictions.stream().map(j -> j.getId()).collect(Collectors.toSet());
+		LocationHierarchySnapshot snapshot = locationHierarchy == null ? null : locationHierarchy.getSnapshot();
+		LocationTree l = snapshot != null && snapshot.containsAll(jurisdictionIds)
+		        ? snapshot.buildAncestorTree(jurisdictionIds, true)
+		        : locationService.buildLocationHierachy(jurisdictionIds, false, true);
 		
 		Map<String, Object> map = new HashMap<>();
 		map.put("user", u);
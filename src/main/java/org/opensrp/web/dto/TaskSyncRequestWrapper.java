@@ -3,6 +3,7 @@
  */
 package org.opensrp.web.dto;
 
+import static org.opensrp.web.Constants.CONTINUATION_TOKEN;
 import static org.opensrp.web.Constants.RETURN_COUNT;
 
 import java.util.ArrayList;
@@ -29,6 +30,9 @@ public  class TaskSyncRequestWrapper {
 	
 	@JsonProperty(RETURN_COUNT)
 	private boolean returnCount;
+	
+	@JsonProperty(CONTINUATION_TOKEN)
+	private String continuationToken;
 
 	public List<String> getPlan() {
 		return plan;
@@ -51,4 +55,8 @@ public  class TaskSyncRequestWrapper {
 		return returnCount;
 	}
 	
+	public String getContinuationToken() {
+		return continuationToken;
+	}
+	
 }
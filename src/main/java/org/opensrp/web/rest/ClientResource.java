@@ -1,5 +1,6 @@
 package org.opensrp.web.rest;
 
+import static org.opensrp.common.AllConstants.CLIENTS_FETCH_BATCH_SIZE;
 import static org.opensrp.common.AllConstants.BaseEntity.ADDRESS_TYPE;
 import static org.opensrp.common.AllConstants.BaseEntity.BASE_ENTITY_ID;
 import static org.opensrp.common.AllConstants.BaseEntity.CITY_VILLAGE;
@@ -21,27 +22,56 @@ import static org.opensrp.common.AllConstants.Client.PROVIDERID;
 import static org.opensrp.common.AllConstants.Client.SEARCHTEXT;
 import static org.opensrp.common.AllConstants.Event.LOCATION_ID;
 
+import java.io.IOException;
 import java.text.ParseException;
 import java.util.*;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
+import javax.annotation.PostConstruct;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.joda.time.DateTime;
+import org.opensrp.api.domain.User;
+import org.opensrp.web.Constants;
+import org.opensrp.web.config.Role;
+import org.opensrp.web.config.SearchIndexConfig;
+import org.opensrp.web.config.TaskExecutorConfig;
+import org.opensrp.web.utils.BatchFetchUtils;
+import org.opensrp.web.utils.ClientSearchIndex;
+import org.opensrp.web.utils.CountCache;
+import org.opensrp.web.utils.IdReconciliation;
+import org.opensrp.web.utils.MaskingUtils;
+import org.opensrp.web.utils.NdjsonExporter;
+import org.opensrp.web.utils.NdjsonExporterFactory;
+import org.opensrp.web.utils.RelationshipExpander;
 import org.opensrp.web.utils.Utils;
 import org.smartregister.domain.Client;
+import org.smartregister.domain.Event;
 import org.opensrp.search.AddressSearchBean;
 import org.opensrp.search.ClientSearchBean;
+import org.opensrp.search.EventSearchBean;
 import org.opensrp.service.ClientService;
+import org.opensrp.service.EventService;
 import org.opensrp.web.bean.ClientSyncBean;
 import org.opensrp.web.bean.Identifier;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.ModelMap;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -49,8 +79,13 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
 import static org.opensrp.common.AllConstants.BaseEntity.SERVER_VERSIOIN;
 import static org.opensrp.web.Constants.DEFAULT_GET_ALL_IDS_LIMIT;
 import static org.opensrp.web.Constants.DEFAULT_LIMIT;
@@ -70,6 +105,20 @@ public class ClientResource extends RestResource<Client> {
 
 	public static final String SEARCH_RELATIONSHIP = "searchRelationship";
 
+	public static final String DEPTH = "depth";
+
+	public static final int MAX_RELATIONSHIP_DEPTH = 5;
+
+	public static final String EVENT_LIMIT = "eventLimit";
+
+	public static final int DEFAULT_BUNDLE_EVENT_LIMIT = 10;
+
+	public static final int MAX_BUNDLE_EVENT_LIMIT = 100;
+
+	public static final String HOUSEHOLD_FIELD = "household";
+
+	public static final String MEMBERS_FIELD = "members";
+
 	public static final String PAGE_SIZE = "pageSize";
 
 	public static final String PAGE_NUMBER = "pageNumber";
@@ -84,8 +133,6 @@ public class ClientResource extends RestResource<Client> {
 
 	public static final int NO_TOTAL_COUNT = 0;
 
-	public int total = 0;
-
 	public static final String ANC = "anc";
 
 	public static final String CHILD = "child";
@@ -98,11 +145,72 @@ public class ClientResource extends RestResource<Client> {
 
 	private static final String FALSE = "false";
 
+	private static final String STREAM_PARAM = Constants.STREAM + "=true";
+
+	private static final int COUNT_CACHE_MAX_ENTRIES = 10000;
+
+	private static final long DEFAULT_COUNT_CACHE_TTL_SECONDS = 60;
+
+	private EventService eventService;
+
+	private Executor syncTaskExecutor;
+
+	@Value("#{opensrp['opensrp.client.search.relationship.max.results'] ?: 1000}")
+	private int maxRelatedClients = 1000;
+
+	@Value("#{opensrp['opensrp.client.search.index.enabled'] ?: false}")
+	private boolean searchIndexEnabled;
+
+	@Value("#{opensrp['opensrp.client.search.index.refresh.seconds'] ?: 30}")
+	private long searchIndexRefreshSeconds = 30;
+
+	@Value("#{opensrp['opensrp.client.search.index.batch.size'] ?: 1000}")
+	private int searchIndexBatchSize = 1000;
+
+	@Value("#{opensrp['opensrp.client.search.index.max.results'] ?: 1000}")
+	private int searchIndexMaxResults = 1000;
+
+	private TaskScheduler indexTaskScheduler;
+
+	private MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+	private ClientSearchIndex clientSearchIndex;
+
+	private CountCache clientCountCache = new CountCache(COUNT_CACHE_MAX_ENTRIES,
+			TimeUnit.SECONDS.toMillis(DEFAULT_COUNT_CACHE_TTL_SECONDS));
+
+	private NdjsonExporterFactory ndjsonExporterFactory;
+
 	@Autowired
 	public ClientResource(ClientService clientService) {
 		this.clientService = clientService;
 	}
 
+	@Autowired
+	public void setEventService(EventService eventService) {
+		this.eventService = eventService;
+	}
+
+	@Autowired
+	public void setIndexTaskScheduler(@Qualifier(TaskExecutorConfig.INDEX_TASK_SCHEDULER) TaskScheduler indexTaskScheduler) {
+		this.indexTaskScheduler = indexTaskScheduler;
+	}
+
+	@Autowired
+	public void setMeterRegistry(MeterRegistry meterRegistry) {
+		this.meterRegistry = meterRegistry;
+	}
+
+	@Autowired
+	public void setSyncTaskExecutor(@Qualifier(TaskExecutorConfig.SYNC_TASK_EXECUTOR) Executor syncTaskExecutor) {
+		this.syncTaskExecutor = syncTaskExecutor;
+	}
+
+	@Autowired
+	public void setNdjsonExporterFactory(NdjsonExporterFactory ndjsonExporterFactory) {
+		this.ndjsonExporterFactory = ndjsonExporterFactory;
+	}
+
 	@Override
 	public Client getByUniqueId(String uniqueId) {
 		return clientService.find(uniqueId);
@@ -110,7 +218,10 @@ public class ClientResource extends RestResource<Client> {
 
 	@Override
 	public Client create(Client o) {
-		return clientService.addClient(o);
+		Client client = clientService.addClient(o);
+		clientCountCache.invalidateAll();
+		indexClient(client);
+		return client;
 	}
 
 	@Override
@@ -125,7 +236,16 @@ public class ClientResource extends RestResource<Client> {
 
 	@Override
 	public Client update(Client entity) {//TODO check if send property and id matches
-		return clientService.mergeClient(entity);//TODO update should only be based on baseEntityId
+		Client client = clientService.mergeClient(entity);//TODO update should only be based on baseEntityId
+		clientCountCache.invalidateAll();
+		indexClient(client);
+		return client;
+	}
+
+	private void indexClient(Client client) {
+		if (clientSearchIndex != null && client != null) {
+			clientSearchIndex.indexAll(Collections.singletonList(client));
+		}
 	}
 
 	@Override
@@ -138,7 +258,10 @@ public class ClientResource extends RestResource<Client> {
 
 		String clientId = getStringFilter("identifier", request);
 		if (!StringUtils.isBlank(clientId)) {
-			Client client = clientService.find(clientId);
+			Client client = findByIndexedIdentifier(clientId);
+			if (client == null) {
+				client = clientService.find(clientId);
+			}
 			clients.add(client);
 			includeClientRelatives(request, clients);
 			return clients;
@@ -156,8 +279,12 @@ public class ClientResource extends RestResource<Client> {
 			searchBean.setLocations(Arrays.asList(locationIds.split(",")));
 		}
 
-		clients = clientService.findByCriteria(searchBean, addressSearchBean, lastEdit == null ? null : lastEdit[0],
-				lastEdit == null ? null : lastEdit[1]);
+		clients = isNameOnlySearch(searchBean, addressSearchBean, lastEdit) ? findByIndexedName(searchBean.getNameLike())
+				: null;
+		if (clients == null) {
+			clients = clientService.findByCriteria(searchBean, addressSearchBean, lastEdit == null ? null : lastEdit[0],
+					lastEdit == null ? null : lastEdit[1]);
+		}
 
 		includeClientRelatives(request, clients);
 
@@ -167,6 +294,9 @@ public class ClientResource extends RestResource<Client> {
 	private void includeClientRelatives(HttpServletRequest request, List<Client> clients) {
 		String searchRelationship = getStringFilter(SEARCH_RELATIONSHIP, request);
 		logger.info("Search relationship: " + searchRelationship);
+		int depth = getRelationshipDepth(request);
+		RelationshipExpander relationshipExpander = new RelationshipExpander(clientService, syncTaskExecutor,
+				maxRelatedClients);
 		if (StringUtils.isBlank(searchRelationship)) {
 			String relationships = getStringFilter(RELATIONSHIPS, request);
 			List<String> relationshipTypes = StringUtils.isBlank(relationships) ?
@@ -174,12 +304,121 @@ public class ClientResource extends RestResource<Client> {
 					Arrays.asList(relationships.split(","));
 			logger.info("Relationship types: " + relationshipTypes.toString());
 			if (!relationshipTypes.isEmpty()) {
-				List<Client> clientRelationships = getRelationships(clients, relationshipTypes);
-				clients.addAll(clientRelationships);
+				clients.addAll(relationshipExpander.findRelationships(clients, new HashSet<>(relationshipTypes), depth));
 			}
 		} else {
-			List<Client> dependants = getDependants(clients, searchRelationship);
-			clients.addAll(dependants);
+			clients.addAll(relationshipExpander.findDependants(clients, searchRelationship, depth));
+		}
+	}
+
+	/**
+	 * @return the number of relationship levels requested, between 1 and {@link #MAX_RELATIONSHIP_DEPTH}
+	 */
+	private int getRelationshipDepth(HttpServletRequest request) {
+		String depth = getStringFilter(DEPTH, request);
+		if (StringUtils.isBlank(depth)) {
+			return 1;
+		}
+		try {
+			return Math.max(1, Math.min(Integer.parseInt(depth), MAX_RELATIONSHIP_DEPTH));
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid " + DEPTH + ": " + depth, e);
+		}
+	}
+
+	private boolean isNameOnlySearch(ClientSearchBean searchBean, AddressSearchBean addressSearchBean,
+			DateTime[] lastEdit) {
+		return StringUtils.isNotBlank(searchBean.getNameLike()) && searchBean.getGender() == null
+				&& searchBean.getBirthdateFrom() == null && searchBean.getBirthdateTo() == null
+				&& searchBean.getDeathdateFrom() == null && searchBean.getDeathdateTo() == null
+				&& searchBean.getAttributeType() == null && searchBean.getLocations() == null && lastEdit == null
+				&& addressSearchBean.getAddressType() == null && addressSearchBean.getCountry() == null
+				&& addressSearchBean.getStateProvince() == null && addressSearchBean.getCityVillage() == null
+				&& addressSearchBean.getCountyDistrict() == null && addressSearchBean.getSubDistrict() == null
+				&& addressSearchBean.getTown() == null && addressSearchBean.getSubTown() == null;
+	}
+
+	/**
+	 * Finds the clients by name from the search index, fetching the matches by base entity id in
+	 * batches on the sync executor
+	 *
+	 * @return the matching clients in index order, or null if the search index is not enabled or
+	 *         cannot answer the search, see {@link ClientSearchIndex#search(String, int)}
+	 */
+	private List<Client> findByIndexedName(String name) {
+		List<String> ids = clientSearchIndex == null ? null : clientSearchIndex.search(name, searchIndexMaxResults);
+		if (ids == null) {
+			return null;
+		}
+		Map<String, Client> clientsById = new HashMap<>();
+		for (Client client : BatchFetchUtils.fetchInBatches(ids, CLIENTS_FETCH_BATCH_SIZE, syncTaskExecutor,
+				batch -> clientService.findByFieldValue(BASE_ENTITY_ID, batch))) {
+			clientsById.put(client.getBaseEntityId(), client);
+		}
+		List<Client> clients = new ArrayList<>(clientsById.size());
+		for (String id : ids) {
+			Client client = clientsById.get(id);
+			if (client != null && client.getDateVoided() == null) {
+				clients.add(client);
+			}
+		}
+		return clients;
+	}
+
+	/**
+	 * Finds the client with the base entity id or identifier from the search index, as the client
+	 * service does, fetching the client and the indexed matches in one query
+	 *
+	 * @return the client, or null if the search index is not enabled or does not resolve the identifier
+	 *         to a single client, in which case the client service answers the lookup
+	 */
+	private Client findByIndexedIdentifier(String identifier) {
+		List<String> ids = clientSearchIndex == null ? null : clientSearchIndex.findByIdentifier(identifier);
+		if (ids == null) {
+			return null;
+		}
+		Set<String> candidates = new LinkedHashSet<>();
+		candidates.add(identifier);
+		candidates.addAll(ids);
+		Client match = null;
+		for (Client client : clientService.findByFieldValue(BASE_ENTITY_ID, new ArrayList<>(candidates))) {
+			if (identifier.equals(client.getBaseEntityId())) {
+				return client;
+			}
+			if (client.getIdentifiers() != null && client.getIdentifiers().containsValue(identifier)) {
+				if (match != null) {
+					return null;
+				}
+				match = client;
+			}
+		}
+		return match;
+	}
+
+	/**
+	 * Builds the client search index in the background when it is enabled, then keeps it current by
+	 * indexing the clients changed since the previous refresh
+	 */
+	@PostConstruct
+	public void initSearchIndex() {
+		if (!searchIndexEnabled || indexTaskScheduler == null) {
+			clientSearchIndex = null;
+			return;
+		}
+		clientSearchIndex = new ClientSearchIndex(meterRegistry);
+		indexTaskScheduler.scheduleWithFixedDelay(this::refreshSearchIndex,
+				Duration.ofSeconds(Math.max(searchIndexRefreshSeconds, 1)));
+	}
+
+	private void refreshSearchIndex() {
+		try {
+			long indexed = clientSearchIndex.refresh(clientService::findByServerVersion, searchIndexBatchSize);
+			logger.debug("Indexed " + indexed + " clients up to server version "
+					+ clientSearchIndex.getLastServerVersion());
+		}
+		catch (RuntimeException e) {
+			logger.error("Failed to refresh the client search index", e);
 		}
 	}
 
@@ -210,61 +449,6 @@ public class ClientResource extends RestResource<Client> {
 		return addressSearchBean;
 	}
 
-	/**
-	 * This method is used to get all the dependants for the the provided clients. Example when you you want to return all
-	 * the children for the list of mothers that you provided. The query expects each of the clients to at least have
-	 * one dependant otherwise we are not fetching the correct dependants hence the client will be removed from the final clients list
-	 *
-	 * @param clients            List of clients to fetch their dependants
-	 * @param searchRelationship The type of relationship used for querying e.g. "mother" or "father" as defined in the "relationships" attribute
-	 *                           of the dependant.
-	 * @return A list of dependants belonging to the clients
-	 */
-	private List<Client> getDependants(List<Client> clients, String searchRelationship) {
-		List<Client> dependantClients = new ArrayList<>();
-		List<Client> clientsToRemove = new ArrayList<>();
-		for (Client client : clients) {
-			List<Client> dependants = clientService.findByRelationshipIdAndType(searchRelationship, client.getBaseEntityId());
-			if (dependants.size() > 0) {
-				dependantClients.addAll(dependants);
-			} else {
-				clientsToRemove.add(client);
-			}
-		}
-		clients.removeIf(clientsToRemove::contains);
-		return dependantClients;
-	}
-
-	/**
-	 * Get all the relationship for the provided clients. For example when you have a list of children and you want to get all their mothers and
-	 * father. The objects for the related clients will be included in the final list returned by the query.
-	 *
-	 * @param clients           list of clients which you want to use to fetch their relations
-	 * @param relationshipTypes the type of relationships you want to include in the final list
-	 * @return a list client relationship objects
-	 */
-	private List<Client> getRelationships(List<Client> clients, List<String> relationshipTypes) {
-		List<Client> relationshipClients = new ArrayList<>();
-		HashSet<String> fetchedRelationships = new HashSet<>();
-		for (Client client : clients) {
-			if (client.getRelationships() != null) {
-				for (Map.Entry<String, List<String>> relationshipEntry : client.getRelationships().entrySet())
-					if (relationshipTypes.contains(relationshipEntry.getKey())) {
-						relationshipEntry.getValue().forEach(relationalId -> {
-									if (!fetchedRelationships.contains(relationalId)) {
-										Client clientRelative = clientService.find(relationalId);
-										if (!clients.contains(clientRelative))
-											relationshipClients.add(clientRelative);
-										fetchedRelationships.add(relationalId);
-									}
-								}
-						);
-					}
-			}
-		}
-		return relationshipClients;
-	}
-
 	@Override
 	public List<Client> filter(String query) {
 		return clientService.findByDynamicQuery(query);
@@ -348,46 +532,107 @@ public class ClientResource extends RestResource<Client> {
 			throws JsonProcessingException {
 
 		ClientSyncBean response = new ClientSyncBean();
-
+		CompletableFuture<Integer> total = countClientsAsync(clientSearchBean.getClientType(), clientSearchBean,
+				addressSearchBean);
 		List<Client> clients = clientService.findAllClientsByCriteria(clientSearchBean, addressSearchBean);
-
-		total = getTotal(clientSearchBean, addressSearchBean);
 		response.setClients(clients);
-		response.setTotal(total);
+		response.setTotal(BatchFetchUtils.join(total));
 		return new ResponseEntity<>(objectMapper.writeValueAsString((response)), HttpStatus.OK);
 	}
 
 	public ResponseEntity<String> getHouseholds(ClientSearchBean clientSearchBean, AddressSearchBean addressSearchBean)
 			throws JsonProcessingException {
 		ClientSyncBean response = new ClientSyncBean();
+		CompletableFuture<Integer> total = countClientsAsync(clientSearchBean.getClientType(), clientSearchBean,
+				addressSearchBean);
 		List<Client> clients = clientService.findHouseholdByCriteria(clientSearchBean, addressSearchBean,
 				clientSearchBean.getLastEditFrom(), clientSearchBean.getLastEditTo());
-		total = getTotal(clientSearchBean, addressSearchBean);
 		response.setClients(clients);
-		response.setTotal(total);
+		response.setTotal(BatchFetchUtils.join(total));
 		return new ResponseEntity<>(objectMapper.writeValueAsString((response)), HttpStatus.OK);
 	}
 
-	private int getTotal(ClientSearchBean clientSearchBean, AddressSearchBean addressSearchBean) {
-
-		String clientType = clientSearchBean.getClientType();
-		int pageNumber = clientSearchBean.getPageNumber();
-		if (pageNumber == FIRST_PAGE) {
-			if (HOUSEHOLD.equalsIgnoreCase(clientType)) {
-				total = clientService.findTotalCountHouseholdByCriteria(clientSearchBean, addressSearchBean).getTotalCount();
-			} else if (ALLCLIENTS.equalsIgnoreCase(clientType)) {
-				total = clientService.findTotalCountAllClientsByCriteria(clientSearchBean, addressSearchBean).getTotalCount();
-			} else if (ANC.equalsIgnoreCase(clientType)) {
-				clientSearchBean.setClientType(null);
-				total = clientService.findCountANCByCriteria(clientSearchBean, addressSearchBean);
-			} else if (CHILD.equalsIgnoreCase(clientType)) {
-				clientSearchBean.setClientType(null);
-				total = clientService.findCountChildByCriteria(clientSearchBean, addressSearchBean);
-			} else {
-				total = NO_TOTAL_COUNT;
-			}
+	/**
+	 * Counts the clients matching the search on the sync executor, so that the count runs concurrently
+	 * with the page query. A cached count for the same criteria is used when there is one, whatever
+	 * the page requested. The search beans must not be modified until the count completes. The count is
+	 * not cached if a client is saved while it runs. Without the cache only the first page is counted,
+	 * the total of the other pages is {@link #NO_TOTAL_COUNT}.
+	 *
+	 * @param clientType the type of client counted, which selects the count query
+	 */
+	private CompletableFuture<Integer> countClientsAsync(String clientType, ClientSearchBean clientSearchBean,
+			AddressSearchBean addressSearchBean) {
+		if (!clientCountCache.isEnabled() && clientSearchBean.getPageNumber() != FIRST_PAGE) {
+			return CompletableFuture.completedFuture(NO_TOTAL_COUNT);
+		}
+		String key = getCountCacheKey(clientType, clientSearchBean, addressSearchBean);
+		Long cachedCount = clientCountCache.get(key);
+		if (cachedCount != null) {
+			return CompletableFuture.completedFuture(cachedCount.intValue());
+		}
+
+		long generation = clientCountCache.getGeneration();
+		Supplier<Integer> count = () -> {
+			int total = countClients(clientType, clientSearchBean, addressSearchBean);
+			clientCountCache.put(key, (long) total, generation);
+			return total;
+		};
+		return supplyAsync(count);
+	}
+
+	private int countClients(String clientType, ClientSearchBean clientSearchBean, AddressSearchBean addressSearchBean) {
+		if (HOUSEHOLD.equalsIgnoreCase(clientType)) {
+			return clientService.findTotalCountHouseholdByCriteria(clientSearchBean, addressSearchBean).getTotalCount();
+		} else if (ALLCLIENTS.equalsIgnoreCase(clientType)) {
+			return clientService.findTotalCountAllClientsByCriteria(clientSearchBean, addressSearchBean).getTotalCount();
+		} else if (ANC.equalsIgnoreCase(clientType)) {
+			return clientService.findCountANCByCriteria(clientSearchBean, addressSearchBean);
+		} else if (CHILD.equalsIgnoreCase(clientType)) {
+			return clientService.findCountChildByCriteria(clientSearchBean, addressSearchBean);
+		} else {
+			return NO_TOTAL_COUNT;
+		}
+	}
+
+	/**
+	 * Builds the cache key of a count from every criterion except the paging and ordering, which do
+	 * not change the total. Locations are sorted so that the same set in any order shares a count.
+	 */
+	private String getCountCacheKey(String clientType, ClientSearchBean clientSearchBean,
+			AddressSearchBean addressSearchBean) {
+		List<String> locations = clientSearchBean.getLocations() == null ? null
+				: new ArrayList<>(clientSearchBean.getLocations());
+		if (locations != null) {
+			Collections.sort(locations);
 		}
-		return total;
+		return new StringBuilder().append(CLIENTTYPE).append('=').append(clientType == null ? null
+				: clientType.toLowerCase()).append('&').append(SEARCHTEXT).append('=')
+				.append(clientSearchBean.getNameLike()).append('&').append(GENDER).append('=')
+				.append(clientSearchBean.getGender()).append('&').append(BIRTH_DATE).append('=')
+				.append(clientSearchBean.getBirthdateFrom()).append(',').append(clientSearchBean.getBirthdateTo())
+				.append('&').append(DEATH_DATE).append('=').append(clientSearchBean.getDeathdateFrom()).append(',')
+				.append(clientSearchBean.getDeathdateTo()).append('&').append(LAST_UPDATE).append('=')
+				.append(clientSearchBean.getLastEditFrom()).append(',').append(clientSearchBean.getLastEditTo())
+				.append('&').append(STARTDATE).append('=').append(clientSearchBean.getStartDate()).append('&')
+				.append(ENDDATE).append('=').append(clientSearchBean.getEndDate()).append('&').append(PROVIDERID)
+				.append('=').append(clientSearchBean.getProviderId()).append('&').append(LOCATION_ID).append('=')
+				.append(locations).append("&attribute=").append(clientSearchBean.getAttributeType()).append(':')
+				.append(clientSearchBean.getAttributeValue()).append("&attributes=")
+				.append(sorted(clientSearchBean.getAttributes())).append("&identifiers=")
+				.append(sorted(clientSearchBean.getIdentifiers())).append('&').append(ADDRESS_TYPE).append('=')
+				.append(addressSearchBean.getAddressType()).append('&').append(COUNTRY).append('=')
+				.append(addressSearchBean.getCountry()).append('&').append(STATE_PROVINCE).append('=')
+				.append(addressSearchBean.getStateProvince()).append('&').append(CITY_VILLAGE).append('=')
+				.append(addressSearchBean.getCityVillage()).append('&').append(COUNTY_DISTRICT).append('=')
+				.append(addressSearchBean.getCountyDistrict()).append('&').append(SUB_DISTRICT).append('=')
+				.append(addressSearchBean.getSubDistrict()).append('&').append(TOWN).append('=')
+				.append(addressSearchBean.getTown()).append('&').append(SUB_TOWN).append('=')
+				.append(addressSearchBean.getSubTown()).toString();
+	}
+
+	private Map<String, String> sorted(Map<String, String> criteria) {
+		return criteria == null ? null : new TreeMap<>(criteria);
 	}
 
 	public ResponseEntity<String> getAllANC(ClientSearchBean clientSearchBean, AddressSearchBean addressSearchBean)
@@ -395,11 +640,10 @@ public class ClientResource extends RestResource<Client> {
 
 		ClientSyncBean response = new ClientSyncBean();
 		clientSearchBean.setClientType(null);
+		CompletableFuture<Integer> total = countClientsAsync(ANC, clientSearchBean, addressSearchBean);
 		List<Client> clients = clientService.findAllANCByCriteria(clientSearchBean, addressSearchBean);
-		clientSearchBean.setClientType(ANC);
-		total = getTotal(clientSearchBean, addressSearchBean);
 		response.setClients(clients);
-		response.setTotal(total);
+		response.setTotal(BatchFetchUtils.join(total));
 		return new ResponseEntity<>(objectMapper.writeValueAsString((response)), HttpStatus.OK);
 	}
 
@@ -408,14 +652,22 @@ public class ClientResource extends RestResource<Client> {
 
 		ClientSyncBean response = new ClientSyncBean();
 		clientSearchBean.setClientType(null);
+		CompletableFuture<Integer> total = countClientsAsync(CHILD, clientSearchBean, addressSearchBean);
 		List<Client> clients = clientService.findAllChildByCriteria(clientSearchBean, addressSearchBean);
-		clientSearchBean.setClientType(CHILD);
-		total = getTotal(clientSearchBean, addressSearchBean);
 		response.setClients(clients);
-		response.setTotal(total);
+		response.setTotal(BatchFetchUtils.join(total));
 		return new ResponseEntity<>(objectMapper.writeValueAsString((response)), HttpStatus.OK);
 	}
 
+	/**
+	 * @param clientCountCache the cache of search totals, shared with the event resource which clears
+	 *            it as clients are saved with events
+	 */
+	@Autowired
+	public void setClientCountCache(@Qualifier(SearchIndexConfig.CLIENT_COUNT_CACHE) CountCache clientCountCache) {
+		this.clientCountCache = clientCountCache;
+	}
+
 	/**
 	 * This methods provides an API endpoint that searches for all clients Ids
 	 * ordered by server version ascending
@@ -438,6 +690,25 @@ public class ClientResource extends RestResource<Client> {
 		identifiers.setLastServerVersion(taskIdsPair.getRight());
 		return new ResponseEntity<>(identifiers, HttpStatus.OK);
 	}
+
+	/**
+	 * Reconciliation variant of {@link #findIds}. The request body is a Bloom filter of the client
+	 * ids the device holds and only the ids it is missing are returned, see
+	 * {@link IdReconciliation} for the formats.
+	 */
+	@RequestMapping(value = "/findIds/reconcile", method = RequestMethod.POST, consumes = {
+			MediaType.APPLICATION_OCTET_STREAM_VALUE }, produces = { MediaType.APPLICATION_OCTET_STREAM_VALUE })
+	public void reconcileIds(
+			@RequestParam(value = SERVER_VERSIOIN)  long serverVersion,
+			@RequestParam(value = IS_ARCHIVED, defaultValue = FALSE, required = false) boolean isArchived,
+			@RequestParam(value = "fromDate", required = false) String fromDate,
+			@RequestParam(value = "toDate", required = false) String toDate,
+			HttpServletRequest request, HttpServletResponse response) throws IOException {
+		Date from = Utils.getDateTimeFromString(fromDate);
+		Date to = Utils.getDateTimeFromString(toDate);
+		RestUtils.reconcileIds(request, response, serverVersion,
+				(version, limit) -> clientService.findAllIds(version, limit, isArchived, from, to));
+	}
 	
 	/**
 	 * Fetch clients ordered by serverVersion ascending order
@@ -452,6 +723,118 @@ public class ClientResource extends RestResource<Client> {
 		return clientService.findByServerVersion(serverVersion, limit);
 	}
 
+	/**
+	 * Streams every client from the server version as newline delimited JSON
+	 *
+	 * @param serverVersion the server version to export from
+	 * @param response the response the clients are written to
+	 */
+	@GetMapping(value = "/getAll", params = STREAM_PARAM, produces = { NdjsonExporter.APPLICATION_NDJSON_VALUE })
+	public void exportAll(@RequestParam(value = SERVER_VERSIOIN) long serverVersion, HttpServletResponse response)
+			throws IOException {
+		NdjsonExporter<Client> exporter = ndjsonExporterFactory.create(clientService::findByServerVersion,
+				Client::getServerVersion, Client::getBaseEntityId);
+		ndjsonExporterFactory.prepareResponse(response);
+		exporter.export(serverVersion, objectMapper::writeValueAsString, response.getOutputStream());
+	}
+
+	/**
+	 * Streams a household with its members and the latest events of the household and of each
+	 * member, replacing a household search, a member search and an event sync per member. The
+	 * household, the members and the events of each member are looked up concurrently; events are
+	 * written per member as their lookups complete. Lookups that have not started are cancelled when
+	 * the household is not found or the bundle cannot be written. The household and its members are
+	 * masked for users with the {@link Role#PII_DATA_MASK} role.
+	 *
+	 * @param baseEntityId the base entity id of the household
+	 * @param eventLimit the number of latest events returned per client, at most {@link #MAX_BUNDLE_EVENT_LIMIT}
+	 * @param response the response the bundle is written to
+	 */
+	@GetMapping(value = "/householdBundle", produces = { MediaType.APPLICATION_JSON_VALUE })
+	public void getHouseholdBundle(@RequestParam(value = BASE_ENTITY_ID) String baseEntityId,
+			@RequestParam(value = EVENT_LIMIT, required = false, defaultValue = DEFAULT_BUNDLE_EVENT_LIMIT
+					+ "") int eventLimit, HttpServletResponse response) throws IOException {
+		int limit = Math.max(1, Math.min(eventLimit, MAX_BUNDLE_EVENT_LIMIT));
+		CompletableFuture<List<Client>> members = supplyAsync(
+				() -> clientService.findMembersByRelationshipId(baseEntityId));
+		CompletableFuture<List<Event>> householdEvents = supplyAsync(() -> findLatestEvents(baseEntityId, limit));
+		Client household = clientService.getByBaseEntityId(baseEntityId);
+		if (household == null) {
+			members.cancel(false);
+			householdEvents.cancel(false);
+			response.sendError(HttpStatus.NOT_FOUND.value(), "Household " + baseEntityId + " not found");
+			return;
+		}
+
+		Map<String, CompletableFuture<List<Event>>> memberEvents = new LinkedHashMap<>();
+		List<Client> householdMembers;
+		try {
+			householdMembers = BatchFetchUtils.join(members);
+		}
+		catch (RuntimeException e) {
+			householdEvents.cancel(false);
+			throw e;
+		}
+		if (householdMembers == null) {
+			householdMembers = Collections.emptyList();
+		}
+		for (Client member : householdMembers) {
+			String memberId = member.getBaseEntityId();
+			if (memberId != null && !memberId.equals(baseEntityId) && !memberEvents.containsKey(memberId)) {
+				memberEvents.put(memberId, supplyAsync(() -> findLatestEvents(memberId, limit)));
+			}
+		}
+		if (isPIIDataMaskingUser()) {
+			MaskingUtils maskingUtils = new MaskingUtils();
+			maskingUtils.processDataMaskingForClient(household);
+			maskingUtils.processDataMasking(householdMembers);
+		}
+
+		response.setStatus(HttpStatus.OK.value());
+		response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+		boolean written = false;
+		try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream(),
+				JsonEncoding.UTF8)) {
+			generator.writeStartObject();
+			generator.writeObjectField(HOUSEHOLD_FIELD, household);
+			generator.writeObjectField(MEMBERS_FIELD, householdMembers);
+			generator.flush();
+			generator.writeObjectFieldStart(Constants.EVENTS);
+			generator.writeObjectField(baseEntityId, BatchFetchUtils.join(householdEvents));
+			for (Map.Entry<String, CompletableFuture<List<Event>>> entry : memberEvents.entrySet()) {
+				generator.writeObjectField(entry.getKey(), BatchFetchUtils.join(entry.getValue()));
+				generator.flush();
+			}
+			generator.writeEndObject();
+			generator.writeEndObject();
+			written = true;
+		}
+		finally {
+			if (!written) {
+				householdEvents.cancel(false);
+				memberEvents.values().forEach(future -> future.cancel(false));
+			}
+		}
+	}
+
+	private boolean isPIIDataMaskingUser() {
+		Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+		User user = RestUtils.currentUser(authentication);
+		return user != null && Utils.checkRoleIfRoleExists(user.getRoles(), Role.PII_DATA_MASK);
+	}
+
+	private List<Event> findLatestEvents(String baseEntityId, int limit) {
+		EventSearchBean eventSearchBean = new EventSearchBean();
+		eventSearchBean.setBaseEntityId(baseEntityId);
+		List<Event> events = eventService.findEvents(eventSearchBean, SERVER_VERSIOIN, "desc", limit);
+		return events == null ? Collections.emptyList() : events;
+	}
+
+	private <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
+		return syncTaskExecutor == null ? CompletableFuture.completedFuture(supplier.get())
+				: CompletableFuture.supplyAsync(supplier, syncTaskExecutor);
+	}
+
 	/**
 	 * Fetch clients ordered by serverVersion ascending order
 	 *
@@ -12,38 +12,60 @@ import static org.opensrp.common.AllConstants.Event.PROVIDER_ID;
 import static org.opensrp.common.AllConstants.Event.TEAM;
 import static org.opensrp.common.AllConstants.Event.TEAM_ID;
 import static org.opensrp.common.AllConstants.Form.SERVER_VERSION;
+import static org.opensrp.web.Constants.CONTINUATION_TOKEN;
 import static org.opensrp.web.Constants.RETURN_COUNT;
 import static org.opensrp.web.Constants.TOTAL_RECORDS;
 import static org.opensrp.web.rest.RestUtils.getDateRangeFilter;
 import static org.opensrp.web.rest.RestUtils.getIntegerFilter;
 import static org.opensrp.web.rest.RestUtils.getStringFilter;
-import static org.opensrp.web.rest.RestUtils.writeToZipFile;
+import static org.springframework.http.HttpStatus.ACCEPTED;
 import static org.springframework.http.HttpStatus.BAD_REQUEST;
 import static org.springframework.http.HttpStatus.CREATED;
 import static org.springframework.http.HttpStatus.INTERNAL_SERVER_ERROR;
+import static org.springframework.http.HttpStatus.NOT_FOUND;
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
 import static org.springframework.web.bind.annotation.RequestMethod.POST;
 
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 import java.util.Map;
 
+import javax.annotation.PostConstruct;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
-import org.apache.commons.io.FileUtils;
 import com.google.gson.JsonArray;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
@@ -60,20 +82,39 @@ import org.opensrp.search.EventSearchBean;
 import org.opensrp.service.ClientService;
 import org.opensrp.service.EventService;
 import org.opensrp.service.MultimediaService;
+import org.opensrp.service.multimedia.S3MultimediaFileManager;
 import org.opensrp.web.Constants;
 import org.opensrp.web.bean.EventSyncBean;
 import org.opensrp.web.bean.Identifier;
+import org.opensrp.web.bean.IngestStatus;
 import org.opensrp.web.bean.SyncParam;
 import org.opensrp.web.config.Role;
+import org.opensrp.web.config.SearchIndexConfig;
+import org.opensrp.web.config.TaskExecutorConfig;
+import org.opensrp.web.utils.AsyncIngestQueue;
+import org.opensrp.web.utils.BatchFetchUtils;
+import org.opensrp.web.utils.BulkIngestUtils;
+import org.opensrp.web.utils.ClientJoinStage;
+import org.opensrp.web.utils.ContinuationToken;
+import org.opensrp.web.utils.ContinuationTokenSigner;
+import org.opensrp.web.utils.CountCache;
+import org.opensrp.web.utils.IdReconciliation;
+import org.opensrp.web.utils.IngestWriteAheadLog;
 import org.opensrp.web.utils.MaskingUtils;
+import org.opensrp.web.utils.NdjsonExporter;
+import org.opensrp.web.utils.NdjsonExporterFactory;
+import org.opensrp.web.utils.PhoneNumberIndex;
+import org.opensrp.web.utils.SyncPageCache;
+import org.opensrp.web.utils.SyncPayloadReader;
+import org.opensrp.web.utils.SyncPhaseTimer;
 import org.opensrp.web.utils.Utils;
 import org.smartregister.domain.Client;
 import org.smartregister.domain.Event;
 import org.opensrp.domain.Multimedia;
 import org.smartregister.utils.DateTimeTypeConverter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.ByteArrayResource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -87,12 +128,19 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
 import com.google.gson.reflect.TypeToken;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
 @Controller
 @RequestMapping(value = "/rest/event")
 public class EventResource extends RestResource<Event> {
@@ -104,18 +152,76 @@ public class EventResource extends RestResource<Event> {
 	private ClientService clientService;
 
 	private MultimediaService multimediaService;
+	
+	private Executor syncTaskExecutor;
 
 	Gson gson = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ")
 	        .registerTypeAdapter(DateTime.class, new DateTimeTypeConverter()).create();
 	
 	@Value("#{opensrp['opensrp.sync.search.missing.client']}")
 	private boolean searchMissingClients;
+	
+	@Value("#{opensrp['opensrp.sync.stream.fetch.size'] ?: 500}")
+	private int syncStreamFetchSize = 500;
+	
+	private CountCache eventCountCache = new CountCache(COUNT_CACHE_MAX_ENTRIES, 0);
+	
+	private CountCache clientCountCache = new CountCache(COUNT_CACHE_MAX_ENTRIES, 0);
+	
+	private SyncPageCache syncPageCache = new SyncPageCache(0, 0);
+	
+	private ContinuationTokenSigner continuationTokenSigner = ContinuationTokenSigner.withRandomKey();
+	
+	private NdjsonExporterFactory ndjsonExporterFactory;
+	
+	@Value("#{opensrp['opensrp.sync.ingest.partitions'] ?: 4}")
+	private int ingestPartitions = 4;
+	
+	@Value("#{opensrp['opensrp.sync.ingest.batch.size'] ?: 100}")
+	private int ingestBatchSize = 100;
+	
+	@Value("#{opensrp['opensrp.sync.ingest.log.directory'] ?: ''}")
+	private String ingestLogDirectory = "";
+	
+	@Value("#{opensrp['opensrp.sync.ingest.status.retention.hours'] ?: 24}")
+	private int ingestStatusRetentionHours = 24;
+	
+	@Value("#{opensrp['opensrp.sync.ingest.max.attempts'] ?: 5}")
+	private int ingestMaxAttempts = 5;
+	
+	@Value("#{opensrp['opensrp.sync.ingest.retry.backoff.millis'] ?: 1000}")
+	private long ingestRetryBackoffMillis = 1000;
+	
+	@Value("#{opensrp['opensrp.export.event.data.pipeline.size'] ?: 2}")
+	private int exportPipelineSize = 2;
+	
+	private Executor ingestTaskExecutor;
+	
+	private Executor bulkIngestTaskExecutor;
+	
+	private MeterRegistry meterRegistry = Metrics.globalRegistry;
+	
+	private PhoneNumberIndex phoneNumberIndex;
+	
+	private AsyncIngestQueue asyncIngestQueue;
 
 	private static final String IS_DELETED = "is_deleted";
 
 	private static final String FALSE = "false";
 
-	private static final String SAMPLE_CSV_FILE = "/";
+	private static final String FLAG_PROBLEM_EVENT_TYPE = "flag_problem";
+	
+	private static final String STREAM_PARAM = Constants.STREAM + "=true";
+	
+	private static final String ASYNC_PARAM = "async=true";
+	
+	private static final int COUNT_CACHE_MAX_ENTRIES = 10000;
+	
+	private static final int EXPORT_BUFFER_SIZE = 64 * 1024;
+	
+	private static final int MULTIMEDIA_FETCH_BATCH_SIZE = 50;
+	
+	private static final String SYNC_FILTER_NONE = "none";
 
 	@Autowired
 	public EventResource(ClientService clientService, EventService eventService, MultimediaService multimediaService) {
@@ -158,19 +264,22 @@ public class EventResource extends RestResource<Event> {
 			String team = getStringFilter(TEAM, request);
 			String teamId = getStringFilter(TEAM_ID, request);
 			Integer limit = getIntegerFilter("limit", request);
-			boolean returnCount = Boolean.getBoolean(getStringFilter(RETURN_COUNT, request));
+			boolean returnCount = RestUtils.getBooleanFilter(RETURN_COUNT, request);
 			
 			if (team != null || providerId != null || locationId != null || baseEntityId != null || teamId != null) {
 				
-				EventSyncBean eventSyncBean = sync(providerId, locationId, baseEntityId, serverVersion, team, teamId, limit,
-				    returnCount);
+				SyncPageCache.Page page = getSyncPage(providerId, locationId, baseEntityId, serverVersion, team, teamId,
+				    limit, returnCount, getStringFilter(CONTINUATION_TOKEN, request));
 				
 				HttpHeaders headers = RestUtils.getJSONUTF8Headers();
 				if (returnCount) {
-					headers.add(TOTAL_RECORDS, String.valueOf(eventSyncBean.getTotalRecords()));
+					headers.add(TOTAL_RECORDS, String.valueOf(page.getTotalRecords()));
+				}
+				if (page.getContinuationToken() != null) {
+					headers.add(CONTINUATION_TOKEN, page.getContinuationToken());
 				}
 				
-				return new ResponseEntity<>(objectMapper.writeValueAsString(eventSyncBean), headers, HttpStatus.OK);
+				return new ResponseEntity<>(page.getBody(), headers, HttpStatus.OK);
 				
 			} else {
 				response.setMsg("specify atleast one filter");
@@ -178,6 +287,11 @@ public class EventResource extends RestResource<Event> {
 			}
 			
 		}
+		catch (IllegalArgumentException e) {
+			logger.warn(e.getMessage());
+			response.setMsg("Invalid sync request");
+			return new ResponseEntity<>(objectMapper.writeValueAsString(response), BAD_REQUEST);
+		}
 		catch (Exception e) {
 			response.setMsg("Error occurred");
 			logger.error("", e);
@@ -200,22 +314,30 @@ public class EventResource extends RestResource<Event> {
 			if (syncParam.getTeam() != null || syncParam.getProviderId() != null || syncParam.getLocationId() != null
 			        || syncParam.getBaseEntityId() != null || syncParam.getTeamId() != null) {
 				
-				EventSyncBean eventSyncBean = sync(syncParam.getProviderId(), syncParam.getLocationId(),
+				SyncPageCache.Page page = getSyncPage(syncParam.getProviderId(), syncParam.getLocationId(),
 				    syncParam.getBaseEntityId(), syncParam.getServerVersion(), syncParam.getTeam(), syncParam.getTeamId(),
-				    syncParam.getLimit(), syncParam.isReturnCount());
+				    syncParam.getLimit(), syncParam.isReturnCount(), syncParam.getContinuationToken());
 				
 				HttpHeaders headers = RestUtils.getJSONUTF8Headers();
 				if (syncParam.isReturnCount()) {
-					headers.add(TOTAL_RECORDS, String.valueOf(eventSyncBean.getTotalRecords()));
+					headers.add(TOTAL_RECORDS, String.valueOf(page.getTotalRecords()));
+				}
+				if (page.getContinuationToken() != null) {
+					headers.add(CONTINUATION_TOKEN, page.getContinuationToken());
 				}
 				
-				return new ResponseEntity<>(objectMapper.writeValueAsString(eventSyncBean), headers, HttpStatus.OK);
+				return new ResponseEntity<>(page.getBody(), headers, HttpStatus.OK);
 			} else {
 				response.setMsg("specify atleast one filter");
 				return new ResponseEntity<>(objectMapper.writeValueAsString(response), BAD_REQUEST);
 			}
 			
 		}
+		catch (IllegalArgumentException e) {
+			logger.warn(e.getMessage());
+			response.setMsg("Invalid sync request");
+			return new ResponseEntity<>(objectMapper.writeValueAsString(response), BAD_REQUEST);
+		}
 		catch (Exception e) {
 			response.setMsg("Error occurred");
 			logger.error("", e);
@@ -223,6 +345,201 @@ public class EventResource extends RestResource<Event> {
 		}
 	}
 	
+	/**
+	 * Streaming variant of {@link #sync(HttpServletRequest)}. Events and clients are written to the
+	 * response as they are fetched so that the heap used per request does not grow with the limit.
+	 * The count and the continuation token are written as the last fields of the response, as they
+	 * are only known once the events have been written.
+	 *
+	 * @param request the request with the sync filters
+	 * @param response the response the events and clients are written to
+	 */
+	@RequestMapping(value = "/sync", method = RequestMethod.GET, params = STREAM_PARAM, produces = {
+	        MediaType.APPLICATION_JSON_VALUE })
+	protected void streamSync(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String providerId = getStringFilter(PROVIDER_ID, request);
+		String locationId = getStringFilter(LOCATION_ID, request);
+		String baseEntityId = getStringFilter(BASE_ENTITY_ID, request);
+		String serverVersion = getStringFilter(BaseEntity.SERVER_VERSIOIN, request);
+		String team = getStringFilter(TEAM, request);
+		String teamId = getStringFilter(TEAM_ID, request);
+		Integer limit = getIntegerFilter("limit", request);
+		boolean returnCount = RestUtils.getBooleanFilter(RETURN_COUNT, request);
+		
+		streamSync(providerId, locationId, baseEntityId, serverVersion, team, teamId, limit, returnCount,
+		    getStringFilter(CONTINUATION_TOKEN, request), response);
+	}
+	
+	/**
+	 * Streaming variant of {@link #syncByPost(SyncParam)}
+	 *
+	 * @param syncParam Parameters passed for sync
+	 * @param response the response the events and clients are written to
+	 */
+	@RequestMapping(value = "/sync", method = POST, params = STREAM_PARAM, produces = {
+	        MediaType.APPLICATION_JSON_VALUE })
+	protected void streamSyncByPost(@RequestBody SyncParam syncParam, HttpServletResponse response) throws IOException {
+		streamSync(syncParam.getProviderId(), syncParam.getLocationId(), syncParam.getBaseEntityId(),
+		    syncParam.getServerVersion(), syncParam.getTeam(), syncParam.getTeamId(), syncParam.getLimit(),
+		    syncParam.isReturnCount(), syncParam.getContinuationToken(), response);
+	}
+	
+	private void streamSync(String providerId, String locationId, String baseEntityId, String serverVersion, String team,
+	                        String teamId, Integer limit, boolean returnCount, String continuationToken,
+	                        HttpServletResponse response) throws IOException {
+		if (team == null && providerId == null && locationId == null && baseEntityId == null && teamId == null) {
+			writeStreamSyncError("specify atleast one filter", response);
+			return;
+		}
+		
+		EventSearchBean eventSearchBean = createEventSearchBean(providerId, locationId, baseEntityId, serverVersion, team,
+		    teamId);
+		String filterHash = ContinuationToken.hashFilters(team, teamId, providerId, locationId, baseEntityId);
+		ContinuationToken resumeToken = null;
+		if (StringUtils.isNotBlank(continuationToken)) {
+			try {
+				resumeToken = ContinuationToken.decode(continuationToken, filterHash, continuationTokenSigner);
+			}
+			catch (IllegalArgumentException e) {
+				logger.warn(e.getMessage());
+				writeStreamSyncError("Invalid sync request", response);
+				return;
+			}
+			eventSearchBean.setServerVersion(resumeToken.getServerVersion());
+		}
+		int pageSize = limit == null || limit == 0 ? 25 : limit;
+		CompletableFuture<Long> totalRecordsFuture = null;
+		if (returnCount) {
+			// the events are fetched with a search bean of their own, the count reads this one concurrently
+			EventSearchBean countSearchBean = createEventSearchBean(providerId, locationId, baseEntityId, serverVersion,
+			    team, teamId);
+			countSearchBean.setServerVersion(eventSearchBean.getServerVersion());
+			totalRecordsFuture = countEventsAsync(countSearchBean, createSyncPhaseTimer(countSearchBean));
+		}
+		response.setStatus(HttpStatus.OK.value());
+		response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+		
+		try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream(),
+		    JsonEncoding.UTF8)) {
+			writeEventsAndClients(eventSearchBean, pageSize, totalRecordsFuture, resumeToken, filterHash, generator);
+		}
+	}
+	
+	private void writeStreamSyncError(String message, HttpServletResponse response) throws IOException {
+		EventSyncBean eventSyncBean = new EventSyncBean();
+		eventSyncBean.setMsg(message);
+		response.setStatus(BAD_REQUEST.value());
+		response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+		objectMapper.writeValue(response.getOutputStream(), eventSyncBean);
+	}
+	
+	/**
+	 * Writes the events matching the search bean followed by their clients. Events are fetched in
+	 * chunks of {@link #syncStreamFetchSize}; only the base entity ids are retained across chunks. The
+	 * count, when requested, is joined after the clients are written and is followed by the token
+	 * to resume after the last event written.
+	 */
+	private void writeEventsAndClients(EventSearchBean eventSearchBean, int limit,
+	                                   CompletableFuture<Long> totalRecordsFuture, ContinuationToken resumeToken,
+	                                   String filterHash, JsonGenerator generator) throws IOException {
+		Set<String> clientIds = new LinkedHashSet<>();
+		SyncPhaseTimer timer = createSyncPhaseTimer(eventSearchBean);
+		ContinuationToken[] nextToken = { resumeToken };
+		
+		generator.writeStartObject();
+		generator.writeArrayFieldStart(Constants.EVENTS);
+		int noOfEvents = fetchEventsInChunks(eventSearchBean, limit, resumeToken, timer, events -> {
+			nextToken[0] = ContinuationToken.after(events, Event::getServerVersion, Event::getId, nextToken[0],
+			    filterHash);
+			for (Event event : events) {
+				generator.writeObject(event);
+				if (StringUtils.isNotBlank(event.getBaseEntityId())) {
+					clientIds.add(event.getBaseEntityId());
+				}
+			}
+			generator.flush();
+		});
+		generator.writeEndArray();
+		
+		generator.writeArrayFieldStart(Constants.CLIENTS);
+		boolean maskData = isPIIDataMaskingUser();
+		ClientJoinStage clientJoinStage = createClientJoinStage();
+		List<String> clientIdList = new ArrayList<>(clientIds);
+		for (int i = 0; i < clientIdList.size(); i = i + syncStreamFetchSize) {
+			int end = Math.min(i + syncStreamFetchSize, clientIdList.size());
+			List<Client> clients = clientJoinStage.findClients(clientIdList.subList(i, end), timer);
+			if (maskData) {
+				timer.time(SyncPhaseTimer.MASKING, () -> {
+					new MaskingUtils().processDataMasking(clients);
+					return null;
+				});
+			}
+			for (Client client : clients) {
+				generator.writeObject(client);
+			}
+			generator.flush();
+		}
+		generator.writeEndArray();
+		
+		generator.writeNumberField(Constants.NO_OF_EVENTS, noOfEvents);
+		if (totalRecordsFuture != null) {
+			Long totalRecords = ContinuationToken.remaining(BatchFetchUtils.join(totalRecordsFuture), resumeToken);
+			generator.writeNumberField(TOTAL_RECORDS, totalRecords == null ? 0 : totalRecords);
+		}
+		if (nextToken[0] != null) {
+			generator.writeStringField(CONTINUATION_TOKEN, nextToken[0].encode(continuationTokenSigner));
+		}
+		generator.writeEndObject();
+	}
+	
+	/**
+	 * Pages through the events matching the search bean in serverVersion order, passing each chunk
+	 * to the handler. Each chunk resumes at the last handled serverVersion (inclusive) and skips the
+	 * events already handled, so events sharing a serverVersion across a chunk boundary are not
+	 * lost. The events returned with the resume token, if any, are skipped the same way.
+	 *
+	 * @return the number of events handled
+	 */
+	private int fetchEventsInChunks(EventSearchBean eventSearchBean, int limit, ContinuationToken resumeToken,
+	                                SyncPhaseTimer timer, EventChunkHandler handler) throws IOException {
+		Set<String> eventIdsAtLastServerVersion = resumeToken == null ? new HashSet<>()
+		        : new HashSet<>(resumeToken.getServedIds());
+		Long lastServerVersion = eventSearchBean.getServerVersion();
+		int noOfEvents = 0;
+		boolean exhausted = false;
+		while (!exhausted && noOfEvents < limit) {
+			int fetchSize = Math.min(syncStreamFetchSize, limit - noOfEvents) + eventIdsAtLastServerVersion.size();
+			eventSearchBean.setServerVersion(lastServerVersion);
+			List<Event> events = timer.time(SyncPhaseTimer.EVENTS,
+			    () -> eventService.findEvents(eventSearchBean, BaseEntity.SERVER_VERSIOIN, "asc", fetchSize));
+			exhausted = events.size() < fetchSize;
+			List<Event> chunk = new ArrayList<>(events.size());
+			for (Event event : events) {
+				Long serverVersion = event.getServerVersion();
+				boolean atLastServerVersion = serverVersion != null && serverVersion.equals(lastServerVersion);
+				if ((atLastServerVersion && eventIdsAtLastServerVersion.contains(event.getId()))
+				        || noOfEvents + chunk.size() >= limit) {
+					continue;
+				}
+				if (!atLastServerVersion) {
+					eventIdsAtLastServerVersion.clear();
+					lastServerVersion = serverVersion;
+				}
+				eventIdsAtLastServerVersion.add(event.getId());
+				chunk.add(event);
+			}
+			noOfEvents += chunk.size();
+			handler.handle(chunk);
+		}
+		return noOfEvents;
+	}
+	
+	private boolean isPIIDataMaskingUser() {
+		Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+		User user = RestUtils.currentUser(authentication);
+		return user != null && Utils.checkRoleIfRoleExists(user.getRoles(), Role.PII_DATA_MASK);
+	}
+	
 	/**
 	 * Fetch clients and associated events allongside family registration events for the family that
 	 * they attached to for the list of base entity ids passed
@@ -243,24 +560,34 @@ public class EventResource extends RestResource<Event> {
 			boolean withFamilyEvents = object.optBoolean(Constants.WITH_FAMILY_EVENTS, false);
 			List<String> baseEntityIdsList = gson.fromJson(object.getJSONArray(Constants.BASE_ENTITY_IDS).toString(),
 			    new TypeToken<ArrayList<String>>() {}.getType());
+			
+			Map<String, EventSyncBean> eventSyncBeans = syncByBaseEntityIds(baseEntityIdsList);
+			Map<String, EventSyncBean> familyEventSyncBeans = new HashMap<>();
+			if (withFamilyEvents) {
+				//Obtaining family registration events for the clients' families in a second round.
+				Set<String> familyIds = new LinkedHashSet<>();
+				for (EventSyncBean eventSyncBean : eventSyncBeans.values()) {
+					familyIds.addAll(getFamilyRelationships(eventSyncBean.getClients()));
+				}
+				familyEventSyncBeans = syncByBaseEntityIds(new ArrayList<>(familyIds));
+			}
+			
+			Set<String> addedClientIds = new HashSet<>();
 			for (String baseEntityId : baseEntityIdsList) {
-				EventSyncBean eventSyncBean = sync(null, null, baseEntityId, "0", null, null, null, false);
-				combinedEvents.addAll(eventSyncBean.getEvents());
-				combinedClients.addAll(eventSyncBean.getClients());
-				if (eventSyncBean != null && eventSyncBean.getClients() != null && !eventSyncBean.getClients().isEmpty()) {
-					List<Client> clients = eventSyncBean.getClients();
-					//Obtaining family registration events for client's family if withFamilyEvents is true.
-					if (clients.size() == 1 && clients.get(0).getRelationships().containsKey(Constants.FAMILY)
-					        && withFamilyEvents) {
-						List<String> clientRelationships = clients.get(0).getRelationships().get(Constants.FAMILY);
-						for (String familyRelationship : clientRelationships) {
-							EventSyncBean familyEvents = sync(null, null, familyRelationship, "0", null, null, null, false);
-							combinedEvents.addAll(familyEvents.getEvents());
-							combinedClients.addAll(familyEvents.getClients());
-						}
+				EventSyncBean eventSyncBean = eventSyncBeans.get(baseEntityId);
+				addEventsAndClients(eventSyncBean, combinedEvents, combinedClients, addedClientIds);
+				if (withFamilyEvents) {
+					for (String familyRelationship : getFamilyRelationships(eventSyncBean.getClients())) {
+						addEventsAndClients(familyEventSyncBeans.get(familyRelationship), combinedEvents, combinedClients,
+						    addedClientIds);
 					}
 				}
 			}
+			
+			if (isPIIDataMaskingUser()) {
+				new MaskingUtils().processDataMasking(combinedClients);
+			}
+			
 			combinedEventClients.setEvents(combinedEvents);
 			combinedEventClients.setClients(combinedClients);
 			combinedEventClients.setNoOfEvents(combinedEventClients.getEvents().size());
@@ -277,8 +604,184 @@ public class EventResource extends RestResource<Event> {
 		}
 	}
 	
+	/**
+	 * Fetches the events and clients for each of the base entity ids using IN-list queries over
+	 * batches of ids instead of a sync per id. Like a per id sync from serverVersion 0, each id gets at
+	 * most {@link Constants#DEFAULT_LIMIT} events and the clients are only returned for ids that have
+	 * events. Clients are not masked.
+	 *
+	 * @param baseEntityIds the base entity ids
+	 * @return a map of base entity id to its events and clients
+	 */
+	private Map<String, EventSyncBean> syncByBaseEntityIds(List<String> baseEntityIds) {
+		List<String> uniqueIds = new ArrayList<>(new LinkedHashSet<>(baseEntityIds));
+		SyncPhaseTimer timer = new SyncPhaseTimer(meterRegistry, BASE_ENTITY_ID);
+		List<Event> events = BatchFetchUtils.fetchInBatches(uniqueIds, CLIENTS_FETCH_BATCH_SIZE, syncTaskExecutor,
+		    ids -> findEventsByBaseEntityIds(ids, timer));
+		
+		Map<String, List<Event>> eventsByBaseEntityId = new HashMap<>();
+		for (Event event : events) {
+			List<Event> entityEvents = eventsByBaseEntityId.computeIfAbsent(event.getBaseEntityId(),
+			    k -> new ArrayList<>());
+			if (entityEvents.size() < Constants.DEFAULT_LIMIT) {
+				entityEvents.add(event);
+			}
+		}
+		
+		List<String> clientIds = new ArrayList<>();
+		for (String baseEntityId : uniqueIds) {
+			if (eventsByBaseEntityId.containsKey(baseEntityId)) {
+				clientIds.add(baseEntityId);
+			}
+		}
+		List<Client> clients = createClientJoinStage().findClients(clientIds, timer);
+		Map<String, List<Client>> clientsByBaseEntityId = new HashMap<>();
+		for (Client client : clients) {
+			clientsByBaseEntityId.computeIfAbsent(client.getBaseEntityId(), k -> new ArrayList<>()).add(client);
+		}
+		
+		Map<String, EventSyncBean> eventSyncBeans = new HashMap<>();
+		for (String baseEntityId : uniqueIds) {
+			EventSyncBean eventSyncBean = new EventSyncBean();
+			eventSyncBean.setEvents(eventsByBaseEntityId.getOrDefault(baseEntityId, new ArrayList<>()));
+			eventSyncBean.setClients(clientsByBaseEntityId.getOrDefault(baseEntityId, new ArrayList<>()));
+			eventSyncBean.setNoOfEvents(eventSyncBean.getEvents().size());
+			eventSyncBeans.put(baseEntityId, eventSyncBean);
+		}
+		return eventSyncBeans;
+	}
+	
+	/**
+	 * Reads at most {@link Constants#DEFAULT_LIMIT} events per id. The ids are read together up to
+	 * that many events per id; when the read stops at the limit, the ids that got fewer events than
+	 * their share may have more and are read again one by one.
+	 */
+	private List<Event> findEventsByBaseEntityIds(List<String> baseEntityIds, SyncPhaseTimer timer) {
+		int limit = baseEntityIds.size() * Constants.DEFAULT_LIMIT;
+		List<Event> events = findEventsByBaseEntityIds(baseEntityIds, limit, timer);
+		if (events.size() < limit) {
+			return events;
+		}
+		
+		Map<String, Integer> eventCounts = new HashMap<>();
+		for (Event event : events) {
+			eventCounts.merge(event.getBaseEntityId(), 1, Integer::sum);
+		}
+		List<Event> cappedEvents = new ArrayList<>(events.size());
+		for (Event event : events) {
+			if (eventCounts.get(event.getBaseEntityId()) >= Constants.DEFAULT_LIMIT) {
+				cappedEvents.add(event);
+			}
+		}
+		for (String baseEntityId : baseEntityIds) {
+			if (eventCounts.getOrDefault(baseEntityId, 0) < Constants.DEFAULT_LIMIT) {
+				cappedEvents.addAll(findEventsByBaseEntityIds(Collections.singletonList(baseEntityId),
+				    Constants.DEFAULT_LIMIT, timer));
+			}
+		}
+		return cappedEvents;
+	}
+	
+	private List<Event> findEventsByBaseEntityIds(List<String> baseEntityIds, int limit, SyncPhaseTimer timer) {
+		EventSearchBean eventSearchBean = createEventSearchBean(null, null, String.join(",", baseEntityIds), "0", null,
+		    null);
+		List<Event> events = new ArrayList<>();
+		try {
+			fetchEventsInChunks(eventSearchBean, limit, null, timer, events::addAll);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return events;
+	}
+	
+	private List<String> getFamilyRelationships(List<Client> clients) {
+		if (clients != null && clients.size() == 1 && clients.get(0).getRelationships() != null
+		        && clients.get(0).getRelationships().containsKey(Constants.FAMILY)) {
+			return clients.get(0).getRelationships().get(Constants.FAMILY);
+		}
+		return new ArrayList<>();
+	}
+	
+	private void addEventsAndClients(EventSyncBean eventSyncBean, List<Event> events, List<Client> clients,
+	                                 Set<String> addedClientIds) {
+		if (eventSyncBean == null) {
+			return;
+		}
+		events.addAll(eventSyncBean.getEvents());
+		for (Client client : eventSyncBean.getClients()) {
+			if (addedClientIds.add(client.getBaseEntityId())) {
+				clients.add(client);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the serialized sync page. Team and location pages are shared through the
+	 * {@link SyncPageCache}; masked and unmasked pages are cached under separate keys. When a
+	 * continuation token is passed the page resumes after the last event returned with it.
+	 *
+	 * @throws IllegalArgumentException if the continuation token is not valid for the filters
+	 */
+	private SyncPageCache.Page getSyncPage(String providerId, String locationId, String baseEntityId,
+	        String serverVersion, String team, String teamId, Integer limit, boolean returnCount,
+	        String continuationToken) {
+		EventSearchBean eventSearchBean = createEventSearchBean(providerId, locationId, baseEntityId, serverVersion, team,
+		    teamId);
+		String filterHash = ContinuationToken.hashFilters(team, teamId, providerId, locationId, baseEntityId);
+		ContinuationToken resumeToken = null;
+		if (StringUtils.isNotBlank(continuationToken)) {
+			resumeToken = ContinuationToken.decode(continuationToken, filterHash, continuationTokenSigner);
+			eventSearchBean.setServerVersion(resumeToken.getServerVersion());
+		}
+		ContinuationToken previousToken = resumeToken;
+		int pageLimit = limit == null || limit == 0 ? 25 : limit;
+		Supplier<SyncPageCache.Page> loader = () -> {
+			SyncPhaseTimer timer = createSyncPhaseTimer(eventSearchBean);
+			EventSyncBean eventSyncBean = getEventsAndClients(eventSearchBean, pageLimit, returnCount, previousToken,
+			    timer);
+			Set<String> baseEntityIds = new HashSet<>();
+			for (Client client : eventSyncBean.getClients()) {
+				baseEntityIds.add(client.getBaseEntityId());
+			}
+			ContinuationToken nextToken = ContinuationToken.after(eventSyncBean.getEvents(), Event::getServerVersion,
+			    Event::getId, previousToken, filterHash);
+			String body = timer.time(SyncPhaseTimer.SERIALIZATION, () -> {
+				try {
+					return objectMapper.writeValueAsString(eventSyncBean);
+				}
+				catch (JsonProcessingException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+			Map<String, String> eventFilters = new HashMap<>();
+			eventFilters.put(TEAM, eventSearchBean.getTeam());
+			eventFilters.put(TEAM_ID, eventSearchBean.getTeamId());
+			eventFilters.put(PROVIDER_ID, eventSearchBean.getProviderId());
+			eventFilters.put(LOCATION_ID, eventSearchBean.getLocationId());
+			return new SyncPageCache.Page(body, eventSyncBean.getTotalRecords(),
+			        nextToken == null ? null : nextToken.encode(continuationTokenSigner), baseEntityIds, eventFilters);
+		};
+		
+		if (baseEntityId != null || (team == null && teamId == null && locationId == null)) {
+			return loader.get();
+		}
+		String cacheKey = getCountCacheKey(eventSearchBean, eventSearchBean.getServerVersion()) + "&limit=" + pageLimit
+		        + "&" + RETURN_COUNT + "=" + returnCount + "&masked=" + isPIIDataMaskingUser() + "&"
+		        + CONTINUATION_TOKEN + "=" + StringUtils.defaultString(continuationToken);
+		return syncPageCache.get(cacheKey, loader);
+	}
+	
 	public EventSyncBean sync(String providerId, String locationId, String baseEntityId, String serverVersion, String team,
 	                          String teamId, Integer limit, boolean returnCount) {
+		EventSearchBean eventSearchBean = createEventSearchBean(providerId, locationId, baseEntityId, serverVersion, team,
+		    teamId);
+		return getEventsAndClients(eventSearchBean, limit == null || limit == 0 ? 25 : limit, returnCount);
+		
+	}
+	
+	private EventSearchBean createEventSearchBean(String providerId, String locationId, String baseEntityId,
+	                                              String serverVersion, String team, String teamId) {
 		Long lastSyncedServerVersion = null;
 		if (serverVersion != null) {
 			lastSyncedServerVersion = Long.parseLong(serverVersion) + 1;
@@ -291,50 +794,52 @@ public class EventResource extends RestResource<Event> {
 		eventSearchBean.setLocationId(locationId);
 		eventSearchBean.setBaseEntityId(baseEntityId);
 		eventSearchBean.setServerVersion(lastSyncedServerVersion);
-		
-		return getEventsAndClients(eventSearchBean, limit == null || limit == 0 ? 25 : limit, returnCount);
-		
+		return eventSearchBean;
 	}
 	
 	private EventSyncBean getEventsAndClients(EventSearchBean eventSearchBean, Integer limit, boolean returnCount) {
-		List<Event> events = new ArrayList<Event>();
-		List<String> clientIds = new ArrayList<String>();
-		List<Client> clients = new ArrayList<Client>();
-		long startTime = System.currentTimeMillis();
-		events = eventService.findEvents(eventSearchBean, BaseEntity.SERVER_VERSIOIN, "asc", limit == null ? 25 : limit);
+		return getEventsAndClients(eventSearchBean, limit, returnCount, null, createSyncPhaseTimer(eventSearchBean));
+	}
+	
+	private EventSyncBean getEventsAndClients(EventSearchBean eventSearchBean, Integer limit, boolean returnCount,
+	        ContinuationToken continuationToken, SyncPhaseTimer timer) {
+		long countGeneration = eventCountCache.getGeneration();
+		CompletableFuture<Long> totalRecordsFuture = returnCount ? countEventsAsync(eventSearchBean, timer) : null;
+		int pageLimit = limit == null ? 25 : limit;
+		// fetch enough to fill the page after skipping the events already returned with the token
+		int fetchLimit = continuationToken == null ? pageLimit : pageLimit + continuationToken.getServedCount();
+		List<Event> events = timer.time(SyncPhaseTimer.EVENTS, () -> eventService.findEvents(eventSearchBean,
+		    BaseEntity.SERVER_VERSIOIN, "asc", fetchLimit));
+		if (continuationToken != null) {
+			events = continuationToken.skipServed(events, Event::getServerVersion, Event::getId);
+			if (events.size() > pageLimit) {
+				events = new ArrayList<>(events.subList(0, pageLimit));
+			}
+		}
+		List<Client> clients = new ArrayList<>();
 		Long totalRecords = 0l;
-		logger.info("fetching events took: " + (System.currentTimeMillis() - startTime));
 		if (!events.isEmpty()) {
-			for (Event event : events) {
-				if (org.apache.commons.lang.StringUtils.isNotBlank(event.getBaseEntityId())
-				        && !clientIds.contains(event.getBaseEntityId())) {
-					clientIds.add(event.getBaseEntityId());
-				}
-			}
-			for (int i = 0; i < clientIds.size(); i = i + CLIENTS_FETCH_BATCH_SIZE) {
-				int end = Math.min(i + CLIENTS_FETCH_BATCH_SIZE, clientIds.size());
-				clients.addAll(clientService.findByFieldValue(BASE_ENTITY_ID, clientIds.subList(i, end)));
-			}
-			logger.info("fetching clients took: " + (System.currentTimeMillis() - startTime));
-			
-			searchMissingClients(clientIds, clients, startTime);
+			clients = createClientJoinStage().join(events, timer);
 			
-			if (returnCount) {
-				totalRecords = eventService.countEvents(eventSearchBean);
+			if (totalRecordsFuture != null) {
+				totalRecords = ContinuationToken.remaining(BatchFetchUtils.join(totalRecordsFuture), continuationToken);
+				cacheRemainingCount(eventSearchBean, events, pageLimit, totalRecords, countGeneration);
 			}
 			
+		} else if (totalRecordsFuture != null) {
+			// nothing is left to sync from this serverVersion, skip the count if it has not started
+			totalRecordsFuture.cancel(false);
 		}
 		
 		//PII Data masking 
 		//TO DO research on ways to improve this
-		
-		Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-		User user = RestUtils.currentUser(authentication);
-		
-		if (Utils.checkRoleIfRoleExists(user.getRoles(), Role.PII_DATA_MASK)) {
-			
-			MaskingUtils maskingUtil = new MaskingUtils();
-			maskingUtil.processDataMasking(clients);
+		if (isPIIDataMaskingUser()) {
+			List<Client> clientsToMask = clients;
+			timer.time(SyncPhaseTimer.MASKING, () -> {
+				MaskingUtils maskingUtil = new MaskingUtils();
+				maskingUtil.processDataMasking(clientsToMask);
+				return null;
+			});
 		}
 		
 		EventSyncBean eventSyncBean = new EventSyncBean();
@@ -345,25 +850,92 @@ public class EventResource extends RestResource<Event> {
 		return eventSyncBean;
 	}
 	
-	private void searchMissingClients(List<String> clientIds, List<Client> clients, long startTime) {
-		if (searchMissingClients) {
-			
-			List<String> foundClientIds = new ArrayList<>();
-			for (Client client : clients) {
-				foundClientIds.add(client.getBaseEntityId());
-			}
-			
-			boolean removed = clientIds.removeAll(foundClientIds);
-			if (removed) {
-				for (String clientId : clientIds) {
-					Client client = clientService.getByBaseEntityId(clientId);
-					if (client != null) {
-						clients.add(client);
-					}
-				}
-			}
-			logger.info("fetching missing clients took: " + (System.currentTimeMillis() - startTime));
+	/**
+	 * Counts the events matching the search bean on the sync executor, so that the count runs
+	 * concurrently with the page fetch. A cached count for the same filters is used when there is
+	 * one. The search bean must not be modified until the count completes. The count is not cached if
+	 * an event is saved while it runs.
+	 */
+	private CompletableFuture<Long> countEventsAsync(EventSearchBean eventSearchBean, SyncPhaseTimer timer) {
+		String key = getCountCacheKey(eventSearchBean, eventSearchBean.getServerVersion());
+		Long cachedCount = eventCountCache.get(key);
+		if (cachedCount != null) {
+			return CompletableFuture.completedFuture(cachedCount);
+		}
+		
+		long generation = eventCountCache.getGeneration();
+		Supplier<Long> count = () -> timer.time(SyncPhaseTimer.COUNT, () -> {
+			Long countOfEvents = eventService.countEvents(eventSearchBean);
+			eventCountCache.put(key, countOfEvents, generation);
+			return countOfEvents;
+		});
+		return syncTaskExecutor == null ? CompletableFuture.completedFuture(count.get())
+		        : CompletableFuture.supplyAsync(count, syncTaskExecutor);
+	}
+	
+	/**
+	 * Caches the number of events left after this page, keyed the way the next page of the same
+	 * sync session looks it up, so that the next page does not need to count again.
+	 * <p>
+	 * A page resumed with the continuation token counts from the last serverVersion of this page,
+	 * inclusive. Every event before that serverVersion was returned with this page or an earlier
+	 * one, so that count is exact. A page resumed with the last serverVersion counts from the one
+	 * after it, which excludes the events at the last serverVersion that did not fit in this page.
+	 * That count is only known when the page was not full, in which case nothing is left.
+	 *
+	 * @param pageLimit the number of events requested for this page
+	 * @param totalRecords the number of events left to return from the start of this page
+	 * @param generation the count cache generation read before the page and the count were fetched
+	 */
+	private void cacheRemainingCount(EventSearchBean eventSearchBean, List<Event> events, int pageLimit,
+	        Long totalRecords, long generation) {
+		Long lastServerVersion = events.get(events.size() - 1).getServerVersion();
+		if (!eventCountCache.isEnabled() || totalRecords == null || lastServerVersion == null) {
+			return;
 		}
+		Long pageServerVersion = eventSearchBean.getServerVersion();
+		if (pageServerVersion == null || lastServerVersion > pageServerVersion) {
+			long beforeLastServerVersion = events.stream().filter(event -> event.getServerVersion() != null
+			        && event.getServerVersion() < lastServerVersion).count();
+			eventCountCache.put(getCountCacheKey(eventSearchBean, lastServerVersion),
+			    Math.max(0, totalRecords - beforeLastServerVersion), generation);
+		}
+		if (events.size() < pageLimit) {
+			eventCountCache.put(getCountCacheKey(eventSearchBean, lastServerVersion + 1), 0l, generation);
+		}
+	}
+	
+	private String getCountCacheKey(EventSearchBean eventSearchBean, Long serverVersion) {
+		return new StringBuilder().append(TEAM).append('=').append(eventSearchBean.getTeam()).append('&').append(TEAM_ID)
+		        .append('=').append(eventSearchBean.getTeamId()).append('&').append(PROVIDER_ID).append('=')
+		        .append(eventSearchBean.getProviderId()).append('&').append(LOCATION_ID).append('=')
+		        .append(eventSearchBean.getLocationId()).append('&').append(BASE_ENTITY_ID).append('=')
+		        .append(eventSearchBean.getBaseEntityId()).append('&').append(EVENT_TYPE).append('=')
+		        .append(eventSearchBean.getEventType()).append('&').append(BaseEntity.SERVER_VERSIOIN).append('=')
+		        .append(serverVersion).toString();
+	}
+	
+	/**
+	 * Creates the phase timer of a sync, tagged with the most selective filter of the search
+	 */
+	private SyncPhaseTimer createSyncPhaseTimer(EventSearchBean eventSearchBean) {
+		String filter;
+		if (eventSearchBean.getBaseEntityId() != null) {
+			filter = BASE_ENTITY_ID;
+		} else if (eventSearchBean.getTeam() != null || eventSearchBean.getTeamId() != null) {
+			filter = TEAM;
+		} else if (eventSearchBean.getLocationId() != null) {
+			filter = LOCATION_ID;
+		} else if (eventSearchBean.getProviderId() != null) {
+			filter = PROVIDER_ID;
+		} else {
+			filter = SYNC_FILTER_NONE;
+		}
+		return new SyncPhaseTimer(meterRegistry, filter);
+	}
+	
+	private ClientJoinStage createClientJoinStage() {
+		return new ClientJoinStage(clientService, syncTaskExecutor, searchMissingClients);
 	}
 	
 	/**
@@ -395,6 +967,35 @@ public class EventResource extends RestResource<Event> {
 		}
 	}
 	
+	/**
+	 * Streams every event after the server version as newline delimited JSON, in serverVersion
+	 * order, instead of a page per call. The clients of each chunk of events are written on the
+	 * lines before the events, as getAll returns them with each page; the events are the lines
+	 * whose type is Event.
+	 *
+	 * @param serverVersion the server version to export after
+	 * @param eventType optional event type to filter by
+	 * @param response the response the events are written to
+	 */
+	@RequestMapping(value = "/getAll", method = RequestMethod.GET, params = STREAM_PARAM, produces = {
+	        NdjsonExporter.APPLICATION_NDJSON_VALUE })
+	protected void exportAll(@RequestParam long serverVersion, @RequestParam(required = false) String eventType,
+	                         HttpServletResponse response) throws IOException {
+		ClientJoinStage clientJoinStage = createClientJoinStage();
+		NdjsonExporter<Event> exporter = ndjsonExporterFactory.create((version, limit) -> {
+			EventSearchBean eventSearchBean = new EventSearchBean();
+			eventSearchBean.setServerVersion(version);
+			eventSearchBean.setEventType(eventType);
+			return eventService.findEvents(eventSearchBean, BaseEntity.SERVER_VERSIOIN, "asc", limit);
+		}, Event::getServerVersion, Event::getId).withRelated(
+		    events -> clientJoinStage.join(events, new SyncPhaseTimer(meterRegistry, SYNC_FILTER_NONE)),
+		    objectMapper::writeValueAsString);
+		
+		ndjsonExporterFactory.prepareResponse(response);
+		exporter.export(serverVersion > 0 ? serverVersion + 1 : serverVersion, objectMapper::writeValueAsString,
+		    response.getOutputStream());
+	}
+	
 	/**
 	 * Fetch count of events
 	 *
@@ -410,7 +1011,8 @@ public class EventResource extends RestResource<Event> {
 			eventSearchBean.setServerVersion(serverVersion > 0 ? serverVersion + 1 : serverVersion);
 			eventSearchBean.setEventType(eventType);
 			
-			Long countOfEvents = eventService.countEvents(eventSearchBean);
+			Long countOfEvents = BatchFetchUtils
+			        .join(countEventsAsync(eventSearchBean, createSyncPhaseTimer(eventSearchBean)));
 			ModelMap modelMap = new ModelMap();
 			modelMap.put("count", countOfEvents != null ? countOfEvents : 0);
 			
@@ -425,57 +1027,65 @@ public class EventResource extends RestResource<Event> {
 		}
 	}
 	
+	/**
+	 * Saves the clients and events uploaded by a device. The payload is parsed in a single pass; the
+	 * records are converted as they are read and ingested in batches of {@link #ingestBatchSize}. If
+	 * the payload turns out to be malformed part way through, the records read before the error stay
+	 * saved and the response lists the ids of the records that were processed and that failed.
+	 */
 	@RequestMapping(headers = { "Accept=application/json" }, method = POST, value = "/add")
-	public ResponseEntity<String> save(@RequestBody String data, Authentication authentication)
+	public ResponseEntity<String> save(HttpServletRequest request, Authentication authentication)
 			throws JsonProcessingException {
 
 		List<String> failedClientsIds = new ArrayList<>();
 		List<String> failedEventIds = new ArrayList<>();
+		List<String> processedClientIds = new ArrayList<>();
+		List<String> processedEventIds = new ArrayList<>();
 		Map<String, Object> response = new HashMap<String, Object>();
-		try {
-			JSONObject syncData = new JSONObject(data);
-			if (!syncData.has("clients") && !syncData.has("events")) {
-				return new ResponseEntity<>(BAD_REQUEST);
-			}
-			
-			if (syncData.has("clients")) {
-				ArrayList<Client> clients = gson.fromJson(Utils.getStringFromJSON(syncData, "clients"),
-				    new TypeToken<ArrayList<Client>>() {}.getType());
+		try (Reader reader = new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8)) {
+			User currentUser = RestUtils.currentUser(authentication);
+			boolean hasSyncData = new SyncPayloadReader(gson, ingestBatchSize).read(reader, clients -> {
+				List<Client> failedClients = BulkIngestUtils.processInPartitions(clients, Client::getBaseEntityId,
+				    ingestPartitions, bulkIngestTaskExecutor, this::addOrUpdateClient);
+				for (Client client : failedClients) {
+					failedClientsIds.add(client.getId());
+				}
+				Set<Client> failed = Collections.newSetFromMap(new IdentityHashMap<>());
+				failed.addAll(failedClients);
 				for (Client client : clients) {
-					try {
-						clientService.addorUpdate(client);
-					}
-					catch (Exception e) {
-						logger.error(
-						    "Client" + client.getBaseEntityId() == null ? "" : client.getBaseEntityId() + " failed to sync",
-						    e);
-						failedClientsIds.add(client.getId());
+					if (!failed.contains(client)) {
+						processedClientIds.add(client.getId());
 					}
 				}
-				
-			}
-			if (syncData.has("events")) {
-				ArrayList<Event> events = gson.fromJson(Utils.getStringFromJSON(syncData, "events"),
-				    new TypeToken<ArrayList<Event>>() {}.getType());
+			}, events -> {
+				String username = currentUser.getUsername();
+				List<Event> failedEvents = BulkIngestUtils.processInPartitions(events, Event::getBaseEntityId,
+				    ingestPartitions, bulkIngestTaskExecutor, event -> addOrUpdateEvent(event, username));
+				for (Event event : failedEvents) {
+					failedEventIds.add(event.getId());
+				}
+				Set<Event> failed = Collections.newSetFromMap(new IdentityHashMap<>());
+				failed.addAll(failedEvents);
 				for (Event event : events) {
-					try {
-						event = eventService.processOutOfArea(event);
-						eventService.addorUpdateEvent(event, RestUtils.currentUser(authentication).getUsername());
-					}
-					catch (Exception e) {
-						logger.error(
-						    "Event of type " + event.getEventType() + " for client " + event.getBaseEntityId() == null ? ""
-						            : event.getBaseEntityId() + " failed to sync",
-						    e);
-						failedEventIds.add(event.getId());
+					if (!failed.contains(event)) {
+						processedEventIds.add(event.getId());
 					}
 				}
+			});
+			if (!hasSyncData) {
+				return new ResponseEntity<>(BAD_REQUEST);
 			}
-			
 		}
-		catch (
-		
-		Exception e) {
+		catch (JsonParseException | IOException e) {
+			logger.error(format("Sync data processing stopped at malformed payload {0}.- ", e));
+			response.put("msg", "Malformed sync payload");
+			response.put("processed_clients", processedClientIds);
+			response.put("processed_events", processedEventIds);
+			response.put("failed_clients", failedClientsIds);
+			response.put("failed_events", failedEventIds);
+			return new ResponseEntity<>(gson.toJson(response), RestUtils.getJSONUTF8Headers(), BAD_REQUEST);
+		}
+		catch (Exception e) {
 			logger.error(format("Sync data processing failed with exception {0}.- ", e));
 			return new ResponseEntity<>(INTERNAL_SERVER_ERROR);
 		}
@@ -494,10 +1104,130 @@ public class EventResource extends RestResource<Event> {
 		}
 	}
 	
+	/**
+	 * Accepts an upload for asynchronous processing. The payload is validated and appended to the
+	 * ingest write-ahead log, and an ingest token is returned whose progress is reported by
+	 * {@link #getIngestStatus(String)}. Falls back to {@link #save(HttpServletRequest, Authentication)}
+	 * when no ingest log directory is configured.
+	 */
+	@RequestMapping(headers = { "Accept=application/json" }, method = POST, value = "/add", params = ASYNC_PARAM)
+	public ResponseEntity<String> saveAsync(HttpServletRequest request, Authentication authentication)
+			throws JsonProcessingException {
+		if (asyncIngestQueue == null) {
+			return save(request, authentication);
+		}
+		
+		User user = RestUtils.currentUser(authentication);
+		try {
+			IngestStatus status = asyncIngestQueue.submit(request.getInputStream(), user == null ? null : user.getUsername());
+			return new ResponseEntity<>(objectMapper.writeValueAsString(status), RestUtils.getJSONUTF8Headers(), ACCEPTED);
+		}
+		catch (IllegalArgumentException e) {
+			logger.warn("Rejected asynchronous upload: " + e.getMessage());
+			return new ResponseEntity<>(BAD_REQUEST);
+		}
+		catch (RejectedExecutionException e) {
+			logger.warn("Asynchronous ingest queue is full");
+			return new ResponseEntity<>(SERVICE_UNAVAILABLE);
+		}
+		catch (IOException e) {
+			logger.error("Failed to append upload to the ingest log", e);
+			return new ResponseEntity<>(INTERNAL_SERVER_ERROR);
+		}
+	}
+	
+	@GetMapping(value = "/add/status/{token}", produces = { MediaType.APPLICATION_JSON_VALUE })
+	public ResponseEntity<String> getIngestStatus(@PathVariable("token") String token) throws JsonProcessingException {
+		if (!isIngestToken(token)) {
+			return new ResponseEntity<>(BAD_REQUEST);
+		}
+		try {
+			IngestStatus status = asyncIngestQueue == null ? null : asyncIngestQueue.getStatus(token);
+			if (status == null) {
+				return new ResponseEntity<>(NOT_FOUND);
+			}
+			return new ResponseEntity<>(objectMapper.writeValueAsString(status), RestUtils.getJSONUTF8Headers(), HttpStatus.OK);
+		}
+		catch (IOException e) {
+			logger.error("Failed to read status of upload " + token, e);
+			return new ResponseEntity<>(INTERNAL_SERVER_ERROR);
+		}
+	}
+	
+	/**
+	 * Ingest tokens are random UUIDs and name the ingest log files, so anything else is rejected
+	 * before it reaches the file system
+	 */
+	private static boolean isIngestToken(String token) {
+		try {
+			return UUID.fromString(token).toString().equals(token);
+		}
+		catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Starts the asynchronous ingest queue when an ingest log directory is configured, resuming any
+	 * uploads that had not completed before the last shutdown.
+	 */
+	@PostConstruct
+	public void initAsyncIngest() throws IOException {
+		if (StringUtils.isBlank(ingestLogDirectory)) {
+			asyncIngestQueue = null;
+			return;
+		}
+		asyncIngestQueue = new AsyncIngestQueue(new IngestWriteAheadLog(Paths.get(ingestLogDirectory)),
+		        ingestTaskExecutor, gson, objectMapper, ingestBatchSize, ingestStatusRetentionHours, ingestMaxAttempts,
+		        ingestRetryBackoffMillis, this::addOrUpdateClient, this::addOrUpdateEvent);
+		asyncIngestQueue.recover();
+	}
+	
+	private boolean addOrUpdateClient(Client client) {
+		try {
+			clientService.addorUpdate(client);
+			syncPageCache.invalidateClient(client.getBaseEntityId());
+			clientCountCache.invalidateAll();
+			return true;
+		}
+		catch (Exception e) {
+			logger.error("Client " + (client.getBaseEntityId() == null ? "" : client.getBaseEntityId()) + " failed to sync",
+			    e);
+			return false;
+		}
+	}
+	
+	private boolean addOrUpdateEvent(Event event, String username) {
+		try {
+			Event processedEvent = eventService.processOutOfArea(event);
+			Event savedEvent = eventService.addorUpdateEvent(processedEvent, username);
+			syncPageCache.invalidate(savedEvent != null ? savedEvent : processedEvent);
+			eventCountCache.invalidateAll();
+			indexPhoneNumbers(savedEvent != null ? savedEvent : processedEvent);
+			return true;
+		}
+		catch (Exception e) {
+			logger.error("Event of type " + event.getEventType() + " for client "
+			        + (event.getBaseEntityId() == null ? "" : event.getBaseEntityId()) + " failed to sync",
+			    e);
+			return false;
+		}
+	}
+	
 	@Override
 	public Event create(Event o) {
 		Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-		return eventService.addEvent(o, RestUtils.currentUser(authentication).getUsername());
+		Event event = eventService.addEvent(o, RestUtils.currentUser(authentication).getUsername());
+		syncPageCache.invalidate(event != null ? event : o);
+		eventCountCache.invalidateAll();
+		indexPhoneNumbers(event != null ? event : o);
+		return event;
+	}
+	
+	private void indexPhoneNumbers(Event event) {
+		if (phoneNumberIndex != null) {
+			phoneNumberIndex.index(event);
+		}
 	}
 	
 	@Override
@@ -511,7 +1241,10 @@ public class EventResource extends RestResource<Event> {
 	
 	@Override
 	public Event update(Event entity) {
-		return eventService.mergeEvent(entity);
+		Event event = eventService.mergeEvent(entity);
+		syncPageCache.invalidate(event != null ? event : entity);
+		eventCountCache.invalidateAll();
+		return event;
 	}
 	
 	@Override
@@ -585,144 +1318,249 @@ public class EventResource extends RestResource<Event> {
 			return new ResponseEntity<>(INTERNAL_SERVER_ERROR);
 		}
 	}
+	
+	/**
+	 * Reconciliation variant of {@link #getAllIdsByEventType}. The request body is a Bloom filter of
+	 * the event ids the device holds and only the ids it is missing are returned, see
+	 * {@link IdReconciliation} for the formats.
+	 */
+	@RequestMapping(value = "/findIdsByEventType/reconcile", method = POST, consumes = {
+	        MediaType.APPLICATION_OCTET_STREAM_VALUE }, produces = { MediaType.APPLICATION_OCTET_STREAM_VALUE })
+	protected void reconcileIdsByEventType(@RequestParam(value = EVENT_TYPE, required = false) String eventType,
+	                                       @RequestParam(value = SERVER_VERSION) long serverVersion,
+	                                       @RequestParam(value = IS_DELETED, defaultValue = FALSE, required = false) boolean isDeleted,
+	                                       @RequestParam(value = "fromDate", required = false) String fromDate,
+	                                       @RequestParam(value = "toDate", required = false) String toDate,
+	                                       HttpServletRequest request, HttpServletResponse response) throws IOException {
+		Date from = Utils.getDateTimeFromString(fromDate);
+		Date to = Utils.getDateTimeFromString(toDate);
+		RestUtils.reconcileIds(request, response, serverVersion,
+		    (version, limit) -> eventService.findAllIdsByEventType(eventType, isDeleted, version, limit, from, to));
+	}
 
+	/**
+	 * Streams a zip with one CSV per event type, plus the flag problem photos, to the response. The
+	 * export data of the next {@link #exportPipelineSize} event types is fetched concurrently while
+	 * the current one is written.
+	 */
 	@GetMapping(value = "/export-data", produces = "application/zip")
-	public ResponseEntity<ByteArrayResource> exportEventData(@RequestParam List<String> eventTypes,
+	public void exportEventData(@RequestParam List<String> eventTypes,
 			@RequestParam String planIdentifier,
 			@RequestParam(value = "fromDate", required = false) String fromDate,
-			@RequestParam(value = "toDate", required = false) String toDate) throws IOException {
+			@RequestParam(value = "toDate", required = false) String toDate,
+			HttpServletResponse response) throws IOException {
 
-		FileOutputStream fos = null;
-		ZipOutputStream zipOS = null;
-		String exportDataFileName;
-		String missionName = "";
-		String eventTypeName;
 		SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd");
-		String formatted = "";
-		String zipFileName = "";
-		boolean firstTime = true;
+		String formatted = df.format(new Date());
+		Date from = Utils.getDateTimeFromString(fromDate);
+		Date to = Utils.getDateTimeFromString(toDate);
 
-		try {
-			String tempDirectory = System.getProperty("java.io.tmpdir");
-			logger.info("Temp DIR is ============="+tempDirectory);
+		Deque<CompletableFuture<ExportEventDataSummary>> pipeline = new ArrayDeque<>();
+		Iterator<String> pendingEventTypes = eventTypes.iterator();
+		while (pendingEventTypes.hasNext() && pipeline.size() < Math.max(1, exportPipelineSize)) {
+			pipeline.add(exportEventDataAsync(planIdentifier, pendingEventTypes.next(), from, to));
+		}
+
+		ExportEventDataSummary firstSummary = pipeline.isEmpty() ? null : BatchFetchUtils.join(pipeline.peek());
+		response.setContentType("application/zip");
+		response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+				"attachment;filename=" + getMissionName(firstSummary) + "_" + formatted + ".zip");
+
+		try (ZipOutputStream zipOS = new ZipOutputStream(
+				new BufferedOutputStream(response.getOutputStream(), EXPORT_BUFFER_SIZE))) {
+			Set<String> imageEntryNames = new HashSet<>();
 			for (String eventType : eventTypes) {
-				ExportEventDataSummary exportEventDataSummary = eventService
-						.exportEventData(planIdentifier, eventType, Utils.getDateTimeFromString(fromDate),
-								Utils.getDateTimeFromString(toDate));
-
-				missionName = exportEventDataSummary != null &&
-						exportEventDataSummary.getMissionName() != null ?
-						exportEventDataSummary.getMissionName().replaceAll("\\s+", "_").toLowerCase() :
-						"";
-				eventTypeName = eventType.replaceAll("\\s+", "_");
-
-				formatted = df.format(new Date());
-				File csvFile = null;
-
-				zipFileName = tempDirectory + SAMPLE_CSV_FILE + missionName + "_" + formatted + ".zip";
-				if (firstTime) {
-					fos = new FileOutputStream(zipFileName);
-					zipOS = new ZipOutputStream(fos);
+				ExportEventDataSummary exportEventDataSummary = BatchFetchUtils.join(pipeline.poll());
+				if (pendingEventTypes.hasNext()) {
+					pipeline.add(exportEventDataAsync(planIdentifier, pendingEventTypes.next(), from, to));
 				}
 
-				exportDataFileName = SAMPLE_CSV_FILE + missionName + "_" + eventTypeName + "_" + formatted + ".csv";
-
-				csvFile = new File(tempDirectory,exportDataFileName);
+				String missionName = getMissionName(exportEventDataSummary);
+				String eventTypeName = eventType.replaceAll("\\s+", "_");
+				zipOS.putNextEntry(new ZipEntry(missionName + "_" + eventTypeName + "_" + formatted + ".csv"));
 				if (exportEventDataSummary != null) {
-					generateCSV(exportEventDataSummary, csvFile.getAbsolutePath());
+					generateCSV(exportEventDataSummary, zipOS);
 				}
-				writeToZipFile(csvFile.getName(), zipOS, csvFile.getAbsolutePath());
-				firstTime = false;
-
-				Boolean firstTimeForImages = true;
-				firstTimeForImages = exportImagesAgainstFlagProblemEvent(eventType,planIdentifier,fromDate,toDate,firstTimeForImages, zipOS, missionName);
+				zipOS.closeEntry();
 
+				exportImagesAgainstFlagProblemEvent(eventType, planIdentifier, from, to, zipOS, imageEntryNames,
+						missionName + "_Flag_Problem_Photos_" + formatted + "/");
 			}
 		}
-
-		catch (IOException e) {
-			logger.error("Exception occurred : " + e.getMessage());
-		}
-
-		finally {
-			if (zipOS != null) {
-				zipOS.close();
-			}
-			if (fos != null) {
-				fos.close();
+		catch (IOException | RuntimeException e) {
+			// the zip is partly written, so fail the response rather than end it as if it were complete
+			logger.error("Export of event data for plan " + planIdentifier + " failed", e);
+			for (CompletableFuture<ExportEventDataSummary> future : pipeline) {
+				future.cancel(false);
 			}
+			throw e;
 		}
+	}
 
-		HttpHeaders headers = new HttpHeaders();
-		headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
-
-		Path path = Paths.get(zipFileName);
-		byte[] data = Files.readAllBytes(path);
-		ByteArrayResource resource = new ByteArrayResource(data);
+	private CompletableFuture<ExportEventDataSummary> exportEventDataAsync(String planIdentifier, String eventType,
+			Date from, Date to) {
+		Supplier<ExportEventDataSummary> export = () -> eventService.exportEventData(planIdentifier, eventType, from, to);
+		return syncTaskExecutor == null ? CompletableFuture.completedFuture(export.get())
+				: CompletableFuture.supplyAsync(export, syncTaskExecutor);
+	}
 
-		return ResponseEntity.ok()
-				.header(HttpHeaders.CONTENT_DISPOSITION, "attachment;filename=" + path.getFileName().toString())
-				.contentType(MediaType.parseMediaType("application/zip"))
-				.contentLength(data.length)
-				.body(resource);
+	private String getMissionName(ExportEventDataSummary exportEventDataSummary) {
+		return exportEventDataSummary != null && exportEventDataSummary.getMissionName() != null ?
+				exportEventDataSummary.getMissionName().replaceAll("\\s+", "_").toLowerCase() :
+				"";
 	}
 
-	private boolean exportImagesAgainstFlagProblemEvent(String eventType, String planIdentifier, String fromDate, String toDate, boolean firstTimeForImages
-	, ZipOutputStream zipOS, String missionName)
-			throws IOException {
+	/**
+	 * Writes the photos of flag problem events into the zip, in a folder per service point under the
+	 * photos directory. The multimedia metadata of all photos is looked up up front, each distinct
+	 * case id once, and the files are streamed straight into the zip; JPEGs are not compressed again.
+	 */
+	private void exportImagesAgainstFlagProblemEvent(String eventType, String planIdentifier, Date from, Date to,
+			ZipOutputStream zipOS, Set<String> entryNames, String imagesDirectoryName) throws IOException {
+		if (!FLAG_PROBLEM_EVENT_TYPE.equals(eventType)) {
+			return;
+		}
 
-		File imagesDirectory = null;
-		SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd");
-		String formatted = "";
-		boolean firstTime = firstTimeForImages;
-		String tempDirectory = System.getProperty("java.io.tmpdir");
-		if (eventType.equals("flag_problem")) {
-
-			ExportImagesSummary exportImagesSummary =
-					eventService.getImagesMetadataForFlagProblemEvent(planIdentifier, eventType,
-							Utils.getDateTimeFromString(fromDate), Utils.getDateTimeFromString(toDate));
-			String imagesDirectoryName;
-			if (firstTime) {
-				formatted = df.format(new Date());
-				imagesDirectoryName = SAMPLE_CSV_FILE + missionName + "_Flag_Problem_Photos_" + formatted;
-				imagesDirectory = new File(tempDirectory, imagesDirectoryName + "/");
-				imagesDirectory.mkdirs();
-				firstTime = false;
+		ExportImagesSummary exportImagesSummary = eventService.getImagesMetadataForFlagProblemEvent(planIdentifier,
+				eventType, from, to);
+		List<ExportFlagProblemEventImageMetadata> imagesMetadata = exportImagesSummary
+				.getExportFlagProblemEventImageMetadataList();
+		Map<String, Multimedia> multimediaByCaseId = findMultimediaByCaseId(imagesMetadata, planIdentifier);
+		boolean temporaryFiles = multimediaService.getFileManager() instanceof S3MultimediaFileManager;
+		byte[] buffer = new byte[EXPORT_BUFFER_SIZE];
+		for (ExportFlagProblemEventImageMetadata exportFlagProblemEventImageMetadata : imagesMetadata) {
+			Multimedia multimedia = multimediaByCaseId
+					.get(exportFlagProblemEventImageMetadata.getStockId() + "_" + planIdentifier);
+			if (multimedia == null || multimedia.getFilePath() == null) {
+				continue;
 			}
 
-			File childFile = null;
-			String extension = "";
-			for (ExportFlagProblemEventImageMetadata exportFlagProblemEventImageMetadata : exportImagesSummary
-					.getExportFlagProblemEventImageMetadataList()) {
-				Multimedia multimedia = multimediaService
-						.findByCaseId(exportFlagProblemEventImageMetadata.getStockId() + "_" + planIdentifier);
-				int extensionIndex = multimedia != null && multimedia.getOriginalFileName() != null ?
-						multimedia.getOriginalFileName().indexOf(".") : -1;
-
-				if (extensionIndex != -1) {
-					extension = multimedia.getOriginalFileName().substring(extensionIndex);
-				}
+			String originalFileName = multimedia.getOriginalFileName();
+			int extensionIndex = originalFileName != null ? originalFileName.indexOf(".") : -1;
+			String extension = extensionIndex != -1 ? originalFileName.substring(extensionIndex) : "";
+			String entryName = imagesDirectoryName + exportFlagProblemEventImageMetadata.getServicePointName() + "/"
+					+ exportFlagProblemEventImageMetadata.getProductName() + "_"
+					+ exportFlagProblemEventImageMetadata.getStockId() + extension;
+			if (!entryNames.add(entryName)) {
+				logger.warn("Skipping duplicate image " + entryName);
+				continue;
+			}
 
-				File file = null;
-				if (multimedia != null && multimedia.getFilePath() != null) {
-					file = multimediaService.retrieveFile(multimedia.getFilePath());
+			File file = multimediaService.retrieveFile(multimedia.getFilePath());
+			if (file != null) {
+				try {
+					RestUtils.writeFileToZip(zipOS, entryName, file, buffer, !isJpeg(extension));
 				}
-				File insideFolder = new File(
-						imagesDirectory.getPath() + "/" + exportFlagProblemEventImageMetadata.getServicePointName());
-				childFile = new File(insideFolder,
-						exportFlagProblemEventImageMetadata.getProductName() + "_"
-								+ exportFlagProblemEventImageMetadata
-								.getStockId() + extension);
-				if (file != null) {
-					FileUtils.copyFile(file, childFile);
-					writeToZipFile(childFile.getName(), zipOS, childFile.getAbsolutePath());
+				finally {
+					// S3 files are downloaded to temporary files
+					if (temporaryFiles) {
+						file.delete();
+					}
 				}
 			}
+		}
+	}
 
+	/**
+	 * Looks up the multimedia of each distinct case id. The multimedia service has no lookup of
+	 * several case ids, so each is still looked up on its own, in batches run concurrently on the
+	 * sync executor.
+	 */
+	private Map<String, Multimedia> findMultimediaByCaseId(List<ExportFlagProblemEventImageMetadata> imagesMetadata,
+			String planIdentifier) {
+		Set<String> caseIds = new LinkedHashSet<>();
+		for (ExportFlagProblemEventImageMetadata exportFlagProblemEventImageMetadata : imagesMetadata) {
+			caseIds.add(exportFlagProblemEventImageMetadata.getStockId() + "_" + planIdentifier);
+		}
+		List<Pair<String, Multimedia>> multimediaList = BatchFetchUtils.fetchInBatches(new ArrayList<>(caseIds),
+				MULTIMEDIA_FETCH_BATCH_SIZE, syncTaskExecutor, batch -> {
+					List<Pair<String, Multimedia>> found = new ArrayList<>();
+					for (String caseId : batch) {
+						Multimedia multimedia = multimediaService.findByCaseId(caseId);
+						if (multimedia != null) {
+							found.add(Pair.of(caseId, multimedia));
+						}
+					}
+					return found;
+				});
+		Map<String, Multimedia> multimediaByCaseId = new HashMap<>();
+		for (Pair<String, Multimedia> multimedia : multimediaList) {
+			multimediaByCaseId.put(multimedia.getKey(), multimedia.getValue());
 		}
-		return firstTime;
+		return multimediaByCaseId;
+	}
+
+	private boolean isJpeg(String extension) {
+		return ".jpg".equalsIgnoreCase(extension) || ".jpeg".equalsIgnoreCase(extension);
 	}
 
+	/**
+	 * Enables caching of event counts for the given number of seconds, zero disables the cache
+	 */
+	@Value("#{opensrp['opensrp.sync.count.cache.ttl.seconds'] ?: 0}")
+	public void setCountCacheTimeToLive(long timeToLiveSeconds) {
+		this.eventCountCache = new CountCache(COUNT_CACHE_MAX_ENTRIES, TimeUnit.SECONDS.toMillis(timeToLiveSeconds));
+	}
+	
+	/**
+	 * Enables the shared sync page cache, bounded to the given size in megabytes and serving pages
+	 * for the given number of seconds; zero for either disables the cache
+	 */
+	@Autowired
+	public void setSyncPageCache(@Value("#{opensrp['opensrp.sync.page.cache.max.size.mb'] ?: 0}") long maxSizeMegabytes,
+	        @Value("#{opensrp['opensrp.sync.page.cache.ttl.seconds'] ?: 60}") long timeToLiveSeconds) {
+		this.syncPageCache = new SyncPageCache(maxSizeMegabytes * 1024 * 1024, TimeUnit.SECONDS.toMillis(timeToLiveSeconds));
+	}
+	
+	@Autowired
+	public void setSyncTaskExecutor(@Qualifier(TaskExecutorConfig.SYNC_TASK_EXECUTOR) Executor syncTaskExecutor) {
+		this.syncTaskExecutor = syncTaskExecutor;
+	}
+	
+	/**
+	 * @param clientCountCache the cache of client search totals, cleared as clients are saved with
+	 *            events
+	 */
+	@Autowired
+	public void setClientCountCache(@Qualifier(SearchIndexConfig.CLIENT_COUNT_CACHE) CountCache clientCountCache) {
+		this.clientCountCache = clientCountCache;
+	}
+	
+	@Autowired
+	public void setNdjsonExporterFactory(NdjsonExporterFactory ndjsonExporterFactory) {
+		this.ndjsonExporterFactory = ndjsonExporterFactory;
+	}
+	
+	@Autowired
+	public void setContinuationTokenSigner(ContinuationTokenSigner continuationTokenSigner) {
+		this.continuationTokenSigner = continuationTokenSigner;
+	}
+	
+	@Autowired
+	public void setMeterRegistry(MeterRegistry meterRegistry) {
+		this.meterRegistry = meterRegistry;
+	}
+	
+	@Autowired
+	public void setPhoneNumberIndex(PhoneNumberIndex phoneNumberIndex) {
+		this.phoneNumberIndex = phoneNumberIndex;
+	}
+	
+	@Autowired
+	public void setIngestTaskExecutor(@Qualifier(TaskExecutorConfig.INGEST_TASK_EXECUTOR) Executor ingestTaskExecutor) {
+		this.ingestTaskExecutor = ingestTaskExecutor;
+	}
+	
+	@Autowired
+	public void setBulkIngestTaskExecutor(
+	        @Qualifier(TaskExecutorConfig.BULK_INGEST_TASK_EXECUTOR) Executor bulkIngestTaskExecutor) {
+		this.bulkIngestTaskExecutor = bulkIngestTaskExecutor;
+	}
+	
+	public void setIngestLogDirectory(String ingestLogDirectory) {
+		this.ingestLogDirectory = ingestLogDirectory;
+	}
+	
 	public void setEventService(EventService eventService) {
 		this.eventService = eventService;
 	}
@@ -735,33 +1573,19 @@ public class EventResource extends RestResource<Event> {
 		this.multimediaService = multimediaService;
 	}
 
-	private void generateCSV(ExportEventDataSummary exportEventDataSummary, String fileName) throws IOException {
-		BufferedWriter writer = null;
-		CSVPrinter csvPrinter = null;
-		try {
-			writer = Files.newBufferedWriter(Paths.get(fileName));
-			csvPrinter = new CSVPrinter(writer, CSVFormat.DEFAULT);
-
-	        for (List<Object> rows : exportEventDataSummary.getRowsData()) {
-		        csvPrinter.printRecord(rows);
-		        csvPrinter.printRecord("\n");
-	        }
-        }
-
-		catch (IOException e) {
-			logger.error("IO Exception occurred " + e.getMessage(), e);
+	private void generateCSV(ExportEventDataSummary exportEventDataSummary, OutputStream out) throws IOException {
+		// the printer is only flushed, closing it would close the zip stream
+		CSVPrinter csvPrinter = new CSVPrinter(new OutputStreamWriter(out, StandardCharsets.UTF_8), CSVFormat.DEFAULT);
+		for (List<Object> rows : exportEventDataSummary.getRowsData()) {
+			csvPrinter.printRecord(rows);
+			csvPrinter.printRecord("\n");
 		}
-		finally {
-			if(csvPrinter != null) {
-				csvPrinter.flush();
-				csvPrinter.close();
-			}
-			if(writer != null) {
-				writer.close();
-			}
-
-        }
+		csvPrinter.flush();
 	}
-
-
+	
+	private interface EventChunkHandler {
+		
+		void handle(List<Event> events) throws IOException;
+	}
+	
 }
@@ -1,6 +1,7 @@
 package org.opensrp.web.rest;
 
 import static org.opensrp.common.AllConstants.OpenSRPEvent.Form.SERVER_VERSION;
+import static org.opensrp.web.Constants.CONTINUATION_TOKEN;
 import static org.opensrp.web.Constants.DEFAULT_GET_ALL_IDS_LIMIT;
 import static org.opensrp.web.Constants.DEFAULT_LIMIT;
 import static org.opensrp.web.Constants.LIMIT;
@@ -13,13 +14,32 @@ import static org.opensrp.web.config.SwaggerDocStringHelper.GET_LOCATION_TREE_BY
 import static org.opensrp.web.config.SwaggerDocStringHelper.GET_LOCATION_TREE_BY_ID_ENDPOINT_NOTES;
 import static org.opensrp.web.config.SwaggerDocStringHelper.LOCATION_RESOURCE;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
@@ -30,6 +50,17 @@ import org.opensrp.common.AllConstants.BaseEntity;
 import org.opensrp.connector.dhis2.location.DHIS2ImportOrganizationUnits;
 import org.opensrp.connector.dhis2.location.DHIS2ImportLocationsStatusService;
 import org.opensrp.domain.LocationDetail;
+import org.opensrp.web.utils.BatchFetchUtils;
+import org.opensrp.web.utils.ContinuationToken;
+import org.opensrp.web.utils.ContinuationTokenSigner;
+import org.opensrp.web.config.TaskExecutorConfig;
+import org.opensrp.web.utils.IdReconciliation;
+import org.opensrp.web.utils.GeometryCache;
+import org.opensrp.web.utils.GeometryEncoding;
+import org.opensrp.web.utils.GeometrySimplifier;
+import org.opensrp.web.utils.LocationHierarchy;
+import org.opensrp.web.utils.LocationHierarchySnapshot;
+import org.opensrp.web.utils.StructureIndex;
 import org.opensrp.web.utils.Utils;
 import org.smartregister.domain.Jurisdiction;
 import org.smartregister.domain.LocationProperty;
@@ -43,14 +74,18 @@ import org.smartregister.utils.PropertiesConverter;
 import org.opensrp.web.bean.Identifier;
 import org.opensrp.web.bean.LocationSearchcBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.ModelMap;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -62,6 +97,7 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonWriter;
 import com.google.gson.reflect.TypeToken;
 
 import io.swagger.annotations.Api;
@@ -97,6 +133,8 @@ public class LocationResource {
 
 	public static final String RETURN_GEOMETRY = "return_geometry";
 
+	public static final String GEOMETRY_LEVEL = "geometry_level";
+
 	public static final String PROPERTIES_FILTER = "properties_filter";
 
 	public static final String JURISDICTION_IDS = "jurisdiction_ids";
@@ -113,6 +151,10 @@ public class LocationResource {
 
 	public static final String INCLUDE_INACTIVE = "includeInactive";
 
+	private static final int STRUCTURE_WRITE_BUFFER_SIZE = 64 * 1024;
+
+	private static final Map<String, String> INACTIVE_STATUS_FILTER = Collections.singletonMap("status", "Inactive");
+
 	private PhysicalLocationService locationService;
 	
 	private PlanService planService;
@@ -121,6 +163,32 @@ public class LocationResource {
 
 	private DHIS2ImportLocationsStatusService dhis2ImportLocationsStatusService;
 
+	private LocationHierarchy locationHierarchy;
+
+	private TaskScheduler indexTaskScheduler;
+
+	private Executor syncTaskExecutor;
+
+	@Value("#{opensrp['opensrp.location.hierarchy.cache.refresh.seconds'] ?: 60}")
+	private long locationHierarchyRefreshSeconds = 60;
+
+	@Value("#{opensrp['opensrp.location.hierarchy.cache.batch.size'] ?: 1000}")
+	private int locationHierarchyBatchSize = 1000;
+
+	private StructureIndex structureIndex;
+
+	private volatile boolean inactiveStructuresRemoved;
+
+	@Value("#{opensrp['opensrp.location.structure.index.refresh.seconds'] ?: 60}")
+	private long structureIndexRefreshSeconds = 60;
+
+	@Value("#{opensrp['opensrp.location.structure.index.batch.size'] ?: 1000}")
+	private int structureIndexBatchSize = 1000;
+
+	private GeometryCache geometryCache = new GeometryCache(0);
+
+	private ContinuationTokenSigner continuationTokenSigner = ContinuationTokenSigner.withRandomKey();
+
 	@Autowired
 	public void setLocationService(PhysicalLocationService locationService) {
 		this.locationService = locationService;
@@ -141,23 +209,129 @@ public class LocationResource {
 		this.dhis2ImportLocationsStatusService = dhis2ImportLocationsStatusService;
 	}
 
+	@Autowired
+	public void setLocationHierarchy(LocationHierarchy locationHierarchy) {
+		this.locationHierarchy = locationHierarchy;
+	}
+
+	@Autowired
+	public void setStructureIndex(StructureIndex structureIndex) {
+		this.structureIndex = structureIndex;
+	}
+
+	@Autowired
+	public void setGeometryCache(
+			@Value("#{opensrp['opensrp.location.geometry.cache.max.size.mb'] ?: 32}") long maxSizeMegabytes) {
+		this.geometryCache = new GeometryCache(maxSizeMegabytes * 1024 * 1024);
+	}
+
+	@Autowired
+	public void setSyncTaskExecutor(@Qualifier(TaskExecutorConfig.SYNC_TASK_EXECUTOR) Executor syncTaskExecutor) {
+		this.syncTaskExecutor = syncTaskExecutor;
+	}
+
+	@Autowired
+	public void setContinuationTokenSigner(ContinuationTokenSigner continuationTokenSigner) {
+		this.continuationTokenSigner = continuationTokenSigner;
+	}
+
+	@Autowired
+	public void setIndexTaskScheduler(@Qualifier(TaskExecutorConfig.INDEX_TASK_SCHEDULER) TaskScheduler indexTaskScheduler) {
+		this.indexTaskScheduler = indexTaskScheduler;
+	}
+
+	/**
+	 * Builds the location hierarchy snapshot and the structure index in the background when they are
+	 * enabled, then keeps them current with the locations changed since
+	 */
+	@PostConstruct
+	public void initLocationIndexes() {
+		if (indexTaskScheduler == null) {
+			return;
+		}
+		if (locationHierarchy != null && locationHierarchy.isEnabled()) {
+			indexTaskScheduler.scheduleWithFixedDelay(this::refreshLocationHierarchy,
+					Duration.ofSeconds(Math.max(locationHierarchyRefreshSeconds, 1)));
+		}
+		if (structureIndex != null && structureIndex.isEnabled()) {
+			indexTaskScheduler.scheduleWithFixedDelay(this::refreshStructureIndex,
+					Duration.ofSeconds(Math.max(structureIndexRefreshSeconds, 1)));
+		}
+	}
+
+	private void refreshLocationHierarchy() {
+		try {
+			locationHierarchy.refresh(
+					(serverVersion, limit) -> locationService.findAllLocations(false, serverVersion, limit, true),
+					locationHierarchyBatchSize);
+		}
+		catch (RuntimeException e) {
+			logger.error("Failed to refresh the location hierarchy", e);
+		}
+	}
+
+	/**
+	 * Indexes the structures changed since the last refresh; the structures made inactive are among
+	 * them and are removed by the index. The inactive structures are read once more after the index is
+	 * first built, so that none is left in it whichever rows the structure sync returned then.
+	 */
+	private void refreshStructureIndex() {
+		try {
+			structureIndex.refresh(
+					(serverVersion, limit) -> locationService.findAllStructures(true, serverVersion, limit, null, null, null),
+					structureIndexBatchSize);
+			if (!inactiveStructuresRemoved) {
+				structureIndex.indexAll(locationService.findStructuresByProperties(false, null, INACTIVE_STATUS_FILTER));
+				inactiveStructuresRemoved = true;
+			}
+		}
+		catch (RuntimeException e) {
+			logger.error("Failed to refresh the structure index", e);
+		}
+	}
+
+	/**
+	 * Picks up the locations saved by this instance without waiting for the next scheduled refresh
+	 */
+	private void scheduleLocationIndexRefresh(boolean isJurisdiction) {
+		if (indexTaskScheduler == null) {
+			return;
+		}
+		if (isJurisdiction && locationHierarchy != null && locationHierarchy.isEnabled()) {
+			indexTaskScheduler.schedule(this::refreshLocationHierarchy, Instant.now());
+		} else if (!isJurisdiction && structureIndex != null && structureIndex.isEnabled()) {
+			indexTaskScheduler.schedule(this::refreshStructureIndex, Instant.now());
+		}
+	}
+
+	/**
+	 * @return the location hierarchy snapshot, or null if the hierarchy is disabled, not ready, or the
+	 *         structure counts are requested since the snapshot does not hold them
+	 */
+	private LocationHierarchySnapshot getLocationHierarchySnapshot(boolean returnStructureCount) {
+		return returnStructureCount || locationHierarchy == null ? null : locationHierarchy.getSnapshot();
+	}
+
 	@RequestMapping(value = "/{id}", method = RequestMethod.GET, produces = { MediaType.APPLICATION_JSON_VALUE })
 	@ApiOperation(value = GET_LOCATION_TREE_BY_ID_ENDPOINT, notes = GET_LOCATION_TREE_BY_ID_ENDPOINT_NOTES)
 	public ResponseEntity<String> getByUniqueId(@PathVariable("id") String id,
 			@RequestParam(value = IS_JURISDICTION, defaultValue = FALSE, required = false) boolean isJurisdiction,
 			@RequestParam(value = RETURN_GEOMETRY, defaultValue = TRUE, required = false) boolean returnGeometry,
+			@RequestParam(value = GEOMETRY_LEVEL, defaultValue = "0", required = false) int geometryLevel,
 			@RequestParam(value = INCLUDE_INACTIVE, defaultValue = FALSE, required = false) boolean includeInactive) {
 
 		return new ResponseEntity<>(
-				gson.toJson(isJurisdiction ?
+				gson.toJson(geometryCache.simplify(isJurisdiction ?
 						locationService.getLocation(id, returnGeometry, includeInactive) :
-						locationService.getStructure(id, returnGeometry)),
+						locationService.getStructure(id, returnGeometry), geometryLevel)),
 				RestUtils.getJSONUTF8Headers(), HttpStatus.OK);
 	}
 
 	@RequestMapping(value = "/sync", method = RequestMethod.POST, consumes = { MediaType.APPLICATION_JSON_VALUE },
-			produces = { MediaType.APPLICATION_JSON_VALUE })
-	public ResponseEntity<String> getLocations(@RequestBody LocationSyncRequestWrapper locationSyncRequestWrapper) {
+			produces = { MediaType.APPLICATION_JSON_VALUE, GeometryEncoding.MEDIA_TYPE_VALUE })
+	public ResponseEntity<Object> getLocations(@RequestBody LocationSyncRequestWrapper locationSyncRequestWrapper,
+			@RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept, HttpServletResponse response)
+			throws IOException {
 		long currentServerVersion = 0;
 		try {
 			currentServerVersion = locationSyncRequestWrapper.getServerVersion();
@@ -171,54 +345,200 @@ public class LocationResource {
 		String parentIds = StringUtils.join(locationSyncRequestWrapper.getParentId(), ",");
 		List<String> locationIds=locationSyncRequestWrapper.getLocationIds();
 		boolean returnCount = locationSyncRequestWrapper.isReturnCount();
+		int geometryLevel = locationSyncRequestWrapper.getGeometryLevel();
+		GeometrySimplifier.checkLevel(geometryLevel);
 
-		HttpHeaders headers = RestUtils.getJSONUTF8Headers();
-		Long locationCount = 0l;
+		String filterHash = ContinuationToken.hashFilters(isJurisdiction, locationNames, parentIds, locationIds);
+		ContinuationToken resumeToken;
+		try {
+			resumeToken = decodeContinuationToken(locationSyncRequestWrapper.getContinuationToken(), filterHash);
+		}
+		catch (IllegalArgumentException e) {
+			logger.error(e.getMessage());
+			return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+		}
+		if (resumeToken != null) {
+			currentServerVersion = resumeToken.getServerVersion();
+		}
+
+		boolean binary = GeometryEncoding.isAccepted(accept);
 		if (isJurisdiction) {
-			String locations="[]";
 			if (locationIds != null && !locationIds.isEmpty()) {
-				locations = gson.toJson(locationService.findLocationsByIds(true, locationIds,currentServerVersion));
-				if (returnCount) {
-					locationCount = locationService.countLocationsByIds(locationIds, currentServerVersion);
-					headers.add(TOTAL_RECORDS, String.valueOf(locationCount));
-				}
+				return syncLocations(locationService.findLocationsByIds(true, locationIds, currentServerVersion),
+						returnCount ? locationService.countLocationsByIds(locationIds, currentServerVersion) : null,
+						resumeToken, filterHash, geometryLevel, binary, response);
 			} else if (StringUtils.isBlank(locationNames)) {
-				locations = gson.toJson(locationService.findLocationsByServerVersion(currentServerVersion));
-				if (returnCount) {
-					locationCount = locationService.countLocationsByServerVersion(currentServerVersion);
-					headers.add(TOTAL_RECORDS, String.valueOf(locationCount));
-				}
+				return syncLocations(locationService.findLocationsByServerVersion(currentServerVersion),
+						returnCount ? locationService.countLocationsByServerVersion(currentServerVersion) : null,
+						resumeToken, filterHash, geometryLevel, binary, response);
 			} else {
-
-				locations = gson.toJson(locationService.findLocationsByNames(locationNames, currentServerVersion));
-				if (returnCount) {
-					locationCount = locationService.countLocationsByNames(locationNames, currentServerVersion);
-					headers.add(TOTAL_RECORDS, String.valueOf(locationCount));
-				}
+				return syncLocations(locationService.findLocationsByNames(locationNames, currentServerVersion),
+						returnCount ? locationService.countLocationsByNames(locationNames, currentServerVersion) : null,
+						resumeToken, filterHash, geometryLevel, binary, response);
 			}
-			return new ResponseEntity<>(locations, headers, HttpStatus.OK);
 
 		} else {
 			if (StringUtils.isBlank(parentIds)) {
 				return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
 			}
 
-			String structures = gson.toJson(locationService.findStructuresByParentAndServerVersion(parentIds, currentServerVersion));
-			if (returnCount){
-				Long structureCount = locationService.countStructuresByParentAndServerVersion(parentIds, currentServerVersion);
-				headers.add(TOTAL_RECORDS, String.valueOf(structureCount));
-			}
-			return new ResponseEntity<>(structures, headers, HttpStatus.OK);
+			writeStructures(parentIds, currentServerVersion, locationSyncRequestWrapper.getLimit(), returnCount,
+					resumeToken, filterHash, geometryLevel, binary, response);
+			return null;
+		}
+	}
+
+	private ContinuationToken decodeContinuationToken(String continuationToken, String filterHash) {
+		return StringUtils.isBlank(continuationToken) ? null : ContinuationToken.decode(continuationToken, filterHash, continuationTokenSigner);
+	}
+
+	/**
+	 * Location sync is not paged so the continuation token only lets clients resume from the boundary
+	 * server version without downloading the locations that share it again. The binary encoding is
+	 * written straight to the response, as for the structures, instead of being built in memory.
+	 *
+	 * @param count the number of locations from the server version on, null if it was not requested
+	 * @param geometryLevel the {@link GeometrySimplifier} level of the geometries
+	 * @param binary whether the locations are encoded with {@link GeometryEncoding} instead of JSON
+	 * @return the JSON response, or null if the locations were written to the response
+	 */
+	private ResponseEntity<Object> syncLocations(List<PhysicalLocation> locations, Long count,
+			ContinuationToken resumeToken, String filterHash, int geometryLevel, boolean binary,
+			HttpServletResponse response) throws IOException {
+		HttpHeaders headers = RestUtils.getJSONUTF8Headers();
+		BiConsumer<String, String> addHeader = binary ? response::addHeader : headers::add;
+		ContinuationToken next = ContinuationToken.after(locations, PhysicalLocation::getServerVersion,
+				PhysicalLocation::getId, resumeToken, filterHash);
+		if (next != null) {
+			addHeader.accept(CONTINUATION_TOKEN, next.encode(continuationTokenSigner));
 		}
+		if (count != null) {
+			addHeader.accept(TOTAL_RECORDS, String.valueOf(ContinuationToken.remaining(count, resumeToken)));
+		}
+		List<PhysicalLocation> unserved = geometryCache.simplify(resumeToken == null ? locations
+				: resumeToken.skipServed(locations, PhysicalLocation::getServerVersion, PhysicalLocation::getId),
+				geometryLevel);
+		if (binary) {
+			response.setStatus(HttpStatus.OK.value());
+			writeBinary(unserved, response);
+			return null;
+		}
+		return new ResponseEntity<>(gson.toJson(unserved), headers, HttpStatus.OK);
+	}
+
+	private void writeBinary(List<PhysicalLocation> locations, HttpServletResponse response) throws IOException {
+		response.setContentType(GeometryEncoding.MEDIA_TYPE_VALUE);
+		BufferedOutputStream out = new BufferedOutputStream(response.getOutputStream(), STRUCTURE_WRITE_BUFFER_SIZE);
+		GeometryEncoding.encode(gson, locations, out);
+		out.flush();
+	}
+
+	/**
+	 * Writes the structures of the parents straight to the response instead of building the body in
+	 * memory. With a limit at most limit structures are written, see
+	 * {@link #limitStructures(List, int, ContinuationToken)}, and the continuation token resumes after
+	 * the last structure written. The count is run on the sync executor while the structures are read.
+	 * <p>
+	 * The structures are still read from the database in full: core has no cursor or limit query for
+	 * the structures of parents, so the limit bounds the response but not the read until it has one.
+	 *
+	 * @param limit the maximum number of structures written, null or less than one for all
+	 * @param geometryLevel the {@link GeometrySimplifier} level of the geometries
+	 * @param binary whether the structures are encoded with {@link GeometryEncoding} instead of JSON
+	 */
+	private void writeStructures(String parentIds, long serverVersion, Integer limit, boolean returnCount,
+			ContinuationToken resumeToken, String filterHash, int geometryLevel, boolean binary,
+			HttpServletResponse response) throws IOException {
+		CompletableFuture<Long> structureCount = returnCount ? supplyAsync(
+				() -> locationService.countStructuresByParentAndServerVersion(parentIds, serverVersion)) : null;
+		List<PhysicalLocation> structures = locationService.findStructuresByParentAndServerVersion(parentIds,
+				serverVersion);
+		if (structures == null) {
+			structures = Collections.emptyList();
+		}
+		if (resumeToken != null) {
+			structures = resumeToken.skipServed(structures, PhysicalLocation::getServerVersion, PhysicalLocation::getId);
+		}
+		if (limit != null && limit > 0) {
+			structures = limitStructures(structures, limit, resumeToken);
+		}
+		geometryCache.simplify(structures, geometryLevel);
+
+		ContinuationToken next = ContinuationToken.after(structures, PhysicalLocation::getServerVersion,
+				PhysicalLocation::getId, resumeToken, filterHash);
+		if (next != null) {
+			response.addHeader(CONTINUATION_TOKEN, next.encode(continuationTokenSigner));
+		}
+		if (structureCount != null) {
+			response.addHeader(TOTAL_RECORDS,
+					String.valueOf(ContinuationToken.remaining(BatchFetchUtils.join(structureCount), resumeToken)));
+		}
+		response.setStatus(HttpStatus.OK.value());
+		if (binary) {
+			writeBinary(structures, response);
+			return;
+		}
+
+		response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+		JsonWriter writer = gson.newJsonWriter(new BufferedWriter(
+				new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8), STRUCTURE_WRITE_BUFFER_SIZE));
+		writer.beginArray();
+		for (PhysicalLocation structure : structures) {
+			gson.toJson(structure, PhysicalLocation.class, writer);
+		}
+		writer.endArray();
+		writer.flush();
+	}
+
+	/**
+	 * @return the first limit structures in server version order. When the limit splits the structures
+	 *         of a server version and more of them would have been served than a continuation token
+	 *         carries, the structures of that server version are left to the next page, so that the
+	 *         token resumes at it instead of after it. A page holding that server version only is
+	 *         written up to the limit and the token resumes after it, as for the other syncs.
+	 */
+	private List<PhysicalLocation> limitStructures(List<PhysicalLocation> structures, int limit,
+			ContinuationToken resumeToken) {
+		List<PhysicalLocation> sorted = new ArrayList<>(structures);
+		sorted.sort(Comparator.comparing(PhysicalLocation::getServerVersion,
+				Comparator.nullsLast(Comparator.naturalOrder())));
+		if (sorted.size() <= limit) {
+			return sorted;
+		}
+		Long boundary = sorted.get(limit - 1).getServerVersion();
+		if (boundary == null || !boundary.equals(sorted.get(limit).getServerVersion())) {
+			return sorted.subList(0, limit);
+		}
+		int start = limit - 1;
+		while (start > 0 && boundary.equals(sorted.get(start - 1).getServerVersion())) {
+			start--;
+		}
+		int served = limit - start;
+		if (resumeToken != null && resumeToken.getServerVersion() == boundary) {
+			served += resumeToken.getServedCount();
+		}
+		return sorted.subList(0, served > ContinuationToken.MAX_SERVED_IDS && start > 0 ? start : limit);
+	}
+
+	private <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
+		return syncTaskExecutor == null ? CompletableFuture.completedFuture(supplier.get())
+				: CompletableFuture.supplyAsync(supplier, syncTaskExecutor);
 	}
 
 	// here for backward compatibility
-	@RequestMapping(value = "/sync", method = RequestMethod.GET, produces = { MediaType.APPLICATION_JSON_VALUE })
-	public ResponseEntity<String> getLocationsTwo(@RequestParam(BaseEntity.SERVER_VERSIOIN) String serverVersion,
+	@RequestMapping(value = "/sync", method = RequestMethod.GET, produces = { MediaType.APPLICATION_JSON_VALUE,
+			GeometryEncoding.MEDIA_TYPE_VALUE })
+	public ResponseEntity<Object> getLocationsTwo(@RequestParam(BaseEntity.SERVER_VERSIOIN) String serverVersion,
 			@RequestParam(value = IS_JURISDICTION, defaultValue = FALSE, required = false) boolean isJurisdiction,
 			@RequestParam(value = LOCATION_NAMES, required = false) String locationNames,
 			@RequestParam(value = PARENT_ID, required = false) String parentIds,
-			@RequestParam(value = RETURN_COUNT, defaultValue = FALSE, required = false) boolean returnCount) {
+			@RequestParam(value = RETURN_COUNT, defaultValue = FALSE, required = false) boolean returnCount,
+			@RequestParam(value = CONTINUATION_TOKEN, required = false) String continuationToken,
+			@RequestParam(value = LIMIT, required = false) Integer limit,
+			@RequestParam(value = GEOMETRY_LEVEL, defaultValue = "0", required = false) int geometryLevel,
+			@RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept, HttpServletResponse response)
+			throws IOException {
+		GeometrySimplifier.checkLevel(geometryLevel);
 		long currentServerVersion = 0;
 		try {
 			currentServerVersion = Long.parseLong(serverVersion);
@@ -227,34 +547,37 @@ public class LocationResource {
 			logger.error("server version not a number");
 		}
 
-		HttpHeaders headers = RestUtils.getJSONUTF8Headers();
-		Long locationCount = 0l;
+		String filterHash = ContinuationToken.hashFilters(isJurisdiction, locationNames, parentIds, null);
+		ContinuationToken resumeToken;
+		try {
+			resumeToken = decodeContinuationToken(continuationToken, filterHash);
+		}
+		catch (IllegalArgumentException e) {
+			logger.error(e.getMessage());
+			return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+		}
+		if (resumeToken != null) {
+			currentServerVersion = resumeToken.getServerVersion();
+		}
+
+		boolean binary = GeometryEncoding.isAccepted(accept);
 		if (isJurisdiction) {
 			if (StringUtils.isBlank(locationNames)) {
-				String locations = gson.toJson(locationService.findLocationsByServerVersion(currentServerVersion));
-				if (returnCount){
-					locationCount = locationService.countLocationsByServerVersion(currentServerVersion);
-					headers.add(TOTAL_RECORDS, String.valueOf(locationCount));
-				}
-				return new ResponseEntity<>(locations, headers, HttpStatus.OK);
+				return syncLocations(locationService.findLocationsByServerVersion(currentServerVersion),
+						returnCount ? locationService.countLocationsByServerVersion(currentServerVersion) : null,
+						resumeToken, filterHash, geometryLevel, binary, response);
 			}
-			String locations = gson.toJson(locationService.findLocationsByNames(locationNames, currentServerVersion));
-			if (returnCount){
-				locationCount = locationService.countLocationsByNames(locationNames, currentServerVersion);
-				headers.add(TOTAL_RECORDS, String.valueOf(locationCount));
-			}
-			return new ResponseEntity<>(locations, headers, HttpStatus.OK);
+			return syncLocations(locationService.findLocationsByNames(locationNames, currentServerVersion),
+					returnCount ? locationService.countLocationsByNames(locationNames, currentServerVersion) : null,
+					resumeToken, filterHash, geometryLevel, binary, response);
 
 		} else {
 			if (StringUtils.isBlank(parentIds)) {
 				return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
 			}
-			String structures = gson.toJson(locationService.findStructuresByParentAndServerVersion(parentIds, currentServerVersion));
-			if (returnCount){
-				Long structureCount = locationService.countStructuresByParentAndServerVersion(parentIds, currentServerVersion);
-				headers.add(TOTAL_RECORDS, String.valueOf(structureCount));
-			}
-			return new ResponseEntity<>(structures, headers, HttpStatus.OK);
+			writeStructures(parentIds, currentServerVersion, limit, returnCount, resumeToken, filterHash,
+					geometryLevel, binary, response);
+			return null;
 		}
 	}
 
@@ -266,6 +589,7 @@ public class LocationResource {
 			PhysicalLocation location = gson.fromJson(entity, PhysicalLocation.class);
 			location.setJurisdiction(isJurisdiction);
 			locationService.add(location);
+			scheduleLocationIndexRefresh(isJurisdiction);
 			return new ResponseEntity<>(HttpStatus.CREATED);
 		}
 		catch (JsonSyntaxException e) {
@@ -282,6 +606,7 @@ public class LocationResource {
 			PhysicalLocation location = gson.fromJson(entity, PhysicalLocation.class);
 			location.setJurisdiction(isJurisdiction);
 			locationService.update(location);
+			scheduleLocationIndexRefresh(isJurisdiction);
 			return new ResponseEntity<>(HttpStatus.CREATED);
 		}
 		catch (JsonSyntaxException e) {
@@ -300,6 +625,7 @@ public class LocationResource {
 			}.getType();
 			List<PhysicalLocation> locations = gson.fromJson(entity, listType);
 			Set<String> locationWithErrors = locationService.saveLocations(locations, isJurisdiction);
+			scheduleLocationIndexRefresh(isJurisdiction);
 			if (locationWithErrors.isEmpty())
 				return new ResponseEntity<>("All Locations  processed", HttpStatus.CREATED);
 			else
@@ -318,8 +644,11 @@ public class LocationResource {
 	public ResponseEntity<String> getStructuresWithinCordinates(@RequestParam(value = LATITUDE) double latitude,
 			@RequestParam(value = LONGITUDE) double longitude, @RequestParam(value = RADIUS) double radius) {
 
-		Collection<StructureDetails> structures = locationService.findStructuresWithinRadius(latitude, longitude,
-				radius);
+		Collection<StructureDetails> structures = structureIndex == null ? null
+				: structureIndex.findWithinRadius(latitude, longitude, radius);
+		if (structures == null) {
+			structures = locationService.findStructuresWithinRadius(latitude, longitude, radius);
+		}
 		return new ResponseEntity<>(gson.toJson(structures), RestUtils.getJSONUTF8Headers(), HttpStatus.OK);
 
 	}
@@ -330,6 +659,7 @@ public class LocationResource {
 	 *
 	 * @param isJurisdiction    boolean which when true the search is done on jurisdictions and when false search is on structures
 	 * @param returnGeometry    boolean which controls if geometry is returned
+	 * @param geometryLevel     the GeometrySimplifier level of the geometries, 0 for the full geometries
 	 * @param propertiesFilters list of params with each param having name and value e.g name:House1
 	 * @return the structures or jurisdictions matching the params
 	 */
@@ -338,6 +668,7 @@ public class LocationResource {
 	public ResponseEntity<String> findByLocationProperties(
 			@RequestParam(value = IS_JURISDICTION, defaultValue = FALSE, required = false) boolean isJurisdiction,
 			@RequestParam(value = RETURN_GEOMETRY, defaultValue = FALSE, required = false) boolean returnGeometry,
+			@RequestParam(value = GEOMETRY_LEVEL, defaultValue = "0", required = false) int geometryLevel,
 			@RequestParam(value = PROPERTIES_FILTER, required = false) List<String> propertiesFilters) {
 
 		String parentId = null;
@@ -357,11 +688,13 @@ public class LocationResource {
 		}
 		if (isJurisdiction) {
 			return new ResponseEntity<>(
-					gson.toJson(locationService.findLocationsByProperties(returnGeometry, parentId, filters)),
+					gson.toJson(geometryCache.simplify(
+							locationService.findLocationsByProperties(returnGeometry, parentId, filters), geometryLevel)),
 					RestUtils.getJSONUTF8Headers(), HttpStatus.OK);
 		} else {
 			return new ResponseEntity<>(
-					gson.toJson(locationService.findStructuresByProperties(returnGeometry, parentId, filters)),
+					gson.toJson(geometryCache.simplify(
+							locationService.findStructuresByProperties(returnGeometry, parentId, filters), geometryLevel)),
 					RestUtils.getJSONUTF8Headers(), HttpStatus.OK);
 		}
 
@@ -372,6 +705,7 @@ public class LocationResource {
 	 * It returns the Geometry optionally if @param returnGeometry is set to true.
 	 *
 	 * @param returnGeometry  boolean which controls if geometry is returned
+	 * @param geometryLevel   the GeometrySimplifier level of the geometries, 0 for the full geometries
 	 * @param jurisdictionIds list of jurisdiction ids
 	 * @return jurisdictions whose ids match the provided params
 	 */
@@ -379,10 +713,12 @@ public class LocationResource {
 			MediaType.APPLICATION_JSON_VALUE })
 	public ResponseEntity<String> findByJurisdictionIds(
 			@RequestParam(value = RETURN_GEOMETRY, defaultValue = FALSE, required = false) boolean returnGeometry,
+			@RequestParam(value = GEOMETRY_LEVEL, defaultValue = "0", required = false) int geometryLevel,
 			@RequestParam(value = JURISDICTION_IDS, required = false) List<String> jurisdictionIds) {
 
 		return new ResponseEntity<>(
-				gson.toJson(locationService.findLocationsByIds(returnGeometry, jurisdictionIds)),
+				gson.toJson(geometryCache.simplify(locationService.findLocationsByIds(returnGeometry, jurisdictionIds),
+						geometryLevel)),
 				RestUtils.getJSONUTF8Headers(), HttpStatus.OK);
 
 	}
@@ -392,6 +728,7 @@ public class LocationResource {
 	 * It returns the Geometry optionally if @param returnGeometry is set to true.
 	 *
 	 * @param returnGeometry boolean which controls if geometry is returned
+	 * @param geometryLevel  the GeometrySimplifier level of the geometries, 0 for the full geometries
 	 * @param jurisdictionId location id
 	 * @param pageSize       number of records to be returned
 	 * @return location together with it's children whose id matches the provided param
@@ -400,11 +737,13 @@ public class LocationResource {
 			MediaType.APPLICATION_JSON_VALUE })
 	public ResponseEntity<String> findByIdWithChildren(
 			@RequestParam(value = RETURN_GEOMETRY, defaultValue = FALSE, required = false) boolean returnGeometry,
+			@RequestParam(value = GEOMETRY_LEVEL, defaultValue = "0", required = false) int geometryLevel,
 			@RequestParam(value = PAGE_SIZE, defaultValue = DEFAULT_PAGE_SIZE, required = false) int pageSize,
 			@RequestParam(value = JURISDICTION_ID, required = false) String jurisdictionId) {
 
 		return new ResponseEntity<>(
-				gson.toJson(locationService.findLocationByIdWithChildren(returnGeometry, jurisdictionId, pageSize)),
+				gson.toJson(geometryCache.simplify(
+						locationService.findLocationByIdWithChildren(returnGeometry, jurisdictionId, pageSize), geometryLevel)),
 				RestUtils.getJSONUTF8Headers(), HttpStatus.OK);
 
 	}
@@ -432,12 +771,31 @@ public class LocationResource {
 
 	}
 
+	/**
+	 * Reconciliation variant of {@link #findIds}. The request body is a Bloom filter of the structure
+	 * ids the device holds and only the ids it is missing are returned, see
+	 * {@link IdReconciliation} for the formats.
+	 */
+	@RequestMapping(value = "/findStructureIds/reconcile", method = RequestMethod.POST, consumes = {
+			MediaType.APPLICATION_OCTET_STREAM_VALUE }, produces = { MediaType.APPLICATION_OCTET_STREAM_VALUE })
+	public void reconcileStructureIds(
+			@RequestParam(value = SERVER_VERSION)  long serverVersion,
+			@RequestParam(value = "fromDate", required = false) String fromDate,
+			@RequestParam(value = "toDate", required = false) String toDate,
+			HttpServletRequest request, HttpServletResponse response) throws IOException {
+		Date from = Utils.getDateTimeFromString(fromDate);
+		Date to = Utils.getDateTimeFromString(toDate);
+		RestUtils.reconcileIds(request, response, serverVersion,
+				(version, limit) -> locationService.findAllStructureIds(version, limit, from, to));
+	}
+
 	/**
 	 * Fetch structures or jurisdictions ordered by serverVersion ascending
 	 * It returns the Geometry optionally if @param returnGeometry is set to true.
 	 *
 	 * @param isJurisdiction boolean which when true the search is done on jurisdictions and when false search is on structures
 	 * @param returnGeometry boolean which controls if geometry is returned
+	 * @param geometryLevel  the GeometrySimplifier level of the geometries, 0 for the full geometries
 	 * @param serverVersion  serverVersion using to filter by
 	 * @param limit          upper limit on number os plas to fetch
 	 * @return the structures or jurisdictions matching the params
@@ -447,6 +805,7 @@ public class LocationResource {
 	public ResponseEntity<String> getAll(
 			@RequestParam(value = IS_JURISDICTION, defaultValue = FALSE, required = false) boolean isJurisdiction,
 			@RequestParam(value = RETURN_GEOMETRY, defaultValue = FALSE, required = false) boolean returnGeometry,
+			@RequestParam(value = GEOMETRY_LEVEL, defaultValue = "0", required = false) int geometryLevel,
 			@RequestParam(value = BaseEntity.SERVER_VERSIOIN) long serverVersion,
 			@RequestParam(value = LIMIT, required = false) Integer limit,
 			@RequestParam(value = INCLUDE_INACTIVE, required = false) boolean includeInactive,
@@ -458,11 +817,15 @@ public class LocationResource {
 
 		if (isJurisdiction) {
 			return new ResponseEntity<>(
-					gson.toJson(locationService.findAllLocations(returnGeometry, serverVersion, pageLimit, includeInactive)),
+					gson.toJson(geometryCache.simplify(
+							locationService.findAllLocations(returnGeometry, serverVersion, pageLimit, includeInactive),
+							geometryLevel)),
 					RestUtils.getJSONUTF8Headers(), HttpStatus.OK);
 		} else {
 			return new ResponseEntity<>(
-					gson.toJson(locationService.findAllStructures(returnGeometry, serverVersion, pageLimit, pageNumber, orderByType, orderByFieldName)),
+					gson.toJson(geometryCache.simplify(
+							locationService.findAllStructures(returnGeometry, serverVersion, pageLimit, pageNumber, orderByType, orderByFieldName),
+							geometryLevel)),
 					RestUtils.getJSONUTF8Headers(), HttpStatus.OK);
 		}
 
@@ -554,7 +917,9 @@ public class LocationResource {
 			@RequestParam(value = RETURN_TAGS, defaultValue = FALSE, required = false) boolean returnTags,
 			@RequestParam(value = RETURN_STRUCTURE_COUNT, defaultValue = FALSE, required = false) boolean returnStructureCount) {
 
-		LocationTree tree = locationService.buildLocationHierachyFromLocation(locationId, returnTags, returnStructureCount);
+		LocationHierarchySnapshot snapshot = getLocationHierarchySnapshot(returnStructureCount);
+		LocationTree tree = snapshot != null && snapshot.contains(locationId) ? snapshot.buildTree(locationId, returnTags)
+				: locationService.buildLocationHierachyFromLocation(locationId, returnTags, returnStructureCount);
 
 		return new ResponseEntity<>(gson.toJson(tree), RestUtils.getJSONUTF8Headers(), HttpStatus.OK);
 	}
@@ -577,7 +942,10 @@ public class LocationResource {
 			return new ResponseEntity<>("Plan does not have any jurisdictions", HttpStatus.BAD_REQUEST);
 		}
 
-		LocationTree locationTree = locationService.buildLocationHierachy(locationIds, returnStructureCount, returnTags);
+		LocationHierarchySnapshot snapshot = getLocationHierarchySnapshot(returnStructureCount);
+		LocationTree locationTree = snapshot != null && snapshot.containsAll(locationIds) ?
+				snapshot.buildAncestorTree(locationIds, returnTags) :
+				locationService.buildLocationHierachy(locationIds, returnStructureCount, returnTags);
 
 		return new ResponseEntity<>(
 				gson.toJson(locationTree),
@@ -647,6 +1015,15 @@ public class LocationResource {
 		@JsonProperty(RETURN_COUNT)
 		private boolean returnCount;
 
+		@JsonProperty(CONTINUATION_TOKEN)
+		private String continuationToken;
+
+		@JsonProperty(LIMIT)
+		private Integer limit;
+
+		@JsonProperty(GEOMETRY_LEVEL)
+		private int geometryLevel;
+
 	}
 
 }
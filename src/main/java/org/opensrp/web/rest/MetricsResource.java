@@ -0,0 +1,34 @@
+package org.opensrp.web.rest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+
+/**
+ * Prometheus scrape endpoint for the application metrics
+ */
+@RestController
+@RequestMapping(value = "/rest/metrics")
+public class MetricsResource {
+	
+	private PrometheusMeterRegistry prometheusMeterRegistry;
+	
+	@Autowired
+	public void setPrometheusMeterRegistry(PrometheusMeterRegistry prometheusMeterRegistry) {
+		this.prometheusMeterRegistry = prometheusMeterRegistry;
+	}
+	
+	@GetMapping(produces = { TextFormat.CONTENT_TYPE_004 })
+	public ResponseEntity<String> scrape() {
+		HttpHeaders headers = new HttpHeaders();
+		headers.add(HttpHeaders.CONTENT_TYPE, TextFormat.CONTENT_TYPE_004);
+		return new ResponseEntity<>(prometheusMeterRegistry.scrape(), headers, HttpStatus.OK);
+	}
+}
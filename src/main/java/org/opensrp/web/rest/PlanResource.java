@@ -12,11 +12,13 @@ import static org.opensrp.web.Constants.PAGE_NUMBER;
 import static org.opensrp.web.Constants.PAGE_SIZE;
 import static org.opensrp.web.rest.RestUtils.getStringFilter;
 
+import java.io.IOException;
 import java.lang.reflect.Field;
 import java.sql.Time;
 import java.util.*;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
@@ -29,7 +31,10 @@ import org.opensrp.search.PlanSearchBean;
 import org.opensrp.service.PhysicalLocationService;
 import org.opensrp.service.PlanService;
 import org.opensrp.util.DateTypeConverter;
+import org.opensrp.web.Constants;
 import org.opensrp.web.bean.Identifier;
+import org.opensrp.web.utils.NdjsonExporter;
+import org.opensrp.web.utils.NdjsonExporterFactory;
 import org.opensrp.web.utils.Utils;
 import org.smartregister.domain.PlanDefinition;
 import org.smartregister.utils.TaskDateTimeTypeConverter;
@@ -73,6 +78,10 @@ public class PlanResource {
 	
 	private PhysicalLocationService locationService;
 
+	private NdjsonExporterFactory ndjsonExporterFactory;
+
+	private static final String STREAM_PARAM = Constants.STREAM + "=true";
+
 	private static final String IS_DELETED = "is_deleted";
 
 	private static final String FALSE = "false";
@@ -100,6 +109,11 @@ public class PlanResource {
 	public void setLocationService(PhysicalLocationService locationService) {
 		this.locationService = locationService;
 	}
+
+	@Autowired
+	public void setNdjsonExporterFactory(NdjsonExporterFactory ndjsonExporterFactory) {
+		this.ndjsonExporterFactory = ndjsonExporterFactory;
+	}
 	
 	@RequestMapping(value = "/{identifier}", method = RequestMethod.GET, produces = { MediaType.APPLICATION_JSON_VALUE })
 	public ResponseEntity<String> getPlanByUniqueId(@PathVariable("identifier") String identifier,
@@ -287,6 +301,24 @@ public class PlanResource {
 
 	}
 
+	/**
+	 * Streams every plan from the server version as newline delimited JSON
+	 *
+	 * @param serverVersion serverVersion using to filter by
+	 * @param response the response the plan definitions are written to
+	 */
+	@RequestMapping(value = "/getAll", method = RequestMethod.GET, params = STREAM_PARAM, produces = {
+	        NdjsonExporter.APPLICATION_NDJSON_VALUE })
+	public void exportAll(@RequestParam(value = SERVER_VERSIOIN) long serverVersion,
+	        @RequestParam(value = IS_TEMPLATE, required = false) boolean isTemplateParam, HttpServletResponse response)
+	        throws IOException {
+		NdjsonExporter<PlanDefinition> exporter = ndjsonExporterFactory.create(
+		        (version, limit) -> planService.getAllPlans(version, limit, isTemplateParam),
+		        PlanDefinition::getServerVersion, PlanDefinition::getIdentifier);
+		ndjsonExporterFactory.prepareResponse(response);
+		exporter.export(serverVersion, gson::toJson, response.getOutputStream());
+	}
+
 	/**
 	 * Fetch count of plans
 	 *
@@ -5,16 +5,19 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Field;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
 import java.util.stream.Collectors;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
@@ -27,10 +30,15 @@ import org.opensrp.api.domain.User;
 import org.opensrp.domain.Multimedia;
 import org.opensrp.service.multimedia.MultimediaFileManager;
 import org.opensrp.service.multimedia.S3MultimediaFileManager;
+import org.opensrp.web.Constants;
+import org.opensrp.web.utils.IdReconciliation;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.security.core.Authentication;
 
+import com.google.common.hash.BloomFilter;
+
 public class RestUtils {
 	public static final String DATE_FORMAT = "dd-MM-yyyy";
 	public static final SimpleDateFormat SDF = new SimpleDateFormat("dd-MM-yyyy");
@@ -184,40 +192,60 @@ public class RestUtils {
 		return null;
 	}
 
-	public static void writeToZipFile(String fileName, ZipOutputStream zipStream, String filePath) throws IOException {
-		File aFile;
-		FileInputStream fis = null;
-		ZipEntry zipEntry;
-		String tempDirectory = System.getProperty("java.io.tmpdir");
-		try{
-			if(StringUtils.isNotBlank(fileName)) {
-				aFile = new File(StringUtils.isNotBlank(filePath) ? filePath : fileName);
-				fis = new FileInputStream(aFile);
-				zipEntry = new ZipEntry(StringUtils.isNotBlank(filePath) ? filePath.replace(tempDirectory, "") : fileName);
-				logger.info("Writing file : '" + fileName + "' to zip file");
-			}
-			else {
-				fis = new FileInputStream(filePath);
-				zipEntry = new ZipEntry(filePath);
-				logger.info("Writing file : '" + filePath + "' to zip file");
-			}
-			zipStream.putNextEntry(zipEntry);
-			byte[] bytes = new byte[1024];
-			int length;
-			while ((length = fis.read(bytes)) >= 0) {
-				zipStream.write(bytes, 0, length);
+	/**
+	 * Streams a file into a new zip entry using the given buffer. Files that are already compressed,
+	 * such as JPEGs, are written without compressing them again, which saves the CPU spent deflating
+	 * them; the file is read once either way.
+	 *
+	 * @param zipStream the zip to write to
+	 * @param entryName name of the zip entry
+	 * @param file file to write
+	 * @param buffer buffer used to copy the file
+	 * @param compress whether to compress the entry
+	 * @throws IOException
+	 */
+	public static void writeFileToZip(ZipOutputStream zipStream, String entryName, File file, byte[] buffer,
+	        boolean compress) throws IOException {
+		zipStream.setLevel(compress ? Deflater.DEFAULT_COMPRESSION : Deflater.NO_COMPRESSION);
+		try {
+			zipStream.putNextEntry(new ZipEntry(entryName));
+			try (InputStream inputStream = new FileInputStream(file)) {
+				int length;
+				while ((length = inputStream.read(buffer)) != -1) {
+					zipStream.write(buffer, 0, length);
+				}
 			}
-
 			zipStream.closeEntry();
 		}
-		catch (IOException e) {
-			logger.error("IO Exception occurred: " + e.getMessage());
-		}
 		finally {
-			if (fis != null) {
-				fis.close();
-			}
+			zipStream.setLevel(Deflater.DEFAULT_COMPRESSION);
 		}
 	}
-
+	
+	/**
+	 * Reads the Bloom filter of the ids a device holds from the request and writes the ids it is
+	 * missing to the response, see {@link IdReconciliation} for the formats
+	 *
+	 * @param request the request with the filter as body
+	 * @param response the response the missing ids are written to
+	 * @param serverVersion the server version to start from
+	 * @param fetcher the ids lookup
+	 * @throws IOException
+	 */
+	public static void reconcileIds(HttpServletRequest request, HttpServletResponse response, long serverVersion,
+	        IdReconciliation.IdPageFetcher fetcher) throws IOException {
+		BloomFilter<CharSequence> heldIds;
+		try {
+			heldIds = IdReconciliation.readFilter(request.getInputStream());
+		}
+		catch (IllegalArgumentException e) {
+			logger.warn(e.getMessage());
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		}
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+		IdReconciliation.writeMissingIds(fetcher, serverVersion, Constants.DEFAULT_GET_ALL_IDS_LIMIT, heldIds,
+		    response.getOutputStream());
+	}
 }
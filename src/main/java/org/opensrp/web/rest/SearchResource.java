@@ -9,11 +9,18 @@ import static org.opensrp.common.AllConstants.Client.MIDDLE_NAME;
 import static org.opensrp.web.rest.RestUtils.getStringFilter;
 
 import java.text.ParseException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
+import javax.annotation.PostConstruct;
 import javax.servlet.http.HttpServletRequest;
 
 import org.apache.commons.lang3.StringUtils;
@@ -24,14 +31,21 @@ import org.opensrp.common.AllConstants.BaseEntity;
 import org.smartregister.domain.Client;
 import org.smartregister.domain.Event;
 import org.opensrp.search.ClientSearchBean;
+import org.opensrp.search.EventSearchBean;
 import org.opensrp.service.ClientService;
 import org.opensrp.service.EventService;
 import org.opensrp.service.SearchService;
+import org.opensrp.web.config.TaskExecutorConfig;
+import org.opensrp.web.utils.BatchFetchUtils;
 import org.opensrp.web.utils.ChildMother;
+import org.opensrp.web.utils.PhoneNumberIndex;
 import org.opensrp.web.utils.SearchEntityWrapper;
 import org.opensrp.web.utils.SearchHelper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.MediaType;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
@@ -48,6 +62,18 @@ public class SearchResource extends RestResource<Client> {
 	
 	private EventService eventService;
 	
+	private Executor syncTaskExecutor;
+	
+	private TaskScheduler indexTaskScheduler;
+	
+	private PhoneNumberIndex phoneNumberIndex;
+	
+	@Value("#{opensrp['opensrp.search.phone.index.refresh.seconds'] ?: 60}")
+	private long phoneNumberIndexRefreshSeconds = 60;
+	
+	@Value("#{opensrp['opensrp.search.phone.index.batch.size'] ?: 1000}")
+	private int phoneNumberIndexBatchSize = 1000;
+	
 	@Autowired
 	public SearchResource(SearchService searchService, ClientService clientService, EventService eventService) {
 		this.searchService = searchService;
@@ -55,6 +81,21 @@ public class SearchResource extends RestResource<Client> {
 		this.eventService = eventService;
 	}
 	
+	@Autowired
+	public void setSyncTaskExecutor(@Qualifier(TaskExecutorConfig.SYNC_TASK_EXECUTOR) Executor syncTaskExecutor) {
+		this.syncTaskExecutor = syncTaskExecutor;
+	}
+	
+	@Autowired
+	public void setIndexTaskScheduler(@Qualifier(TaskExecutorConfig.INDEX_TASK_SCHEDULER) TaskScheduler indexTaskScheduler) {
+		this.indexTaskScheduler = indexTaskScheduler;
+	}
+	
+	@Autowired
+	public void setPhoneNumberIndex(PhoneNumberIndex phoneNumberIndex) {
+		this.phoneNumberIndex = phoneNumberIndex;
+	}
+	
 	@Override
 	public List<Client> search(HttpServletRequest request) throws ParseException {//TODO search should not call different url but only add params
 		String firstName = getStringFilter(FIRST_NAME, request);
@@ -106,38 +147,20 @@ public class SearchResource extends RestResource<Client> {
 	private List<ChildMother> searchPathBy(HttpServletRequest request) throws ParseException {
 		try {
 			
-			//Process clients search via demographics
-			
-			ClientSearchBean searchBean = new ClientSearchBean();
-			List<Client> children = new ArrayList<Client>();
+			//Process clients search via demographics, mother demographics and contact phone number concurrently
 			
 			SearchEntityWrapper childSearchEntity = SearchHelper.childSearchParamProcessor(request);
-			
-			if (childSearchEntity.isValid()) {
-				searchBean = childSearchEntity.getClientSearchBean();
-				children = searchService.searchClient(searchBean, searchBean.getFirstName(), searchBean.getMiddleName(),
-				    searchBean.getLastName(), childSearchEntity.getLimit());
-			}
-			
-			//Process mothers search via mother demographics
-			
 			SearchEntityWrapper motherSearchEntity = SearchHelper.motherSearchParamProcessor(request);
-			ClientSearchBean motherSearchBean = new ClientSearchBean();
-			List<Client> mothers = new ArrayList<Client>();
-			
-			if (motherSearchEntity.isValid()) {
-				motherSearchBean = motherSearchEntity.getClientSearchBean();
-				mothers = searchService.searchClient(motherSearchBean, motherSearchBean.getFirstName(),
-				    motherSearchBean.getMiddleName(), motherSearchBean.getLastName(), motherSearchEntity.getLimit());
-			}
-			
-			//Process clients search via contact phone number
-			
 			String contactPhoneNumber = SearchHelper.getContactPhoneNumberParam(request);
 			
-			List<String> clientBaseEntityIds = getClientBaseEntityIdsByContactPhoneNumber(contactPhoneNumber);
+			CompletableFuture<List<Client>> childSearch = searchClientsAsync(childSearchEntity);
+			CompletableFuture<List<Client>> motherSearch = searchClientsAsync(motherSearchEntity);
+			CompletableFuture<List<Client>> contactSearch = supplyAsync(() -> clientService.findByFieldValue(
+			    BaseEntity.BASE_ENTITY_ID, getClientBaseEntityIdsByContactPhoneNumber(contactPhoneNumber)));
 			
-			List<Client> eventChildren = clientService.findByFieldValue(BaseEntity.BASE_ENTITY_ID, clientBaseEntityIds);
+			List<Client> children = BatchFetchUtils.join(childSearch);
+			List<Client> mothers = BatchFetchUtils.join(motherSearch);
+			List<Client> eventChildren = BatchFetchUtils.join(contactSearch);
 			
 			children = SearchHelper.intersection(children, eventChildren);// Search conjunction is "AND" find intersection
 			
@@ -145,33 +168,32 @@ public class SearchResource extends RestResource<Client> {
 			
 			String RELATIONSHIP_KEY = "mother";
 			if (!children.isEmpty()) {
-				List<String> clientIds = new ArrayList<String>();
+				Set<String> clientIds = new LinkedHashSet<String>();
 				for (Client c : children) {
 					String relationshipId = SearchHelper.getRelationalId(c, RELATIONSHIP_KEY);
-					if (relationshipId != null && !clientIds.contains(relationshipId)) {
+					if (relationshipId != null) {
 						clientIds.add(relationshipId);
 					}
 				}
 				
-				linkedMothers = clientService.findByFieldValue(BaseEntity.BASE_ENTITY_ID, clientIds);
+				linkedMothers = clientService.findByFieldValue(BaseEntity.BASE_ENTITY_ID, new ArrayList<String>(clientIds));
 				
 			}
 			
 			List<Client> linkedChildren = new ArrayList<Client>();
 			
 			if (!mothers.isEmpty()) {
+				Set<String> motherIds = new LinkedHashSet<String>();
 				for (Client client : mothers) {
-					linkedChildren.addAll(clientService.findByRelationship(client.getBaseEntityId()));
+					motherIds.add(client.getBaseEntityId());
 				}
+				linkedChildren = BatchFetchUtils.fetchEach(new ArrayList<String>(motherIds), syncTaskExecutor,
+				    clientService::findByRelationship);
 			}
 			
 			children = SearchHelper.intersection(children, linkedChildren);// Search conjunction is "AND" find intersection
 			
-			for (Client linkedMother : linkedMothers) {
-				if (!SearchHelper.contains(mothers, linkedMother)) {
-					mothers.add(linkedMother);
-				}
-			}
+			SearchHelper.addAllMissing(mothers, linkedMothers);
 			
 			return SearchHelper.processSearchResult(children, mothers, RELATIONSHIP_KEY);
 			
@@ -183,17 +205,38 @@ public class SearchResource extends RestResource<Client> {
 		}
 	}
 	
+	private CompletableFuture<List<Client>> searchClientsAsync(SearchEntityWrapper searchEntity) {
+		if (!searchEntity.isValid()) {
+			return CompletableFuture.completedFuture(new ArrayList<Client>());
+		}
+		ClientSearchBean searchBean = searchEntity.getClientSearchBean();
+		return supplyAsync(() -> searchService.searchClient(searchBean, searchBean.getFirstName(),
+		    searchBean.getMiddleName(), searchBean.getLastName(), searchEntity.getLimit()));
+	}
+	
+	private <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
+		return syncTaskExecutor == null ? CompletableFuture.completedFuture(supplier.get())
+		        : CompletableFuture.supplyAsync(supplier, syncTaskExecutor);
+	}
+	
 	public List<String> getClientBaseEntityIdsByContactPhoneNumber(String motherGuardianPhoneNumber) {
 		List<String> clientBaseEntityIds = new ArrayList<String>();
 		
 		if (!StringUtils.isBlank(motherGuardianPhoneNumber)) {
 			
-			List<Event> events = eventService.findEventsByConceptAndValue("159635AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA",
+			List<String> indexedBaseEntityIds = phoneNumberIndex == null ? null
+			        : phoneNumberIndex.find(motherGuardianPhoneNumber);
+			if (indexedBaseEntityIds != null) {
+				return indexedBaseEntityIds;
+			}
+			
+			List<Event> events = eventService.findEventsByConceptAndValue(PhoneNumberIndex.CONTACT_PHONE_NUMBER_CONCEPT,
 			    motherGuardianPhoneNumber);
 			if (events != null && !events.isEmpty()) {
+				Set<String> entityIds = new LinkedHashSet<String>();
 				for (Event event : events) {
 					String entityId = event.getBaseEntityId();
-					if (entityId != null && !clientBaseEntityIds.contains(entityId)) {
+					if (entityId != null && entityIds.add(entityId)) {
 						clientBaseEntityIds.add(entityId);
 					}
 				}
@@ -203,6 +246,32 @@ public class SearchResource extends RestResource<Client> {
 		return clientBaseEntityIds;
 	}
 	
+	/**
+	 * Builds the phone number index in the background when it is enabled, then keeps it current with
+	 * the events saved by other instances or outside of the event resource
+	 */
+	@PostConstruct
+	public void initPhoneNumberIndex() {
+		if (phoneNumberIndex == null || !phoneNumberIndex.isEnabled() || indexTaskScheduler == null) {
+			return;
+		}
+		indexTaskScheduler.scheduleWithFixedDelay(this::refreshPhoneNumberIndex,
+		    Duration.ofSeconds(Math.max(phoneNumberIndexRefreshSeconds, 1)));
+	}
+	
+	private void refreshPhoneNumberIndex() {
+		try {
+			phoneNumberIndex.refresh((serverVersion, limit) -> {
+				EventSearchBean eventSearchBean = new EventSearchBean();
+				eventSearchBean.setServerVersion(serverVersion);
+				return eventService.findEvents(eventSearchBean, BaseEntity.SERVER_VERSIOIN, "asc", limit);
+			}, phoneNumberIndexBatchSize);
+		}
+		catch (RuntimeException e) {
+			logger.error("Failed to refresh the phone number index", e);
+		}
+	}
+	
 	@Override
 	public List<Client> filter(String query) {
 		// TODO Auto-generated method stub
@@ -15,6 +15,8 @@ import org.opensrp.repository.postgres.handler.SettingTypeHandler;
 import org.opensrp.search.SettingSearchBean;
 import org.opensrp.service.PhysicalLocationService;
 import org.opensrp.service.SettingService;
+import org.opensrp.web.utils.LocationHierarchy;
+import org.opensrp.web.utils.LocationHierarchySnapshot;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
@@ -44,6 +46,8 @@ public class SettingResource {
 
 	private PhysicalLocationService physicalLocationService;
 
+	private LocationHierarchy locationHierarchy;
+
 	private static final Logger logger = LogManager.getLogger(SettingResource.class.toString());
 
 	@Autowired
@@ -52,8 +56,16 @@ public class SettingResource {
 		this.physicalLocationService = physicalLocationService;
 	}
 
+	@Autowired
+	public void setLocationHierarchy(LocationHierarchy locationHierarchy) {
+		this.locationHierarchy = locationHierarchy;
+	}
+
 	private Map<String, TreeNode<String, Location>> getChildParentLocationTree(String locationId) {
-		LocationTree locationTree = physicalLocationService.buildLocationTreeHierachyWithAncestors(locationId, false);
+		LocationHierarchySnapshot snapshot = locationHierarchy == null ? null : locationHierarchy.getSnapshot();
+		LocationTree locationTree = snapshot != null && snapshot.contains(locationId) ?
+				snapshot.buildTreeWithAncestors(locationId, false) :
+				physicalLocationService.buildLocationTreeHierachyWithAncestors(locationId, false);
 		Map<String, TreeNode<String, Location>> treeNodeHashMap = new HashMap<>();
 		if (locationTree != null) {
 			treeNodeHashMap = locationTree.getLocationsHierarchy();
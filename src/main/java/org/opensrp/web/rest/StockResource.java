@@ -9,6 +9,7 @@ import static org.opensrp.common.AllConstants.Stock.TO_FROM;
 import static org.opensrp.common.AllConstants.Stock.TRANSACTION_TYPE;
 import static org.opensrp.common.AllConstants.Stock.VACCINE_TYPE_ID;
 import static org.opensrp.common.AllConstants.Stock.VALUE;
+import static org.opensrp.web.Constants.CONTINUATION_TOKEN;
 import static org.opensrp.web.Constants.ORDER_BY_FIELD_NAME;
 import static org.opensrp.web.Constants.ORDER_BY_TYPE;
 import static org.opensrp.web.Constants.PAGE_NUMBER;
@@ -46,9 +47,12 @@ import org.opensrp.dto.FailedRecordSummary;
 import org.opensrp.search.StockSearchBean;
 import org.opensrp.service.StockService;
 import org.opensrp.web.Constants;
+import org.opensrp.web.utils.ContinuationToken;
+import org.opensrp.web.utils.ContinuationTokenSigner;
 import org.smartregister.utils.DateTimeTypeConverter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -79,6 +83,8 @@ public class StockResource extends RestResource<Stock> {
 
 	private StockService stockService;
 
+	private ContinuationTokenSigner continuationTokenSigner = ContinuationTokenSigner.withRandomKey();
+
 	Gson gson = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ")
 			.registerTypeAdapter(DateTime.class, new DateTimeTypeConverter()).create();
 
@@ -91,6 +97,11 @@ public class StockResource extends RestResource<Stock> {
 		this.stockService = stockService;
 	}
 
+	@Autowired
+	public void setContinuationTokenSigner(ContinuationTokenSigner continuationTokenSigner) {
+		this.continuationTokenSigner = continuationTokenSigner;
+	}
+
 	@Override
 	public Stock getByUniqueId(String uniqueId) {
 		return stockService.find(uniqueId);
@@ -162,8 +173,11 @@ public class StockResource extends RestResource<Stock> {
 			}
 			Integer limit = getIntegerFilter("limit", request);
 			searchBean.setLimit(limit);
-			return syncStocks(searchBean);
+			return syncStocks(searchBean, getStringFilter(CONTINUATION_TOKEN, request));
 
+		} catch (IllegalArgumentException e) {
+			response.put("msg", e.getMessage());
+			return new ResponseEntity<>(new Gson().toJson(response), BAD_REQUEST);
 		} catch (Exception e) {
 			response.put("msg", "Error occurred");
 			logger.error("", e);
@@ -337,13 +351,19 @@ public class StockResource extends RestResource<Stock> {
 	}
 
 	@PostMapping(value = "/sync", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
-	protected ResponseEntity<String> syncV2(@RequestBody StockSearchBean stockSearchBean) {
+	protected ResponseEntity<String> syncV2(@RequestBody StockSearchBean stockSearchBean,
+			@RequestParam(value = CONTINUATION_TOKEN, required = false) String continuationToken) {
 		Map<String, Object> response = new HashMap<String, Object>();
 		try {
 
-			return syncStocks(stockSearchBean);
+			return syncStocks(stockSearchBean, continuationToken);
 
 		}
+		catch (IllegalArgumentException e) {
+			logger.error(e.getMessage());
+			response.put("msg", "Invalid sync request");
+			return new ResponseEntity<>(new Gson().toJson(response), BAD_REQUEST);
+		}
 		catch (Exception e) {
 			response.put("msg", "Error occurred");
 			logger.error("", e);
@@ -351,21 +371,50 @@ public class StockResource extends RestResource<Stock> {
 		}
 	}
 
-	private ResponseEntity<String> syncStocks(StockSearchBean stockSearchBean) {
+	/**
+	 * Fetches a page of stocks. When a continuation token is passed the page resumes after the last
+	 * stock returned with it; the token for the next page is returned in the
+	 * {@value org.opensrp.web.Constants#CONTINUATION_TOKEN} header.
+	 *
+	 * @throws IllegalArgumentException if the continuation token is not valid for the filters
+	 */
+	private ResponseEntity<String> syncStocks(StockSearchBean stockSearchBean, String continuationToken) {
 		Map<String, Object> response = new HashMap<String, Object>();
 		List<Stock> stocks = new ArrayList<Stock>();
 		Integer limit = stockSearchBean.getLimit();
 		if (limit == null || limit.intValue() == 0) {
 			limit = 25;
 		}
-		stockSearchBean.setLimit(limit);
+		String filterHash = ContinuationToken.hashFilters(stockSearchBean.getIdentifier(),
+				stockSearchBean.getStockTypeId(), stockSearchBean.getTransactionType(), stockSearchBean.getProviderId(),
+				stockSearchBean.getValue(), stockSearchBean.getDateCreated(), stockSearchBean.getToFrom(),
+				stockSearchBean.getDateUpdated(), stockSearchBean.getLocations());
+		ContinuationToken resumeToken = null;
+		if (StringUtils.isNotBlank(continuationToken)) {
+			resumeToken = ContinuationToken.decode(continuationToken, filterHash, continuationTokenSigner);
+			stockSearchBean.setServerVersion(resumeToken.getServerVersion());
+		}
+		// fetch enough to fill the page after skipping the stocks already returned with the token
+		stockSearchBean.setLimit(resumeToken == null ? limit : limit + resumeToken.getServedCount());
 		stocks = stockService.findStocks(stockSearchBean, BaseEntity.SERVER_VERSIOIN, "asc", stockSearchBean.getLimit());
+		if (resumeToken != null) {
+			stocks = resumeToken.skipServed(stocks, Stock::getServerVersion, Stock::getId);
+			if (stocks.size() > limit) {
+				stocks = new ArrayList<>(stocks.subList(0, limit));
+			}
+		}
 		JsonArray stocksArray = (JsonArray) gson.toJsonTree(stocks, new TypeToken<List<Stock>>() {
 		}.getType());
 
 		response.put("stocks", stocksArray);
 
-		return new ResponseEntity<>(gson.toJson(response), RestUtils.getJSONUTF8Headers(), HttpStatus.OK);
+		HttpHeaders headers = RestUtils.getJSONUTF8Headers();
+		ContinuationToken nextToken = ContinuationToken.after(stocks, Stock::getServerVersion, Stock::getId, resumeToken,
+				filterHash);
+		if (nextToken != null) {
+			headers.add(CONTINUATION_TOKEN, nextToken.encode(continuationTokenSigner));
+		}
+		return new ResponseEntity<>(gson.toJson(response), headers, HttpStatus.OK);
 
 	}
 
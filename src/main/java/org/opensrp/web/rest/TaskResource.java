@@ -1,6 +1,7 @@
 package org.opensrp.web.rest;
 
 import static org.opensrp.common.AllConstants.OpenSRPEvent.Form.SERVER_VERSION;
+import static org.opensrp.web.Constants.CONTINUATION_TOKEN;
 import static org.opensrp.web.Constants.DEFAULT_GET_ALL_IDS_LIMIT;
 import static org.opensrp.web.Constants.DEFAULT_LIMIT;
 import static org.opensrp.web.Constants.LIMIT;
@@ -8,8 +9,10 @@ import static org.opensrp.web.Constants.RETURN_COUNT;
 import static org.opensrp.web.Constants.TOTAL_RECORDS;
 import static org.opensrp.web.rest.RestUtils.getStringFilter;
 
+import java.io.IOException;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.Set;
 import java.util.Map;
@@ -17,6 +20,7 @@ import java.util.HashMap;
 import java.util.stream.Collectors;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
 
 import org.apache.commons.lang3.StringUtils;
@@ -29,9 +33,15 @@ import org.opensrp.common.AllConstants.BaseEntity;
 import org.opensrp.domain.TaskUpdate;
 import org.opensrp.search.TaskSearchBean;
 import org.opensrp.service.TaskService;
+import org.opensrp.web.Constants;
 import org.opensrp.web.bean.Identifier;
 import org.opensrp.web.dto.TaskDto;
 import org.opensrp.web.dto.TaskSyncRequestWrapper;
+import org.opensrp.web.utils.ContinuationToken;
+import org.opensrp.web.utils.ContinuationTokenSigner;
+import org.opensrp.web.utils.IdReconciliation;
+import org.opensrp.web.utils.NdjsonExporter;
+import org.opensrp.web.utils.NdjsonExporterFactory;
 import org.opensrp.web.utils.Utils;
 import org.smartregister.domain.Period;
 import org.smartregister.domain.Task;
@@ -79,13 +89,29 @@ public class TaskResource {
 	
 	public static final String OWNER = "owner";
 	
+	private static final String STREAM_PARAM = Constants.STREAM + "=true";
+	
 	private TaskService taskService;
 	
+	private NdjsonExporterFactory ndjsonExporterFactory;
+	
+	private ContinuationTokenSigner continuationTokenSigner = ContinuationTokenSigner.withRandomKey();
+	
 	@Autowired
 	public void setTaskService(TaskService taskService) {
 		this.taskService = taskService;
 	}
 	
+	@Autowired
+	public void setNdjsonExporterFactory(NdjsonExporterFactory ndjsonExporterFactory) {
+		this.ndjsonExporterFactory = ndjsonExporterFactory;
+	}
+	
+	@Autowired
+	public void setContinuationTokenSigner(ContinuationTokenSigner continuationTokenSigner) {
+		this.continuationTokenSigner = continuationTokenSigner;
+	}
+	
 	/**
 	 * @param gson the gson to set
 	 */
@@ -115,7 +141,8 @@ public class TaskResource {
 		catch (NumberFormatException e) {
 			logger.error("server version not a number");
 		}
-		return getTaskSyncResponse(plan, group, owner, currentServerVersion, returnCount);
+		return getTaskSyncResponse(plan, group, owner, currentServerVersion, returnCount,
+		    taskSyncRequestWrapper.getContinuationToken());
 	}
 	
 	// here for backward compatibility
@@ -134,30 +161,48 @@ public class TaskResource {
 		catch (NumberFormatException e) {
 			logger.error("server version not a number");
 		}
-		return getTaskSyncResponse(plan, group, owner, currentServerVersion, returnCount);
+		return getTaskSyncResponse(plan, group, owner, currentServerVersion, returnCount,
+		    getStringFilter(CONTINUATION_TOKEN, request));
 	}
 	
 	private ResponseEntity<String> getTaskSyncResponse(String plan, String group, String owner, long currentServerVersion,
-	        boolean returnCount) {
+	        boolean returnCount, String continuationToken) {
 		if (StringUtils.isBlank(plan)) {
 			logger.error("Plan Identifier is missing");
 			return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
 		}
 		
+		String filterHash = ContinuationToken.hashFilters(plan, group, owner);
+		ContinuationToken resumeToken = null;
+		if (StringUtils.isNotBlank(continuationToken)) {
+			try {
+				resumeToken = ContinuationToken.decode(continuationToken, filterHash, continuationTokenSigner);
+			}
+			catch (IllegalArgumentException e) {
+				logger.error(e.getMessage());
+				return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+			}
+			currentServerVersion = resumeToken.getServerVersion();
+		}
+		
 		if (!StringUtils.isBlank(group)) {
-			String tasks = gson.toJson(convertToDTO(taskService.getTasksByTaskAndGroup(plan, group, currentServerVersion)));
-			HttpHeaders headers = RestUtils.getJSONUTF8Headers();
+			List<Task> taskList = taskService.getTasksByTaskAndGroup(plan, group, currentServerVersion);
+			String tasks = gson.toJson(convertToDTO(skipServed(taskList, resumeToken)));
+			HttpHeaders headers = getTaskSyncHeaders(taskList, resumeToken, filterHash);
 			if (returnCount) {
-				Long taskCount = taskService.countTasksByPlanAndGroup(plan, group, currentServerVersion);
+				Long taskCount = ContinuationToken.remaining(
+				    taskService.countTasksByPlanAndGroup(plan, group, currentServerVersion), resumeToken);
 				headers.add(TOTAL_RECORDS, String.valueOf(taskCount));
 			}
 			
 			return new ResponseEntity<>(tasks, headers, HttpStatus.OK);
 		} else if (!StringUtils.isBlank(owner)) {
-			String tasks = gson.toJson(convertToDTO(taskService.getTasksByPlanAndOwner(plan, owner, currentServerVersion)));
-			HttpHeaders headers = RestUtils.getJSONUTF8Headers();
+			List<Task> taskList = taskService.getTasksByPlanAndOwner(plan, owner, currentServerVersion);
+			String tasks = gson.toJson(convertToDTO(skipServed(taskList, resumeToken)));
+			HttpHeaders headers = getTaskSyncHeaders(taskList, resumeToken, filterHash);
 			if (returnCount) {
-				Long taskCount = taskService.countTasksByPlanAndOwner(plan, owner, currentServerVersion);
+				Long taskCount = ContinuationToken.remaining(
+				    taskService.countTasksByPlanAndOwner(plan, owner, currentServerVersion), resumeToken);
 				headers.add(TOTAL_RECORDS, String.valueOf(taskCount));
 			}
 			
@@ -168,6 +213,24 @@ public class TaskResource {
 		}
 	}
 	
+	private List<Task> skipServed(List<Task> tasks, ContinuationToken resumeToken) {
+		return resumeToken == null ? tasks : resumeToken.skipServed(tasks, Task::getServerVersion, Task::getIdentifier);
+	}
+	
+	/**
+	 * Task sync is not paged so the token only lets clients resume from the boundary server version
+	 * without downloading the tasks that share it again.
+	 */
+	private HttpHeaders getTaskSyncHeaders(List<Task> tasks, ContinuationToken resumeToken, String filterHash) {
+		HttpHeaders headers = RestUtils.getJSONUTF8Headers();
+		ContinuationToken next = ContinuationToken.after(tasks, Task::getServerVersion, Task::getIdentifier, resumeToken,
+		    filterHash);
+		if (next != null) {
+			headers.add(CONTINUATION_TOKEN, next.encode(continuationTokenSigner));
+		}
+		return headers;
+	}
+	
 	@RequestMapping(method = RequestMethod.POST, consumes = { MediaType.APPLICATION_JSON_VALUE, MediaType.TEXT_PLAIN_VALUE })
 	public ResponseEntity<HttpStatus> create(@RequestBody String entity) {
 		try {
@@ -258,6 +321,23 @@ public class TaskResource {
 		return new ResponseEntity<>(identifiers, HttpStatus.OK);
 	}
 	
+	/**
+	 * Reconciliation variant of {@link #findIds}. The request body is a Bloom filter of the task ids
+	 * the device holds and only the ids it is missing are returned, see {@link IdReconciliation} for
+	 * the formats.
+	 */
+	@RequestMapping(value = "/findIds/reconcile", method = RequestMethod.POST, consumes = {
+	        MediaType.APPLICATION_OCTET_STREAM_VALUE }, produces = { MediaType.APPLICATION_OCTET_STREAM_VALUE })
+	public void reconcileIds(@RequestParam(value = SERVER_VERSION) long serverVersion,
+	        @RequestParam(value = "fromDate", required = false) String fromDate,
+	        @RequestParam(value = "toDate", required = false) String toDate, HttpServletRequest request,
+	        HttpServletResponse response) throws IOException {
+		Date from = Utils.getDateTimeFromString(fromDate);
+		Date to = Utils.getDateTimeFromString(toDate);
+		RestUtils.reconcileIds(request, response, serverVersion,
+		    (version, limit) -> taskService.findAllTaskIds(version, limit, from, to));
+	}
+	
 	/**
 	 * Fetch tasks ordered by serverVersion ascending
 	 *
@@ -275,6 +355,22 @@ public class TaskResource {
 		
 	}
 	
+	/**
+	 * Streams every task from the server version as newline delimited JSON
+	 *
+	 * @param serverVersion serverVersion using to filter by
+	 * @param response the response the tasks are written to
+	 */
+	@RequestMapping(value = "/getAll", method = RequestMethod.GET, params = STREAM_PARAM, produces = {
+	        NdjsonExporter.APPLICATION_NDJSON_VALUE })
+	public void exportAll(@RequestParam(value = SERVER_VERSION) long serverVersion, HttpServletResponse response)
+	        throws IOException {
+		NdjsonExporter<Task> exporter = ndjsonExporterFactory.create(taskService::getAllTasks, Task::getServerVersion,
+		        Task::getIdentifier);
+		ndjsonExporterFactory.prepareResponse(response);
+		exporter.export(serverVersion, task -> gson.toJson(convertToDTO(task)), response.getOutputStream());
+	}
+	
 	/**
 	 * Fetch count of tasks
 	 *
@@ -20,6 +20,8 @@ import org.opensrp.service.PhysicalLocationService;
 import org.opensrp.service.SettingService;
 import org.opensrp.web.Constants;
 import org.opensrp.web.rest.RestUtils;
+import org.opensrp.web.utils.LocationHierarchy;
+import org.opensrp.web.utils.LocationHierarchySnapshot;
 import org.smartregister.utils.DateTimeTypeConverter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -59,6 +61,8 @@ public class SettingResource {
 
 	private PhysicalLocationService physicalLocationService;
 
+	private LocationHierarchy locationHierarchy;
+
 	@Autowired
 	public void setObjectMapper(ObjectMapper objectMapper) {
 		this.objectMapper = objectMapper;
@@ -70,6 +74,11 @@ public class SettingResource {
 		this.physicalLocationService = openmrsLocationService;
 	}
 
+	@Autowired
+	public void setLocationHierarchy(LocationHierarchy locationHierarchy) {
+		this.locationHierarchy = locationHierarchy;
+	}
+
 	/**
 	 * Gets settings by the unique is
 	 *
@@ -87,7 +96,10 @@ public class SettingResource {
 	}
 
 	private Map<String, TreeNode<String, Location>> getChildParentLocationTree(String locationId) {
-		LocationTree locationTree = physicalLocationService.buildLocationTreeHierachyWithAncestors(locationId, false);
+		LocationHierarchySnapshot snapshot = locationHierarchy == null ? null : locationHierarchy.getSnapshot();
+		LocationTree locationTree = snapshot != null && snapshot.contains(locationId) ?
+				snapshot.buildTreeWithAncestors(locationId, false) :
+				physicalLocationService.buildLocationTreeHierachyWithAncestors(locationId, false);
 		Map<String, TreeNode<String, Location>> treeNodeHashMap = new HashMap<>();
 		if (locationTree != null) {
 			treeNodeHashMap = locationTree.getLocationsHierarchy();
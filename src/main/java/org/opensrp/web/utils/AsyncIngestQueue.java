@@ -0,0 +1,297 @@
+package org.opensrp.web.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.opensrp.web.bean.IngestStatus;
+import org.opensrp.web.utils.IngestWriteAheadLog.ProgressWriter;
+import org.smartregister.domain.Client;
+import org.smartregister.domain.Event;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+/**
+ * Accepts sync uploads into an {@link IngestWriteAheadLog} and drains them on a bounded executor.
+ * Each persisted record is recorded in the log before the next batch is read, so a replay after a
+ * crash skips the records that were already persisted. A record persisted just before a crash may be
+ * saved again on replay; the client and event saves are upserts so this does not duplicate it.
+ * <p>
+ * An upload whose processing fails, for instance on a database or disk error, is queued again after a
+ * backoff that doubles with each attempt. Once it has failed the maximum number of attempts, or on a
+ * malformed record, it is left interrupted and resumed on the next restart.
+ */
+public class AsyncIngestQueue {
+	
+	private static final Logger logger = LogManager.getLogger(AsyncIngestQueue.class.toString());
+	
+	private static final String CLIENT = "C";
+	
+	private static final String EVENT = "E";
+	
+	private static final String OK = "OK";
+	
+	private static final String FAILED = "FAILED";
+	
+	private final IngestWriteAheadLog writeAheadLog;
+	
+	private final Executor executor;
+	
+	private final Gson gson;
+	
+	private final ObjectMapper objectMapper;
+	
+	private final int batchSize;
+	
+	private final long statusRetentionMillis;
+	
+	private final int maxAttempts;
+	
+	private final long retryBackoffMillis;
+	
+	private final Predicate<Client> clientProcessor;
+	
+	private final BiPredicate<Event, String> eventProcessor;
+	
+	private final Map<String, IngestStatus> statuses = new ConcurrentHashMap<>();
+	
+	private final ConcurrentLinkedDeque<String> pendingRecovery = new ConcurrentLinkedDeque<>();
+	
+	private final Map<String, Integer> attempts = new ConcurrentHashMap<>();
+	
+	/**
+	 * @param maxAttempts the number of times a failing upload is processed before it is left
+	 *            interrupted until the next restart
+	 * @param retryBackoffMillis the delay before a failed upload is processed again the first time
+	 */
+	public AsyncIngestQueue(IngestWriteAheadLog writeAheadLog, Executor executor, Gson gson, ObjectMapper objectMapper,
+	    int batchSize, int statusRetentionHours, int maxAttempts, long retryBackoffMillis,
+	    Predicate<Client> clientProcessor, BiPredicate<Event, String> eventProcessor) {
+		this.writeAheadLog = writeAheadLog;
+		this.executor = executor;
+		this.gson = gson;
+		this.objectMapper = objectMapper;
+		this.batchSize = batchSize;
+		this.statusRetentionMillis = TimeUnit.HOURS.toMillis(statusRetentionHours);
+		this.maxAttempts = Math.max(1, maxAttempts);
+		this.retryBackoffMillis = Math.max(0, retryBackoffMillis);
+		this.clientProcessor = clientProcessor;
+		this.eventProcessor = eventProcessor;
+	}
+	
+	/**
+	 * Validates the payload, appends it to the log and queues it for processing.
+	 *
+	 * @return the status of the queued upload, holding its ingest token
+	 * @throws IllegalArgumentException if the payload is not a valid sync payload
+	 * @throws RejectedExecutionException if the queue is full; the upload is not kept
+	 */
+	public IngestStatus submit(InputStream payload, String username) throws IOException {
+		String token = UUID.randomUUID().toString();
+		IngestStatus status = new IngestStatus(token);
+		writeAheadLog.stage(token, username, payload);
+		try {
+			boolean hasSyncData = writeAheadLog.readStaged(token, (user, reader) -> new SyncPayloadReader(gson, batchSize)
+			        .read(reader, clients -> status.setClients(status.getClients() + clients.size()),
+			            events -> status.setEvents(status.getEvents() + events.size())));
+			if (!hasSyncData) {
+				throw new IllegalArgumentException("Sync payload has neither clients nor events");
+			}
+		}
+		catch (IOException | JsonParseException e) {
+			writeAheadLog.discard(token);
+			throw new IllegalArgumentException("Invalid sync payload", e);
+		}
+		catch (IllegalArgumentException e) {
+			writeAheadLog.discard(token);
+			throw e;
+		}
+		
+		writeAheadLog.commit(token);
+		statuses.put(token, status);
+		try {
+			executor.execute(() -> processAndResume(token, status));
+		}
+		catch (RejectedExecutionException e) {
+			statuses.remove(token);
+			writeAheadLog.discard(token);
+			throw e;
+		}
+		return status;
+	}
+	
+	/**
+	 * @return the status of the upload or null if the token is unknown or its status has expired
+	 */
+	public IngestStatus getStatus(String token) throws IOException {
+		IngestStatus status = statuses.get(token);
+		if (status != null) {
+			return status;
+		}
+		byte[] completed = writeAheadLog.readStatus(token);
+		return completed == null ? null : objectMapper.readValue(completed, IngestStatus.class);
+	}
+	
+	/**
+	 * Queues the uploads that were acknowledged but not completed before the last shutdown. Uploads
+	 * that do not fit in the executor queue are left pending and queued as earlier uploads complete,
+	 * so recovery never fails on a full queue.
+	 */
+	public void recover() throws IOException {
+		writeAheadLog.purgeStatuses(System.currentTimeMillis() - statusRetentionMillis);
+		for (String token : writeAheadLog.recover()) {
+			statuses.put(token, new IngestStatus(token));
+			pendingRecovery.add(token);
+			logger.info("Resuming ingest of upload " + token);
+		}
+		resumePending();
+	}
+	
+	private void resumePending() {
+		String token;
+		while ((token = pendingRecovery.poll()) != null) {
+			String resumedToken = token;
+			IngestStatus status = statuses.get(resumedToken);
+			try {
+				executor.execute(() -> processAndResume(resumedToken, status));
+			}
+			catch (RejectedExecutionException e) {
+				pendingRecovery.addFirst(resumedToken);
+				return;
+			}
+		}
+	}
+	
+	private void processAndResume(String token, IngestStatus status) {
+		try {
+			process(token, status);
+		}
+		finally {
+			resumePending();
+		}
+	}
+	
+	private void process(String token, IngestStatus status) {
+		status.setStatus(IngestStatus.State.PROCESSING);
+		try (ProgressWriter progressWriter = writeAheadLog.openProgress(token)) {
+			Set<String> processed = restoreProgress(token, status);
+			AtomicInteger clientIndex = new AtomicInteger();
+			AtomicInteger eventIndex = new AtomicInteger();
+			writeAheadLog.read(token, (username, reader) -> new SyncPayloadReader(gson, batchSize).read(reader, clients -> {
+				List<String> entries = new ArrayList<>();
+				for (Client client : clients) {
+					String key = CLIENT + " " + clientIndex.getAndIncrement();
+					if (!processed.contains(key)) {
+						boolean saved = clientProcessor.test(client);
+						status.recordClient(saved, client.getId());
+						entries.add(progressEntry(key, saved, client.getId()));
+					}
+				}
+				appendProgress(progressWriter, entries);
+				status.setClients(clientIndex.get());
+			}, events -> {
+				List<String> entries = new ArrayList<>();
+				for (Event event : events) {
+					String key = EVENT + " " + eventIndex.getAndIncrement();
+					if (!processed.contains(key)) {
+						boolean saved = eventProcessor.test(event, username);
+						status.recordEvent(saved, event.getId());
+						entries.add(progressEntry(key, saved, event.getId()));
+					}
+				}
+				appendProgress(progressWriter, entries);
+				status.setEvents(eventIndex.get());
+			}));
+			
+			status.setStatus(IngestStatus.State.COMPLETED);
+			writeAheadLog.complete(token, objectMapper.writeValueAsBytes(status));
+			statuses.remove(token);
+			attempts.remove(token);
+			writeAheadLog.purgeStatuses(System.currentTimeMillis() - statusRetentionMillis);
+		}
+		catch (JsonParseException e) {
+			attempts.remove(token);
+			status.setStatus(IngestStatus.State.INTERRUPTED);
+			logger.error("Ingest of upload " + token + " was interrupted by a malformed record; it will be resumed on restart",
+			    e);
+		}
+		catch (IOException | RuntimeException e) {
+			retryOrInterrupt(token, status, e);
+		}
+	}
+	
+	/**
+	 * Queues the upload again after the backoff of its attempt, with a new status since the progress
+	 * is restored from the log, or leaves it interrupted once it has been attempted
+	 * {@link #maxAttempts} times
+	 */
+	private void retryOrInterrupt(String token, IngestStatus status, Exception e) {
+		int attempt = attempts.merge(token, 1, Integer::sum);
+		if (attempt >= maxAttempts) {
+			attempts.remove(token);
+			status.setStatus(IngestStatus.State.INTERRUPTED);
+			logger.error("Ingest of upload " + token + " was interrupted after " + attempt
+			        + " attempts; it will be resumed on restart", e);
+			return;
+		}
+		long backoffMillis = retryBackoffMillis << Math.min(attempt - 1, 16);
+		logger.warn("Ingest of upload " + token + " failed, retrying in " + backoffMillis + " ms", e);
+		statuses.put(token, new IngestStatus(token));
+		CompletableFuture.delayedExecutor(backoffMillis, TimeUnit.MILLISECONDS).execute(() -> {
+			pendingRecovery.add(token);
+			resumePending();
+		});
+	}
+	
+	private Set<String> restoreProgress(String token, IngestStatus status) throws IOException {
+		Set<String> processed = new HashSet<>();
+		for (String entry : writeAheadLog.readProgress(token)) {
+			String[] parts = entry.split(" ", 4);
+			String key = parts[0] + " " + parts[1];
+			boolean saved = OK.equals(parts[2]);
+			String id = parts.length > 3 ? parts[3] : null;
+			if (CLIENT.equals(parts[0])) {
+				status.recordClient(saved, id);
+			} else {
+				status.recordEvent(saved, id);
+			}
+			processed.add(key);
+		}
+		return processed;
+	}
+	
+	private String progressEntry(String key, boolean saved, String id) {
+		if (saved) {
+			return key + " " + OK;
+		}
+		return id == null ? key + " " + FAILED : key + " " + FAILED + " " + id;
+	}
+	
+	private void appendProgress(ProgressWriter progressWriter, List<String> entries) {
+		try {
+			progressWriter.append(entries);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package org.opensrp.web.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+public class BatchFetchUtils {
+	
+	/**
+	 * The maximum number of tasks {@link #fetchEach(List, Executor, Function)} runs at once for a
+	 * single call, so that a lookup per id does not take over the executor
+	 */
+	public static final int MAX_CONCURRENT_LOOKUPS = 4;
+	
+	/**
+	 * Splits the ids into batches and runs the fetcher for each batch on the executor. Results are
+	 * returned in batch order. If there is only one batch or no executor it runs on the calling
+	 * thread.
+	 *
+	 * @param ids the ids to fetch
+	 * @param batchSize the maximum number of ids passed to a single fetcher call
+	 * @param executor the executor to run the batches on, may be null
+	 * @param fetcher the lookup for a batch of ids
+	 * @return the combined results of all batches
+	 */
+	public static <T> List<T> fetchInBatches(List<String> ids, int batchSize, Executor executor,
+	                                         Function<List<String>, ? extends Collection<T>> fetcher) {
+		List<T> results = new ArrayList<>();
+		if (ids == null || ids.isEmpty()) {
+			return results;
+		}
+		if (executor == null || ids.size() <= batchSize) {
+			for (int i = 0; i < ids.size(); i = i + batchSize) {
+				addAll(results, fetcher.apply(new ArrayList<>(ids.subList(i, Math.min(i + batchSize, ids.size())))));
+			}
+			return results;
+		}
+		
+		List<CompletableFuture<? extends Collection<T>>> futures = new ArrayList<>();
+		for (int i = 0; i < ids.size(); i = i + batchSize) {
+			List<String> batch = new ArrayList<>(ids.subList(i, Math.min(i + batchSize, ids.size())));
+			futures.add(CompletableFuture.supplyAsync(() -> fetcher.apply(batch), executor));
+		}
+		for (CompletableFuture<? extends Collection<T>> future : futures) {
+			addAll(results, join(future));
+		}
+		return results;
+	}
+	
+	/**
+	 * Runs a lookup that takes a single id for each of the ids. The ids are split into at most
+	 * {@link #MAX_CONCURRENT_LOOKUPS} batches that run on the executor, each batch looking up its ids
+	 * one after the other. Results are returned in id order.
+	 *
+	 * @param ids the ids to fetch
+	 * @param executor the executor to run the batches on, may be null
+	 * @param fetcher the lookup for a single id
+	 * @return the combined results of all ids
+	 */
+	public static <T> List<T> fetchEach(List<String> ids, Executor executor,
+	                                    Function<String, ? extends Collection<T>> fetcher) {
+		if (ids == null || ids.isEmpty()) {
+			return new ArrayList<>();
+		}
+		int batchSize = (ids.size() + MAX_CONCURRENT_LOOKUPS - 1) / MAX_CONCURRENT_LOOKUPS;
+		return fetchInBatches(ids, batchSize, executor, batch -> {
+			List<T> results = new ArrayList<>();
+			for (String id : batch) {
+				addAll(results, fetcher.apply(id));
+			}
+			return results;
+		});
+	}
+	
+	/**
+	 * Waits for the future and rethrows the original exception if it completed exceptionally
+	 */
+	public static <T> T join(CompletableFuture<T> future) {
+		try {
+			return future.join();
+		}
+		catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+	
+	private static <T> void addAll(List<T> results, Collection<? extends T> batchResults) {
+		if (batchResults != null) {
+			results.addAll(batchResults);
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package org.opensrp.web.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+public class BulkIngestUtils {
+	
+	/**
+	 * Processes the records in partitions that run concurrently on the executor. Records with the
+	 * same partition key always go to the same partition and are processed in their original order,
+	 * so updates to the same entity are never applied concurrently or out of order.
+	 *
+	 * @param records the records to process
+	 * @param partitionKey the key that determines the partition of a record, may return null
+	 * @param partitions the number of partitions
+	 * @param executor the executor to run the partitions on, if null the records are processed on the
+	 *            calling thread
+	 * @param processor processes a record and returns false if it failed
+	 * @return the records that failed, in their original order
+	 */
+	public static <T> List<T> processInPartitions(List<T> records, Function<T, String> partitionKey, int partitions,
+	                                              Executor executor, Predicate<T> processor) {
+		int partitionCount = executor == null || records.size() < 2 ? 1 : Math.max(1, Math.min(partitions, records.size()));
+		List<List<Integer>> partitionedIndices = new ArrayList<>(partitionCount);
+		for (int i = 0; i < partitionCount; i++) {
+			partitionedIndices.add(new ArrayList<>());
+		}
+		for (int i = 0; i < records.size(); i++) {
+			String key = partitionKey.apply(records.get(i));
+			int partition = key == null ? 0 : Math.floorMod(key.hashCode(), partitionCount);
+			partitionedIndices.get(partition).add(i);
+		}
+		
+		boolean[] failed = new boolean[records.size()];
+		if (partitionCount == 1) {
+			processPartition(records, partitionedIndices.get(0), processor, failed);
+		} else {
+			List<CompletableFuture<Void>> futures = new ArrayList<>();
+			for (List<Integer> indices : partitionedIndices) {
+				futures.add(CompletableFuture.runAsync(() -> processPartition(records, indices, processor, failed), executor));
+			}
+			for (CompletableFuture<Void> future : futures) {
+				BatchFetchUtils.join(future);
+			}
+		}
+		
+		List<T> failedRecords = new ArrayList<>();
+		for (int i = 0; i < records.size(); i++) {
+			if (failed[i]) {
+				failedRecords.add(records.get(i));
+			}
+		}
+		return failedRecords;
+	}
+	
+	private static <T> void processPartition(List<T> records, List<Integer> indices, Predicate<T> processor,
+	                                         boolean[] failed) {
+		for (Integer index : indices) {
+			failed[index] = !processor.test(records.get(index));
+		}
+	}
+}
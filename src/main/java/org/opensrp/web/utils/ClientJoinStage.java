@@ -0,0 +1,93 @@
+package org.opensrp.web.utils;
+
+import static org.opensrp.common.AllConstants.CLIENTS_FETCH_BATCH_SIZE;
+import static org.opensrp.common.AllConstants.BaseEntity.BASE_ENTITY_ID;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import org.apache.commons.lang3.StringUtils;
+import org.opensrp.service.ClientService;
+import org.smartregister.domain.Client;
+import org.smartregister.domain.Event;
+
+/**
+ * Joins events to their clients. Base entity ids are deduplicated in encounter order, the clients
+ * are looked up in batches of {@link org.opensrp.common.AllConstants#CLIENTS_FETCH_BATCH_SIZE} that
+ * run concurrently on the executor, and clients the batch lookup misses are optionally looked up
+ * one by one, in batches of the same size on the executor so a page of misses does not queue a task
+ * per client.
+ */
+public class ClientJoinStage {
+	
+	private final ClientService clientService;
+	
+	private final Executor executor;
+	
+	private final boolean searchMissingClients;
+	
+	public ClientJoinStage(ClientService clientService, Executor executor, boolean searchMissingClients) {
+		this.clientService = clientService;
+		this.executor = executor;
+		this.searchMissingClients = searchMissingClients;
+	}
+	
+	/**
+	 * @param events the events to join
+	 * @param timer records the time spent in the client and missing client lookups
+	 * @return the clients of the events
+	 */
+	public List<Client> join(Collection<Event> events, SyncPhaseTimer timer) {
+		Set<String> baseEntityIds = new LinkedHashSet<>();
+		for (Event event : events) {
+			if (StringUtils.isNotBlank(event.getBaseEntityId())) {
+				baseEntityIds.add(event.getBaseEntityId());
+			}
+		}
+		return findClients(baseEntityIds, timer);
+	}
+	
+	/**
+	 * @param baseEntityIds the base entity ids of the clients
+	 * @param timer records the time spent in the client and missing client lookups
+	 * @return the clients with the base entity ids
+	 */
+	public List<Client> findClients(Collection<String> baseEntityIds, SyncPhaseTimer timer) {
+		List<String> ids = new ArrayList<>(new LinkedHashSet<>(baseEntityIds));
+		List<Client> clients = timer.time(SyncPhaseTimer.CLIENTS, () -> BatchFetchUtils.fetchInBatches(ids,
+		    CLIENTS_FETCH_BATCH_SIZE, executor, batch -> clientService.findByFieldValue(BASE_ENTITY_ID, batch)));
+		if (searchMissingClients) {
+			clients.addAll(timer.time(SyncPhaseTimer.MISSING_CLIENTS, () -> findMissingClients(ids, clients)));
+		}
+		return clients;
+	}
+	
+	private List<Client> findMissingClients(List<String> ids, List<Client> clients) {
+		Set<String> foundClientIds = new HashSet<>();
+		for (Client client : clients) {
+			foundClientIds.add(client.getBaseEntityId());
+		}
+		
+		List<String> missingClientIds = new ArrayList<>(ids);
+		boolean removed = missingClientIds.removeAll(foundClientIds);
+		if (!removed) {
+			return Collections.emptyList();
+		}
+		return BatchFetchUtils.fetchInBatches(missingClientIds, CLIENTS_FETCH_BATCH_SIZE, executor, batch -> {
+			List<Client> found = new ArrayList<>();
+			for (String id : batch) {
+				Client client = clientService.getByBaseEntityId(id);
+				if (client != null) {
+					found.add(client);
+				}
+			}
+			return found;
+		});
+	}
+}
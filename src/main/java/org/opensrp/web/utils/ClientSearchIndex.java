@@ -0,0 +1,360 @@
+package org.opensrp.web.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.smartregister.domain.Client;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * An in memory trigram index of client names and index of client identifiers, used to answer name
+ * searches and identifier lookups without scanning the client table.
+ * <p>
+ * A search has the semantics of the name search of the client table: it matches the clients whose
+ * first, middle or last name contains the text, ignoring case. Every three character substring of a
+ * name is indexed; the clients that have all the trigrams of the text are then checked against
+ * their names, so matches are exact. Matches are returned in the order the clients were first
+ * indexed, which follows their server version. Identifiers are indexed by their exact value,
+ * whatever their type. The index is kept current by
+ * {@link #refresh(ServerVersionTailer.Fetcher, int)}, which reads the clients changed since the
+ * last refresh; voided clients are removed. Searches and lookups are answered only once the first
+ * refresh has read every client.
+ */
+public class ClientSearchIndex {
+
+	public static final String INDEXED_METRIC = "opensrp.client.search.index.indexed";
+
+	public static final String REFRESH_METRIC = "opensrp.client.search.index.refresh";
+
+	public static final String SIZE_METRIC = "opensrp.client.search.index.size";
+
+	private static final int GRAM_LENGTH = 3;
+
+	private final Map<String, Integer> documentIds = new HashMap<>();
+
+	private final List<String> baseEntityIds = new ArrayList<>();
+
+	private final List<String[]> documentNames = new ArrayList<>();
+
+	private final Map<String, Postings> postings = new HashMap<>();
+
+	private final List<String[]> documentIdentifiers = new ArrayList<>();
+
+	private final Map<String, Postings> identifierPostings = new HashMap<>();
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private final Counter indexedCounter;
+
+	private final Timer refreshTimer;
+
+	private final ServerVersionTailer<Client> tailer = new ServerVersionTailer<>(Client::getServerVersion);
+
+	private volatile boolean ready;
+
+	private int size;
+
+	/**
+	 * @param meterRegistry the registry the index metrics are registered with
+	 */
+	public ClientSearchIndex(MeterRegistry meterRegistry) {
+		this.indexedCounter = meterRegistry.counter(INDEXED_METRIC);
+		this.refreshTimer = meterRegistry.timer(REFRESH_METRIC);
+		Gauge.builder(SIZE_METRIC, this, ClientSearchIndex::size).register(meterRegistry);
+	}
+
+	/**
+	 * Indexes the clients changed since the last refresh, read as described by
+	 * {@link ServerVersionTailer}
+	 *
+	 * @param fetcher the fetcher of the clients
+	 * @param batchSize the number of clients read per page
+	 * @return the number of clients indexed
+	 */
+	public long refresh(ServerVersionTailer.Fetcher<Client> fetcher, int batchSize) {
+		long start = System.nanoTime();
+		long indexed = tailer.tail(fetcher, batchSize, clients -> {
+			indexAll(clients);
+			indexedCounter.increment(clients.size());
+		});
+		ready = true;
+		refreshTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		return indexed;
+	}
+
+	/**
+	 * Adds, replaces or removes the clients in the index
+	 */
+	public void indexAll(Collection<Client> clients) {
+		lock.writeLock().lock();
+		try {
+			for (Client client : clients) {
+				if (client != null && client.getBaseEntityId() != null) {
+					index(client);
+				}
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Finds the clients with a first, middle or last name containing the text
+	 *
+	 * @param text the search text
+	 * @param limit the maximum number of clients the caller accepts
+	 * @return the base entity ids of the matching clients in the order they were first indexed, or
+	 *         null if the search has to be answered by the client table: the index is not ready, the
+	 *         text is shorter than three characters or holds a LIKE wildcard, or more clients than the
+	 *         limit match
+	 */
+	public List<String> search(String text, int limit) {
+		if (!ready || text == null || text.length() < GRAM_LENGTH || text.indexOf('%') >= 0
+		        || text.indexOf('_') >= 0) {
+			return null;
+		}
+		String query = fold(text);
+
+		lock.readLock().lock();
+		try {
+			BitSet matches = null;
+			for (String gram : grams(query)) {
+				Postings gramPostings = postings.get(gram);
+				if (gramPostings == null) {
+					return Collections.emptyList();
+				}
+				BitSet gramMatches = new BitSet(baseEntityIds.size());
+				gramPostings.addTo(gramMatches);
+				if (matches == null) {
+					matches = gramMatches;
+				} else {
+					matches.and(gramMatches);
+				}
+				if (matches.isEmpty()) {
+					return Collections.emptyList();
+				}
+			}
+
+			List<String> ids = new ArrayList<>();
+			for (int document = matches.nextSetBit(0); document >= 0; document = matches.nextSetBit(document + 1)) {
+				if (containsName(documentNames.get(document), query)) {
+					if (ids.size() == limit) {
+						return null;
+					}
+					ids.add(baseEntityIds.get(document));
+				}
+			}
+			return ids;
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Finds the clients with an identifier of the given value, of any type
+	 *
+	 * @param identifier the identifier value
+	 * @return the base entity ids of the matching clients in the order they were first indexed, or
+	 *         null if the index is not ready
+	 */
+	public List<String> findByIdentifier(String identifier) {
+		if (!ready || identifier == null) {
+			return null;
+		}
+
+		lock.readLock().lock();
+		try {
+			Postings identifierMatches = identifierPostings.get(identifier);
+			if (identifierMatches == null) {
+				return Collections.emptyList();
+			}
+			BitSet matches = new BitSet(baseEntityIds.size());
+			identifierMatches.addTo(matches);
+			List<String> ids = new ArrayList<>(matches.cardinality());
+			for (int document = matches.nextSetBit(0); document >= 0; document = matches.nextSetBit(document + 1)) {
+				ids.add(baseEntityIds.get(document));
+			}
+			return ids;
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public boolean isReady() {
+		return ready;
+	}
+
+	public long getLastServerVersion() {
+		return tailer.getLastServerVersion();
+	}
+
+	/**
+	 * @return the number of clients in the index
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return size;
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private void index(Client client) {
+		Integer document = documentIds.get(client.getBaseEntityId());
+		if (document != null) {
+			String[] previousNames = documentNames.get(document);
+			if (previousNames != null) {
+				for (String gram : grams(previousNames)) {
+					removePosting(postings, gram, document);
+				}
+				for (String identifier : documentIdentifiers.get(document)) {
+					removePosting(identifierPostings, identifier, document);
+				}
+				documentNames.set(document, null);
+				documentIdentifiers.set(document, null);
+				size--;
+			}
+		}
+		if (client.getDateVoided() != null) {
+			return;
+		}
+
+		if (document == null) {
+			document = baseEntityIds.size();
+			documentIds.put(client.getBaseEntityId(), document);
+			baseEntityIds.add(client.getBaseEntityId());
+			documentNames.add(null);
+			documentIdentifiers.add(null);
+		}
+		String[] names = namesOf(client);
+		for (String gram : grams(names)) {
+			postings.computeIfAbsent(gram, key -> new Postings()).add(document);
+		}
+		documentNames.set(document, names);
+		String[] identifiers = identifiersOf(client);
+		for (String identifier : identifiers) {
+			identifierPostings.computeIfAbsent(identifier, key -> new Postings()).add(document);
+		}
+		documentIdentifiers.set(document, identifiers);
+		size++;
+	}
+
+	private static void removePosting(Map<String, Postings> postings, String key, int document) {
+		Postings keyPostings = postings.get(key);
+		if (keyPostings != null && keyPostings.remove(document) && keyPostings.isEmpty()) {
+			postings.remove(key);
+		}
+	}
+
+	private static String[] namesOf(Client client) {
+		List<String> names = new ArrayList<>(3);
+		for (String name : new String[] { client.getFirstName(), client.getMiddleName(), client.getLastName() }) {
+			if (name != null) {
+				names.add(fold(name));
+			}
+		}
+		return names.toArray(new String[0]);
+	}
+
+	/**
+	 * @return the distinct identifier values of the client
+	 */
+	private static String[] identifiersOf(Client client) {
+		if (client.getIdentifiers() == null) {
+			return new String[0];
+		}
+		Set<String> identifiers = new HashSet<>();
+		for (String identifier : client.getIdentifiers().values()) {
+			if (identifier != null) {
+				identifiers.add(identifier);
+			}
+		}
+		return identifiers.toArray(new String[0]);
+	}
+
+	private static String fold(String text) {
+		return text.toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * @return the distinct trigrams of the names, a trigram never spans two names
+	 */
+	private static Set<String> grams(String... names) {
+		Set<String> grams = new HashSet<>();
+		for (String name : names) {
+			for (int i = 0; i + GRAM_LENGTH <= name.length(); i++) {
+				grams.add(name.substring(i, i + GRAM_LENGTH));
+			}
+		}
+		return grams;
+	}
+
+	private static boolean containsName(String[] names, String query) {
+		if (names != null) {
+			for (String name : names) {
+				if (name.contains(query)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The documents that contain a trigram, in no particular order
+	 */
+	private static class Postings {
+
+		private int[] documents = new int[2];
+
+		private int count;
+
+		private void add(int document) {
+			if (count == documents.length) {
+				documents = Arrays.copyOf(documents, count * 2);
+			}
+			documents[count++] = document;
+		}
+
+		private boolean remove(int document) {
+			for (int i = 0; i < count; i++) {
+				if (documents[i] == document) {
+					documents[i] = documents[--count];
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private boolean isEmpty() {
+			return count == 0;
+		}
+
+		private void addTo(BitSet bitSet) {
+			for (int i = 0; i < count; i++) {
+				bitSet.set(documents[i]);
+			}
+		}
+	}
+}
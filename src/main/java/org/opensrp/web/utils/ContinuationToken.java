@@ -0,0 +1,223 @@
+package org.opensrp.web.utils;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Opaque token to resume a server version ordered sync. It holds the last server version returned,
+ * the ids already returned at that server version and a hash of the sync filters. Resuming at the
+ * last server version, instead of the one after it, and skipping the ids already returned means
+ * records sharing a server version across a page boundary are neither skipped nor sent twice.
+ * <p>
+ * Tokens are signed by a {@link ContinuationTokenSigner} so that a client cannot forge the ids it
+ * claims were served. A token carries at most {@link #MAX_SERVED_IDS} ids; when more records share
+ * the last server version the token resumes at the server version after it instead.
+ */
+public class ContinuationToken {
+	
+	/**
+	 * The most ids a token carries, which keeps it small enough for a header and bounds the extra
+	 * records fetched to skip them
+	 */
+	public static final int MAX_SERVED_IDS = 100;
+	
+	private static final Logger logger = LogManager.getLogger(ContinuationToken.class.toString());
+	
+	private static final Gson gson = new Gson();
+	
+	@SerializedName("v")
+	private long serverVersion;
+	
+	@SerializedName("ids")
+	private Set<String> ids;
+	
+	@SerializedName("f")
+	private String filterHash;
+	
+	private ContinuationToken(long serverVersion, Set<String> ids, String filterHash) {
+		this.serverVersion = serverVersion;
+		this.ids = ids;
+		this.filterHash = filterHash;
+	}
+	
+	/**
+	 * @return the server version to resume from, inclusive
+	 */
+	public long getServerVersion() {
+		return serverVersion;
+	}
+	
+	/**
+	 * @return the number of records at {@link #getServerVersion()} that were already returned
+	 */
+	public int getServedCount() {
+		return ids.size();
+	}
+	
+	/**
+	 * @return the ids of the records at {@link #getServerVersion()} that were already returned
+	 */
+	public Set<String> getServedIds() {
+		return Collections.unmodifiableSet(ids);
+	}
+	
+	/**
+	 * @param signer the signer of the tokens
+	 * @return the signed token to pass to a client
+	 */
+	public String encode(ContinuationTokenSigner signer) {
+		byte[] payload = gson.toJson(this).getBytes(UTF_8);
+		Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+		return encoder.encodeToString(payload) + "." + encoder.encodeToString(signer.sign(payload));
+	}
+	
+	/**
+	 * Decodes a token passed back by a client
+	 *
+	 * @param token the encoded token
+	 * @param filterHash hash of the filters of the current request
+	 * @param signer the signer of the tokens
+	 * @return the token
+	 * @throws IllegalArgumentException if the token is malformed, was not signed by this server or
+	 *             was issued for other filters
+	 */
+	public static ContinuationToken decode(String token, String filterHash, ContinuationTokenSigner signer) {
+		ContinuationToken continuationToken;
+		try {
+			int separator = token.indexOf('.');
+			if (separator < 0) {
+				throw new IllegalArgumentException("Continuation token is not signed");
+			}
+			byte[] payload = Base64.getUrlDecoder().decode(token.substring(0, separator));
+			byte[] signature = Base64.getUrlDecoder().decode(token.substring(separator + 1));
+			if (!MessageDigest.isEqual(signer.sign(payload), signature)) {
+				throw new IllegalArgumentException("Continuation token signature does not match");
+			}
+			continuationToken = gson.fromJson(new String(payload, UTF_8), ContinuationToken.class);
+		}
+		catch (IllegalArgumentException | JsonParseException e) {
+			throw new IllegalArgumentException("Malformed continuation token", e);
+		}
+		if (continuationToken == null || continuationToken.ids == null
+		        || !filterHash.equals(continuationToken.filterHash)) {
+			throw new IllegalArgumentException("Continuation token does not match the sync filters");
+		}
+		return continuationToken;
+	}
+	
+	/**
+	 * @param count the number of records from the server version of the token on, may be null
+	 * @param resumeToken the token the records are resumed with, may be null
+	 * @return the count less the records already returned with the token
+	 */
+	public static Long remaining(Long count, ContinuationToken resumeToken) {
+		if (count == null || resumeToken == null) {
+			return count;
+		}
+		return Math.max(0, count - resumeToken.getServedCount());
+	}
+	
+	/**
+	 * Removes the records that were returned before this token was issued
+	 */
+	public <T> List<T> skipServed(List<T> records, Function<T, Long> serverVersionOf, Function<T, String> idOf) {
+		if (ids.isEmpty()) {
+			return records;
+		}
+		List<T> remaining = new ArrayList<>(records.size());
+		for (T record : records) {
+			Long recordServerVersion = serverVersionOf.apply(record);
+			if (recordServerVersion == null || recordServerVersion != serverVersion || !ids.contains(idOf.apply(record))) {
+				remaining.add(record);
+			}
+		}
+		return remaining;
+	}
+	
+	/**
+	 * Creates the token to resume after the given records
+	 *
+	 * @param records the records returned
+	 * @param serverVersionOf gets the server version of a record
+	 * @param idOf gets the id of a record
+	 * @param previous the token the records were fetched with, may be null
+	 * @param filterHash hash of the sync filters
+	 * @return the token, or the previous token if no records past it were returned
+	 */
+	public static <T> ContinuationToken after(List<T> records, Function<T, Long> serverVersionOf,
+	        Function<T, String> idOf, ContinuationToken previous, String filterHash) {
+		ContinuationToken next = position(records, serverVersionOf, idOf, previous, filterHash);
+		if (next == null || next == previous || next.ids.size() <= MAX_SERVED_IDS) {
+			return next;
+		}
+		// records at the last server version that were not returned yet are skipped
+		logger.warn(String.format("%d records share server version %d, more than a token carries; resuming after it",
+		    next.ids.size(), next.serverVersion));
+		return new ContinuationToken(next.serverVersion + 1, new LinkedHashSet<>(), filterHash);
+	}
+	
+	/**
+	 * Position after the given records for a read within this server, holding all the ids at the
+	 * last server version however many there are
+	 *
+	 * @see #after(List, Function, Function, ContinuationToken, String)
+	 */
+	static <T> ContinuationToken position(List<T> records, Function<T, Long> serverVersionOf,
+	        Function<T, String> idOf, ContinuationToken previous, String filterHash) {
+		Long lastServerVersion = null;
+		for (T record : records) {
+			Long recordServerVersion = serverVersionOf.apply(record);
+			if (recordServerVersion != null && (lastServerVersion == null || recordServerVersion > lastServerVersion)) {
+				lastServerVersion = recordServerVersion;
+			}
+		}
+		if (lastServerVersion == null || previous != null && lastServerVersion < previous.serverVersion) {
+			return previous;
+		}
+		
+		Set<String> servedIds = new LinkedHashSet<>();
+		if (previous != null && previous.serverVersion == lastServerVersion) {
+			servedIds.addAll(previous.ids);
+		}
+		for (T record : records) {
+			if (lastServerVersion.equals(serverVersionOf.apply(record))) {
+				servedIds.add(idOf.apply(record));
+			}
+		}
+		return new ContinuationToken(lastServerVersion, servedIds, filterHash);
+	}
+	
+	/**
+	 * @return a short hash identifying the given sync filters
+	 */
+	public static String hashFilters(Object... filters) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (Object filter : filters) {
+				digest.update(String.valueOf(filter).getBytes(UTF_8));
+				digest.update((byte) 0);
+			}
+			return Hex.encodeHexString(digest.digest()).substring(0, 16);
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package org.opensrp.web.utils;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Signs {@link ContinuationToken}s with an HMAC, so that a client cannot forge the ids it claims
+ * were served. Nodes serving the same clients must sign with the same secret; a signer with a random
+ * key rejects the tokens issued before a restart or by another node.
+ */
+public class ContinuationTokenSigner {
+	
+	private static final String HMAC_ALGORITHM = "HmacSHA256";
+	
+	private static final int SIGNATURE_LENGTH = 16;
+	
+	private final SecretKeySpec signingKey;
+	
+	/**
+	 * @param secret the secret shared by the nodes
+	 */
+	public ContinuationTokenSigner(String secret) {
+		this(secret.getBytes(UTF_8));
+	}
+	
+	private ContinuationTokenSigner(byte[] key) {
+		this.signingKey = new SecretKeySpec(key, HMAC_ALGORITHM);
+	}
+	
+	/**
+	 * @return a signer with a random key, only valid for tokens issued by this instance
+	 */
+	public static ContinuationTokenSigner withRandomKey() {
+		byte[] key = new byte[32];
+		new SecureRandom().nextBytes(key);
+		return new ContinuationTokenSigner(key);
+	}
+	
+	byte[] sign(byte[] payload) {
+		try {
+			Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+			mac.init(signingKey);
+			return Arrays.copyOf(mac.doFinal(payload), SIGNATURE_LENGTH);
+		}
+		catch (NoSuchAlgorithmException | InvalidKeyException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
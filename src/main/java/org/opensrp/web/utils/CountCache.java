@@ -0,0 +1,95 @@
+package org.opensrp.web.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size bounded cache of record counts keyed by normalized search filters. Entries expire after the
+ * configured time to live and the least recently used entry is evicted once the cache is full. A
+ * time to live of zero or less disables the cache.
+ * <p>
+ * Every {@link #invalidateAll()} starts a new generation. A count computed while records are being
+ * written is stored with {@link #put(String, Long, long)} and the generation read before the count
+ * started, so that it is dropped if the cache was invalidated in the meantime.
+ */
+public class CountCache {
+	
+	private final long timeToLiveMillis;
+	
+	private final Map<String, Entry> entries;
+	
+	private long generation;
+	
+	public CountCache(final int maxEntries, long timeToLiveMillis) {
+		this.timeToLiveMillis = timeToLiveMillis;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+	
+	public boolean isEnabled() {
+		return timeToLiveMillis > 0;
+	}
+	
+	/**
+	 * @param key the normalized filters
+	 * @return the cached count or null if there is none or it has expired
+	 */
+	public synchronized Long get(String key) {
+		if (!isEnabled()) {
+			return null;
+		}
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (System.currentTimeMillis() - entry.createdAt > timeToLiveMillis) {
+			entries.remove(key);
+			return null;
+		}
+		return entry.count;
+	}
+	
+	public synchronized void put(String key, Long count) {
+		if (isEnabled() && count != null) {
+			entries.put(key, new Entry(count));
+		}
+	}
+	
+	/**
+	 * Stores the count unless the cache was invalidated since the generation was read
+	 *
+	 * @param generation the {@link #getGeneration()} read before the count was started
+	 */
+	public synchronized void put(String key, Long count, long generation) {
+		if (generation == this.generation) {
+			put(key, count);
+		}
+	}
+	
+	public synchronized long getGeneration() {
+		return generation;
+	}
+	
+	public synchronized void invalidateAll() {
+		entries.clear();
+		generation++;
+	}
+	
+	private static class Entry {
+		
+		private final long count;
+		
+		private final long createdAt = System.currentTimeMillis();
+		
+		private Entry(long count) {
+			this.count = count;
+		}
+	}
+}
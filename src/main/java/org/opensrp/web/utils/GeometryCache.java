@@ -0,0 +1,131 @@
+package org.opensrp.web.utils;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.smartregister.domain.Geometry;
+import org.smartregister.domain.PhysicalLocation;
+
+import com.google.gson.JsonArray;
+
+/**
+ * Cache of the simplified geometries of locations, see {@link GeometrySimplifier}. A geometry is
+ * simplified once per location, server version and geometry level; a location saved with a new
+ * server version replaces the geometries cached for its previous version. The cache is bounded by
+ * the estimated size of the cached coordinates, evicting the least recently used geometries first.
+ */
+public class GeometryCache {
+
+	/** estimated size of a position held as a JsonArray of two JsonPrimitives */
+	private static final long POSITION_SIZE = 96;
+
+	private static final long ENTRY_SIZE = 128;
+
+	private final long maxSize;
+
+	private final LinkedHashMap<String, CachedGeometry> geometries = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long size;
+
+	/**
+	 * @param maxSize maximum estimated size in bytes of the cached geometries, zero disables the cache
+	 */
+	public GeometryCache(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public boolean isEnabled() {
+		return maxSize > 0;
+	}
+
+	/**
+	 * Replaces the geometries of the locations by their geometries at the level
+	 *
+	 * @throws IllegalArgumentException if the level is not a geometry level
+	 */
+	public <T extends Collection<? extends PhysicalLocation>> T simplify(T locations, int level) {
+		GeometrySimplifier.checkLevel(level);
+		if (locations != null && level != GeometrySimplifier.FULL_GEOMETRY_LEVEL) {
+			for (PhysicalLocation location : locations) {
+				simplify(location, level);
+			}
+		}
+		return locations;
+	}
+
+	/**
+	 * Replaces the geometry of the location by its geometry at the level
+	 *
+	 * @throws IllegalArgumentException if the level is not a geometry level
+	 */
+	public PhysicalLocation simplify(PhysicalLocation location, int level) {
+		GeometrySimplifier.checkLevel(level);
+		if (location == null || location.getGeometry() == null || level == GeometrySimplifier.FULL_GEOMETRY_LEVEL) {
+			return location;
+		}
+		Geometry geometry = location.getGeometry();
+		Long serverVersion = location.getServerVersion();
+		boolean cacheable = isEnabled() && location.getId() != null && serverVersion != null;
+		String key = location.getId() + ":" + level;
+		JsonArray coordinates = cacheable ? getIfPresent(key, serverVersion) : null;
+		if (coordinates == null) {
+			coordinates = GeometrySimplifier.simplify(geometry.getType(), geometry.getCoordinates(), level);
+			if (cacheable && coordinates != null) {
+				put(key, new CachedGeometry(serverVersion, coordinates));
+			}
+		}
+		geometry.setCoordinates(coordinates);
+		return location;
+	}
+
+	public synchronized long size() {
+		return size;
+	}
+
+	public synchronized void invalidateAll() {
+		geometries.clear();
+		size = 0;
+	}
+
+	private synchronized JsonArray getIfPresent(String key, long serverVersion) {
+		CachedGeometry geometry = geometries.get(key);
+		return geometry != null && geometry.serverVersion == serverVersion ? geometry.coordinates : null;
+	}
+
+	private synchronized void put(String key, CachedGeometry geometry) {
+		CachedGeometry previous = geometries.remove(key);
+		if (previous != null) {
+			size -= previous.size;
+			// a request that read the location before it was saved again must not replace the newer version
+			if (previous.serverVersion > geometry.serverVersion) {
+				geometry = previous;
+			}
+		}
+		if (geometry.size > maxSize) {
+			return;
+		}
+		geometries.put(key, geometry);
+		size += geometry.size;
+		Iterator<CachedGeometry> leastRecentlyUsed = geometries.values().iterator();
+		while (size > maxSize && leastRecentlyUsed.hasNext()) {
+			size -= leastRecentlyUsed.next().size;
+			leastRecentlyUsed.remove();
+		}
+	}
+
+	private static class CachedGeometry {
+
+		private final long serverVersion;
+
+		private final JsonArray coordinates;
+
+		private final long size;
+
+		private CachedGeometry(long serverVersion, JsonArray coordinates) {
+			this.serverVersion = serverVersion;
+			this.coordinates = coordinates;
+			this.size = ENTRY_SIZE + POSITION_SIZE * GeometrySimplifier.countPositions(coordinates);
+		}
+	}
+}
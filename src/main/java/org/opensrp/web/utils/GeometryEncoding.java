@@ -0,0 +1,269 @@
+package org.opensrp.web.utils;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.smartregister.domain.Geometry;
+import org.smartregister.domain.PhysicalLocation;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+
+import com.google.gson.ExclusionStrategy;
+import com.google.gson.FieldAttributes;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Compact binary encoding of locations for sync, served when a device accepts {@link #MEDIA_TYPE}.
+ * <p>
+ * The body is a protocol buffers message, {@code repeated Location locations = 1}, where each
+ * location is {@code string json = 1; bytes coordinates = 2}. The json is the location as it is
+ * sent in JSON sync without the geometry coordinates, the geometry type is kept. The coordinates
+ * are the nested GeoJSON coordinate arrays, all numbers being unsigned LEB128 varints:
+ * <ul>
+ * <li>array of arrays: length &lt;&lt; 1, then each array</li>
+ * <li>position: length &lt;&lt; 1 | 1, then each coordinate in units of 10^-7 degrees as the
+ * zigzag encoded difference from the same coordinate of the previous position of the geometry</li>
+ * </ul>
+ * Coordinates are rounded to 7 decimal places, about a centimetre. {@link #decode(byte[])} is the
+ * reference decoder.
+ */
+public class GeometryEncoding {
+
+	public static final String MEDIA_TYPE_VALUE = "application/vnd.opensrp.locations+protobuf";
+
+	public static final MediaType MEDIA_TYPE = MediaType.parseMediaType(MEDIA_TYPE_VALUE);
+
+	private static final double SCALE = 1e7;
+
+	private static final int MAX_DIMENSIONS = 4;
+
+	private static final int LOCATION_TAG = 1 << 3 | 2;
+
+	private static final int JSON_TAG = 1 << 3 | 2;
+
+	private static final int COORDINATES_TAG = 2 << 3 | 2;
+
+	private static final String GEOMETRY = "geometry";
+
+	/**
+	 * Leaves the coordinates out of the JSON, they are encoded separately
+	 */
+	private static final ExclusionStrategy COORDINATES_EXCLUSION = new ExclusionStrategy() {
+
+		@Override
+		public boolean shouldSkipField(FieldAttributes field) {
+			return Geometry.class.equals(field.getDeclaringClass()) && COORDINATES.equals(field.getName());
+		}
+
+		@Override
+		public boolean shouldSkipClass(Class<?> type) {
+			return false;
+		}
+	};
+
+	private static final String COORDINATES = "coordinates";
+
+	/**
+	 * @param accept the Accept header of the request
+	 * @return true if the request accepts the binary encoding with a quality greater than zero and at
+	 *         least the quality of JSON
+	 */
+	public static boolean isAccepted(String accept) {
+		if (StringUtils.isBlank(accept)) {
+			return false;
+		}
+		double binaryQuality = 0;
+		double jsonQuality = 0;
+		try {
+			for (MediaType mediaType : MediaType.parseMediaTypes(accept)) {
+				if (MEDIA_TYPE.equalsTypeAndSubtype(mediaType)) {
+					binaryQuality = Math.max(binaryQuality, mediaType.getQualityValue());
+				} else if (mediaType.includes(MediaType.APPLICATION_JSON)) {
+					jsonQuality = Math.max(jsonQuality, mediaType.getQualityValue());
+				}
+			}
+		}
+		catch (InvalidMediaTypeException e) {
+			return false;
+		}
+		return binaryQuality > 0 && binaryQuality >= jsonQuality;
+	}
+
+	/**
+	 * @param gson the Gson the locations are serialized with in JSON sync
+	 * @param locations the locations to encode
+	 * @return the encoded locations
+	 */
+	public static byte[] encode(Gson gson, List<PhysicalLocation> locations) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			encode(gson, locations, out);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Writes the encoded locations to the stream one location at a time
+	 *
+	 * @param gson the Gson the locations are serialized with in JSON sync
+	 * @param locations the locations to encode
+	 * @param out the stream the encoded locations are written to
+	 */
+	public static void encode(Gson gson, List<PhysicalLocation> locations, OutputStream out) throws IOException {
+		Gson withoutCoordinates = gson.newBuilder().addSerializationExclusionStrategy(COORDINATES_EXCLUSION).create();
+		ByteArrayOutputStream json = new ByteArrayOutputStream();
+		ByteArrayOutputStream coordinates = new ByteArrayOutputStream();
+		ByteArrayOutputStream location = new ByteArrayOutputStream();
+		for (PhysicalLocation physicalLocation : locations) {
+			json.reset();
+			coordinates.reset();
+			location.reset();
+			JsonWriter writer = withoutCoordinates.newJsonWriter(new OutputStreamWriter(json, UTF_8));
+			withoutCoordinates.toJson(physicalLocation, PhysicalLocation.class, writer);
+			writer.flush();
+			Geometry geometry = physicalLocation.getGeometry();
+			if (geometry != null && geometry.getCoordinates() != null) {
+				writeCoordinates(coordinates, geometry.getCoordinates(), new long[MAX_DIMENSIONS]);
+			}
+			writeBytes(location, JSON_TAG, json);
+			if (coordinates.size() > 0) {
+				writeBytes(location, COORDINATES_TAG, coordinates);
+			}
+			writeBytes(out, LOCATION_TAG, location);
+		}
+	}
+
+	/**
+	 * Decodes a body written by {@link #encode(Gson, List)} back to the JSON sync body
+	 *
+	 * @throws IllegalArgumentException if the body is malformed
+	 */
+	public static JsonArray decode(byte[] body) {
+		JsonArray locations = new JsonArray();
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(body);
+			while (buffer.hasRemaining()) {
+				ByteBuffer location = readBytes(buffer, LOCATION_TAG);
+				JsonObject json = new JsonParser().parse(UTF_8.decode(readBytes(location, JSON_TAG)).toString())
+				        .getAsJsonObject();
+				if (location.hasRemaining()) {
+					ByteBuffer coordinates = readBytes(location, COORDINATES_TAG);
+					json.getAsJsonObject(GEOMETRY).add(COORDINATES, readCoordinates(coordinates, new long[MAX_DIMENSIONS]));
+				}
+				locations.add(json);
+			}
+		}
+		catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalStateException | ClassCastException
+		        | NullPointerException | ArithmeticException e) {
+			throw new IllegalArgumentException("Malformed location body", e);
+		}
+		return locations;
+	}
+
+	private static void writeCoordinates(OutputStream out, JsonArray coordinates, long[] previous) throws IOException {
+		if (isPosition(coordinates)) {
+			writeVarint(out, (long) coordinates.size() << 1 | 1);
+			for (int i = 0; i < coordinates.size(); i++) {
+				long value = Math.round(coordinates.get(i).getAsDouble() * SCALE);
+				long base = i < previous.length ? previous[i] : 0;
+				writeVarint(out, zigzag(value - base));
+				if (i < previous.length) {
+					previous[i] = value;
+				}
+			}
+			return;
+		}
+		writeVarint(out, (long) coordinates.size() << 1);
+		for (JsonElement child : coordinates) {
+			writeCoordinates(out, child.isJsonArray() ? child.getAsJsonArray() : new JsonArray(), previous);
+		}
+	}
+
+	private static JsonArray readCoordinates(ByteBuffer in, long[] previous) {
+		long header = readVarint(in);
+		int length = Math.toIntExact(header >>> 1);
+		if (length > in.remaining()) {
+			throw new IllegalArgumentException("Malformed location body");
+		}
+		JsonArray coordinates = new JsonArray();
+		for (int i = 0; i < length; i++) {
+			if ((header & 1) == 0) {
+				coordinates.add(readCoordinates(in, previous));
+				continue;
+			}
+			long value = unzigzag(readVarint(in)) + (i < previous.length ? previous[i] : 0);
+			if (i < previous.length) {
+				previous[i] = value;
+			}
+			coordinates.add(new JsonPrimitive(value / SCALE));
+		}
+		return coordinates;
+	}
+
+	private static boolean isPosition(JsonArray coordinates) {
+		return coordinates.size() > 0 && coordinates.get(0).isJsonPrimitive();
+	}
+
+	private static void writeBytes(OutputStream out, int tag, ByteArrayOutputStream bytes) throws IOException {
+		writeVarint(out, tag);
+		writeVarint(out, bytes.size());
+		bytes.writeTo(out);
+	}
+
+	private static ByteBuffer readBytes(ByteBuffer in, int tag) {
+		if (readVarint(in) != tag) {
+			throw new IllegalArgumentException("Malformed location body");
+		}
+		int length = Math.toIntExact(readVarint(in));
+		ByteBuffer bytes = in.slice();
+		bytes.limit(length);
+		in.position(in.position() + length);
+		return bytes;
+	}
+
+	private static long zigzag(long value) {
+		return value << 1 ^ value >> 63;
+	}
+
+	private static long unzigzag(long value) {
+		return value >>> 1 ^ -(value & 1);
+	}
+
+	private static void writeVarint(OutputStream out, long value) throws IOException {
+		while ((value & ~0x7Fl) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	private static long readVarint(ByteBuffer in) {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = in.get();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed location body");
+	}
+}
@@ -0,0 +1,216 @@
+package org.opensrp.web.utils;
+
+import java.util.Arrays;
+
+import org.smartregister.domain.Geometry;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Reduces GeoJSON coordinates to the detail of a geometry level. Level 0 is the full geometry; each
+ * higher level drops the vertices closer than its tolerance to the simplified outline, using
+ * Douglas-Peucker, and rounds the coordinates to fewer decimal places:
+ * <ul>
+ * <li>1: tolerance of about 1 m, 6 decimal places</li>
+ * <li>2: tolerance of about 10 m, 5 decimal places</li>
+ * <li>3: tolerance of about 100 m, 4 decimal places</li>
+ * </ul>
+ * A polygon ring that would be left with fewer than four positions is only rounded, and if still too
+ * small kept as it is, so that no polygon disappears at a coarse level.
+ */
+public class GeometrySimplifier {
+
+	public static final int FULL_GEOMETRY_LEVEL = 0;
+
+	public static final int MAX_GEOMETRY_LEVEL = 3;
+
+	private static final double[] TOLERANCES = { 0, 0.00001, 0.0001, 0.001 };
+
+	private static final double[] PRECISIONS = { 0, 1e6, 1e5, 1e4 };
+
+	private static final int MIN_RING_POSITIONS = 4;
+
+	private static final int MIN_LINE_POSITIONS = 2;
+
+	/**
+	 * @throws IllegalArgumentException if the level is not between {@link #FULL_GEOMETRY_LEVEL} and
+	 *             {@link #MAX_GEOMETRY_LEVEL}
+	 */
+	public static void checkLevel(int level) {
+		if (level < FULL_GEOMETRY_LEVEL || level > MAX_GEOMETRY_LEVEL) {
+			throw new IllegalArgumentException(
+			        "Geometry level must be between " + FULL_GEOMETRY_LEVEL + " and " + MAX_GEOMETRY_LEVEL);
+		}
+	}
+
+	/**
+	 * @param type the type of the geometry, polygon rings are kept closed
+	 * @param coordinates the GeoJSON coordinates of the geometry
+	 * @param level the geometry level
+	 * @return new coordinates with the detail of the level, or the coordinates passed at level 0
+	 */
+	public static JsonArray simplify(Geometry.GeometryType type, JsonArray coordinates, int level) {
+		checkLevel(level);
+		if (level == FULL_GEOMETRY_LEVEL || coordinates == null) {
+			return coordinates;
+		}
+		boolean area = type != null && type.name().contains("POLYGON");
+		return simplify(coordinates, TOLERANCES[level], PRECISIONS[level], area);
+	}
+
+	/**
+	 * @return the number of positions in the coordinates
+	 */
+	public static int countPositions(JsonArray coordinates) {
+		if (coordinates == null) {
+			return 0;
+		}
+		if (isPosition(coordinates)) {
+			return 1;
+		}
+		int count = 0;
+		for (JsonElement child : coordinates) {
+			if (child.isJsonArray()) {
+				count += countPositions(child.getAsJsonArray());
+			}
+		}
+		return count;
+	}
+
+	private static JsonArray simplify(JsonArray coordinates, double tolerance, double precision, boolean area) {
+		if (isPosition(coordinates)) {
+			return toPosition(round(coordinates.get(0).getAsDouble(), precision),
+			    round(coordinates.get(1).getAsDouble(), precision));
+		}
+		if (coordinates.size() > 0 && coordinates.get(0).isJsonArray() && isPosition(coordinates.get(0).getAsJsonArray())) {
+			return simplifyPart(coordinates, tolerance, precision, area);
+		}
+		JsonArray simplified = new JsonArray();
+		for (JsonElement child : coordinates) {
+			simplified.add(child.isJsonArray() ? simplify(child.getAsJsonArray(), tolerance, precision, area) : child);
+		}
+		return simplified;
+	}
+
+	/**
+	 * Simplifies a line or a polygon ring
+	 */
+	private static JsonArray simplifyPart(JsonArray part, double tolerance, double precision, boolean ring) {
+		double[] positions = new double[part.size() * 2];
+		int size = 0;
+		for (JsonElement position : part) {
+			if (position.isJsonArray() && isPosition(position.getAsJsonArray())) {
+				positions[size++] = position.getAsJsonArray().get(0).getAsDouble();
+				positions[size++] = position.getAsJsonArray().get(1).getAsDouble();
+			}
+		}
+		positions = Arrays.copyOf(positions, size);
+		int minPositions = ring ? MIN_RING_POSITIONS : MIN_LINE_POSITIONS;
+
+		double[] simplified = round(douglasPeucker(positions, tolerance), precision);
+		if (simplified.length / 2 < minPositions) {
+			simplified = round(positions, precision);
+		}
+		if (simplified.length / 2 < minPositions) {
+			return part;
+		}
+		JsonArray result = new JsonArray();
+		for (int i = 0; i < simplified.length; i += 2) {
+			result.add(toPosition(simplified[i], simplified[i + 1]));
+		}
+		return result;
+	}
+
+	/**
+	 * @return the positions kept, the first and the last positions are always kept
+	 */
+	private static double[] douglasPeucker(double[] positions, double tolerance) {
+		int count = positions.length / 2;
+		if (count <= 2) {
+			return positions;
+		}
+		boolean[] kept = new boolean[count];
+		kept[0] = true;
+		kept[count - 1] = true;
+		int[] stack = new int[count * 2];
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = count - 1;
+		while (top > 0) {
+			int last = stack[--top];
+			int first = stack[--top];
+			double maxDistance = -1;
+			int farthest = -1;
+			for (int i = first + 1; i < last; i++) {
+				double distance = distanceToSegment(positions, i, first, last);
+				if (distance > maxDistance) {
+					maxDistance = distance;
+					farthest = i;
+				}
+			}
+			if (farthest >= 0 && maxDistance > tolerance) {
+				kept[farthest] = true;
+				stack[top++] = first;
+				stack[top++] = farthest;
+				stack[top++] = farthest;
+				stack[top++] = last;
+			}
+		}
+
+		double[] simplified = new double[positions.length];
+		int size = 0;
+		for (int i = 0; i < count; i++) {
+			if (kept[i]) {
+				simplified[size++] = positions[2 * i];
+				simplified[size++] = positions[2 * i + 1];
+			}
+		}
+		return Arrays.copyOf(simplified, size);
+	}
+
+	private static double distanceToSegment(double[] positions, int point, int first, int last) {
+		double x = positions[2 * point];
+		double y = positions[2 * point + 1];
+		double x1 = positions[2 * first];
+		double y1 = positions[2 * first + 1];
+		double dx = positions[2 * last] - x1;
+		double dy = positions[2 * last + 1] - y1;
+		double lengthSquared = dx * dx + dy * dy;
+		double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, ((x - x1) * dx + (y - y1) * dy) / lengthSquared));
+		return Math.hypot(x - x1 - t * dx, y - y1 - t * dy);
+	}
+
+	/**
+	 * Rounds the positions and drops the positions that round to the one before
+	 */
+	private static double[] round(double[] positions, double precision) {
+		double[] rounded = new double[positions.length];
+		int size = 0;
+		for (int i = 0; i + 1 < positions.length; i += 2) {
+			double x = round(positions[i], precision);
+			double y = round(positions[i + 1], precision);
+			if (size == 0 || x != rounded[size - 2] || y != rounded[size - 1]) {
+				rounded[size++] = x;
+				rounded[size++] = y;
+			}
+		}
+		return Arrays.copyOf(rounded, size);
+	}
+
+	private static double round(double value, double precision) {
+		return Math.round(value * precision) / precision;
+	}
+
+	private static JsonArray toPosition(double x, double y) {
+		JsonArray position = new JsonArray();
+		position.add(new JsonPrimitive(x));
+		position.add(new JsonPrimitive(y));
+		return position;
+	}
+
+	private static boolean isPosition(JsonArray array) {
+		return array.size() >= 2 && array.get(0).isJsonPrimitive() && array.get(1).isJsonPrimitive();
+	}
+}
@@ -0,0 +1,155 @@
+package org.opensrp.web.utils;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.lang3.tuple.Pair;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+/**
+ * Finds the ids a device is missing from a Bloom filter of the ids it holds.
+ * <p>
+ * The request body is a Guava {@link BloomFilter} of the UTF-8 ids, as written by
+ * {@link BloomFilter#writeTo(OutputStream)}. The response is a sequence of id records followed by a
+ * trailer, all numbers being unsigned LEB128 varints:
+ * <ul>
+ * <li>id record: suffix length + 1, number of leading bytes shared with the previous id, suffix
+ * bytes</li>
+ * <li>trailer: 0, last server version scanned (0 if nothing was scanned)</li>
+ * </ul>
+ * Ids held by the device are never returned. A missing id can be left out when it is a false
+ * positive of the filter, so devices size the filter for the error rate they can tolerate.
+ */
+public class IdReconciliation {
+
+	public static final int MAX_FILTER_BYTES = 8 * 1024 * 1024;
+
+	private static final int FILTER_HEADER_BYTES = 6;
+
+	private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Reads the Bloom filter a device sent
+	 *
+	 * @param inputStream the request body
+	 * @return the filter of the ids the device holds
+	 * @throws IllegalArgumentException if the filter is malformed or larger than
+	 *             {@link #MAX_FILTER_BYTES}
+	 */
+	public static BloomFilter<CharSequence> readFilter(InputStream inputStream) throws IOException {
+		byte[] bytes = IOUtils.toByteArray(new BoundedInputStream(inputStream, MAX_FILTER_BYTES + 1));
+		if (bytes.length > MAX_FILTER_BYTES) {
+			throw new IllegalArgumentException("Id filter is larger than " + MAX_FILTER_BYTES + " bytes");
+		}
+		/* validate the declared size before Guava allocates the bit array */
+		if (bytes.length < FILTER_HEADER_BYTES
+		        || bytes.length != FILTER_HEADER_BYTES + 8l * ByteBuffer.wrap(bytes, 2, 4).getInt()) {
+			throw new IllegalArgumentException("Malformed id filter");
+		}
+		try {
+			return BloomFilter.readFrom(new ByteArrayInputStream(bytes), Funnels.stringFunnel(UTF_8));
+		}
+		catch (IOException | RuntimeException e) {
+			throw new IllegalArgumentException("Malformed id filter", e);
+		}
+	}
+
+	/**
+	 * Pages through the ids from the server version and writes the ones not in the filter. Each page
+	 * starts at the last server version of the previous one. A page that does not get past the
+	 * server version it starts at, because more ids than the limit share that version, is read
+	 * again from the same version with twice the limit, so those ids are not cut off.
+	 *
+	 * @param fetcher the ids lookup, returns up to limit ids and the last server version of the page
+	 * @param serverVersion the server version to start from
+	 * @param pageSize the number of ids fetched per page
+	 * @param heldIds the filter of the ids the device holds
+	 * @param outputStream the stream to write to, it is flushed but not closed
+	 * @return the number of ids written
+	 */
+	public static long writeMissingIds(IdPageFetcher fetcher, long serverVersion, int pageSize,
+	        BloomFilter<CharSequence> heldIds, OutputStream outputStream) throws IOException {
+		OutputStream out = new BufferedOutputStream(outputStream, WRITE_BUFFER_SIZE);
+		byte[] previousId = new byte[0];
+		Set<String> previousPage = Collections.emptySet();
+		long version = serverVersion;
+		int limit = pageSize;
+		Long lastServerVersion = null;
+		long written = 0;
+		while (true) {
+			Pair<List<String>, Long> page = fetcher.fetch(version, limit);
+			List<String> ids = page == null || page.getLeft() == null ? Collections.emptyList() : page.getLeft();
+			Set<String> currentPage = new HashSet<>(ids.size() * 2);
+			for (String id : ids) {
+				currentPage.add(id);
+				/* ids at the page boundary version are returned again by the next page */
+				if (previousPage.contains(id) || heldIds.mightContain(id)) {
+					continue;
+				}
+				byte[] idBytes = id.getBytes(UTF_8);
+				int shared = sharedPrefixLength(previousId, idBytes);
+				writeVarint(out, idBytes.length - shared + 1);
+				writeVarint(out, shared);
+				out.write(idBytes, shared, idBytes.length - shared);
+				previousId = idBytes;
+				written++;
+			}
+			out.flush();
+
+			Long pageServerVersion = page == null ? null : page.getRight();
+			if (pageServerVersion != null) {
+				lastServerVersion = pageServerVersion;
+			}
+			if (ids.size() < limit || pageServerVersion == null || pageServerVersion < version) {
+				break;
+			}
+			if (pageServerVersion == version) {
+				limit = limit > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : limit * 2;
+			} else {
+				limit = pageSize;
+				version = pageServerVersion;
+			}
+			previousPage = currentPage;
+		}
+		writeVarint(out, 0);
+		writeVarint(out, lastServerVersion == null ? 0 : lastServerVersion);
+		out.flush();
+		return written;
+	}
+
+	private static int sharedPrefixLength(byte[] previous, byte[] current) {
+		int max = Math.min(previous.length, current.length);
+		int shared = 0;
+		while (shared < max && previous[shared] == current[shared]) {
+			shared++;
+		}
+		return shared;
+	}
+
+	private static void writeVarint(OutputStream out, long value) throws IOException {
+		while ((value & ~0x7Fl) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	public interface IdPageFetcher {
+
+		Pair<List<String>, Long> fetch(long serverVersion, int limit);
+	}
+}
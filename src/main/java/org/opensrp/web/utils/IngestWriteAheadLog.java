@@ -0,0 +1,207 @@
+package org.opensrp.web.utils;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * File backed write-ahead log for asynchronous sync uploads. Each upload is kept in its own file
+ * named after the ingest token until it has been processed:
+ * <ul>
+ * <li><code>token.wal</code> holds the uploading user on the first line followed by the payload,
+ * written and synced before the upload is acknowledged</li>
+ * <li><code>token.progress</code> is appended to as records are persisted so that a replay resumes
+ * after the last synced record</li>
+ * <li><code>token.status</code> holds the final status once processing has completed, at which
+ * point the payload and progress files are removed</li>
+ * </ul>
+ */
+public class IngestWriteAheadLog {
+	
+	private static final String PAYLOAD_SUFFIX = ".wal";
+	
+	private static final String PROGRESS_SUFFIX = ".progress";
+	
+	private static final String STATUS_SUFFIX = ".status";
+	
+	private static final String TEMP_SUFFIX = ".tmp";
+	
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
+	
+	private final Path directory;
+	
+	public interface PayloadConsumer<T> {
+		
+		T accept(String username, Reader payload) throws IOException;
+	}
+	
+	public IngestWriteAheadLog(Path directory) throws IOException {
+		this.directory = Files.createDirectories(directory);
+	}
+	
+	/**
+	 * Writes an upload to a staging file and syncs it to disk. The upload is only part of the log
+	 * once {@link #commit(String)} has been called.
+	 */
+	public void stage(String token, String username, InputStream payload) throws IOException {
+		Path staged = directory.resolve(token + TEMP_SUFFIX);
+		try (FileChannel channel = FileChannel.open(staged, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+			OutputStream out = Channels.newOutputStream(channel);
+			out.write((StringUtils.defaultString(username) + "\n").getBytes(UTF_8));
+			IOUtils.copyLarge(payload, out, new byte[COPY_BUFFER_SIZE]);
+			channel.force(true);
+		}
+	}
+	
+	public <T> T readStaged(String token, PayloadConsumer<T> consumer) throws IOException {
+		return read(directory.resolve(token + TEMP_SUFFIX), consumer);
+	}
+	
+	public void commit(String token) throws IOException {
+		Files.move(directory.resolve(token + TEMP_SUFFIX), directory.resolve(token + PAYLOAD_SUFFIX),
+		    StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	public void discard(String token) throws IOException {
+		Files.deleteIfExists(directory.resolve(token + TEMP_SUFFIX));
+		Files.deleteIfExists(directory.resolve(token + PAYLOAD_SUFFIX));
+		Files.deleteIfExists(directory.resolve(token + PROGRESS_SUFFIX));
+	}
+	
+	public <T> T read(String token, PayloadConsumer<T> consumer) throws IOException {
+		return read(directory.resolve(token + PAYLOAD_SUFFIX), consumer);
+	}
+	
+	private <T> T read(Path file, PayloadConsumer<T> consumer) throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(file, UTF_8)) {
+			String username = reader.readLine();
+			return consumer.accept(StringUtils.defaultIfEmpty(username, null), reader);
+		}
+	}
+	
+	public List<String> readProgress(String token) throws IOException {
+		Path progress = directory.resolve(token + PROGRESS_SUFFIX);
+		if (!Files.exists(progress)) {
+			return Collections.emptyList();
+		}
+		List<String> entries = new ArrayList<>();
+		for (String line : Files.readAllLines(progress, UTF_8)) {
+			// a crash may leave a partially written last line
+			if (line.endsWith(";")) {
+				entries.add(line.substring(0, line.length() - 1));
+			}
+		}
+		return entries;
+	}
+	
+	public ProgressWriter openProgress(String token) throws IOException {
+		return new ProgressWriter(FileChannel.open(directory.resolve(token + PROGRESS_SUFFIX), StandardOpenOption.CREATE,
+		    StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+	}
+	
+	/**
+	 * Records the final status of an upload and removes its payload and progress files.
+	 */
+	public void complete(String token, byte[] status) throws IOException {
+		Path staged = directory.resolve(token + STATUS_SUFFIX + TEMP_SUFFIX);
+		Files.write(staged, status);
+		Files.move(staged, directory.resolve(token + STATUS_SUFFIX), StandardCopyOption.ATOMIC_MOVE,
+		    StandardCopyOption.REPLACE_EXISTING);
+		Files.deleteIfExists(directory.resolve(token + PAYLOAD_SUFFIX));
+		Files.deleteIfExists(directory.resolve(token + PROGRESS_SUFFIX));
+	}
+	
+	public byte[] readStatus(String token) throws IOException {
+		Path status = directory.resolve(token + STATUS_SUFFIX);
+		return Files.exists(status) ? Files.readAllBytes(status) : null;
+	}
+	
+	/**
+	 * Lists the uploads that were acknowledged but not completed, removing uploads that were never
+	 * acknowledged and the leftovers of uploads that completed just before a crash.
+	 */
+	public List<String> recover() throws IOException {
+		List<String> tokens = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				if (name.endsWith(TEMP_SUFFIX)) {
+					Files.delete(file);
+				} else if (name.endsWith(PAYLOAD_SUFFIX)) {
+					String token = StringUtils.removeEnd(name, PAYLOAD_SUFFIX);
+					if (Files.exists(directory.resolve(token + STATUS_SUFFIX))) {
+						Files.delete(file);
+						Files.deleteIfExists(directory.resolve(token + PROGRESS_SUFFIX));
+					} else {
+						tokens.add(token);
+					}
+				}
+			}
+		}
+		return tokens;
+	}
+	
+	/**
+	 * Removes the statuses of uploads that completed before the given time.
+	 */
+	public void purgeStatuses(long completedBeforeMillis) throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + STATUS_SUFFIX)) {
+			for (Path file : files) {
+				if (Files.getLastModifiedTime(file).toMillis() < completedBeforeMillis) {
+					Files.deleteIfExists(file);
+				}
+			}
+		}
+	}
+	
+	public static class ProgressWriter implements Closeable {
+		
+		private final FileChannel channel;
+		
+		private ProgressWriter(FileChannel channel) {
+			this.channel = channel;
+		}
+		
+		/**
+		 * Appends the entries and syncs them to disk. Entries must not contain line breaks.
+		 */
+		public void append(List<String> entries) throws IOException {
+			if (entries.isEmpty()) {
+				return;
+			}
+			StringBuilder lines = new StringBuilder();
+			for (String entry : entries) {
+				lines.append(entry).append(";\n");
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(UTF_8));
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(false);
+		}
+		
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package org.opensrp.web.utils;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.smartregister.domain.LocationProperty;
+import org.smartregister.domain.LocationProperty.PropertyStatus;
+import org.smartregister.domain.LocationTag;
+import org.smartregister.domain.PhysicalLocation;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Keeps an in memory {@link LocationHierarchySnapshot} of the jurisdictions.
+ * <p>
+ * {@link #refresh(ServerVersionTailer.Fetcher, int)} reads the locations changed since the last
+ * refresh, applies them to the locations held and, when any changed, builds a new snapshot and
+ * swaps it in. Readers hold on to the snapshot they got, so a refresh never changes a hierarchy
+ * being read. Inactive locations are removed. No snapshot is returned until the first refresh has
+ * read every location, or when the hierarchy is disabled.
+ */
+public class LocationHierarchy {
+
+	public static final String REFRESH_METRIC = "opensrp.location.hierarchy.refresh";
+
+	public static final String SIZE_METRIC = "opensrp.location.hierarchy.size";
+
+	private final boolean enabled;
+
+	private final Map<String, LocationHierarchySnapshot.LocationNode> locations = new HashMap<>();
+
+	private final Timer refreshTimer;
+
+	private volatile LocationHierarchySnapshot snapshot;
+
+	private final ServerVersionTailer<PhysicalLocation> tailer = new ServerVersionTailer<>(
+	        PhysicalLocation::getServerVersion);
+
+	/**
+	 * @param enabled whether the hierarchy is maintained
+	 * @param meterRegistry the registry the hierarchy metrics are registered with
+	 */
+	public LocationHierarchy(boolean enabled, MeterRegistry meterRegistry) {
+		this.enabled = enabled;
+		this.refreshTimer = meterRegistry.timer(REFRESH_METRIC);
+		Gauge.builder(SIZE_METRIC, this, hierarchy -> hierarchy.snapshot == null ? 0 : hierarchy.snapshot.size())
+		        .register(meterRegistry);
+	}
+
+	/**
+	 * Applies the locations changed since the last refresh, read as described by
+	 * {@link ServerVersionTailer}
+	 *
+	 * @param fetcher the fetcher of the locations, including inactive ones
+	 * @param batchSize the number of locations read per page
+	 * @return the number of locations read
+	 */
+	public synchronized long refresh(ServerVersionTailer.Fetcher<PhysicalLocation> fetcher, int batchSize) {
+		if (!enabled) {
+			return 0;
+		}
+		long start = System.nanoTime();
+		boolean[] changed = { snapshot == null };
+		long read = tailer.tail(fetcher, batchSize, page -> {
+			for (PhysicalLocation location : page) {
+				changed[0] |= apply(location);
+			}
+		});
+		if (changed[0]) {
+			snapshot = LocationHierarchySnapshot.build(locations.values(), tailer.getLastServerVersion());
+		}
+		refreshTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		return read;
+	}
+
+	/**
+	 * @return the current snapshot of the hierarchy, or null if the hierarchy is disabled or not
+	 *         ready
+	 */
+	public LocationHierarchySnapshot getSnapshot() {
+		return enabled ? snapshot : null;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return true if the location held changed
+	 */
+	private boolean apply(PhysicalLocation location) {
+		if (location == null || location.getId() == null) {
+			return false;
+		}
+		LocationProperty properties = location.getProperties();
+		if (properties == null || PropertyStatus.INACTIVE.equals(properties.getStatus())) {
+			return locations.remove(location.getId()) != null;
+		}
+
+		Set<String> tags = new LinkedHashSet<>();
+		if (location.getLocationTags() != null) {
+			for (LocationTag tag : location.getLocationTags()) {
+				tags.add(tag.getName());
+			}
+		}
+		LocationHierarchySnapshot.LocationNode node = new LocationHierarchySnapshot.LocationNode(location.getId(),
+		        properties.getName(), properties.getParentId(), tags);
+		LocationHierarchySnapshot.LocationNode previous = locations.put(location.getId(), node);
+		return previous == null || !previous.isSameAs(node);
+	}
+}
@@ -0,0 +1,311 @@
+package org.opensrp.web.utils;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.opensrp.api.domain.Location;
+import org.opensrp.api.util.LocationTree;
+
+/**
+ * An immutable snapshot of the location hierarchy.
+ * <p>
+ * Locations are stored in the pre-order of a depth first walk of the hierarchy, so the descendants
+ * of a location are the locations positioned after it up to the end of its subtree. A location is
+ * an ancestor of another if the other is positioned within its subtree, which is checked in
+ * constant time, and a subtree is read by scanning its range. Locations whose parent chain loops
+ * back on itself are not reachable from a root and are left out.
+ */
+public class LocationHierarchySnapshot {
+
+	private final long serverVersion;
+
+	private final LocationNode[] locations;
+
+	private final int[] parents;
+
+	private final int[] subtreeEnds;
+
+	private final Map<String, Integer> positions;
+
+	private LocationHierarchySnapshot(long serverVersion, LocationNode[] locations, int[] parents, int[] subtreeEnds,
+	    Map<String, Integer> positions) {
+		this.serverVersion = serverVersion;
+		this.locations = locations;
+		this.parents = parents;
+		this.subtreeEnds = subtreeEnds;
+		this.positions = positions;
+	}
+
+	/**
+	 * Builds the snapshot of the hierarchy of the locations. Locations with no parent, or with a
+	 * parent that is not one of the locations, are the roots of the hierarchy.
+	 *
+	 * @param locations the locations of the hierarchy
+	 * @param serverVersion the latest server version of the locations
+	 */
+	public static LocationHierarchySnapshot build(Collection<LocationNode> locations, long serverVersion) {
+		Map<String, Integer> indexes = new HashMap<>();
+		List<LocationNode> nodes = new ArrayList<>(locations.size());
+		for (LocationNode location : locations) {
+			if (location != null && location.getId() != null && !indexes.containsKey(location.getId())) {
+				indexes.put(location.getId(), nodes.size());
+				nodes.add(location);
+			}
+		}
+
+		List<Integer> roots = new ArrayList<>();
+		Map<Integer, List<Integer>> children = new HashMap<>();
+		for (int i = 0; i < nodes.size(); i++) {
+			Integer parent = nodes.get(i).getParentId() == null ? null : indexes.get(nodes.get(i).getParentId());
+			if (parent == null) {
+				roots.add(i);
+			} else {
+				children.computeIfAbsent(parent, key -> new ArrayList<>()).add(i);
+			}
+		}
+
+		LocationNode[] ordered = new LocationNode[nodes.size()];
+		int[] parents = new int[nodes.size()];
+		int[] subtreeEnds = new int[nodes.size()];
+		Map<String, Integer> positions = new HashMap<>();
+		int[] stack = new int[nodes.size()];
+		int[] stackPositions = new int[nodes.size()];
+		int[] cursors = new int[nodes.size()];
+		int next = 0;
+		for (Integer root : roots) {
+			int depth = 0;
+			stack[depth] = root;
+			stackPositions[depth] = next;
+			cursors[depth] = 0;
+			parents[next] = -1;
+			positions.put(nodes.get(root).getId(), next);
+			ordered[next++] = nodes.get(root);
+			while (depth >= 0) {
+				List<Integer> nodeChildren = children.getOrDefault(stack[depth], Collections.emptyList());
+				if (cursors[depth] < nodeChildren.size()) {
+					int child = nodeChildren.get(cursors[depth]++);
+					parents[next] = stackPositions[depth];
+					positions.put(nodes.get(child).getId(), next);
+					ordered[next] = nodes.get(child);
+					depth++;
+					stack[depth] = child;
+					stackPositions[depth] = next++;
+					cursors[depth] = 0;
+				} else {
+					subtreeEnds[stackPositions[depth]] = next;
+					depth--;
+				}
+			}
+		}
+
+		if (next < ordered.length) {
+			LocationNode[] reachable = new LocationNode[next];
+			System.arraycopy(ordered, 0, reachable, 0, next);
+			int[] reachableParents = new int[next];
+			System.arraycopy(parents, 0, reachableParents, 0, next);
+			int[] reachableEnds = new int[next];
+			System.arraycopy(subtreeEnds, 0, reachableEnds, 0, next);
+			return new LocationHierarchySnapshot(serverVersion, reachable, reachableParents, reachableEnds, positions);
+		}
+		return new LocationHierarchySnapshot(serverVersion, ordered, parents, subtreeEnds, positions);
+	}
+
+	public long getServerVersion() {
+		return serverVersion;
+	}
+
+	/**
+	 * @return the number of locations in the hierarchy
+	 */
+	public int size() {
+		return locations.length;
+	}
+
+	public boolean contains(String locationId) {
+		return locationId != null && positions.containsKey(locationId);
+	}
+
+	public boolean containsAll(Collection<String> locationIds) {
+		for (String locationId : locationIds) {
+			if (!contains(locationId)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if the location is a descendant of the ancestor, false if it is not or if either
+	 *         location is not in the hierarchy
+	 */
+	public boolean isAncestor(String ancestorId, String locationId) {
+		Integer ancestor = positionOf(ancestorId);
+		Integer location = positionOf(locationId);
+		return ancestor != null && location != null && ancestor < location && location < subtreeEnds[ancestor];
+	}
+
+	/**
+	 * @return the ids of the descendants of the location in pre-order, or an empty list if the
+	 *         location is not in the hierarchy
+	 */
+	public List<String> getDescendants(String locationId) {
+		Integer location = positionOf(locationId);
+		List<String> descendants = new ArrayList<>();
+		if (location != null) {
+			for (int i = location + 1; i < subtreeEnds[location]; i++) {
+				descendants.add(locations[i].getId());
+			}
+		}
+		return descendants;
+	}
+
+	/**
+	 * @return the ids of the ancestors of the location from its parent up to the root, or an empty
+	 *         list if the location is not in the hierarchy
+	 */
+	public List<String> getAncestors(String locationId) {
+		Integer location = positionOf(locationId);
+		List<String> ancestors = new ArrayList<>();
+		if (location != null) {
+			for (int i = parents[location]; i >= 0; i = parents[i]) {
+				ancestors.add(locations[i].getId());
+			}
+		}
+		return ancestors;
+	}
+
+	/**
+	 * Builds the tree of the location and its descendants, the equivalent of
+	 * {@code PhysicalLocationService#buildLocationHierachyFromLocation}
+	 */
+	public LocationTree buildTree(String locationId, boolean returnTags) {
+		BitSet selected = new BitSet(locations.length);
+		Integer location = positionOf(locationId);
+		if (location != null) {
+			selected.set(location, subtreeEnds[location]);
+		}
+		return toLocationTree(selected, returnTags);
+	}
+
+	/**
+	 * Builds the tree of the location with its ancestors and descendants, the equivalent of
+	 * {@code PhysicalLocationService#buildLocationTreeHierachyWithAncestors}
+	 */
+	public LocationTree buildTreeWithAncestors(String locationId, boolean returnTags) {
+		BitSet selected = new BitSet(locations.length);
+		Integer location = positionOf(locationId);
+		if (location != null) {
+			selected.set(location, subtreeEnds[location]);
+			selectAncestors(location, selected);
+		}
+		return toLocationTree(selected, returnTags);
+	}
+
+	/**
+	 * Builds the tree of the locations and their ancestors, the equivalent of
+	 * {@code PhysicalLocationService#buildLocationHierachy}
+	 */
+	public LocationTree buildAncestorTree(Collection<String> locationIds, boolean returnTags) {
+		BitSet selected = new BitSet(locations.length);
+		for (String locationId : locationIds) {
+			Integer location = positionOf(locationId);
+			if (location != null && !selected.get(location)) {
+				selected.set(location);
+				selectAncestors(location, selected);
+			}
+		}
+		return toLocationTree(selected, returnTags);
+	}
+
+	private void selectAncestors(int location, BitSet selected) {
+		for (int i = parents[location]; i >= 0 && !selected.get(i); i = parents[i]) {
+			selected.set(i);
+		}
+	}
+
+	/**
+	 * Adds the selected locations to a tree in pre-order, so that every parent is added before its
+	 * children
+	 */
+	private LocationTree toLocationTree(BitSet selected, boolean returnTags) {
+		List<Location> treeLocations = new ArrayList<>(selected.cardinality());
+		for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+			treeLocations.add(locations[i].toLocation(returnTags));
+		}
+		LocationTree locationTree = new LocationTree();
+		locationTree.buildTreeFromList(treeLocations);
+		return locationTree;
+	}
+
+	private Integer positionOf(String locationId) {
+		return locationId == null ? null : positions.get(locationId);
+	}
+
+	/**
+	 * A location of the hierarchy
+	 */
+	public static class LocationNode {
+
+		private final String id;
+
+		private final String name;
+
+		private final String parentId;
+
+		private final Set<String> tags;
+
+		public LocationNode(String id, String name, String parentId, Set<String> tags) {
+			this.id = id;
+			this.name = name;
+			this.parentId = parentId;
+			this.tags = tags == null ? Collections.emptySet() : Collections.unmodifiableSet(tags);
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getParentId() {
+			return parentId;
+		}
+
+		public Set<String> getTags() {
+			return tags;
+		}
+
+		/**
+		 * @return true if the other node has the same id, name, parent and tags
+		 */
+		public boolean isSameAs(LocationNode other) {
+			return other != null && Objects.equals(id, other.id) && Objects.equals(name, other.name)
+			        && Objects.equals(parentId, other.parentId) && tags.equals(other.tags);
+		}
+
+		private Location toLocation(boolean returnTags) {
+			Location location = new Location();
+			location.setLocationId(id);
+			location.setName(name);
+			if (parentId != null) {
+				Location parentLocation = new Location();
+				parentLocation.setLocationId(parentId);
+				location.setParentLocation(parentLocation);
+			}
+			if (returnTags && !tags.isEmpty()) {
+				location.setTags(new HashSet<>(tags));
+			}
+			return location;
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package org.opensrp.web.utils;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * Writes every record after a server version as newline delimited JSON. Records are read in server
+ * version order in chunks of the fetch size; the next chunk is fetched on the executor while the
+ * current one is written, so at most two chunks are held in memory. The writer is flushed after
+ * each chunk. Records related to a chunk, such as the clients of a chunk of events, can be written
+ * on the lines before it with {@link #withRelated(Function, RecordSerializer)}.
+ *
+ * @param <T> the record type
+ */
+public class NdjsonExporter<T> {
+
+	public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
+	private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+	private static final String FILTER_HASH = "";
+
+	private final ChunkFetcher<T> fetcher;
+
+	private final Function<T, Long> serverVersionOf;
+
+	private final Function<T, String> idOf;
+
+	private final int fetchSize;
+
+	private final Executor executor;
+
+	private Pair<Function<List<T>, List<Object>>, RecordSerializer<Object>> related;
+
+	/**
+	 * @param fetcher returns up to limit records with a server version greater than or equal to the
+	 *            one passed, ordered by server version
+	 * @param serverVersionOf gets the server version of a record
+	 * @param idOf gets the id of a record
+	 * @param fetchSize the number of records read per chunk
+	 * @param executor the executor the next chunk is fetched on, may be null
+	 */
+	public NdjsonExporter(ChunkFetcher<T> fetcher, Function<T, Long> serverVersionOf, Function<T, String> idOf,
+	    int fetchSize, Executor executor) {
+		this.fetcher = fetcher;
+		this.serverVersionOf = serverVersionOf;
+		this.idOf = idOf;
+		this.fetchSize = Math.max(fetchSize, 1);
+		this.executor = executor == null ? Runnable::run : executor;
+	}
+
+	/**
+	 * Writes the records related to each chunk, one JSON document per line, before the chunk. A
+	 * related record shared by several chunks is written once per chunk.
+	 *
+	 * @param relatedOf returns the records related to a chunk
+	 * @param serializer converts a related record to JSON
+	 * @return this exporter
+	 */
+	@SuppressWarnings("unchecked")
+	public <R> NdjsonExporter<T> withRelated(Function<List<T>, List<R>> relatedOf, RecordSerializer<R> serializer) {
+		this.related = Pair.of(chunk -> (List<Object>) relatedOf.apply(chunk), record -> serializer.serialize((R) record));
+		return this;
+	}
+
+	/**
+	 * Writes the records starting from the server version, one JSON document per line. Each chunk
+	 * after the first resumes at the last written server version and skips the records already
+	 * written, so records sharing a server version across chunks are neither lost nor repeated.
+	 *
+	 * @param serverVersion the server version of the first chunk
+	 * @param serializer converts a record to JSON
+	 * @param outputStream the stream to write to, it is flushed but not closed
+	 * @return the number of records written, not counting related records
+	 */
+	public long export(long serverVersion, RecordSerializer<T> serializer, OutputStream outputStream)
+	    throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, UTF_8), WRITE_BUFFER_SIZE);
+		ContinuationToken position = null;
+		int requested = fetchSize;
+		CompletableFuture<List<T>> nextChunk = fetchAsync(serverVersion, requested);
+		long written = 0;
+		while (nextChunk != null) {
+			List<T> fetched = BatchFetchUtils.join(nextChunk);
+			if (fetched == null) {
+				fetched = Collections.emptyList();
+			}
+			boolean exhausted = fetched.size() < requested;
+			List<T> chunk = position == null ? fetched : position.skipServed(fetched, serverVersionOf, idOf);
+			position = ContinuationToken.position(chunk, serverVersionOf, idOf, position, FILTER_HASH);
+
+			nextChunk = null;
+			if (!exhausted && position != null) {
+				requested = fetchSize + position.getServedCount();
+				nextChunk = fetchAsync(position.getServerVersion(), requested);
+			}
+
+			if (related != null && !chunk.isEmpty()) {
+				for (Object record : related.getLeft().apply(chunk)) {
+					writer.write(related.getRight().serialize(record));
+					writer.write('\n');
+				}
+			}
+			for (T record : chunk) {
+				writer.write(serializer.serialize(record));
+				writer.write('\n');
+			}
+			writer.flush();
+			written += chunk.size();
+		}
+		return written;
+	}
+
+	private CompletableFuture<List<T>> fetchAsync(long serverVersion, int limit) {
+		return CompletableFuture.supplyAsync(() -> fetcher.fetch(serverVersion, limit), executor);
+	}
+
+	public interface ChunkFetcher<T> {
+
+		List<T> fetch(long serverVersion, int limit);
+	}
+
+	public interface RecordSerializer<T> {
+
+		String serialize(T record) throws IOException;
+	}
+}
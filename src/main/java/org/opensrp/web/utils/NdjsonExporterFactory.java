@@ -0,0 +1,49 @@
+package org.opensrp.web.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.opensrp.web.utils.NdjsonExporter.ChunkFetcher;
+import org.springframework.http.HttpStatus;
+
+/**
+ * Creates the {@link NdjsonExporter}s of the getAll exports with the configured fetch size and
+ * prefetch executor
+ */
+public class NdjsonExporterFactory {
+
+	private final int fetchSize;
+
+	private final Executor executor;
+
+	/**
+	 * @param fetchSize the number of records read per chunk
+	 * @param executor the executor the next chunk is fetched on, may be null
+	 */
+	public NdjsonExporterFactory(int fetchSize, Executor executor) {
+		this.fetchSize = fetchSize;
+		this.executor = executor;
+	}
+
+	/**
+	 * @see NdjsonExporter#NdjsonExporter(ChunkFetcher, Function, Function, int, Executor)
+	 */
+	public <T> NdjsonExporter<T> create(ChunkFetcher<T> fetcher, Function<T, Long> serverVersionOf,
+	        Function<T, String> idOf) {
+		return new NdjsonExporter<>(fetcher, serverVersionOf, idOf, fetchSize, executor);
+	}
+
+	/**
+	 * Sets the status, content type and encoding of an export response before it is written
+	 *
+	 * @param response the response the records are going to be written to
+	 */
+	public void prepareResponse(HttpServletResponse response) {
+		response.setStatus(HttpStatus.OK.value());
+		response.setContentType(NdjsonExporter.APPLICATION_NDJSON_VALUE);
+		response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+	}
+}
@@ -0,0 +1,255 @@
+package org.opensrp.web.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.smartregister.domain.Event;
+import org.smartregister.domain.Obs;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Maps contact phone numbers to the base entity ids of the clients whose events recorded them.
+ * <p>
+ * Phone numbers are read from the observations of the contact phone number concept and normalized
+ * to E.164, so that a number matches however it was written. A client has the numbers of its latest
+ * event that records any. The index is updated as events are saved and kept current in the
+ * background by {@link #refresh(ServerVersionTailer.Fetcher, int)}, which reads the events saved
+ * since the last refresh. Lookups are answered only once the first refresh has read every event. A
+ * disabled index ignores events and answers no lookups.
+ */
+public class PhoneNumberIndex {
+
+	public static final String CONTACT_PHONE_NUMBER_CONCEPT = "159635AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
+
+	public static final String INDEXED_METRIC = "opensrp.search.phone.index.indexed";
+
+	public static final String SIZE_METRIC = "opensrp.search.phone.index.size";
+
+	private static final int MIN_DIGITS = 4;
+
+	private static final int MAX_DIGITS = 15;
+
+	private final boolean enabled;
+
+	private final String defaultCountryCode;
+
+	private final Map<String, Set<String>> baseEntityIds = new ConcurrentHashMap<>();
+
+	private final Map<String, RecordedNumbers> recordedNumbers = new HashMap<>();
+
+	private final ServerVersionTailer<Event> tailer = new ServerVersionTailer<>(Event::getServerVersion);
+
+	private final Counter indexedCounter;
+
+	private volatile boolean ready;
+
+	/**
+	 * @param enabled whether the index is maintained
+	 * @param defaultCountryCode the country calling code of numbers written without one, e.g. 62
+	 * @param meterRegistry the registry the index metrics are registered with
+	 */
+	public PhoneNumberIndex(boolean enabled, String defaultCountryCode, MeterRegistry meterRegistry) {
+		this.enabled = enabled;
+		this.defaultCountryCode = StringUtils.defaultString(StringUtils.removeStart(defaultCountryCode, "+"));
+		this.indexedCounter = meterRegistry.counter(INDEXED_METRIC);
+		Gauge.builder(SIZE_METRIC, baseEntityIds, Map::size).register(meterRegistry);
+	}
+
+	/**
+	 * Indexes the events saved since the last refresh, read as described by
+	 * {@link ServerVersionTailer}
+	 *
+	 * @param fetcher the fetcher of the events
+	 * @param batchSize the number of events read per page
+	 * @return the number of events read
+	 */
+	public long refresh(ServerVersionTailer.Fetcher<Event> fetcher, int batchSize) {
+		long read = tailer.tail(fetcher, batchSize, this::indexAll);
+		ready = true;
+		return read;
+	}
+
+	/**
+	 * Applies the phone numbers recorded by the events
+	 */
+	public void indexAll(Collection<Event> events) {
+		for (Event event : events) {
+			index(event);
+		}
+	}
+
+	/**
+	 * Applies the phone numbers recorded by the event. The numbers of the latest event of a client
+	 * that records any replace the numbers indexed for the client, an event older than the one the
+	 * numbers were indexed from is ignored. A voided event is not indexed, and removes the numbers
+	 * of the client if they were indexed from it.
+	 */
+	public void index(Event event) {
+		if (!enabled || event == null || event.getBaseEntityId() == null) {
+			return;
+		}
+		String baseEntityId = event.getBaseEntityId();
+		String eventId = StringUtils.defaultIfBlank(event.getFormSubmissionId(), event.getId());
+		synchronized (recordedNumbers) {
+			RecordedNumbers recorded = recordedNumbers.get(baseEntityId);
+			if (event.getDateVoided() != null) {
+				if (recorded != null && eventId != null && eventId.equals(recorded.eventId)) {
+					update(baseEntityId, recorded.phoneNumbers, Collections.emptySet());
+					recordedNumbers.remove(baseEntityId);
+				}
+				return;
+			}
+			Set<String> phoneNumbers = phoneNumbersOf(event);
+			Long serverVersion = event.getServerVersion();
+			if (phoneNumbers.isEmpty() || (recorded != null && serverVersion != null
+			        && serverVersion < recorded.serverVersion)) {
+				return;
+			}
+			update(baseEntityId, recorded == null ? Collections.emptySet() : recorded.phoneNumbers, phoneNumbers);
+			recordedNumbers.put(baseEntityId, new RecordedNumbers(eventId,
+			        serverVersion != null ? serverVersion : recorded == null ? 0 : recorded.serverVersion, phoneNumbers));
+		}
+	}
+
+	/**
+	 * @param phoneNumber the phone number as written by the user
+	 * @return the base entity ids of the clients with the phone number in the order they were
+	 *         indexed, or null if the index is not ready or the phone number cannot be normalized
+	 */
+	public List<String> find(String phoneNumber) {
+		if (!enabled || !ready) {
+			return null;
+		}
+		String normalized = normalize(phoneNumber);
+		if (normalized == null) {
+			return null;
+		}
+		Set<String> ids = baseEntityIds.get(normalized);
+		if (ids == null) {
+			return new ArrayList<>();
+		}
+		synchronized (ids) {
+			return new ArrayList<>(ids);
+		}
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public boolean isReady() {
+		return ready;
+	}
+
+	public long getLastServerVersion() {
+		return tailer.getLastServerVersion();
+	}
+
+	private Set<String> phoneNumbersOf(Event event) {
+		Set<String> phoneNumbers = new LinkedHashSet<>();
+		if (event.getObs() == null) {
+			return phoneNumbers;
+		}
+		for (Obs obs : event.getObs()) {
+			if (obs == null || !CONTACT_PHONE_NUMBER_CONCEPT.equals(obs.getFieldCode()) || obs.getValues() == null) {
+				continue;
+			}
+			for (Object value : obs.getValues()) {
+				String phoneNumber = value == null ? null : normalize(value.toString());
+				if (phoneNumber != null) {
+					phoneNumbers.add(phoneNumber);
+				}
+			}
+		}
+		return phoneNumbers;
+	}
+
+	private void update(String baseEntityId, Set<String> previous, Set<String> current) {
+		for (String phoneNumber : previous) {
+			if (!current.contains(phoneNumber)) {
+				baseEntityIds.computeIfPresent(phoneNumber, (key, ids) -> {
+					ids.remove(baseEntityId);
+					return ids.isEmpty() ? null : ids;
+				});
+			}
+		}
+		for (String phoneNumber : current) {
+			Set<String> ids = baseEntityIds.computeIfAbsent(phoneNumber,
+			    key -> Collections.synchronizedSet(new LinkedHashSet<>()));
+			if (ids.add(baseEntityId)) {
+				indexedCounter.increment();
+			}
+		}
+	}
+
+	/**
+	 * Normalizes a phone number to E.164. Separators are dropped, an international prefix of 00 is
+	 * read as +, and numbers with no country code get the default one, replacing the trunk prefix 0.
+	 * When there is no default country code the digits are returned as written.
+	 *
+	 * @return the normalized number or null if it is not a phone number
+	 */
+	public String normalize(String phoneNumber) {
+		if (StringUtils.isBlank(phoneNumber)) {
+			return null;
+		}
+		String trimmed = phoneNumber.trim();
+		boolean international = trimmed.startsWith("+");
+		StringBuilder digits = new StringBuilder();
+		for (int i = international ? 1 : 0; i < trimmed.length(); i++) {
+			char c = trimmed.charAt(i);
+			if (c >= '0' && c <= '9') {
+				digits.append(c);
+			} else if (" -./()".indexOf(c) < 0) {
+				return null;
+			}
+		}
+
+		String number = digits.toString();
+		if (!international && number.startsWith("00")) {
+			international = true;
+			number = number.substring(2);
+		}
+		if (!international && !defaultCountryCode.isEmpty()) {
+			if (number.startsWith("0")) {
+				number = defaultCountryCode + number.substring(1);
+			} else if (!number.startsWith(defaultCountryCode)) {
+				number = defaultCountryCode + number;
+			}
+			international = true;
+		}
+		if (number.length() < MIN_DIGITS || number.length() > MAX_DIGITS) {
+			return null;
+		}
+		return international ? "+" + number : number;
+	}
+
+	/**
+	 * The phone numbers indexed for a client and the event they were read from
+	 */
+	private static class RecordedNumbers {
+
+		private final String eventId;
+
+		private final long serverVersion;
+
+		private final Set<String> phoneNumbers;
+
+		private RecordedNumbers(String eventId, long serverVersion, Set<String> phoneNumbers) {
+			this.eventId = eventId;
+			this.serverVersion = serverVersion;
+			this.phoneNumbers = phoneNumbers;
+		}
+	}
+}
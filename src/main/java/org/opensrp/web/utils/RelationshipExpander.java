@@ -0,0 +1,168 @@
+package org.opensrp.web.utils;
+
+import static org.opensrp.common.AllConstants.CLIENTS_FETCH_BATCH_SIZE;
+import static org.opensrp.common.AllConstants.BaseEntity.BASE_ENTITY_ID;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.opensrp.service.ClientService;
+import org.smartregister.domain.Client;
+
+/**
+ * Expands clients to their related clients one relationship level at a time. Each level is resolved
+ * from the ids of the clients found by the previous level, so every client is looked up once: the
+ * clients a level references are fetched by base entity id in batches of
+ * {@link org.opensrp.common.AllConstants#CLIENTS_FETCH_BATCH_SIZE}, the references that are not
+ * base entity ids are then looked up as identifiers, and the dependants of a level are looked up
+ * with {@link BatchFetchUtils#fetchEach(List, Executor, java.util.function.Function)}. Clients
+ * already returned are skipped and the expansion stops once the maximum number of related clients is
+ * reached.
+ */
+public class RelationshipExpander {
+
+	private final ClientService clientService;
+
+	private final Executor executor;
+
+	private final int maxResults;
+
+	/**
+	 * @param clientService the client lookups
+	 * @param executor the executor the lookups of a level run on, may be null
+	 * @param maxResults the maximum number of related clients returned
+	 */
+	public RelationshipExpander(ClientService clientService, Executor executor, int maxResults) {
+		this.clientService = clientService;
+		this.executor = executor;
+		this.maxResults = maxResults;
+	}
+
+	/**
+	 * Finds the clients referenced by the relationships of the clients, e.g. the mothers of children,
+	 * then the clients referenced by those up to the depth.
+	 *
+	 * @param clients the clients to expand
+	 * @param relationshipTypes the relationship types followed
+	 * @param depth the number of relationship levels followed
+	 * @return the related clients, excluding the clients passed
+	 */
+	public List<Client> findRelationships(List<Client> clients, Collection<String> relationshipTypes, int depth) {
+		Set<String> seenIds = baseEntityIdsOf(clients);
+		List<Client> related = new ArrayList<>();
+		List<Client> level = clients;
+		for (int i = 0; i < depth && !level.isEmpty() && related.size() < maxResults; i++) {
+			Set<String> relationalIds = new LinkedHashSet<>();
+			for (Client client : level) {
+				addRelationalIds(client, relationshipTypes, seenIds, relationalIds);
+			}
+			seenIds.addAll(relationalIds);
+			level = limit(findClients(new ArrayList<>(relationalIds), seenIds), related.size());
+			related.addAll(level);
+		}
+		return related;
+	}
+
+	/**
+	 * Finds the clients that have a relationship of the type to the clients, e.g. the children of
+	 * mothers, then the dependants of those up to the depth. Clients with no dependants at the first
+	 * level are removed from the clients passed.
+	 *
+	 * @param clients the clients to expand, modified to drop the clients with no dependants
+	 * @param relationshipType the relationship type the dependants have to the clients
+	 * @param depth the number of relationship levels followed
+	 * @return the dependants, excluding the clients passed
+	 */
+	public List<Client> findDependants(List<Client> clients, String relationshipType, int depth) {
+		Set<String> seenIds = baseEntityIdsOf(clients);
+		List<Client> dependants = new ArrayList<>();
+		List<Client> level = clients;
+		for (int i = 0; i < depth && !level.isEmpty() && dependants.size() < maxResults; i++) {
+			List<String> relationshipIds = new ArrayList<>(baseEntityIdsOf(level));
+			List<Pair<String, List<Client>>> found = BatchFetchUtils.fetchEach(relationshipIds, executor,
+			    id -> Collections.singletonList(Pair.of(id, clientService.findByRelationshipIdAndType(relationshipType, id))));
+
+			Set<String> idsWithDependants = new HashSet<>();
+			List<Client> nextLevel = new ArrayList<>();
+			for (Pair<String, List<Client>> clientDependants : found) {
+				if (clientDependants.getRight() == null || clientDependants.getRight().isEmpty()) {
+					continue;
+				}
+				idsWithDependants.add(clientDependants.getLeft());
+				for (Client dependant : clientDependants.getRight()) {
+					if (dependant.getBaseEntityId() == null || seenIds.add(dependant.getBaseEntityId())) {
+						nextLevel.add(dependant);
+					}
+				}
+			}
+			if (i == 0) {
+				clients.removeIf(client -> !idsWithDependants.contains(client.getBaseEntityId()));
+			}
+			level = limit(nextLevel, dependants.size());
+			dependants.addAll(level);
+		}
+		return dependants;
+	}
+
+	/**
+	 * Finds the clients a level references, as {@link ClientService#find(String)} does: by base entity
+	 * id, then by identifier for the references no client has as base entity id
+	 *
+	 * @param ids the references, all already in the seen ids
+	 * @param seenIds the base entity ids already returned, clients found by identifier are added
+	 */
+	private List<Client> findClients(List<String> ids, Set<String> seenIds) {
+		List<Client> clients = BatchFetchUtils.fetchInBatches(ids, CLIENTS_FETCH_BATCH_SIZE, executor,
+		    batch -> clientService.findByFieldValue(BASE_ENTITY_ID, batch));
+		List<String> missingIds = new ArrayList<>(ids);
+		missingIds.removeAll(baseEntityIdsOf(clients));
+		for (Client client : BatchFetchUtils.fetchEach(missingIds, executor, id -> {
+			Client found = clientService.find(id);
+			return found == null ? Collections.<Client> emptyList() : Collections.singletonList(found);
+		})) {
+			if (client.getBaseEntityId() == null || seenIds.add(client.getBaseEntityId())) {
+				clients.add(client);
+			}
+		}
+		return clients;
+	}
+
+	private void addRelationalIds(Client client, Collection<String> relationshipTypes, Set<String> seenIds,
+	        Set<String> relationalIds) {
+		if (client == null || client.getRelationships() == null) {
+			return;
+		}
+		for (Map.Entry<String, List<String>> relationship : client.getRelationships().entrySet()) {
+			if (relationshipTypes.contains(relationship.getKey()) && relationship.getValue() != null) {
+				for (String relationalId : relationship.getValue()) {
+					if (relationalId != null && !seenIds.contains(relationalId)) {
+						relationalIds.add(relationalId);
+					}
+				}
+			}
+		}
+	}
+
+	private List<Client> limit(List<Client> level, int found) {
+		int remaining = maxResults - found;
+		return level.size() <= remaining ? level : new ArrayList<>(level.subList(0, remaining));
+	}
+
+	private static Set<String> baseEntityIdsOf(List<Client> clients) {
+		Set<String> ids = new LinkedHashSet<>();
+		for (Client client : clients) {
+			if (client != null && client.getBaseEntityId() != null) {
+				ids.add(client.getBaseEntityId());
+			}
+		}
+		return ids;
+	}
+}
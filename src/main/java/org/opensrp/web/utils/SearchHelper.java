@@ -3,8 +3,11 @@ package org.opensrp.web.utils;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import javax.servlet.http.HttpServletRequest;
 import org.apache.commons.lang3.StringUtils;
 import org.joda.time.DateTime;
@@ -216,10 +219,11 @@ public class SearchHelper {
 			return list1;
 		}
 		
+		Set<String> list2Ids = baseEntityIdsOf(list2);
 		List<Client> list = new ArrayList<Client>();
 		
 		for (Client t : list1) {
-			if (contains(list2, t)) {
+			if (t != null && t.getBaseEntityId() != null && list2Ids.contains(t.getBaseEntityId())) {
 				list.add(t);
 			}
 		}
@@ -227,6 +231,35 @@ public class SearchHelper {
 		return list;
 	}
 	
+	/**
+	 * Adds the clients that are not in the list yet, comparing clients by base entity id. Clients with
+	 * no base entity id are always added.
+	 * 
+	 * @param clients the list the clients are added to
+	 * @param additions the clients to add
+	 */
+	public static void addAllMissing(List<Client> clients, List<Client> additions) {
+		if (additions == null) {
+			return;
+		}
+		Set<String> ids = baseEntityIdsOf(clients);
+		for (Client client : additions) {
+			if (client == null || client.getBaseEntityId() == null || ids.add(client.getBaseEntityId())) {
+				clients.add(client);
+			}
+		}
+	}
+	
+	private static Set<String> baseEntityIdsOf(List<Client> clients) {
+		Set<String> ids = new HashSet<String>();
+		for (Client client : clients) {
+			if (client != null && client.getBaseEntityId() != null) {
+				ids.add(client.getBaseEntityId());
+			}
+		}
+		return ids;
+	}
+	
 	public static List<Client> createClientListIfEmpty(List<Client> list_) {
 		List<Client> list = list_;
 		
@@ -267,12 +300,24 @@ public class SearchHelper {
 	
 	public static List<ChildMother> processSearchResult(List<Client> children, List<Client> mothers,
 	                                                    String RELATIONSHIP_KEY) {
+		Map<String, List<Client>> mothersById = new HashMap<String, List<Client>>();
+		for (Client mother : mothers) {
+			if (mother.getBaseEntityId() != null) {
+				mothersById.computeIfAbsent(mother.getBaseEntityId().toLowerCase(Locale.ROOT),
+				    id -> new ArrayList<Client>()).add(mother);
+			}
+		}
+		
 		List<ChildMother> childMotherList = new ArrayList<ChildMother>();
+		if (mothersById.isEmpty()) {
+			return childMotherList;
+		}
 		for (Client child : children) {
-			for (Client mother : mothers) {
-				String relationalId = getRelationalId(child, RELATIONSHIP_KEY);
-				String motherEntityId = mother.getBaseEntityId();
-				if (relationalId != null && relationalId.equalsIgnoreCase(motherEntityId)) {
+			String relationalId = getRelationalId(child, RELATIONSHIP_KEY);
+			List<Client> childMothers = relationalId == null ? null
+			        : mothersById.get(relationalId.toLowerCase(Locale.ROOT));
+			if (childMothers != null) {
+				for (Client mother : childMothers) {
 					childMotherList.add(new ChildMother(child, mother));
 				}
 			}
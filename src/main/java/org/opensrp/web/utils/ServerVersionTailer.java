@@ -0,0 +1,82 @@
+package org.opensrp.web.utils;
+
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Reads the records changed since the last read in server version order, for the in memory indexes
+ * kept current from a table.
+ * <p>
+ * Records are read in pages of the batch size starting at the last server version read. The fetch
+ * includes records at that server version, so the last records of a page are read again by the next
+ * read and have to be applied idempotently. A full page of records all at the same server version
+ * is read again with a doubled limit, so that a read always progresses past a server version shared
+ * by more records than fit in a page.
+ *
+ * @param <T> the type of the records read
+ */
+public class ServerVersionTailer<T> {
+
+	private final Function<T, Long> serverVersionOf;
+
+	private volatile long lastServerVersion;
+
+	/**
+	 * @param serverVersionOf returns the server version of a record
+	 */
+	public ServerVersionTailer(Function<T, Long> serverVersionOf) {
+		this.serverVersionOf = serverVersionOf;
+	}
+
+	/**
+	 * Reads the records changed since the last read
+	 *
+	 * @param fetcher the fetcher of the records
+	 * @param batchSize the number of records read per page
+	 * @param consumer applies each page of records, in order
+	 * @return the number of records read
+	 */
+	public long tail(Fetcher<T> fetcher, int batchSize, Consumer<List<T>> consumer) {
+		long read = 0;
+		int limit = Math.max(batchSize, 1);
+		while (true) {
+			long serverVersion = lastServerVersion;
+			List<T> page = fetcher.fetch(serverVersion, limit);
+			if (page == null || page.isEmpty()) {
+				break;
+			}
+			Long pageServerVersion = serverVersionOf.apply(page.get(page.size() - 1));
+			if (page.size() >= limit && pageServerVersion != null && pageServerVersion <= serverVersion) {
+				limit = limit * 2;
+				continue;
+			}
+			consumer.accept(page);
+			read += page.size();
+			if (pageServerVersion != null && pageServerVersion > serverVersion) {
+				lastServerVersion = pageServerVersion;
+			}
+			if (page.size() < limit || pageServerVersion == null || pageServerVersion <= serverVersion) {
+				break;
+			}
+			limit = Math.max(batchSize, 1);
+		}
+		return read;
+	}
+
+	/**
+	 * @return the server version the next read starts at
+	 */
+	public long getLastServerVersion() {
+		return lastServerVersion;
+	}
+
+	public interface Fetcher<T> {
+
+		/**
+		 * @return up to limit records with a server version greater than or equal to the one passed,
+		 *         ordered by server version
+		 */
+		List<T> fetch(long serverVersion, int limit);
+	}
+}
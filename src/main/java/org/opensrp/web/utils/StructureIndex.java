@@ -0,0 +1,517 @@
+package org.opensrp.web.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.opensrp.domain.StructureDetails;
+import org.smartregister.domain.Geometry;
+import org.smartregister.domain.LocationProperty;
+import org.smartregister.domain.LocationProperty.PropertyStatus;
+import org.smartregister.domain.PhysicalLocation;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * An in memory grid index of structure geometries, used to find the structures within a radius of a
+ * point without querying the database.
+ * <p>
+ * The geometries are held simplified to {@link GeometrySimplifier} level 1, and the bounding box of
+ * every structure is added to the cells of a latitude/longitude grid it overlaps. A query reads the
+ * structures in the cells its bounding box overlaps, then measures the distance from the point to
+ * each geometry on a local equirectangular projection: zero inside a polygon, otherwise the distance
+ * to the nearest vertex or edge. The projection is accurate to well within half a percent over the
+ * radii served and the simplification to a little over a meter, so a structure within that margin of
+ * the radius cannot be decided by the index and the query is left to the database. The index is kept
+ * current by {@link #refresh(ServerVersionTailer.Fetcher, int)}, which reads the structures changed
+ * since the last refresh; inactive structures are removed. Queries are answered only once the first
+ * refresh has read every structure.
+ */
+public class StructureIndex {
+
+	public static final String INDEXED_METRIC = "opensrp.location.structure.index.indexed";
+
+	public static final String REFRESH_METRIC = "opensrp.location.structure.index.refresh";
+
+	public static final String SIZE_METRIC = "opensrp.location.structure.index.size";
+
+	public static final String MEMORY_METRIC = "opensrp.location.structure.index.memory";
+
+	public static final String LAG_METRIC = "opensrp.location.structure.index.lag";
+
+	public static final String FALLBACK_METRIC = "opensrp.location.structure.index.fallback";
+
+	/**
+	 * The largest radius in meters answered from the index
+	 */
+	public static final double MAX_RADIUS = 10000;
+
+	private static final double METERS_PER_DEGREE = 6371008.8 * Math.PI / 180;
+
+	private static final double RELATIVE_TOLERANCE = 0.005;
+
+	private static final double MIN_TOLERANCE = 1;
+
+	/**
+	 * The geometry level of the geometries held by the index
+	 */
+	private static final int GEOMETRY_LEVEL = 1;
+
+	/**
+	 * The largest distance in meters between a geometry and the geometry held at
+	 * {@link #GEOMETRY_LEVEL}: the simplification tolerance plus the rounding of the coordinates
+	 */
+	private static final double GEOMETRY_LEVEL_ERROR = 1.25;
+
+	private static final int MAX_CELLS_PER_STRUCTURE = 64;
+
+	private static final long ENTRY_BYTES = 160;
+
+	private static final long CELL_BYTES = 16;
+
+	private final boolean enabled;
+
+	private final double cellSize;
+
+	private final Map<String, Entry> entries = new HashMap<>();
+
+	private final Map<Long, List<Entry>> cells = new HashMap<>();
+
+	private final Set<Entry> oversized = new LinkedHashSet<>();
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private final Counter indexedCounter;
+
+	private final Counter fallbackCounter;
+
+	private final Timer refreshTimer;
+
+	private final ServerVersionTailer<PhysicalLocation> tailer = new ServerVersionTailer<>(
+	        PhysicalLocation::getServerVersion);
+
+	private volatile long lastRefreshed;
+
+	private volatile boolean ready;
+
+	private long memory;
+
+	/**
+	 * @param enabled whether the index is maintained
+	 * @param cellSize the size of the grid cells in degrees
+	 * @param meterRegistry the registry the index metrics are registered with
+	 */
+	public StructureIndex(boolean enabled, double cellSize, MeterRegistry meterRegistry) {
+		this.enabled = enabled;
+		this.cellSize = cellSize > 0 ? cellSize : 0.01;
+		this.indexedCounter = meterRegistry.counter(INDEXED_METRIC);
+		this.fallbackCounter = meterRegistry.counter(FALLBACK_METRIC);
+		this.refreshTimer = meterRegistry.timer(REFRESH_METRIC);
+		Gauge.builder(SIZE_METRIC, this, StructureIndex::size).register(meterRegistry);
+		Gauge.builder(MEMORY_METRIC, this, StructureIndex::estimateMemory).baseUnit("bytes").register(meterRegistry);
+		Gauge.builder(LAG_METRIC, this, StructureIndex::refreshLag).baseUnit("seconds").register(meterRegistry);
+	}
+
+	/**
+	 * Indexes the structures changed since the last refresh, read as described by
+	 * {@link ServerVersionTailer}
+	 *
+	 * @param fetcher the fetcher of the structures with their geometry
+	 * @param batchSize the number of structures read per page
+	 * @return the number of structures indexed
+	 */
+	public long refresh(ServerVersionTailer.Fetcher<PhysicalLocation> fetcher, int batchSize) {
+		if (!enabled) {
+			return 0;
+		}
+		long start = System.nanoTime();
+		long indexed = tailer.tail(fetcher, batchSize, structures -> {
+			indexAll(structures);
+			indexedCounter.increment(structures.size());
+		});
+		ready = true;
+		lastRefreshed = System.currentTimeMillis();
+		refreshTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		return indexed;
+	}
+
+	/**
+	 * Adds, replaces or removes the structures in the index
+	 */
+	public void indexAll(Collection<PhysicalLocation> structures) {
+		lock.writeLock().lock();
+		try {
+			for (PhysicalLocation structure : structures) {
+				if (structure != null && structure.getId() != null) {
+					remove(entries.remove(structure.getId()));
+					Entry entry = toEntry(structure);
+					if (entry != null) {
+						add(entry);
+					}
+				}
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Finds the structures with a geometry within the radius of the point
+	 *
+	 * @param latitude the latitude of the point
+	 * @param longitude the longitude of the point
+	 * @param radius the radius in meters
+	 * @return the structures ordered by distance from the point, or null if the index is not ready,
+	 *         the radius is larger than {@link #MAX_RADIUS} or a structure is too close to the radius
+	 *         to be decided without the exact geometry
+	 */
+	public List<StructureDetails> findWithinRadius(double latitude, double longitude, double radius) {
+		if (!enabled || !ready || radius < 0 || radius > MAX_RADIUS) {
+			return null;
+		}
+		double latitudeDelta = radius / METERS_PER_DEGREE;
+		double cosLatitude = Math.cos(Math.toRadians(latitude));
+		if (Math.abs(latitude) + latitudeDelta >= 90 || cosLatitude <= 0) {
+			fallbackCounter.increment();
+			return null;
+		}
+		double longitudeDelta = latitudeDelta / cosLatitude;
+		double tolerance = Math.max(MIN_TOLERANCE, radius * RELATIVE_TOLERANCE) + GEOMETRY_LEVEL_ERROR;
+
+		List<Entry> found = new ArrayList<>();
+		Map<Entry, Double> distances = new HashMap<>();
+		lock.readLock().lock();
+		try {
+			for (Entry entry : candidates(latitude - latitudeDelta, longitude - longitudeDelta, latitude + latitudeDelta,
+			    longitude + longitudeDelta)) {
+				double distance = entry.distanceFrom(latitude, longitude, cosLatitude);
+				if (distance <= radius - tolerance) {
+					found.add(entry);
+					distances.put(entry, distance);
+				} else if (distance <= radius + tolerance) {
+					fallbackCounter.increment();
+					return null;
+				}
+			}
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+		found.sort(Comparator.comparing(distances::get));
+		return toStructureDetails(found);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public boolean isReady() {
+		return ready;
+	}
+
+	public long getLastServerVersion() {
+		return tailer.getLastServerVersion();
+	}
+
+	/**
+	 * @return the number of structures in the index
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return entries.size();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return an estimate of the bytes held by the index
+	 */
+	public long estimateMemory() {
+		lock.readLock().lock();
+		try {
+			return memory;
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the seconds since the last refresh completed, or NaN before the first refresh
+	 */
+	private double refreshLag() {
+		return ready ? (System.currentTimeMillis() - lastRefreshed) / 1000d : Double.NaN;
+	}
+
+	private List<Entry> candidates(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+		Set<Entry> candidates = new LinkedHashSet<>();
+		long minRow = cellOf(minLatitude);
+		long maxRow = cellOf(maxLatitude);
+		long minColumn = cellOf(minLongitude);
+		long maxColumn = cellOf(maxLongitude);
+		if ((maxRow - minRow + 1) * (maxColumn - minColumn + 1) > cells.size()) {
+			for (List<Entry> cell : cells.values()) {
+				addIntersecting(cell, minLatitude, minLongitude, maxLatitude, maxLongitude, candidates);
+			}
+		} else {
+			for (long row = minRow; row <= maxRow; row++) {
+				for (long column = minColumn; column <= maxColumn; column++) {
+					List<Entry> cell = cells.get(cellKey(row, column));
+					if (cell != null) {
+						addIntersecting(cell, minLatitude, minLongitude, maxLatitude, maxLongitude, candidates);
+					}
+				}
+			}
+		}
+		addIntersecting(oversized, minLatitude, minLongitude, maxLatitude, maxLongitude, candidates);
+		return new ArrayList<>(candidates);
+	}
+
+	private static void addIntersecting(Collection<Entry> cell, double minLatitude, double minLongitude,
+	        double maxLatitude, double maxLongitude, Set<Entry> candidates) {
+		for (Entry entry : cell) {
+			if (entry.minLatitude <= maxLatitude && entry.maxLatitude >= minLatitude && entry.minLongitude <= maxLongitude
+			        && entry.maxLongitude >= minLongitude) {
+				candidates.add(entry);
+			}
+		}
+	}
+
+	private void add(Entry entry) {
+		entries.put(entry.id, entry);
+		long minRow = cellOf(entry.minLatitude);
+		long maxRow = cellOf(entry.maxLatitude);
+		long minColumn = cellOf(entry.minLongitude);
+		long maxColumn = cellOf(entry.maxLongitude);
+		if ((maxRow - minRow + 1) * (maxColumn - minColumn + 1) > MAX_CELLS_PER_STRUCTURE) {
+			oversized.add(entry);
+			entry.cells = new long[0];
+		} else {
+			entry.cells = new long[(int) ((maxRow - minRow + 1) * (maxColumn - minColumn + 1))];
+			int i = 0;
+			for (long row = minRow; row <= maxRow; row++) {
+				for (long column = minColumn; column <= maxColumn; column++) {
+					entry.cells[i] = cellKey(row, column);
+					cells.computeIfAbsent(entry.cells[i++], key -> new ArrayList<>(2)).add(entry);
+				}
+			}
+		}
+		memory += entry.estimateMemory();
+	}
+
+	private void remove(Entry entry) {
+		if (entry == null) {
+			return;
+		}
+		oversized.remove(entry);
+		for (long key : entry.cells) {
+			List<Entry> cell = cells.get(key);
+			if (cell != null && cell.remove(entry) && cell.isEmpty()) {
+				cells.remove(key);
+			}
+		}
+		memory -= entry.estimateMemory();
+	}
+
+	private long cellOf(double degrees) {
+		return (long) Math.floor(degrees / cellSize);
+	}
+
+	private static long cellKey(long row, long column) {
+		return (row << 32) ^ (column & 0xffffffffL);
+	}
+
+	private static List<StructureDetails> toStructureDetails(Collection<Entry> found) {
+		List<StructureDetails> structures = new ArrayList<>(found.size());
+		for (Entry entry : found) {
+			structures.add(new StructureDetails(entry.id, entry.parentId, entry.name));
+		}
+		return structures;
+	}
+
+	/**
+	 * @return the entry of an active structure with a geometry, or null
+	 */
+	private static Entry toEntry(PhysicalLocation structure) {
+		LocationProperty properties = structure.getProperties();
+		Geometry geometry = structure.getGeometry();
+		if ((properties != null && PropertyStatus.INACTIVE.equals(properties.getStatus())) || geometry == null
+		        || geometry.getCoordinates() == null) {
+			return null;
+		}
+		List<double[]> parts = new ArrayList<>();
+		collectParts(GeometrySimplifier.simplify(geometry.getType(), geometry.getCoordinates(), GEOMETRY_LEVEL), parts);
+		if (parts.isEmpty()) {
+			return null;
+		}
+		boolean area = geometry.getType() != null && geometry.getType().name().contains("POLYGON");
+		return new Entry(structure.getId(), properties == null ? null : properties.getParentId(),
+		        properties == null ? null : properties.getName(), parts.toArray(new double[0][]), area);
+	}
+
+	/**
+	 * Collects the positions of GeoJSON coordinates as parts of interleaved longitudes and latitudes:
+	 * a part holds a single point, a line or a polygon ring
+	 */
+	private static void collectParts(JsonElement coordinates, List<double[]> parts) {
+		if (!coordinates.isJsonArray() || coordinates.getAsJsonArray().size() == 0) {
+			return;
+		}
+		JsonArray array = coordinates.getAsJsonArray();
+		if (isPosition(array)) {
+			parts.add(new double[] { array.get(0).getAsDouble(), array.get(1).getAsDouble() });
+		} else if (array.get(0).isJsonArray() && isPosition(array.get(0).getAsJsonArray())) {
+			double[] part = new double[array.size() * 2];
+			int size = 0;
+			for (JsonElement position : array) {
+				if (position.isJsonArray() && isPosition(position.getAsJsonArray())) {
+					part[size++] = position.getAsJsonArray().get(0).getAsDouble();
+					part[size++] = position.getAsJsonArray().get(1).getAsDouble();
+				}
+			}
+			parts.add(size == part.length ? part : Arrays.copyOf(part, size));
+		} else {
+			for (JsonElement child : array) {
+				collectParts(child, parts);
+			}
+		}
+	}
+
+	private static boolean isPosition(JsonArray array) {
+		return array.size() >= 2 && array.get(0).isJsonPrimitive() && array.get(1).isJsonPrimitive();
+	}
+
+	/**
+	 * A structure geometry with its bounding box
+	 */
+	private static class Entry {
+
+		private final String id;
+
+		private final String parentId;
+
+		private final String name;
+
+		private final double[][] parts;
+
+		private final boolean area;
+
+		private double minLatitude = Double.MAX_VALUE;
+
+		private double minLongitude = Double.MAX_VALUE;
+
+		private double maxLatitude = -Double.MAX_VALUE;
+
+		private double maxLongitude = -Double.MAX_VALUE;
+
+		private long[] cells;
+
+		private Entry(String id, String parentId, String name, double[][] parts, boolean area) {
+			this.id = id;
+			this.parentId = parentId;
+			this.name = name;
+			this.parts = parts;
+			this.area = area;
+			for (double[] part : parts) {
+				for (int i = 0; i + 1 < part.length; i += 2) {
+					minLongitude = Math.min(minLongitude, part[i]);
+					maxLongitude = Math.max(maxLongitude, part[i]);
+					minLatitude = Math.min(minLatitude, part[i + 1]);
+					maxLatitude = Math.max(maxLatitude, part[i + 1]);
+				}
+			}
+		}
+
+		/**
+		 * @return the distance in meters from the point to the geometry, zero if the geometry is an area
+		 *         containing the point
+		 */
+		private double distanceFrom(double latitude, double longitude, double cosLatitude) {
+			if (area && contains(latitude, longitude)) {
+				return 0;
+			}
+			double distance = Double.MAX_VALUE;
+			for (double[] part : parts) {
+				double previousX = (part[0] - longitude) * cosLatitude * METERS_PER_DEGREE;
+				double previousY = (part[1] - latitude) * METERS_PER_DEGREE;
+				distance = Math.min(distance, Math.hypot(previousX, previousY));
+				for (int i = 2; i + 1 < part.length; i += 2) {
+					double x = (part[i] - longitude) * cosLatitude * METERS_PER_DEGREE;
+					double y = (part[i + 1] - latitude) * METERS_PER_DEGREE;
+					distance = Math.min(distance, distanceToSegment(previousX, previousY, x, y));
+					previousX = x;
+					previousY = y;
+				}
+			}
+			return distance;
+		}
+
+		/**
+		 * Even-odd ray casting over every ring, so holes and separate polygons are handled alike
+		 */
+		private boolean contains(double latitude, double longitude) {
+			if (latitude < minLatitude || latitude > maxLatitude || longitude < minLongitude || longitude > maxLongitude) {
+				return false;
+			}
+			boolean inside = false;
+			for (double[] ring : parts) {
+				int points = ring.length / 2;
+				for (int i = 0, j = points - 1; i < points; j = i++) {
+					double longitudeI = ring[2 * i];
+					double latitudeI = ring[2 * i + 1];
+					double longitudeJ = ring[2 * j];
+					double latitudeJ = ring[2 * j + 1];
+					if ((latitudeI > latitude) != (latitudeJ > latitude) && longitude < (longitudeJ - longitudeI)
+					        * (latitude - latitudeI) / (latitudeJ - latitudeI) + longitudeI) {
+						inside = !inside;
+					}
+				}
+			}
+			return inside;
+		}
+
+		/**
+		 * @return the distance from the origin to the segment between the two points
+		 */
+		private static double distanceToSegment(double x1, double y1, double x2, double y2) {
+			double dx = x2 - x1;
+			double dy = y2 - y1;
+			double lengthSquared = dx * dx + dy * dy;
+			double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, -(x1 * dx + y1 * dy) / lengthSquared));
+			return Math.hypot(x1 + t * dx, y1 + t * dy);
+		}
+
+		private long estimateMemory() {
+			long bytes = ENTRY_BYTES + stringBytes(id) + stringBytes(parentId) + stringBytes(name)
+			        + 16 + 8L * (parts.length + (cells == null ? 0 : cells.length)) + CELL_BYTES * (cells == null ? 0
+			                : cells.length);
+			for (double[] part : parts) {
+				bytes += 16 + 8L * part.length;
+			}
+			return bytes;
+		}
+
+		private static long stringBytes(String value) {
+			return value == null ? 0 : 40 + 2L * value.length();
+		}
+	}
+}
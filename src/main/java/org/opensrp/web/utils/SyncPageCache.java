@@ -0,0 +1,325 @@
+package org.opensrp.web.utils;
+
+import static org.opensrp.common.AllConstants.Event.LOCATION_ID;
+import static org.opensrp.common.AllConstants.Event.PROVIDER_ID;
+import static org.opensrp.common.AllConstants.Event.TEAM;
+import static org.opensrp.common.AllConstants.Event.TEAM_ID;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.smartregister.domain.Event;
+
+/**
+ * Cache of serialized sync pages shared by the devices that sync with the same filters. The cache is
+ * bounded by the total size in bytes of the cached pages, evicting the least recently used pages
+ * first. Concurrent requests for a page that is not cached share a single load. A page is dropped
+ * when an event matching its filters or one of its clients is saved, and expires after the time to
+ * live to cover records saved through other paths. Pages are indexed by their most selective filter
+ * and by their clients so that a save only looks at the pages it can affect.
+ */
+public class SyncPageCache {
+	
+	/**
+	 * The event filters of a page, from the most to the least selective
+	 */
+	private static final Map<String, Function<Event, String>> FILTERS = new LinkedHashMap<>();
+	
+	static {
+		FILTERS.put(TEAM_ID, Event::getTeamId);
+		FILTERS.put(TEAM, Event::getTeam);
+		FILTERS.put(LOCATION_ID, Event::getLocationId);
+		FILTERS.put(PROVIDER_ID, Event::getProviderId);
+	}
+	
+	private final long maxSize;
+	
+	private final long timeToLiveMillis;
+	
+	private final LinkedHashMap<String, Page> pages = new LinkedHashMap<>(16, 0.75f, true);
+	
+	private final Map<String, CompletableFuture<Page>> loading = new ConcurrentHashMap<>();
+	
+	private final Map<String, Set<Page>> pagesByFilterValue = new HashMap<>();
+	
+	private final Map<String, Set<Page>> pagesByFilter = new HashMap<>();
+	
+	private final Set<Page> unfilteredPages = new HashSet<>();
+	
+	private final Map<String, Set<Page>> pagesByClient = new HashMap<>();
+	
+	private long size;
+	
+	private long generation;
+	
+	/**
+	 * @param maxSize maximum total size in bytes of the cached pages, zero disables the cache
+	 * @param timeToLiveMillis how long a page is served from the cache, zero disables the cache
+	 */
+	public SyncPageCache(long maxSize, long timeToLiveMillis) {
+		this.maxSize = maxSize;
+		this.timeToLiveMillis = timeToLiveMillis;
+	}
+	
+	public boolean isEnabled() {
+		return maxSize > 0 && timeToLiveMillis > 0;
+	}
+	
+	/**
+	 * Returns the cached page for the key, loading it if it is not cached. If another request is
+	 * already loading the page the result of that load is returned instead.
+	 */
+	public Page get(String key, Supplier<Page> loader) {
+		if (!isEnabled()) {
+			return loader.get();
+		}
+		Page page = getIfPresent(key);
+		if (page != null) {
+			return page;
+		}
+		
+		CompletableFuture<Page> load = new CompletableFuture<>();
+		CompletableFuture<Page> existingLoad = loading.putIfAbsent(key, load);
+		if (existingLoad != null) {
+			return BatchFetchUtils.join(existingLoad);
+		}
+		try {
+			page = getIfPresent(key);
+			if (page == null) {
+				long loadGeneration = getGeneration();
+				page = loader.get();
+				put(key, page, loadGeneration);
+			}
+			load.complete(page);
+			return page;
+		}
+		catch (RuntimeException e) {
+			load.completeExceptionally(e);
+			throw e;
+		}
+		finally {
+			loading.remove(key, load);
+		}
+	}
+	
+	/**
+	 * Drops the pages that the event would appear in and the pages that hold its client
+	 */
+	public synchronized void invalidate(Event event) {
+		if (event == null) {
+			invalidateAll();
+			return;
+		}
+		generation++;
+		Set<Page> candidates = new HashSet<>(unfilteredPages);
+		for (Map.Entry<String, Function<Event, String>> filter : FILTERS.entrySet()) {
+			String value = filter.getValue().apply(event);
+			// an event without the value matches every filter on it
+			addAll(candidates, value == null ? pagesByFilter.get(filter.getKey())
+			        : pagesByFilterValue.get(filter.getKey() + "=" + value));
+		}
+		Set<Page> clientPages = pagesByClient.getOrDefault(event.getBaseEntityId(), Collections.emptySet());
+		addAll(candidates, clientPages);
+		for (Page page : candidates) {
+			if (clientPages.contains(page) || page.matches(event)) {
+				remove(page.key);
+			}
+		}
+	}
+	
+	/**
+	 * Drops the pages that hold the client
+	 */
+	public synchronized void invalidateClient(String baseEntityId) {
+		generation++;
+		Set<Page> clientPages = pagesByClient.get(baseEntityId);
+		if (clientPages != null) {
+			for (Page page : new HashSet<>(clientPages)) {
+				remove(page.key);
+			}
+		}
+	}
+	
+	public synchronized void invalidateAll() {
+		generation++;
+		pages.clear();
+		pagesByFilterValue.clear();
+		pagesByFilter.clear();
+		unfilteredPages.clear();
+		pagesByClient.clear();
+		size = 0;
+	}
+	
+	private synchronized Page getIfPresent(String key) {
+		Page page = pages.get(key);
+		if (page != null && page.createdAt + timeToLiveMillis < System.currentTimeMillis()) {
+			remove(key);
+			return null;
+		}
+		return page;
+	}
+	
+	private synchronized long getGeneration() {
+		return generation;
+	}
+	
+	private synchronized void put(String key, Page page, long loadGeneration) {
+		// a page loaded while records were being saved may already be stale
+		if (loadGeneration != generation || page.size > maxSize) {
+			return;
+		}
+		remove(key);
+		page.key = key;
+		pages.put(key, page);
+		index(page);
+		size += page.size;
+		Iterator<Page> leastRecentlyUsed = pages.values().iterator();
+		while (size > maxSize && leastRecentlyUsed.hasNext()) {
+			Page evicted = leastRecentlyUsed.next();
+			leastRecentlyUsed.remove();
+			size -= evicted.size;
+			unindex(evicted);
+		}
+	}
+	
+	private void remove(String key) {
+		Page page = pages.remove(key);
+		if (page != null) {
+			size -= page.size;
+			unindex(page);
+		}
+	}
+	
+	private void index(Page page) {
+		String filter = page.getIndexFilter();
+		if (filter == null) {
+			unfilteredPages.add(page);
+		} else {
+			pagesByFilter.computeIfAbsent(filter, k -> new HashSet<>()).add(page);
+			for (String value : page.filters.get(filter)) {
+				pagesByFilterValue.computeIfAbsent(filter + "=" + value, k -> new HashSet<>()).add(page);
+			}
+		}
+		for (String baseEntityId : page.baseEntityIds) {
+			pagesByClient.computeIfAbsent(baseEntityId, k -> new HashSet<>()).add(page);
+		}
+	}
+	
+	private void unindex(Page page) {
+		String filter = page.getIndexFilter();
+		if (filter == null) {
+			unfilteredPages.remove(page);
+		} else {
+			removeFromIndex(pagesByFilter, filter, page);
+			for (String value : page.filters.get(filter)) {
+				removeFromIndex(pagesByFilterValue, filter + "=" + value, page);
+			}
+		}
+		for (String baseEntityId : page.baseEntityIds) {
+			removeFromIndex(pagesByClient, baseEntityId, page);
+		}
+	}
+	
+	private static void removeFromIndex(Map<String, Set<Page>> index, String key, Page page) {
+		Set<Page> indexed = index.get(key);
+		if (indexed != null && indexed.remove(page) && indexed.isEmpty()) {
+			index.remove(key);
+		}
+	}
+	
+	private static void addAll(Set<Page> candidates, Set<Page> indexed) {
+		if (indexed != null) {
+			candidates.addAll(indexed);
+		}
+	}
+	
+	public static class Page {
+		
+		private final String body;
+		
+		private final long size;
+		
+		private final Long totalRecords;
+		
+		private final String continuationToken;
+		
+		private final Set<String> baseEntityIds;
+		
+		private final Map<String, Set<String>> filters = new HashMap<>();
+		
+		private final long createdAt = System.currentTimeMillis();
+		
+		private String key;
+		
+		/**
+		 * @param body the serialized page
+		 * @param totalRecords the total record count sent with the page
+		 * @param continuationToken the token to resume after the page, may be null
+		 * @param baseEntityIds the base entity ids of the clients in the page
+		 * @param eventFilters the comma separated values of the team, teamId, providerId and locationId
+		 *            filters of the page, keyed by the filter name; filters that are not set may be
+		 *            left out or null
+		 */
+		public Page(String body, Long totalRecords, String continuationToken, Set<String> baseEntityIds,
+		    Map<String, String> eventFilters) {
+			this.body = body;
+			// the body is held as UTF-16 chars
+			this.size = (long) body.length() * Character.BYTES;
+			this.totalRecords = totalRecords;
+			this.continuationToken = continuationToken;
+			this.baseEntityIds = baseEntityIds == null ? Collections.emptySet() : baseEntityIds;
+			if (eventFilters != null) {
+				for (String filter : FILTERS.keySet()) {
+					String value = eventFilters.get(filter);
+					if (value != null) {
+						filters.put(filter, new HashSet<>(Arrays.asList(value.split(","))));
+					}
+				}
+			}
+		}
+		
+		public String getBody() {
+			return body;
+		}
+		
+		public Long getTotalRecords() {
+			return totalRecords;
+		}
+		
+		public String getContinuationToken() {
+			return continuationToken;
+		}
+		
+		private String getIndexFilter() {
+			for (String filter : FILTERS.keySet()) {
+				if (filters.containsKey(filter)) {
+					return filter;
+				}
+			}
+			return null;
+		}
+		
+		/**
+		 * @return whether the event falls within the filters of the page
+		 */
+		private boolean matches(Event event) {
+			for (Map.Entry<String, Set<String>> filter : filters.entrySet()) {
+				String value = FILTERS.get(filter.getKey()).apply(event);
+				if (value != null && !filter.getValue().contains(value)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,291 @@
+package org.opensrp.web.utils;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.opensrp.web.Constants;
+import org.smartregister.domain.Client;
+import org.smartregister.domain.Event;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Reads a sync upload payload of the form <code>{"clients": [...], "events": [...]}</code> in a
+ * single pass, converting each record to a domain object as it is read and handing them over in
+ * batches. The arrays may also be sent as JSON encoded strings. Neither array is held in memory and
+ * the batches handed over before a malformed record are not lost.
+ * <p>
+ * Clients are always handed over before events, so that events are not saved ahead of their
+ * clients. Events that precede the clients in the payload are spooled to a temporary file and
+ * handed over once the rest of the payload has been read.
+ */
+public class SyncPayloadReader {
+	
+	private final Gson gson;
+	
+	private final int batchSize;
+	
+	public SyncPayloadReader(Gson gson, int batchSize) {
+		this.gson = gson;
+		this.batchSize = Math.max(1, batchSize);
+	}
+	
+	/**
+	 * @param reader the payload
+	 * @param clientHandler receives the clients in batches
+	 * @param eventHandler receives the events in batches
+	 * @return false if the payload had neither clients nor events
+	 * @throws IOException if the payload could not be read
+	 * @throws com.google.gson.JsonParseException if the payload or a record is malformed
+	 * @throws UncheckedIOException if the events could not be spooled
+	 */
+	public boolean read(Reader reader, Consumer<List<Client>> clientHandler, Consumer<List<Event>> eventHandler)
+	    throws IOException {
+		boolean hasClients = false;
+		boolean hasEvents = false;
+		File spooledEvents = null;
+		try {
+			try (JsonReader jsonReader = new PayloadJsonReader(reader)) {
+				jsonReader.beginObject();
+				while (jsonReader.hasNext()) {
+					String name = jsonReader.nextName();
+					if (Constants.CLIENTS.equals(name)) {
+						hasClients = true;
+						readRecords(jsonReader, Client.class, clientHandler);
+					} else if (Constants.EVENTS.equals(name) && hasClients) {
+						hasEvents = true;
+						readRecords(jsonReader, Event.class, eventHandler);
+					} else if (Constants.EVENTS.equals(name) && spooledEvents == null) {
+						hasEvents = true;
+						spooledEvents = spool(jsonReader);
+					} else {
+						jsonReader.skipValue();
+					}
+				}
+				jsonReader.endObject();
+			}
+			if (spooledEvents != null) {
+				try (JsonReader jsonReader = new PayloadJsonReader(newReader(spooledEvents))) {
+					readRecords(jsonReader, Event.class, eventHandler);
+				}
+			}
+		}
+		finally {
+			if (spooledEvents != null) {
+				Files.deleteIfExists(spooledEvents.toPath());
+			}
+		}
+		return hasClients || hasEvents;
+	}
+	
+	/**
+	 * Copies the events value to a temporary file one record at a time
+	 */
+	private File spool(JsonReader jsonReader) throws IOException {
+		File file;
+		try {
+			file = File.createTempFile("sync-events", ".json");
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		Writer writer = newWriter(file);
+		JsonWriter jsonWriter = new JsonWriter(writer);
+		try {
+			JsonToken token = jsonReader.peek();
+			if (token == JsonToken.NULL) {
+				jsonReader.nextNull();
+				write(jsonWriter::nullValue);
+			} else if (token == JsonToken.STRING) {
+				try (JsonReader arrayReader = new PayloadJsonReader(new StringReader(jsonReader.nextString()))) {
+					copyArray(arrayReader, jsonWriter);
+				}
+			} else {
+				copyArray(jsonReader, jsonWriter);
+			}
+		}
+		catch (IOException | RuntimeException e) {
+			// the json writer refuses to close an incomplete document
+			write(writer::close);
+			Files.deleteIfExists(file.toPath());
+			throw e;
+		}
+		write(jsonWriter::close);
+		return file;
+	}
+	
+	private void copyArray(JsonReader jsonReader, JsonWriter jsonWriter) throws IOException {
+		jsonReader.beginArray();
+		write(jsonWriter::beginArray);
+		while (jsonReader.hasNext()) {
+			JsonElement record = gson.fromJson(jsonReader, JsonElement.class);
+			write(() -> gson.getAdapter(JsonElement.class).write(jsonWriter, record));
+		}
+		jsonReader.endArray();
+		write(jsonWriter::endArray);
+	}
+	
+	private static Reader newReader(File file) {
+		try {
+			return Files.newBufferedReader(file.toPath(), UTF_8);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	private static Writer newWriter(File file) {
+		try {
+			return Files.newBufferedWriter(file.toPath(), UTF_8);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	/**
+	 * Runs a write to the spool file, so that its failures are not taken for a failed read of the
+	 * payload
+	 */
+	private static void write(SpoolWrite write) {
+		try {
+			write.run();
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	private <T> void readRecords(JsonReader jsonReader, Type type, Consumer<List<T>> handler) throws IOException {
+		JsonToken token = jsonReader.peek();
+		if (token == JsonToken.NULL) {
+			jsonReader.nextNull();
+		} else if (token == JsonToken.STRING) {
+			try (JsonReader arrayReader = new PayloadJsonReader(new StringReader(jsonReader.nextString()))) {
+				readArray(arrayReader, type, handler);
+			}
+		} else {
+			readArray(jsonReader, type, handler);
+		}
+	}
+	
+	private <T> void readArray(JsonReader jsonReader, Type type, Consumer<List<T>> handler) throws IOException {
+		List<T> batch = new ArrayList<>(batchSize);
+		jsonReader.beginArray();
+		while (jsonReader.hasNext()) {
+			T record = gson.fromJson(jsonReader, type);
+			batch.add(record);
+			if (batch.size() >= batchSize) {
+				handler.accept(batch);
+				batch = new ArrayList<>(batchSize);
+			}
+		}
+		jsonReader.endArray();
+		if (!batch.isEmpty()) {
+			handler.accept(batch);
+		}
+	}
+	
+	private interface SpoolWrite {
+		
+		void run() throws IOException;
+	}
+	
+	/**
+	 * Reports a payload of the wrong shape as a {@link JsonSyntaxException} rather than the
+	 * {@link IllegalStateException} thrown by {@link JsonReader}, so that it is not confused with a
+	 * failure of the handlers.
+	 */
+	private static class PayloadJsonReader extends JsonReader {
+		
+		PayloadJsonReader(Reader reader) {
+			super(reader);
+		}
+		
+		@Override
+		public void beginArray() throws IOException {
+			try {
+				super.beginArray();
+			}
+			catch (IllegalStateException e) {
+				throw new JsonSyntaxException(e.getMessage(), e);
+			}
+		}
+		
+		@Override
+		public void endArray() throws IOException {
+			try {
+				super.endArray();
+			}
+			catch (IllegalStateException e) {
+				throw new JsonSyntaxException(e.getMessage(), e);
+			}
+		}
+		
+		@Override
+		public void beginObject() throws IOException {
+			try {
+				super.beginObject();
+			}
+			catch (IllegalStateException e) {
+				throw new JsonSyntaxException(e.getMessage(), e);
+			}
+		}
+		
+		@Override
+		public void endObject() throws IOException {
+			try {
+				super.endObject();
+			}
+			catch (IllegalStateException e) {
+				throw new JsonSyntaxException(e.getMessage(), e);
+			}
+		}
+		
+		@Override
+		public String nextName() throws IOException {
+			try {
+				return super.nextName();
+			}
+			catch (IllegalStateException e) {
+				throw new JsonSyntaxException(e.getMessage(), e);
+			}
+		}
+		
+		@Override
+		public String nextString() throws IOException {
+			try {
+				return super.nextString();
+			}
+			catch (IllegalStateException e) {
+				throw new JsonSyntaxException(e.getMessage(), e);
+			}
+		}
+		
+		@Override
+		public void nextNull() throws IOException {
+			try {
+				super.nextNull();
+			}
+			catch (IllegalStateException e) {
+				throw new JsonSyntaxException(e.getMessage(), e);
+			}
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package org.opensrp.web.utils;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Records how long each phase of a sync request takes as a Micrometer timer named
+ * {@value #METRIC_NAME}, tagged with the phase and the type of filter the request synced by. The
+ * timers publish histogram buckets so that percentiles can be aggregated across instances.
+ */
+public class SyncPhaseTimer {
+
+	public static final String METRIC_NAME = "opensrp.sync.phase";
+
+	public static final String PHASE_TAG = "phase";
+
+	public static final String FILTER_TAG = "filter";
+
+	public static final String EVENTS = "events";
+
+	public static final String CLIENTS = "clients";
+
+	public static final String MISSING_CLIENTS = "missing_clients";
+
+	public static final String COUNT = "count";
+
+	public static final String MASKING = "masking";
+
+	public static final String SERIALIZATION = "serialization";
+
+	private static final Duration MINIMUM_EXPECTED_DURATION = Duration.ofMillis(1);
+
+	private static final Duration MAXIMUM_EXPECTED_DURATION = Duration.ofMinutes(2);
+
+	private final MeterRegistry meterRegistry;
+
+	private final String filter;
+
+	/**
+	 * @param meterRegistry the registry the timers are registered with
+	 * @param filter the type of filter the request synced by, e.g. team or location
+	 */
+	public SyncPhaseTimer(MeterRegistry meterRegistry, String filter) {
+		this.meterRegistry = meterRegistry;
+		this.filter = filter;
+	}
+
+	public <T> T time(String phase, Supplier<T> supplier) {
+		long start = System.nanoTime();
+		try {
+			return supplier.get();
+		}
+		finally {
+			record(phase, System.nanoTime() - start);
+		}
+	}
+
+	public void record(String phase, long durationInNanos) {
+		Timer.builder(METRIC_NAME).tag(PHASE_TAG, phase).tag(FILTER_TAG, filter).publishPercentileHistogram()
+		        .minimumExpectedValue(MINIMUM_EXPECTED_DURATION).maximumExpectedValue(MAXIMUM_EXPECTED_DURATION)
+		        .register(meterRegistry).record(durationInNanos, TimeUnit.NANOSECONDS);
+	}
+}
@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 
 import org.apache.commons.lang3.tuple.Pair;
 import org.joda.time.DateTime;
@@ -11,21 +12,35 @@ import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.keycloak.KeycloakPrincipal;
+import org.keycloak.KeycloakSecurityContext;
+import org.keycloak.representations.AccessToken;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.opensrp.common.AllConstants;
 import org.opensrp.web.Constants;
 import org.smartregister.domain.Client;
+import org.smartregister.domain.Event;
 import org.opensrp.domain.postgres.HouseholdClient;
 import org.opensrp.search.AddressSearchBean;
 import org.opensrp.search.ClientSearchBean;
+import org.opensrp.search.EventSearchBean;
 import org.opensrp.service.ClientService;
+import org.opensrp.service.EventService;
 import org.opensrp.web.bean.ClientSyncBean;
 import org.opensrp.web.bean.Identifier;
+import org.opensrp.web.config.Role;
 import org.opensrp.web.config.security.filter.CrossSiteScriptingPreventionFilter;
 import org.opensrp.web.rest.it.TestWebContextLoader;
+import org.opensrp.web.utils.ClientSearchIndex;
+import org.opensrp.web.utils.CountCache;
+import org.powermock.reflect.Whitebox;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.web.servlet.MockMvc;
@@ -39,7 +54,10 @@ import java.util.*;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -48,8 +66,10 @@ import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.nullable;
 import static org.opensrp.common.AllConstants.BaseEntity.BASE_ENTITY_ID;
+import static org.opensrp.common.AllConstants.BaseEntity.SERVER_VERSIOIN;
 import static org.opensrp.common.AllConstants.Client.BIRTH_DATE;
 import static org.opensrp.common.AllConstants.Client.FIRST_NAME;
 import static org.springframework.test.web.AssertionErrors.fail;
@@ -315,6 +335,71 @@ public class ClientResourceTest {
 
 	}
 	
+	@Test
+	public void testSearchTotalsAreCachedAcrossPagesUntilAClientIsSaved() throws Exception {
+		HouseholdClient householdClient = new HouseholdClient();
+		householdClient.setTotalCount(25);
+		when(clientService.findHouseholdByCriteria(any(ClientSearchBean.class), any(AddressSearchBean.class),
+				nullable(DateTime.class), nullable(DateTime.class))).thenReturn(Collections.singletonList(createClient()));
+		when(clientService.findTotalCountHouseholdByCriteria(any(ClientSearchBean.class), any(AddressSearchBean.class)))
+				.thenReturn(householdClient);
+		when(objectMapper.writeValueAsString(any(Object.class))).thenReturn(EXPECTED_CLIENT_SYNC_BEAN_RESPONSE_JSON);
+
+		for (int pageNumber = 0; pageNumber < 3; pageNumber++) {
+			ClientSearchBean searchBean = new ClientSearchBean();
+			searchBean.setClientType(HOUSEHOLD);
+			searchBean.setGender("female");
+			searchBean.setLocations(pageNumber == 1 ? Arrays.asList("loc2", "loc1") : Arrays.asList("loc1", "loc2"));
+			searchBean.setPageNumber(pageNumber);
+			searchBean.setPageSize(10);
+			clientResource.getHouseholds(searchBean, new AddressSearchBean());
+		}
+		verify(clientService, times(1)).findTotalCountHouseholdByCriteria(any(ClientSearchBean.class),
+				any(AddressSearchBean.class));
+
+		clientResource.create(createClient());
+		ClientSearchBean searchBean = new ClientSearchBean();
+		searchBean.setClientType(HOUSEHOLD);
+		searchBean.setGender("female");
+		searchBean.setLocations(Arrays.asList("loc1", "loc2"));
+		searchBean.setPageNumber(1);
+		clientResource.getHouseholds(searchBean, new AddressSearchBean());
+		verify(clientService, times(2)).findTotalCountHouseholdByCriteria(any(ClientSearchBean.class),
+				any(AddressSearchBean.class));
+
+		ArgumentCaptor<Object> responseCaptor = ArgumentCaptor.forClass(Object.class);
+		verify(objectMapper, times(4)).writeValueAsString(responseCaptor.capture());
+		for (Object response : responseCaptor.getAllValues()) {
+			assertEquals(25, ((ClientSyncBean) response).getTotal().intValue());
+		}
+	}
+
+	@Test
+	public void testSearchCountsOnlyTheFirstPageWithoutTheCountCache() throws Exception {
+		HouseholdClient householdClient = new HouseholdClient();
+		householdClient.setTotalCount(25);
+		when(clientService.findTotalCountHouseholdByCriteria(any(ClientSearchBean.class), any(AddressSearchBean.class)))
+				.thenReturn(householdClient);
+		when(objectMapper.writeValueAsString(any(Object.class))).thenReturn(EXPECTED_CLIENT_SYNC_BEAN_RESPONSE_JSON);
+		clientResource.setClientCountCache(new CountCache(10, 0));
+
+		for (int pageNumber = 0; pageNumber < 3; pageNumber++) {
+			ClientSearchBean searchBean = new ClientSearchBean();
+			searchBean.setClientType(HOUSEHOLD);
+			searchBean.setPageNumber(pageNumber);
+			searchBean.setPageSize(10);
+			clientResource.getHouseholds(searchBean, new AddressSearchBean());
+		}
+		verify(clientService, times(1)).findTotalCountHouseholdByCriteria(any(ClientSearchBean.class),
+				any(AddressSearchBean.class));
+
+		ArgumentCaptor<Object> responseCaptor = ArgumentCaptor.forClass(Object.class);
+		verify(objectMapper, times(3)).writeValueAsString(responseCaptor.capture());
+		assertEquals(25, ((ClientSyncBean) responseCaptor.getAllValues().get(0)).getTotal().intValue());
+		assertEquals(ClientResource.NO_TOTAL_COUNT,
+				((ClientSyncBean) responseCaptor.getAllValues().get(1)).getTotal().intValue());
+	}
+
 	@Test
 	public void testSearch() throws ParseException {
 		List<Client> expected = new ArrayList<>();
@@ -358,13 +443,34 @@ public class ClientResourceTest {
 		when(httpServletRequest.getParameter("relationships")).thenReturn("mother");
 
 		when(clientService.find(zeirId)).thenReturn(client);
-		when(clientService.find(motherBaseEntityId)).thenReturn(mother);
+		when(clientService.findByFieldValue(BASE_ENTITY_ID, Collections.singletonList(motherBaseEntityId)))
+				.thenReturn(Collections.singletonList(mother));
 		List<Client> clients = clientResource.search(httpServletRequest);
 		assertEquals(clients.size(),2);
 		assertEquals(clients.get(0).getFirstName(),client.getFirstName());
 		assertEquals(clients.get(1).getFirstName(), mother.getFirstName());
 	}
 
+	@Test
+	public void testSearchClientsWithIdentifierFromTheSearchIndex() throws ParseException {
+		Client client = new Client("client-base-entity-id");
+		client.setIdentifiers(Collections.singletonMap("zeir_id", "1900121"));
+		client.setServerVersion(1l);
+		ClientSearchIndex clientSearchIndex = new ClientSearchIndex(new SimpleMeterRegistry());
+		clientSearchIndex.refresh((serverVersion, limit) -> serverVersion > 1 ? Collections.emptyList()
+				: Collections.singletonList(client), 10);
+		Whitebox.setInternalState(clientResource, "clientSearchIndex", clientSearchIndex);
+		HttpServletRequest httpServletRequest = mock(HttpServletRequest.class);
+		when(httpServletRequest.getParameter("identifier")).thenReturn("1900121");
+		when(clientService.findByFieldValue(BASE_ENTITY_ID, Arrays.asList("1900121", "client-base-entity-id")))
+				.thenReturn(Collections.singletonList(client));
+
+		List<Client> clients = clientResource.search(httpServletRequest);
+
+		assertEquals(Collections.singletonList(client), clients);
+		verify(clientService, never()).find(anyString());
+	}
+
 	@Test
 	public void testSearchClientsWithRelationships() throws ParseException {
 		List<Client> expected = new ArrayList<>();
@@ -392,7 +498,8 @@ public class ClientResourceTest {
 
 		when(clientService.findByCriteria(any(ClientSearchBean.class),any(AddressSearchBean.class), nullable(DateTime.class),
 				nullable(DateTime.class))).thenReturn(expected);
-		when(clientService.find("client-rel-base-entity-id")).thenReturn(clientRelationship);
+		when(clientService.findByFieldValue(BASE_ENTITY_ID, Collections.singletonList("client-rel-base-entity-id")))
+				.thenReturn(Collections.singletonList(clientRelationship));
 		List<Client> clients = clientResource.search(httpServletRequest);
 		assertEquals(clients.size(),2);
 		assertEquals(clients.get(0).getFirstName(),client.getFirstName());
@@ -433,6 +540,80 @@ public class ClientResourceTest {
 		assertEquals(clients.get(1).getFirstName(), client.getFirstName());
 	}
 
+	@Test
+	public void testGetHouseholdBundleReturnsMembersAndTheirLatestEvents() throws Exception {
+		EventService eventService = mock(EventService.class);
+		clientResource.setEventService(eventService);
+		clientResource.setObjectMapper(mapper);
+		when(clientService.getByBaseEntityId("household-1")).thenReturn(new Client("household-1"));
+		when(clientService.findMembersByRelationshipId("household-1"))
+				.thenReturn(Arrays.asList(new Client("member-1"), new Client("member-2")));
+		when(eventService.findEvents(any(EventSearchBean.class), eq(SERVER_VERSIOIN), eq("desc"), eq(2)))
+				.thenAnswer(invocation -> {
+					Event event = new Event();
+					event.setBaseEntityId(invocation.<EventSearchBean>getArgument(0).getBaseEntityId());
+					return Collections.singletonList(event);
+				});
+
+		MvcResult result = mockMvc.perform(get(BASE_URL + "/householdBundle").param(BASE_ENTITY_ID, "household-1")
+				.param(ClientResource.EVENT_LIMIT, "2")).andExpect(status().isOk()).andReturn();
+
+		JsonNode bundle = mapper.readTree(result.getResponse().getContentAsString());
+		assertEquals("household-1", bundle.get(ClientResource.HOUSEHOLD_FIELD).get("baseEntityId").asText());
+		assertEquals(2, bundle.get(ClientResource.MEMBERS_FIELD).size());
+		JsonNode events = bundle.get(Constants.EVENTS);
+		assertEquals(3, events.size());
+		assertEquals("member-2", events.get("member-2").get(0).get("baseEntityId").asText());
+		verify(eventService, times(3)).findEvents(any(EventSearchBean.class), eq(SERVER_VERSIOIN), eq("desc"), eq(2));
+	}
+
+	@Test
+	public void testGetHouseholdBundleMasksClientsForPIIDataMaskingUser() throws Exception {
+		clientResource.setEventService(mock(EventService.class));
+		clientResource.setObjectMapper(mapper);
+		when(clientService.getByBaseEntityId("household-1")).thenReturn(createUnmaskedClient("household-1"));
+		when(clientService.findMembersByRelationshipId("household-1"))
+				.thenReturn(Collections.singletonList(createUnmaskedClient("member-1")));
+		@SuppressWarnings("unchecked")
+		KeycloakPrincipal<KeycloakSecurityContext> principal = mock(KeycloakPrincipal.class);
+		KeycloakSecurityContext keycloakSecurityContext = mock(KeycloakSecurityContext.class);
+		when(principal.getKeycloakSecurityContext()).thenReturn(keycloakSecurityContext);
+		when(keycloakSecurityContext.getToken()).thenReturn(mock(AccessToken.class));
+		Authentication authentication = mock(Authentication.class);
+		doReturn(principal).when(authentication).getPrincipal();
+		doReturn(Collections.singletonList(new SimpleGrantedAuthority(Role.PII_DATA_MASK))).when(authentication)
+				.getAuthorities();
+		SecurityContextHolder.getContext().setAuthentication(authentication);
+		try {
+			MvcResult result = mockMvc.perform(get(BASE_URL + "/householdBundle").param(BASE_ENTITY_ID, "household-1"))
+					.andExpect(status().isOk()).andReturn();
+
+			JsonNode bundle = mapper.readTree(result.getResponse().getContentAsString());
+			assertEquals("xxxxxxxxxx", bundle.get(ClientResource.HOUSEHOLD_FIELD).get("firstName").asText());
+			assertEquals("xxxxxxxxxx", bundle.get(ClientResource.MEMBERS_FIELD).get(0).get("firstName").asText());
+			assertTrue(bundle.get(Constants.EVENTS).has("member-1"));
+		}
+		finally {
+			SecurityContextHolder.clearContext();
+		}
+	}
+
+	private Client createUnmaskedClient(String baseEntityId) {
+		Client client = new Client(baseEntityId);
+		client.setFirstName("Jane");
+		client.setIdentifiers(new HashMap<>());
+		client.setAddresses(new ArrayList<>());
+		client.setAttributes(new HashMap<>());
+		return client;
+	}
+
+	@Test
+	public void testGetHouseholdBundleReturnsNotFoundForUnknownHousehold() throws Exception {
+		clientResource.setEventService(mock(EventService.class));
+		mockMvc.perform(get(BASE_URL + "/householdBundle").param(BASE_ENTITY_ID, "household-1"))
+				.andExpect(status().isNotFound());
+	}
+
 	private Client createClient() {
 		Client client = new Client("base-entity-id");
 		client.setFirstName("Test");
@@ -10,14 +10,20 @@ import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.opensrp.common.AllConstants.BaseEntity.BASE_ENTITY_ID;
 import static org.opensrp.common.AllConstants.BaseEntity.SERVER_VERSIOIN;
 import static org.opensrp.web.Constants.DEFAULT_GET_ALL_IDS_LIMIT;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import org.apache.commons.lang3.tuple.Pair;
@@ -25,7 +31,9 @@ import org.joda.time.DateTime;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import static org.mockito.Mockito.mock;
@@ -52,17 +60,29 @@ import org.opensrp.search.EventSearchBean;
 import org.opensrp.service.ClientService;
 import org.opensrp.service.EventService;
 import org.smartregister.utils.DateTimeTypeConverter;
+import org.opensrp.web.Constants;
 import org.opensrp.web.bean.EventSyncBean;
 import org.opensrp.web.bean.Identifier;
+import org.opensrp.web.config.SearchIndexConfig;
+import org.opensrp.web.utils.CountCache;
+import org.opensrp.web.utils.SyncPhaseTimer;
 import org.springframework.http.ResponseEntity;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.never;
 
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 public class EventResourceTest extends BaseSecureResourceTest<Event> {
 
@@ -75,6 +95,9 @@ public class EventResourceTest extends BaseSecureResourceTest<Event> {
 	private ClientService clientService;
 
 	private MultimediaService multimediaService;
+	
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
 
     @Captor
     private ArgumentCaptor<String> stringArgumentCaptor = ArgumentCaptor.forClass(String.class);
@@ -271,10 +294,20 @@ public class EventResourceTest extends BaseSecureResourceTest<Event> {
 
 		String jsonObjectPayload = "{\"baseEntityIds\":[\"5dd43b2e-a873-444b-b527-95c4b040a5bb\"],\"withFamilyEvents\":true}";
 
-		doReturn(expectedEventSyncBean).when(eventResource).sync(null, null, "5dd43b2e-a873-444b-b527-95c4b040a5bb", "0",
-				null, null, null, false);
-		doReturn(expectedFamilyEventSyncBean).when(eventResource).sync(null, null, "cf5d5fef-f120-4eb3-ab29-ed4d437e30c4",
-				"0", null, null, null, false);
+		String familyId = "cf5d5fef-f120-4eb3-ab29-ed4d437e30c4";
+		expectedFamilyEvent.setBaseEntityId(familyId);
+		expectedFamilyClient.setBaseEntityId(familyId);
+		expectedFamilyClient.setRelationships(null);
+		doReturn(expectedEventSyncBean.getEvents()).when(eventService).findEvents(
+				argThat(bean -> bean != null && expectedEvent.getBaseEntityId().equals(bean.getBaseEntityId())), anyString(),
+				anyString(), any(int.class));
+		doReturn(expectedFamilyEventSyncBean.getEvents()).when(eventService).findEvents(
+				argThat(bean -> bean != null && familyId.equals(bean.getBaseEntityId())), anyString(), anyString(),
+				any(int.class));
+		doReturn(expectedEventSyncBean.getClients()).when(clientService).findByFieldValue(eq(BASE_ENTITY_ID),
+				argThat(ids -> ids != null && ids.contains(expectedClient.getBaseEntityId())));
+		doReturn(expectedFamilyEventSyncBean.getClients()).when(clientService).findByFieldValue(eq(BASE_ENTITY_ID),
+				argThat(ids -> ids != null && ids.contains(familyId)));
 
 		ResponseEntity<String> clientEventsResponseEntity = eventResource
 				.syncClientsAndEventsByBaseEntityIds(jsonObjectPayload);
@@ -288,8 +321,12 @@ public class EventResourceTest extends BaseSecureResourceTest<Event> {
 		JSONArray eventsArray = clientEventsResponseObject.getJSONArray("events");
 		assertEquals(2, eventsArray.length());
 
+		assertEquals(expectedEvent.getId(), eventsArray.getJSONObject(0).getString("id"));
+		assertEquals(expectedFamilyEvent.getId(), eventsArray.getJSONObject(1).getString("id"));
+
 		JSONArray clientsArray = clientEventsResponseObject.getJSONArray("clients");
 		assertEquals(2, clientsArray.length());
+		verify(eventService, times(2)).findEvents(any(EventSearchBean.class), anyString(), anyString(), any(int.class));
 
 		ResponseEntity<String> emptyClientEventsResponseEntity = eventResource.syncClientsAndEventsByBaseEntityIds("");
 
@@ -299,6 +336,36 @@ public class EventResourceTest extends BaseSecureResourceTest<Event> {
 
 	}
 
+	@Test
+	public void testSyncClientsAndEventsByBaseEntityIdsBoundsTheEventsRead() throws Exception {
+		List<Event> busyClientEvents = new ArrayList<>();
+		for (int i = 0; i < 2 * Constants.DEFAULT_LIMIT; i++) {
+			busyClientEvents.add(createEvent("busy-" + i, "busy", i + 1l));
+		}
+		Event quietClientEvent = createEvent("quiet-0", "quiet", 100l);
+		doReturn(busyClientEvents).when(eventService).findEvents(argThat(bean -> bean != null && "busy,quiet".equals(bean.getBaseEntityId())),
+				anyString(), anyString(), eq(2 * Constants.DEFAULT_LIMIT));
+		doReturn(Collections.singletonList(quietClientEvent)).when(eventService).findEvents(
+				argThat(bean -> bean != null && "quiet".equals(bean.getBaseEntityId())), anyString(), anyString(),
+				eq(Constants.DEFAULT_LIMIT));
+
+		ResponseEntity<String> response = eventResource
+				.syncClientsAndEventsByBaseEntityIds("{\"baseEntityIds\":[\"busy\",\"quiet\"]}");
+
+		JSONArray events = new JSONObject(response.getBody()).getJSONArray("events");
+		assertEquals(Constants.DEFAULT_LIMIT + 1, events.length());
+		assertEquals("quiet-0", events.getJSONObject(Constants.DEFAULT_LIMIT).getString("id"));
+		verify(eventService, times(2)).findEvents(any(EventSearchBean.class), anyString(), anyString(), any(int.class));
+	}
+
+	private Event createEvent(String id, String baseEntityId, long serverVersion) {
+		Event event = new Event();
+		event.setId(id);
+		event.setBaseEntityId(baseEntityId);
+		event.setServerVersion(serverVersion);
+		return event;
+	}
+
 
     @Override
     protected void assertListsAreSameIgnoringOrder(List<Event> expectedList, List<Event> actualList) {
@@ -362,6 +429,19 @@ public class EventResourceTest extends BaseSecureResourceTest<Event> {
 		assertEquals(eventArgumentCaptor.getValue().getEventType(), "Family Member Registration");
 	}
 
+	@Test
+	public void testSaveClearsClientSearchTotals() throws Exception {
+		CountCache clientCountCache = webApplicationContext.getBean(SearchIndexConfig.CLIENT_COUNT_CACHE, CountCache.class);
+		clientCountCache.put("name=Test", 1l);
+		doReturn(createClient()).when(clientService).addorUpdate(any(Client.class));
+		doReturn(createEvent()).when(eventService).processOutOfArea(any(Event.class));
+		doReturn(createEvent()).when(eventService).addorUpdateEvent(any(Event.class), anyString());
+		
+		postRequestWithJsonContent(BASE_URL + "/add", ADD_REQUEST_PAYLOAD, status().isCreated());
+		
+		assertNull(clientCountCache.get("name=Test"));
+	}
+	
 	@Test
 	public void testSaveThrowsExceptionFromClientService() throws Exception {
 		Event event = createEvent();
@@ -389,6 +469,72 @@ public class EventResourceTest extends BaseSecureResourceTest<Event> {
 		assertEquals(eventArgumentCaptor.getValue().getEventType(), "Family Member Registration");
 	}
 
+	@Test
+	public void testSaveReportsProcessedRecordsOfMalformedPayload() throws Exception {
+		doReturn(createClient()).when(clientService).addorUpdate(any(Client.class));
+		String payload = "{\"clients\":[{\"id\":\"client-1\",\"baseEntityId\":\"base-entity-id\"}],"
+		        + "\"events\":[{\"eventType\":[}]}";
+		
+		JsonNode actualObj = postRequestWithJsonContent(BASE_URL + "/add", payload, status().isBadRequest());
+		assertEquals("client-1", actualObj.get("processed_clients").get(0).asText());
+		assertEquals(0, actualObj.get("processed_events").size());
+		assertEquals(0, actualObj.get("failed_clients").size());
+		verify(clientService).addorUpdate(any(Client.class));
+		verify(eventService, never()).addorUpdateEvent(any(Event.class), anyString());
+	}
+	
+	@Test
+	public void testSaveAsyncQueuesUploadAndReportsStatus() throws Exception {
+		Client client = createClient();
+		Event event = createEvent();
+		doReturn(client).when(clientService).addorUpdate(any(Client.class));
+		doReturn(event).when(eventService).processOutOfArea(any(Event.class));
+		doReturn(event).when(eventService).addorUpdateEvent(any(Event.class), anyString());
+		eventResource.setIngestLogDirectory(temporaryFolder.getRoot().getAbsolutePath());
+		eventResource.initAsyncIngest();
+		try {
+			JsonNode accepted = postRequestWithJsonContent(BASE_URL + "/add?async=true", ADD_REQUEST_PAYLOAD,
+			    status().isAccepted());
+			String token = accepted.get("token").asText();
+			
+			JsonNode ingestStatus = null;
+			for (int i = 0; i < 100; i++) {
+				ingestStatus = mapper.readTree(getResponseAsString(BASE_URL + "/add/status/" + token, null, status().isOk()));
+				if ("COMPLETED".equals(ingestStatus.get("status").asText())) {
+					break;
+				}
+				Thread.sleep(50);
+			}
+			assertEquals("COMPLETED", ingestStatus.get("status").asText());
+			assertEquals(1, ingestStatus.get("processed_clients").asInt());
+			assertEquals(1, ingestStatus.get("processed_events").asInt());
+			assertEquals(0, ingestStatus.get("failed_events").size());
+			verify(clientService).addorUpdate(clientArgumentCaptor.capture());
+			assertEquals("Test", clientArgumentCaptor.getValue().getFirstName());
+			verify(eventService).addorUpdateEvent(eventArgumentCaptor.capture(), anyString());
+			assertEquals("Family Member Registration", eventArgumentCaptor.getValue().getEventType());
+		}
+		finally {
+			eventResource.setIngestLogDirectory("");
+			eventResource.initAsyncIngest();
+		}
+	}
+	
+	@Test
+	public void testSaveAsyncRejectsInvalidPayload() throws Exception {
+		eventResource.setIngestLogDirectory(temporaryFolder.getRoot().getAbsolutePath());
+		eventResource.initAsyncIngest();
+		try {
+			postRequestWithJsonContent(BASE_URL + "/add?async=true", "{\"other\":[]}", status().isBadRequest());
+			getResponseAsString(BASE_URL + "/add/status/" + UUID.randomUUID(), null, status().isNotFound());
+			getResponseAsString(BASE_URL + "/add/status/unknown", null, status().isBadRequest());
+		}
+		finally {
+			eventResource.setIngestLogDirectory("");
+			eventResource.initAsyncIngest();
+		}
+	}
+	
 	@Test
 	public void testGetAll() throws Exception {
 		List<Event> expectedEvents = new ArrayList<>();
@@ -412,6 +558,22 @@ public class EventResourceTest extends BaseSecureResourceTest<Event> {
 		assertEquals(actualObj.get("events").size(),1);
     }
 
+	@Test
+	public void testExportAllStreamsClientsBeforeTheirEvents() throws Exception {
+		doReturn(Collections.singletonList(createEvent())).when(eventService).findEvents(any(EventSearchBean.class),
+		    anyString(), anyString(), any(int.class));
+		doReturn(Collections.singletonList(createClient())).when(clientService).findByFieldValue(anyString(), anyList());
+		
+		MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get(BASE_URL + "/getAll")
+		        .param(SERVER_VERSIOIN, "0").param("stream", "true")).andExpect(status().isOk()).andReturn();
+		
+		String[] lines = result.getResponse().getContentAsString().split("\n");
+		assertEquals(2, lines.length);
+		assertEquals("base-entity-id", mapper.readTree(lines[0]).get("baseEntityId").asText());
+		assertEquals("Event", mapper.readTree(lines[1]).get("type").asText());
+		verify(clientService).findByFieldValue(eq(BASE_ENTITY_ID), eq(Collections.singletonList(createEvent().getBaseEntityId())));
+	}
+
 
 	@Test
 	public void testCountAll() throws Exception {
@@ -421,6 +583,57 @@ public class EventResourceTest extends BaseSecureResourceTest<Event> {
 		JSONObject responseJsonObject = new JSONObject(response);
 		assertEquals(1, responseJsonObject.optInt("count"));
 	}
+	
+	@Test
+	public void testCountAllIsCountedAgainAfterEventIsSaved() throws Exception {
+		doReturn(1L).when(eventService).countEvents(any(EventSearchBean.class));
+		eventResource.setCountCacheTimeToLive(60);
+		try {
+			String parameter = SERVER_VERSIOIN + "=15421904649873";
+			getResponseAsString(BASE_URL + "/countAll", parameter, status().isOk());
+			getResponseAsString(BASE_URL + "/countAll", parameter, status().isOk());
+			verify(eventService, times(1)).countEvents(any(EventSearchBean.class));
+			
+			Event event = createEvent();
+			doReturn(event).when(eventService).processOutOfArea(any(Event.class));
+			doReturn(event).when(eventService).addorUpdateEvent(any(Event.class), anyString());
+			postRequestWithJsonContent(BASE_URL + "/add", ADD_REQUEST_PAYLOAD, status().isCreated());
+			
+			getResponseAsString(BASE_URL + "/countAll", parameter, status().isOk());
+			verify(eventService, times(2)).countEvents(any(EventSearchBean.class));
+		}
+		finally {
+			eventResource.setCountCacheTimeToLive(0);
+		}
+	}
+
+	@Test
+	public void testSyncCachesTheRemainingCountForThePageResumedWithTheToken() throws Exception {
+		List<Event> firstPage = Arrays.asList(createEvent("a", "entity-1", 5), createEvent("b", "entity-1", 6),
+		    createEvent("c", "entity-1", 6));
+		List<Event> secondPage = Arrays.asList(createEvent("b", "entity-1", 6), createEvent("c", "entity-1", 6),
+		    createEvent("d", "entity-1", 7));
+		doReturn(firstPage, secondPage).when(eventService).findEvents(any(EventSearchBean.class), anyString(), anyString(),
+		    any(int.class));
+		doReturn(10l).when(eventService).countEvents(any(EventSearchBean.class));
+		eventResource.setCountCacheTimeToLive(60);
+		try {
+			String parameter = PROVIDER_ID + "=providerId&" + SERVER_VERSIOIN + "=4&limit=3&return_count=true";
+			MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get(BASE_URL + "/sync?" + parameter))
+			        .andExpect(status().isOk()).andReturn();
+			assertEquals(10, mapper.readTree(result.getResponse().getContentAsString()).get("total_records").asLong());
+			
+			String token = result.getResponse().getHeader("continuation_token");
+			JsonNode resumed = mapper.readTree(
+			    getResponseAsString(BASE_URL + "/sync", parameter + "&continuation_token=" + token, status().isOk()));
+			assertEquals(1, resumed.get("events").size());
+			assertEquals(7, resumed.get("total_records").asLong());
+			verify(eventService, times(1)).countEvents(any(EventSearchBean.class));
+		}
+		finally {
+			eventResource.setCountCacheTimeToLive(0);
+		}
+	}
     
     @Test
     public void testGetSync() throws Exception{
@@ -445,6 +658,105 @@ public class EventResourceTest extends BaseSecureResourceTest<Event> {
 	    assertEquals(actualObj.get("events").size(),1);
     }
 
+	@Test
+	public void testGetSyncServesTeamPagesFromCacheUntilEventIsSaved() throws Exception {
+		List<Event> expectedEvents = new ArrayList<>();
+		expectedEvents.add(createEvent());
+		doReturn(expectedEvents).when(eventService).findEvents(any(EventSearchBean.class), anyString(), anyString(), any(int.class));
+		doReturn(Collections.singletonList(createClient())).when(clientService).findByFieldValue(anyString(), anyList());
+		eventResource.setSyncPageCache(1, 60);
+		try {
+			String parameter = TEAM_ID + "=de7d5dbe-6d21-4300-a72e-6eee14712f62&" + SERVER_VERSIOIN + "=0";
+			String response = getResponseAsString(BASE_URL + "/sync", parameter, status().isOk());
+			assertEquals(response, getResponseAsString(BASE_URL + "/sync", parameter, status().isOk()));
+			verify(eventService, times(1)).findEvents(any(EventSearchBean.class), anyString(), anyString(), any(int.class));
+			
+			Event event = createEvent();
+			doReturn(event).when(eventService).processOutOfArea(any(Event.class));
+			doReturn(event).when(eventService).addorUpdateEvent(any(Event.class), anyString());
+			postRequestWithJsonContent(BASE_URL + "/add", ADD_REQUEST_PAYLOAD, status().isCreated());
+			
+			getResponseAsString(BASE_URL + "/sync", parameter, status().isOk());
+			verify(eventService, times(2)).findEvents(any(EventSearchBean.class), anyString(), anyString(), any(int.class));
+		}
+		finally {
+			eventResource.setSyncPageCache(0, 60);
+		}
+	}
+	
+	@Test
+	public void testGetSyncRecordsPhaseTimersTaggedByFilter() throws Exception {
+		doReturn(Collections.singletonList(createEvent())).when(eventService).findEvents(any(EventSearchBean.class),
+		    anyString(), anyString(), any(int.class));
+		doReturn(Collections.singletonList(createClient())).when(clientService).findByFieldValue(anyString(), anyList());
+		MeterRegistry meterRegistry = new SimpleMeterRegistry();
+		eventResource.setMeterRegistry(meterRegistry);
+		
+		getResponseAsString(BASE_URL + "/sync", LOCATION_ID + "=locationId&" + SERVER_VERSIOIN + "=0", status().isOk());
+		
+		for (String phase : Arrays.asList(SyncPhaseTimer.EVENTS, SyncPhaseTimer.CLIENTS, SyncPhaseTimer.SERIALIZATION)) {
+			assertEquals(1, meterRegistry.get(SyncPhaseTimer.METRIC_NAME).tag(SyncPhaseTimer.PHASE_TAG, phase)
+			        .tag(SyncPhaseTimer.FILTER_TAG, LOCATION_ID).timer().count());
+		}
+	}
+	
+	@Test
+	public void testGetSyncStreamed() throws Exception {
+		List<Event> expectedEvents = new ArrayList<>();
+		expectedEvents.add(createEvent());
+		List<Client> expectedClients = new ArrayList<>();
+		expectedClients.add(createClient());
+
+		doReturn(expectedEvents).when(eventService).findEvents(any(EventSearchBean.class), anyString(), anyString(), any(int.class));
+		doReturn(expectedClients).when(clientService).findByFieldValue(anyString(), anyList());
+
+		String parameter = PROVIDER_ID + "=providerId&" + SERVER_VERSIOIN + "=15421904649873&stream=true";
+		String response = getResponseAsString(BASE_URL + "/sync", parameter, status().isOk());
+		JsonNode actualObj = mapper.readTree(response);
+		verify(eventService).findEvents(eventSearchBeanArgumentCaptor.capture(), stringArgumentCaptor.capture(), stringArgumentCaptor.capture(), integerArgumentCaptor.capture());
+		assertEquals(new Integer(25), integerArgumentCaptor.getValue());
+		assertEquals(15421904649874l, eventSearchBeanArgumentCaptor.getValue().getServerVersion().longValue());
+		assertEquals(SERVER_VERSIOIN, stringArgumentCaptor.getAllValues().get(0));
+		assertEquals("asc", stringArgumentCaptor.getAllValues().get(1));
+		assertEquals(1, actualObj.get("events").size());
+		assertEquals(1, actualObj.get("clients").size());
+		assertEquals(1, actualObj.get("no_of_events").asInt());
+	}
+
+	@Test
+	public void testGetSyncStreamedWithoutFilters() throws Exception {
+		String response = getResponseAsString(BASE_URL + "/sync", "stream=true", status().isBadRequest());
+		JsonNode actualObj = mapper.readTree(response);
+		assertEquals("specify atleast one filter", actualObj.get("msg").asText());
+	}
+
+	@Test
+	public void testGetSyncStreamedWritesTheCountAndTokenLastAndResumesWithTheToken() throws Exception {
+		List<Event> expectedEvents = new ArrayList<>();
+		expectedEvents.add(createEvent());
+		doReturn(expectedEvents).when(eventService).findEvents(any(EventSearchBean.class), anyString(), anyString(), any(int.class));
+		doReturn(Collections.singletonList(createClient())).when(clientService).findByFieldValue(anyString(), anyList());
+		doReturn(3l).when(eventService).countEvents(any(EventSearchBean.class));
+
+		String parameter = PROVIDER_ID + "=providerId&" + SERVER_VERSIOIN + "=0&return_count=true&stream=true";
+		JsonNode firstPage = mapper.readTree(getResponseAsString(BASE_URL + "/sync", parameter, status().isOk()));
+		List<String> fields = new ArrayList<>();
+		firstPage.fieldNames().forEachRemaining(fields::add);
+		assertEquals(Arrays.asList("events", "clients", "no_of_events", "total_records", "continuation_token"), fields);
+		assertEquals(3, firstPage.get("total_records").asLong());
+
+		String token = firstPage.get("continuation_token").asText();
+		JsonNode secondPage = mapper.readTree(getResponseAsString(BASE_URL + "/sync",
+		    parameter + "&continuation_token=" + token, status().isOk()));
+		assertEquals(0, secondPage.get("events").size());
+		assertEquals(2, secondPage.get("total_records").asLong());
+		assertEquals(token, secondPage.get("continuation_token").asText());
+
+		String otherFilters = LOCATION_ID + "=locationId&stream=true&continuation_token=" + token;
+		JsonNode rejected = mapper.readTree(getResponseAsString(BASE_URL + "/sync", otherFilters, status().isBadRequest()));
+		assertEquals("Invalid sync request", rejected.get("msg").asText());
+	}
+
 	@Test
 	public void testPostSync() throws Exception {
 		List<Event> expectedEvents = new ArrayList<>();
@@ -463,6 +775,25 @@ public class EventResourceTest extends BaseSecureResourceTest<Event> {
 		assertEquals(stringArgumentCaptor.getAllValues().get(1), "asc");
 	}
 
+	@Test
+	public void testPostSyncWithCount() throws Exception {
+		List<Event> expectedEvents = new ArrayList<>();
+		expectedEvents.add(createEvent());
+		List<Client> expectedClients = new ArrayList<>();
+		expectedClients.add(createClient());
+
+		doReturn(expectedEvents).when(eventService).findEvents(any(EventSearchBean.class), anyString(), anyString(), any(int.class));
+		doReturn(expectedClients).when(clientService).findByFieldValue(anyString(), anyList());
+		doReturn(3l).when(eventService).countEvents(any(EventSearchBean.class));
+
+		String request = POST_SYNC_REQUEST.replace("\"limit\": 5", "\"limit\": 5,\n\t\"return_count\": true");
+		JsonNode actualObj = postRequestWithJsonContent(BASE_URL + "/sync", request, status().isOk());
+		verify(eventService).countEvents(eventSearchBeanArgumentCaptor.capture());
+		assertEquals(15421904649874l, eventSearchBeanArgumentCaptor.getValue().getServerVersion().longValue());
+		assertEquals(3, actualObj.get("total_records").asLong());
+		assertEquals(1, actualObj.get("events").size());
+	}
+
 	@Test
 	public void testExportEventData() throws Exception {
 		ExportEventDataSummary exportEventDataSummary = new ExportEventDataSummary();
@@ -497,15 +828,54 @@ public class EventResourceTest extends BaseSecureResourceTest<Event> {
 				.thenReturn(exportImagesSummary);
 		when(multimediaService.retrieveFile(anyString())).thenReturn(imageFile);
 		when(multimediaService.findByCaseId(anyString())).thenReturn(multimedia);
-		mockMvc.perform(MockMvcRequestBuilders.get(BASE_URL + "/export-data").param("eventTypes", "looks_good,flag_problem")
+		MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get(BASE_URL + "/export-data").param("eventTypes", "looks_good,flag_problem")
 				.param("planIdentifier", "15421904649873"))
 				.andExpect(status().isOk()).andReturn();
+		assertTrue(result.getResponse().getHeader("Content-Disposition").startsWith("attachment;filename=eusm_mission_"));
+		List<String> entryNames = new ArrayList<>();
+		try (ZipInputStream zipInputStream = new ZipInputStream(
+				new ByteArrayInputStream(result.getResponse().getContentAsByteArray()))) {
+			for (ZipEntry entry = zipInputStream.getNextEntry(); entry != null; entry = zipInputStream.getNextEntry()) {
+				entryNames.add(entry.getName());
+			}
+		}
+		assertTrue(entryNames.get(0).startsWith("eusm_mission_looks_good_"));
+		assertTrue(entryNames.get(1).startsWith("eusm_mission_flag_problem_"));
+		assertTrue(entryNames.contains("eusm_mission_Flag_Problem_Photos_" + new SimpleDateFormat("yyyy-MM-dd").format(new Date())
+				+ "/location abc/Midwifery Kit_stock-123.jpg"));
 		verify(eventService, times(2)).exportEventData(anyString(), anyString(), nullable(Date.class), nullable(Date.class));
 		verify(eventService).getImagesMetadataForFlagProblemEvent(anyString(), anyString(), nullable(Date.class), nullable(Date.class));
 		verify(multimediaService).retrieveFile(anyString());
 		verify(multimediaService).findByCaseId(anyString());
 	}
 
+	@Test(expected = IOException.class)
+	public void testExportEventDataFailsWhenResponseCannotBeWritten() throws Exception {
+		ExportEventDataSummary exportEventDataSummary = new ExportEventDataSummary();
+		exportEventDataSummary.setMissionName("EUSM Mission");
+		exportEventDataSummary.setRowsData(Collections.singletonList(Collections.<Object> singletonList("Location Id")));
+		when(eventService.exportEventData(anyString(), anyString(), nullable(Date.class), nullable(Date.class)))
+				.thenReturn(exportEventDataSummary);
+		HttpServletResponse response = mock(HttpServletResponse.class);
+		when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+
+			@Override
+			public void write(int b) throws IOException {
+				throw new IOException("Connection reset by peer");
+			}
+
+			@Override
+			public boolean isReady() {
+				return true;
+			}
+
+			@Override
+			public void setWriteListener(WriteListener writeListener) {
+			}
+		});
+
+		eventResource.exportEventData(Collections.singletonList("looks_good"), "15421904649873", null, null, response);
+	}
 
 	private Event createEvent() {
 		Gson gson = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ")
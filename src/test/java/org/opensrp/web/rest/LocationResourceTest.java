@@ -58,11 +58,15 @@ import org.opensrp.domain.StructureDetails;
 import org.opensrp.search.LocationSearchBean;
 import org.opensrp.service.PhysicalLocationService;
 import org.opensrp.service.PlanService;
+import org.opensrp.web.Constants;
 import org.opensrp.web.GlobalExceptionHandler;
 import org.opensrp.web.bean.Identifier;
 import org.opensrp.web.bean.LocationSearchcBean;
 import org.opensrp.web.config.security.filter.CrossSiteScriptingPreventionFilter;
 import org.opensrp.web.rest.it.TestWebContextLoader;
+import org.opensrp.web.utils.ContinuationToken;
+import org.opensrp.web.utils.GeometryEncoding;
+import org.opensrp.web.utils.GeometrySimplifier;
 import org.skyscreamer.jsonassert.JSONAssert;
 import org.skyscreamer.jsonassert.JSONCompareMode;
 import org.smartregister.domain.Geometry;
@@ -80,6 +84,7 @@ import org.springframework.web.context.WebApplicationContext;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
 import com.google.gson.reflect.TypeToken;
 
 @RunWith(SpringJUnit4ClassRunner.class)
@@ -323,6 +328,48 @@ public class LocationResourceTest {
 		assertEquals(Geometry.GeometryType.MULTI_POLYGON, location.getGeometry().getType());
 	}
 
+	@Test
+	public void testSyncLocationsAtAGeometryLevel() throws Exception {
+		when(locationService.findLocationsByServerVersion(1542640316113l))
+				.thenReturn(new ArrayList<>(Collections.singletonList(createLocation())));
+
+		MvcResult result = mockMvc.perform(post(BASE_URL + "/sync").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"serverVersion\":\"1542640316113\", \"is_jurisdiction\":\"true\", \"geometry_level\":2}"
+						.getBytes()))
+				.andExpect(status().isOk()).andReturn();
+
+		PhysicalLocation[] locations = LocationResource.gson.fromJson(result.getResponse().getContentAsString(),
+				PhysicalLocation[].class);
+		assertEquals(1, locations.length);
+		assertEquals(simplify(createLocation(), 2), locations[0].getGeometry().getCoordinates());
+	}
+
+	@Test
+	public void testGetSyncStructuresAtAGeometryLevel() throws Exception {
+		when(locationService.findStructuresByParentAndServerVersion("3734", 1542640316l))
+				.thenReturn(new ArrayList<>(Collections.singletonList(createLocation())));
+
+		MvcResult result = mockMvc.perform(get(BASE_URL + "/sync").param(BaseEntity.SERVER_VERSIOIN, "1542640316")
+				.param(LocationResource.PARENT_ID, "3734").param(LocationResource.GEOMETRY_LEVEL, "1"))
+				.andExpect(status().isOk()).andReturn();
+
+		PhysicalLocation[] structures = LocationResource.gson.fromJson(result.getResponse().getContentAsString(),
+				PhysicalLocation[].class);
+		assertEquals(1, structures.length);
+		assertEquals(simplify(createLocation(), 1), structures[0].getGeometry().getCoordinates());
+
+		mockMvc.perform(get(BASE_URL + "/sync").param(BaseEntity.SERVER_VERSIOIN, "1542640316")
+				.param(LocationResource.PARENT_ID, "3734").param(LocationResource.GEOMETRY_LEVEL, "4"))
+				.andExpect(status().isBadRequest());
+		verify(locationService).findStructuresByParentAndServerVersion("3734", 1542640316l);
+		verifyNoMoreInteractions(locationService);
+	}
+
+	private JsonArray simplify(PhysicalLocation location, int level) {
+		return GeometrySimplifier.simplify(location.getGeometry().getType(), location.getGeometry().getCoordinates(),
+				level);
+	}
+
 	@Test
 	public void testSyncLocationsByInvalidServerVersionsShouldReturnAllServerVersions() throws Exception {
 		List<PhysicalLocation> expected = new ArrayList<>();
@@ -406,6 +453,110 @@ public class LocationResourceTest {
 
 	}
 
+	@Test
+	public void testSyncStructuresWithBinaryGeometryEncoding() throws Exception {
+		List<PhysicalLocation> expected = new ArrayList<>();
+		expected.add(createStructure());
+		when(locationService.findStructuresByParentAndServerVersion("3734", 1542640316l)).thenReturn(expected);
+
+		MvcResult result = mockMvc.perform(post(BASE_URL + "/sync").contentType(MediaType.APPLICATION_JSON)
+				.accept(GeometryEncoding.MEDIA_TYPE)
+				.content("{\"serverVersion\":1542640316,\"parent_id\":[\"3734\"], \"is_jurisdiction\":\"false\"}".getBytes()))
+				.andExpect(status().isOk()).andReturn();
+		verify(locationService).findStructuresByParentAndServerVersion("3734", 1542640316l);
+
+		byte[] body = result.getResponse().getContentAsByteArray();
+		assertEquals(GeometryEncoding.MEDIA_TYPE_VALUE, result.getResponse().getContentType());
+		assertTrue(body.length < structureJson.length());
+		JsonArray locations = GeometryEncoding.decode(body);
+		assertEquals(1, locations.size());
+		JSONAssert.assertEquals(structureJson, locations.get(0).toString(), JSONCompareMode.STRICT_ORDER);
+	}
+
+	@Test
+	public void testSyncLocationsWithBinaryGeometryEncodingWritesTheCountAndTheLocations() throws Exception {
+		List<PhysicalLocation> expected = new ArrayList<>();
+		expected.add(createLocation());
+		when(locationService.findLocationsByServerVersion(1542640316113l)).thenReturn(expected);
+		when(locationService.countLocationsByServerVersion(1542640316113l)).thenReturn(5l);
+
+		MvcResult result = mockMvc.perform(post(BASE_URL + "/sync").contentType(MediaType.APPLICATION_JSON)
+				.accept(GeometryEncoding.MEDIA_TYPE)
+				.content("{\"serverVersion\":\"1542640316113\", \"is_jurisdiction\":\"true\", \"return_count\":true}".getBytes()))
+				.andExpect(status().isOk()).andReturn();
+
+		assertEquals(GeometryEncoding.MEDIA_TYPE_VALUE, result.getResponse().getContentType());
+		assertEquals("5", result.getResponse().getHeader("total_records"));
+		JsonArray locations = GeometryEncoding.decode(result.getResponse().getContentAsByteArray());
+		assertEquals(1, locations.size());
+		JSONAssert.assertEquals(parentJson, locations.get(0).toString(), JSONCompareMode.STRICT_ORDER);
+	}
+
+	@Test
+	public void testSyncStructuresInPagesOfTheLimit() throws Exception {
+		List<PhysicalLocation> expected = new ArrayList<>();
+		for (String id : new String[] { "s3", "s1", "s2" }) {
+			PhysicalLocation structure = createStructure();
+			structure.setId(id);
+			structure.setServerVersion("s3".equals(id) ? 2l : 1l);
+			expected.add(structure);
+		}
+		when(locationService.findStructuresByParentAndServerVersion("3734", 0l)).thenReturn(expected);
+		when(locationService.findStructuresByParentAndServerVersion("3734", 1l)).thenReturn(expected);
+
+		MvcResult result = mockMvc.perform(get(BASE_URL + "/sync").param(BaseEntity.SERVER_VERSIOIN, "0")
+				.param(LocationResource.PARENT_ID, "3734").param(Constants.LIMIT, "1"))
+				.andExpect(status().isOk()).andReturn();
+		JSONArray jsonreponse = new JSONArray(result.getResponse().getContentAsString());
+		assertEquals(1, jsonreponse.length());
+		assertEquals("s1", jsonreponse.getJSONObject(0).getString("id"));
+
+		result = mockMvc.perform(get(BASE_URL + "/sync").param(BaseEntity.SERVER_VERSIOIN, "0")
+				.param(LocationResource.PARENT_ID, "3734").param(Constants.LIMIT, "2")
+				.param(Constants.CONTINUATION_TOKEN, result.getResponse().getHeader(Constants.CONTINUATION_TOKEN)))
+				.andExpect(status().isOk()).andReturn();
+		jsonreponse = new JSONArray(result.getResponse().getContentAsString());
+		assertEquals(2, jsonreponse.length());
+		assertEquals("s2", jsonreponse.getJSONObject(0).getString("id"));
+		assertEquals("s3", jsonreponse.getJSONObject(1).getString("id"));
+		verify(locationService).findStructuresByParentAndServerVersion("3734", 0l);
+		verify(locationService).findStructuresByParentAndServerVersion("3734", 1l);
+		verifyNoMoreInteractions(locationService);
+	}
+
+	@Test
+	public void testSyncStructuresLeavesAServerVersionTheTokenCannotHoldToTheNextPage() throws Exception {
+		List<PhysicalLocation> expected = new ArrayList<>();
+		PhysicalLocation first = createStructure();
+		first.setId("first");
+		first.setServerVersion(1l);
+		expected.add(first);
+		for (int i = 0; i <= ContinuationToken.MAX_SERVED_IDS; i++) {
+			PhysicalLocation structure = createStructure();
+			structure.setId("shared-" + i);
+			structure.setServerVersion(2l);
+			expected.add(structure);
+		}
+		when(locationService.findStructuresByParentAndServerVersion("3734", 0l)).thenReturn(expected);
+		when(locationService.findStructuresByParentAndServerVersion("3734", 1l)).thenReturn(expected);
+		String limit = String.valueOf(ContinuationToken.MAX_SERVED_IDS + 2);
+
+		MvcResult result = mockMvc.perform(get(BASE_URL + "/sync").param(BaseEntity.SERVER_VERSIOIN, "0")
+				.param(LocationResource.PARENT_ID, "3734").param(Constants.LIMIT, limit))
+				.andExpect(status().isOk()).andReturn();
+		JSONArray jsonreponse = new JSONArray(result.getResponse().getContentAsString());
+		assertEquals(1, jsonreponse.length());
+		assertEquals("first", jsonreponse.getJSONObject(0).getString("id"));
+
+		result = mockMvc.perform(get(BASE_URL + "/sync").param(BaseEntity.SERVER_VERSIOIN, "0")
+				.param(LocationResource.PARENT_ID, "3734").param(Constants.LIMIT, limit)
+				.param(Constants.CONTINUATION_TOKEN, result.getResponse().getHeader(Constants.CONTINUATION_TOKEN)))
+				.andExpect(status().isOk()).andReturn();
+		jsonreponse = new JSONArray(result.getResponse().getContentAsString());
+		assertEquals(ContinuationToken.MAX_SERVED_IDS + 1, jsonreponse.length());
+		assertEquals("shared-0", jsonreponse.getJSONObject(0).getString("id"));
+	}
+
 	@Test
 	public void testGetSyncStructuresByParentIdAndServerVersion() throws Exception {
 		List<PhysicalLocation> expected = new ArrayList<>();
@@ -1,7 +1,9 @@
 package org.opensrp.web.rest;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyList;
@@ -20,7 +22,10 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -51,6 +56,7 @@ import org.opensrp.web.bean.Identifier;
 import org.opensrp.web.config.security.filter.CrossSiteScriptingPreventionFilter;
 import org.opensrp.web.rest.it.TestWebContextLoader;
 import org.opensrp.web.rest.v2.TaskResourceV2Test;
+import org.opensrp.web.utils.NdjsonExporter;
 import org.skyscreamer.jsonassert.JSONAssert;
 import org.skyscreamer.jsonassert.JSONCompareMode;
 import org.smartregister.domain.Task;
@@ -64,6 +70,8 @@ import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.web.context.WebApplicationContext;
 
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 
@@ -382,6 +390,33 @@ public class TaskResourceTest {
 		assertEquals(idsModel.getRight(), actualIdModels.getLastServerVersion());
 	}
 	
+	@Test
+	public void testReconcileIdsReturnsIdsMissingFromFilter() throws Exception {
+		Pair<List<String>, Long> idsModel = Pair.of(Arrays.asList("task-1", "task-2"), 12l);
+		when(taskService.findAllTaskIds(anyLong(), anyInt(), isNull(), isNull())).thenReturn(idsModel);
+		BloomFilter<CharSequence> heldIds = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), 10, 0.0001);
+		heldIds.put("task-1");
+		ByteArrayOutputStream filter = new ByteArrayOutputStream();
+		heldIds.writeTo(filter);
+		
+		MvcResult result = mockMvc
+		        .perform(post(BASE_URL + "/findIds/reconcile?serverVersion=0")
+		                .contentType(MediaType.APPLICATION_OCTET_STREAM).content(filter.toByteArray()))
+		        .andExpect(status().isOk()).andReturn();
+		
+		verify(taskService).findAllTaskIds(anyLong(), anyInt(), isNull(), isNull());
+		assertArrayEquals(new byte[] { 7, 0, 't', 'a', 's', 'k', '-', '2', 0, 12 },
+		    result.getResponse().getContentAsByteArray());
+	}
+	
+	@Test
+	public void testReconcileIdsRejectsMalformedFilter() throws Exception {
+		mockMvc.perform(post(BASE_URL + "/findIds/reconcile?serverVersion=0")
+		        .contentType(MediaType.APPLICATION_OCTET_STREAM).content(new byte[] { 1, 2, 3 }))
+		        .andExpect(status().isBadRequest());
+		verifyNoMoreInteractions(taskService);
+	}
+	
 	private Task getTask() {
 		return taskResourceV2.gson.fromJson(TaskResourceV2Test.taskJson, Task.class);
 	}
@@ -423,6 +458,18 @@ public class TaskResourceTest {
 		
 	}
 	
+	@Test
+	public void testExportAllStreamsNewlineDelimitedTasks() throws Exception {
+		when(taskService.getAllTasks(anyLong(), anyInt())).thenReturn(Collections.singletonList(getTask()));
+		MvcResult result = mockMvc.perform(get(BASE_URL + "/getAll?serverVersion=0&stream=true"))
+		        .andExpect(status().isOk()).andReturn();
+		verify(taskService).getAllTasks(anyLong(), anyInt());
+		String body = result.getResponse().getContentAsString();
+		assertTrue(result.getResponse().getContentType().startsWith(NdjsonExporter.APPLICATION_NDJSON_VALUE));
+		assertTrue(body.endsWith("\n"));
+		JSONAssert.assertEquals(taskJson, body.trim(), JSONCompareMode.STRICT_ORDER);
+	}
+	
 	@Test
 	public void testCountAll() throws Exception {
 		when(taskService.countAllTasks(anyLong())).thenReturn(1L);
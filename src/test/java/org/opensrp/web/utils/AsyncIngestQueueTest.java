@@ -0,0 +1,198 @@
+package org.opensrp.web.utils;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opensrp.web.bean.IngestStatus;
+import org.smartregister.domain.Client;
+import org.smartregister.utils.DateTimeTypeConverter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+public class AsyncIngestQueueTest {
+	
+	private static final String PAYLOAD = "{\"clients\":[{\"baseEntityId\":\"c1\"},{\"baseEntityId\":\"c2\",\"id\":\"id2\"},{\"baseEntityId\":\"c3\"}],"
+	        + "\"events\":[{\"baseEntityId\":\"c1\",\"eventType\":\"Registration\"}]}";
+	
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+	
+	private Gson gson = new GsonBuilder().registerTypeAdapter(DateTime.class, new DateTimeTypeConverter()).create();
+	
+	private List<String> savedClients = Collections.synchronizedList(new ArrayList<>());
+	
+	private List<String> savedEvents = Collections.synchronizedList(new ArrayList<>());
+	
+	private IngestWriteAheadLog writeAheadLog;
+	
+	@Before
+	public void setUp() throws Exception {
+		writeAheadLog = new IngestWriteAheadLog(temporaryFolder.getRoot().toPath());
+	}
+	
+	@Test
+	public void testSubmitProcessesUploadAndKeepsStatus() throws Exception {
+		AsyncIngestQueue queue = createQueue();
+		
+		IngestStatus status = queue.submit(new ByteArrayInputStream(PAYLOAD.getBytes(UTF_8)), "demo");
+		
+		assertEquals(Arrays.asList("c1", "c3"), savedClients);
+		assertEquals(Arrays.asList("c1:demo"), savedEvents);
+		IngestStatus completed = queue.getStatus(status.getToken());
+		assertEquals(IngestStatus.State.COMPLETED, completed.getStatus());
+		assertEquals(3, completed.getClients());
+		assertEquals(3, completed.getProcessedClients());
+		assertEquals(Arrays.asList("id2"), completed.getFailedClients());
+		assertEquals(1, completed.getProcessedEvents());
+		assertEquals(Collections.emptyList(), writeAheadLog.recover());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testSubmitRejectsMalformedPayload() throws Exception {
+		try {
+			createQueue().submit(new ByteArrayInputStream("{\"clients\":[{".getBytes(UTF_8)), "demo");
+		}
+		finally {
+			assertEquals(0, temporaryFolder.getRoot().list().length);
+		}
+	}
+	
+	@Test
+	public void testRecoverResumesAfterLastRecordedProgress() throws Exception {
+		writeAheadLog.stage("token1", "demo", new ByteArrayInputStream(PAYLOAD.getBytes(UTF_8)));
+		writeAheadLog.commit("token1");
+		File progress = new File(temporaryFolder.getRoot(), "token1.progress");
+		Files.write(progress.toPath(), "C 0 OK;\nC 1 FAILED id2;\nC 2 O".getBytes(UTF_8));
+		
+		AsyncIngestQueue queue = createQueue();
+		queue.recover();
+		
+		assertEquals(Arrays.asList("c3"), savedClients);
+		assertEquals(Arrays.asList("c1:demo"), savedEvents);
+		IngestStatus completed = queue.getStatus("token1");
+		assertEquals(IngestStatus.State.COMPLETED, completed.getStatus());
+		assertEquals(3, completed.getProcessedClients());
+		assertEquals(Arrays.asList("id2"), completed.getFailedClients());
+		assertNull(queue.getStatus("token2"));
+	}
+	
+	@Test
+	public void testRecoverLeavesUploadsPendingWhenExecutorIsFull() throws Exception {
+		for (String token : Arrays.asList("token1", "token2", "token3")) {
+			writeAheadLog.stage(token, "demo", new ByteArrayInputStream(PAYLOAD.getBytes(UTF_8)));
+			writeAheadLog.commit(token);
+		}
+		Deque<Runnable> queued = new ArrayDeque<>();
+		Executor executor = task -> {
+			if (!queued.isEmpty()) {
+				throw new RejectedExecutionException();
+			}
+			queued.add(task);
+		};
+		AsyncIngestQueue queue = new AsyncIngestQueue(writeAheadLog, executor, gson, new ObjectMapper(), 2, 24, 3, 1,
+		        this::saveClient, (event, username) -> savedEvents.add(event.getBaseEntityId() + ":" + username));
+		
+		queue.recover();
+		
+		assertEquals(1, queued.size());
+		for (String token : Arrays.asList("token1", "token2", "token3")) {
+			assertEquals(IngestStatus.State.QUEUED, queue.getStatus(token).getStatus());
+		}
+		while (!queued.isEmpty()) {
+			queued.poll().run();
+		}
+		for (String token : Arrays.asList("token1", "token2", "token3")) {
+			assertEquals(IngestStatus.State.COMPLETED, queue.getStatus(token).getStatus());
+		}
+		assertEquals(Collections.emptyList(), writeAheadLog.recover());
+	}
+	
+	@Test
+	public void testFailedUploadIsQueuedAgainAfterTheBackoff() throws Exception {
+		AtomicInteger failures = new AtomicInteger(1);
+		AsyncIngestQueue queue = createQueue(3, client -> {
+			if (failures.getAndDecrement() > 0) {
+				throw new IllegalStateException("Database unavailable");
+			}
+			return saveClient(client);
+		});
+		
+		IngestStatus status = queue.submit(new ByteArrayInputStream(PAYLOAD.getBytes(UTF_8)), "demo");
+		
+		IngestStatus completed = awaitStatus(queue, status.getToken(), IngestStatus.State.COMPLETED);
+		assertEquals(IngestStatus.State.COMPLETED, completed.getStatus());
+		assertEquals(3, completed.getProcessedClients());
+		assertEquals(Arrays.asList("id2"), completed.getFailedClients());
+		assertEquals(Arrays.asList("c1", "c3"), savedClients);
+		assertEquals(Arrays.asList("c1:demo"), savedEvents);
+		assertEquals(Collections.emptyList(), writeAheadLog.recover());
+	}
+	
+	@Test
+	public void testUploadIsLeftInterruptedAfterTheMaximumAttempts() throws Exception {
+		AtomicInteger attempts = new AtomicInteger();
+		AsyncIngestQueue queue = createQueue(2, client -> {
+			attempts.incrementAndGet();
+			throw new IllegalStateException("Database unavailable");
+		});
+		
+		IngestStatus status = queue.submit(new ByteArrayInputStream(PAYLOAD.getBytes(UTF_8)), "demo");
+		
+		assertEquals(IngestStatus.State.INTERRUPTED,
+		    awaitStatus(queue, status.getToken(), IngestStatus.State.INTERRUPTED).getStatus());
+		assertEquals(2, attempts.get());
+		assertEquals(Arrays.asList(status.getToken()), writeAheadLog.recover());
+	}
+	
+	private AsyncIngestQueue createQueue() {
+		return createQueue(3, this::saveClient);
+	}
+	
+	private AsyncIngestQueue createQueue(int maxAttempts, Predicate<Client> clientProcessor) {
+		return new AsyncIngestQueue(writeAheadLog, Runnable::run, gson, new ObjectMapper(), 2, 24, maxAttempts, 1,
+		        clientProcessor, (event, username) -> savedEvents.add(event.getBaseEntityId() + ":" + username));
+	}
+	
+	/**
+	 * Waits for a retried upload, which is processed again on another thread after its backoff
+	 */
+	private IngestStatus awaitStatus(AsyncIngestQueue queue, String token, IngestStatus.State state) throws Exception {
+		long deadline = System.currentTimeMillis() + 5000;
+		IngestStatus status = queue.getStatus(token);
+		while (status.getStatus() != state && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+			status = queue.getStatus(token);
+		}
+		return status;
+	}
+	
+	private boolean saveClient(Client client) {
+		if ("c2".equals(client.getBaseEntityId())) {
+			return false;
+		}
+		savedClients.add(client.getBaseEntityId());
+		return true;
+	}
+}
@@ -0,0 +1,45 @@
+package org.opensrp.web.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+public class BatchFetchUtilsTest {
+	
+	@Test
+	public void testFetchEachReturnsResultsInIdOrderOnAtMostFourTasks() {
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<String> ids = IntStream.range(0, 10).mapToObj(String::valueOf).collect(Collectors.toList());
+			Set<String> threads = ConcurrentHashMap.newKeySet();
+			
+			List<String> results = BatchFetchUtils.fetchEach(ids, executor, id -> {
+				threads.add(Thread.currentThread().getName());
+				return Collections.singletonList("client-" + id);
+			});
+			
+			assertEquals(ids.stream().map(id -> "client-" + id).collect(Collectors.toList()), results);
+			assertTrue(threads.size() <= BatchFetchUtils.MAX_CONCURRENT_LOOKUPS);
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void testFetchEachOfNoIdsReturnsNothing() {
+		assertEquals(new ArrayList<String>(), BatchFetchUtils.fetchEach(Collections.emptyList(), null,
+		    id -> Collections.singletonList(id)));
+	}
+}
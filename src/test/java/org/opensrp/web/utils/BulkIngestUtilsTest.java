@@ -0,0 +1,73 @@
+package org.opensrp.web.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BulkIngestUtilsTest {
+	
+	private ExecutorService executor;
+	
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(4);
+	}
+	
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+	
+	@Test
+	public void testProcessInPartitionsReturnsFailedRecordsInOrder() {
+		List<String> records = Arrays.asList("a:1", "b:2", "c:3", "a:4", "d:5", "b:6");
+		
+		List<String> failed = BulkIngestUtils.processInPartitions(records, record -> record.split(":")[0], 3, executor,
+		    record -> Integer.parseInt(record.split(":")[1]) % 2 != 0);
+		
+		assertEquals(Arrays.asList("b:2", "a:4", "b:6"), failed);
+	}
+	
+	@Test
+	public void testRecordsWithSameKeyAreProcessedInOrder() {
+		List<String> records = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			records.add((i % 5) + ":" + i);
+		}
+		List<String> processed = Collections.synchronizedList(new ArrayList<>());
+		
+		List<String> failed = BulkIngestUtils.processInPartitions(records, record -> record.split(":")[0], 4, executor,
+		    processed::add);
+		
+		assertTrue(failed.isEmpty());
+		assertEquals(records.size(), processed.size());
+		for (int key = 0; key < 5; key++) {
+			int last = -1;
+			for (String record : processed) {
+				if (record.startsWith(key + ":")) {
+					int value = Integer.parseInt(record.split(":")[1]);
+					assertTrue(value > last);
+					last = value;
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void testProcessInPartitionsWithoutExecutor() {
+		List<String> failed = BulkIngestUtils.processInPartitions(Arrays.asList("a", null, "b"), record -> record, 4, null,
+		    record -> record != null);
+		
+		assertEquals(1, failed.size());
+	}
+}
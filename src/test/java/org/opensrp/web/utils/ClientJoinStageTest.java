@@ -0,0 +1,104 @@
+package org.opensrp.web.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.opensrp.common.AllConstants.BaseEntity.BASE_ENTITY_ID;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.opensrp.service.ClientService;
+import org.smartregister.domain.Client;
+import org.smartregister.domain.Event;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class ClientJoinStageTest {
+	
+	private ClientService clientService;
+	
+	private ExecutorService executor;
+	
+	private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+	
+	@Before
+	public void setUp() {
+		clientService = mock(ClientService.class);
+		executor = Executors.newFixedThreadPool(2);
+	}
+	
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+	
+	@Test
+	public void testJoinDeduplicatesBaseEntityIds() {
+		when(clientService.findByFieldValue(eq(BASE_ENTITY_ID), anyList()))
+		        .thenReturn(Arrays.asList(new Client("entity-1"), new Client("entity-2")));
+		ClientJoinStage clientJoinStage = new ClientJoinStage(clientService, executor, false);
+		
+		SyncPhaseTimer timer = new SyncPhaseTimer(meterRegistry, "team");
+		List<Client> clients = clientJoinStage.join(Arrays.asList(createEvent("entity-1"), createEvent("entity-2"),
+		    createEvent("entity-1"), createEvent(null)), timer);
+		
+		@SuppressWarnings("unchecked")
+		ArgumentCaptor<List<String>> idsCaptor = ArgumentCaptor.forClass(List.class);
+		verify(clientService).findByFieldValue(eq(BASE_ENTITY_ID), idsCaptor.capture());
+		assertEquals(Arrays.asList("entity-1", "entity-2"), idsCaptor.getValue());
+		assertEquals(2, clients.size());
+		assertEquals(1, meterRegistry.get(SyncPhaseTimer.METRIC_NAME).tag(SyncPhaseTimer.PHASE_TAG, SyncPhaseTimer.CLIENTS)
+		        .tag(SyncPhaseTimer.FILTER_TAG, "team").timer().count());
+	}
+	
+	@Test
+	public void testFindClientsSearchesMissingClients() {
+		when(clientService.findByFieldValue(eq(BASE_ENTITY_ID), anyList()))
+		        .thenReturn(new ArrayList<>(Collections.singletonList(new Client("entity-1"))));
+		when(clientService.getByBaseEntityId("entity-2")).thenReturn(new Client("entity-2"));
+		ClientJoinStage clientJoinStage = new ClientJoinStage(clientService, executor, true);
+		
+		SyncPhaseTimer timer = new SyncPhaseTimer(meterRegistry, "team");
+		List<Client> clients = clientJoinStage.findClients(Arrays.asList("entity-1", "entity-2", "entity-3"), timer);
+		
+		assertEquals(2, clients.size());
+		assertEquals("entity-2", clients.get(1).getBaseEntityId());
+		verify(clientService, never()).getByBaseEntityId("entity-1");
+		verify(clientService).getByBaseEntityId("entity-3");
+		assertEquals(1, meterRegistry.get(SyncPhaseTimer.METRIC_NAME)
+		        .tag(SyncPhaseTimer.PHASE_TAG, SyncPhaseTimer.MISSING_CLIENTS).timer().count());
+	}
+	
+	@Test
+	public void testFindClientsWithoutMissingClientSearch() {
+		when(clientService.findByFieldValue(eq(BASE_ENTITY_ID), anyList()))
+		        .thenReturn(new ArrayList<>(Collections.singletonList(new Client("entity-1"))));
+		ClientJoinStage clientJoinStage = new ClientJoinStage(clientService, executor, false);
+		
+		List<Client> clients = clientJoinStage.findClients(Arrays.asList("entity-1", "entity-2"), new SyncPhaseTimer(meterRegistry, "team"));
+		
+		assertEquals(1, clients.size());
+		verify(clientService, never()).getByBaseEntityId(anyString());
+	}
+	
+	private Event createEvent(String baseEntityId) {
+		Event event = new Event();
+		event.setBaseEntityId(baseEntityId);
+		return event;
+	}
+}
@@ -0,0 +1,144 @@
+package org.opensrp.web.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.smartregister.domain.Client;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class ClientSearchIndexTest {
+
+	private MeterRegistry meterRegistry;
+
+	private ClientSearchIndex clientSearchIndex;
+
+	private List<Client> clients;
+
+	private final List<Long> fetchedFrom = new ArrayList<>();
+
+	@Before
+	public void setUp() {
+		meterRegistry = new SimpleMeterRegistry();
+		clientSearchIndex = new ClientSearchIndex(meterRegistry);
+		clients = new ArrayList<>(Arrays.asList(createClient("client-1", "Amina", "Zahara", 1l),
+		    createClient("client-2", "José", "Amani", 2l), createClient("client-3", "Amani", "Odinga", 2l),
+		    createClient("client-4", "Jared", "Odinga", 3l)));
+		clients.get(0).addIdentifier("opensrp_id", "ZEIR-1001");
+		clients.get(3).setMiddleName("Kamau");
+	}
+
+	private List<Client> fetch(long serverVersion, int limit) {
+		fetchedFrom.add(serverVersion);
+		return clients.stream().filter(client -> client.getServerVersion() >= serverVersion).limit(limit)
+		        .collect(Collectors.toList());
+	}
+
+	@Test
+	public void testSearchIsNotServedBeforeTheFirstRefresh() {
+		assertNull(clientSearchIndex.search("amina", 10));
+	}
+
+	@Test
+	public void testRefreshIndexesEveryClientInPages() {
+		assertEquals(5, clientSearchIndex.refresh(this::fetch, 2));
+
+		assertEquals(Arrays.asList(0l, 2l, 2l), fetchedFrom);
+		assertEquals(3, clientSearchIndex.getLastServerVersion());
+		assertEquals(4, clientSearchIndex.size());
+		assertEquals(5, meterRegistry.get(ClientSearchIndex.INDEXED_METRIC).counter().count(), 0);
+		assertEquals(4, meterRegistry.get(ClientSearchIndex.SIZE_METRIC).gauge().value(), 0);
+	}
+
+	@Test
+	public void testSearchMatchesNamesContainingTheText() {
+		clientSearchIndex.refresh(this::fetch, 10);
+
+		assertEquals(Arrays.asList("client-2", "client-3"), clientSearchIndex.search("AMAN", 10));
+		assertEquals(Arrays.asList("client-2", "client-3"), clientSearchIndex.search("mani", 10));
+		assertEquals(Arrays.asList("client-3", "client-4"), clientSearchIndex.search("dinga", 10));
+		assertEquals(Arrays.asList("client-4"), clientSearchIndex.search("kamau", 10));
+		assertEquals(Arrays.asList("client-2"), clientSearchIndex.search("josé", 10));
+		assertTrue(clientSearchIndex.search("jose", 10).isEmpty());
+		assertTrue(clientSearchIndex.search("amani odinga", 10).isEmpty());
+		assertTrue(clientSearchIndex.search("zeir-1001", 10).isEmpty());
+		assertTrue(clientSearchIndex.search("ina zah", 10).isEmpty());
+	}
+
+	@Test
+	public void testSearchesTheIndexCannotAnswerAreLeftToTheClientTable() {
+		clientSearchIndex.refresh(this::fetch, 10);
+
+		assertNull(clientSearchIndex.search("am", 10));
+		assertNull(clientSearchIndex.search("am%", 10));
+		assertNull(clientSearchIndex.search("ama_i", 10));
+		assertNull(clientSearchIndex.search("odinga", 1));
+		assertEquals(Arrays.asList("client-1"), clientSearchIndex.search("amina", 1));
+	}
+
+	@Test
+	public void testRefreshReplacesChangedClientsAndRemovesVoidedClients() {
+		clientSearchIndex.refresh(this::fetch, 10);
+		Client renamed = createClient("client-3", "Halima", "Odinga", 4l);
+		Client voided = createClient("client-4", "Jared", "Odinga", 5l);
+		voided.setDateVoided(new DateTime());
+		clients.addAll(Arrays.asList(renamed, voided));
+
+		clientSearchIndex.refresh(this::fetch, 10);
+
+		assertEquals(Arrays.asList("client-2"), clientSearchIndex.search("amani", 10));
+		assertEquals(Arrays.asList("client-3"), clientSearchIndex.search("odinga", 10));
+		assertEquals(Arrays.asList("client-3"), clientSearchIndex.search("halima", 10));
+		assertEquals(3, clientSearchIndex.size());
+	}
+
+	@Test
+	public void testFindByIdentifierMatchesIdentifierValuesOfAnyType() {
+		assertNull(clientSearchIndex.findByIdentifier("ZEIR-1001"));
+		clients.get(2).addIdentifier("national_id", "ZEIR-1001");
+		clientSearchIndex.refresh(this::fetch, 10);
+
+		assertEquals(Arrays.asList("client-1", "client-3"), clientSearchIndex.findByIdentifier("ZEIR-1001"));
+		assertTrue(clientSearchIndex.findByIdentifier("zeir-1001").isEmpty());
+
+		Client changed = createClient("client-1", "Amina", "Zahara", 4l);
+		changed.addIdentifier("opensrp_id", "ZEIR-1002");
+		Client voided = createClient("client-3", "Amani", "Odinga", 5l);
+		voided.addIdentifier("national_id", "ZEIR-1001");
+		voided.setDateVoided(new DateTime());
+		clients.addAll(Arrays.asList(changed, voided));
+		clientSearchIndex.refresh(this::fetch, 10);
+
+		assertTrue(clientSearchIndex.findByIdentifier("ZEIR-1001").isEmpty());
+		assertEquals(Arrays.asList("client-1"), clientSearchIndex.findByIdentifier("ZEIR-1002"));
+	}
+
+	@Test
+	public void testRefreshReadsPagesOfOneServerVersionWithALargerLimit() {
+		clients = new ArrayList<>(Arrays.asList(createClient("client-1", "Amina", "Zahara", 7l),
+		    createClient("client-2", "Jose", "Amani", 7l), createClient("client-3", "Amani", "Odinga", 7l)));
+
+		clientSearchIndex.refresh(this::fetch, 2);
+
+		assertEquals(3, clientSearchIndex.size());
+		assertEquals(Arrays.asList(0l, 7l, 7l), fetchedFrom);
+	}
+
+	private Client createClient(String baseEntityId, String firstName, String lastName, long serverVersion) {
+		Client client = new Client(baseEntityId);
+		client.setFirstName(firstName);
+		client.setLastName(lastName);
+		client.setServerVersion(serverVersion);
+		return client;
+	}
+}
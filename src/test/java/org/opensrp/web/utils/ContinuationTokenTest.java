@@ -0,0 +1,144 @@
+package org.opensrp.web.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+
+public class ContinuationTokenTest {
+
+	private final String filterHash = ContinuationToken.hashFilters("team-1", null);
+
+	private final ContinuationTokenSigner signer = new ContinuationTokenSigner("secret");
+
+	@Test
+	public void testTokenRoundTrips() {
+		ContinuationToken token = ContinuationToken.after(records(Pair.of(3l, "a"), Pair.of(5l, "b"), Pair.of(5l, "c")),
+		    Pair::getLeft, Pair::getRight, null, filterHash);
+
+		ContinuationToken decoded = ContinuationToken.decode(token.encode(signer), filterHash, signer);
+		assertEquals(5l, decoded.getServerVersion());
+		assertEquals(2, decoded.getServedCount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDecodeRejectsTokenForOtherFilters() {
+		ContinuationToken token = ContinuationToken.after(records(Pair.of(3l, "a")), Pair::getLeft, Pair::getRight, null,
+		    filterHash);
+		ContinuationToken.decode(token.encode(signer), ContinuationToken.hashFilters("team-2", null), signer);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDecodeRejectsMalformedToken() {
+		ContinuationToken.decode("not a token", filterHash, signer);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDecodeRejectsForgedToken() {
+		String token = ContinuationToken.after(records(Pair.of(3l, "a")), Pair::getLeft, Pair::getRight, null, filterHash)
+		        .encode(signer);
+		String forged = Base64.getUrlEncoder().withoutPadding().encodeToString(
+		    ("{\"v\":3,\"ids\":[\"a\",\"b\"],\"f\":\"" + filterHash + "\"}").getBytes(StandardCharsets.UTF_8));
+		ContinuationToken.decode(forged + token.substring(token.indexOf('.')), filterHash, signer);
+	}
+
+	@Test
+	public void testDecodeAcceptsTokenOfSignerWithSameSecretOnly() {
+		String token = ContinuationToken.after(records(Pair.of(3l, "a")), Pair::getLeft, Pair::getRight, null, filterHash)
+		        .encode(signer);
+
+		assertEquals(3l, ContinuationToken.decode(token, filterHash, new ContinuationTokenSigner("secret"))
+		        .getServerVersion());
+		try {
+			ContinuationToken.decode(token, filterHash, ContinuationTokenSigner.withRandomKey());
+			fail("Expected the token to be rejected");
+		}
+		catch (IllegalArgumentException e) {
+			assertEquals("Malformed continuation token", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testRemainingExcludesServedRecords() {
+		ContinuationToken token = ContinuationToken.after(records(Pair.of(5l, "a"), Pair.of(5l, "b")), Pair::getLeft,
+		    Pair::getRight, null, filterHash);
+		assertEquals(8l, ContinuationToken.remaining(10l, token).longValue());
+		assertEquals(0l, ContinuationToken.remaining(1l, token).longValue());
+		assertEquals(10l, ContinuationToken.remaining(10l, null).longValue());
+		assertNull(ContinuationToken.remaining(null, token));
+	}
+
+	@Test
+	public void testSkipServedRemovesOnlyRecordsServedAtTokenVersion() {
+		ContinuationToken token = ContinuationToken.after(records(Pair.of(3l, "a"), Pair.of(5l, "b")), Pair::getLeft,
+		    Pair::getRight, null, filterHash);
+
+		List<Pair<Long, String>> remaining = token.skipServed(
+		    records(Pair.of(5l, "b"), Pair.of(5l, "c"), Pair.of(6l, "b")), Pair::getLeft, Pair::getRight);
+		assertEquals(Arrays.asList("c", "b"), remaining.stream().map(Pair::getRight).collect(Collectors.toList()));
+		assertEquals(6l, remaining.get(1).getLeft().longValue());
+	}
+
+	@Test
+	public void testAfterKeepsPreviousIdsAtSameServerVersion() {
+		ContinuationToken first = ContinuationToken.after(records(Pair.of(5l, "a")), Pair::getLeft, Pair::getRight, null,
+		    filterHash);
+		ContinuationToken second = ContinuationToken.after(records(Pair.of(5l, "b")), Pair::getLeft, Pair::getRight, first,
+		    filterHash);
+		assertEquals(2, second.getServedCount());
+
+		ContinuationToken third = ContinuationToken.after(records(Pair.of(7l, "c")), Pair::getLeft, Pair::getRight, second,
+		    filterHash);
+		assertEquals(7l, third.getServerVersion());
+		assertEquals(1, third.getServedCount());
+	}
+
+	@Test
+	public void testAfterReturnsPreviousTokenWhenNothingWasReturned() {
+		assertNull(ContinuationToken.after(Collections.<Pair<Long, String>> emptyList(), Pair::getLeft, Pair::getRight, null,
+		    filterHash));
+		ContinuationToken previous = ContinuationToken.after(records(Pair.of(5l, "a")), Pair::getLeft, Pair::getRight, null,
+		    filterHash);
+		assertSame(previous, ContinuationToken.after(Collections.<Pair<Long, String>> emptyList(), Pair::getLeft,
+		    Pair::getRight, previous, filterHash));
+	}
+
+	@Test
+	public void testAfterResumesAtNextServerVersionWhenTooManyRecordsShareIt() {
+		List<Pair<Long, String>> records = new ArrayList<>();
+		for (int i = 0; i <= ContinuationToken.MAX_SERVED_IDS; i++) {
+			records.add(Pair.of(5l, "id-" + i));
+		}
+		ContinuationToken token = ContinuationToken.after(records, Pair::getLeft, Pair::getRight, null, filterHash);
+		assertEquals(6l, token.getServerVersion());
+		assertEquals(0, token.getServedCount());
+
+		assertSame(token, ContinuationToken.after(records(Pair.of(5l, "id-x")), Pair::getLeft, Pair::getRight, token,
+		    filterHash));
+		assertEquals(ContinuationToken.MAX_SERVED_IDS + 1,
+		    ContinuationToken.position(records, Pair::getLeft, Pair::getRight, null, filterHash).getServedCount());
+	}
+
+	@Test
+	public void testHashFiltersDistinguishesFilterPositions() {
+		assertNotEquals(ContinuationToken.hashFilters("a", null), ContinuationToken.hashFilters(null, "a"));
+		assertEquals(ContinuationToken.hashFilters("a", "b"), ContinuationToken.hashFilters("a", "b"));
+	}
+
+	@SafeVarargs
+	private static List<Pair<Long, String>> records(Pair<Long, String>... records) {
+		return Arrays.asList(records);
+	}
+}
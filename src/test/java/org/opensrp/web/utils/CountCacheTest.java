@@ -0,0 +1,65 @@
+package org.opensrp.web.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class CountCacheTest {
+	
+	@Test
+	public void testGetReturnsCachedCount() {
+		CountCache countCache = new CountCache(10, 60000);
+		countCache.put("team=1", 12l);
+		assertEquals(12l, countCache.get("team=1").longValue());
+		assertNull(countCache.get("team=2"));
+	}
+	
+	@Test
+	public void testDisabledCacheDoesNotStoreCounts() {
+		CountCache countCache = new CountCache(10, 0);
+		countCache.put("team=1", 12l);
+		assertFalse(countCache.isEnabled());
+		assertNull(countCache.get("team=1"));
+	}
+	
+	@Test
+	public void testExpiredEntriesAreNotReturned() throws InterruptedException {
+		CountCache countCache = new CountCache(10, 1);
+		countCache.put("team=1", 12l);
+		Thread.sleep(5);
+		assertNull(countCache.get("team=1"));
+	}
+	
+	@Test
+	public void testLeastRecentlyUsedEntryIsEvicted() {
+		CountCache countCache = new CountCache(2, 60000);
+		countCache.put("team=1", 1l);
+		countCache.put("team=2", 2l);
+		countCache.get("team=1");
+		countCache.put("team=3", 3l);
+		assertEquals(1l, countCache.get("team=1").longValue());
+		assertNull(countCache.get("team=2"));
+		assertEquals(3l, countCache.get("team=3").longValue());
+	}
+	
+	@Test
+	public void testInvalidateAllClearsEntries() {
+		CountCache countCache = new CountCache(10, 60000);
+		countCache.put("team=1", 1l);
+		countCache.invalidateAll();
+		assertNull(countCache.get("team=1"));
+	}
+	
+	@Test
+	public void testCountStartedBeforeInvalidationIsNotStored() {
+		CountCache countCache = new CountCache(10, 60000);
+		long generation = countCache.getGeneration();
+		countCache.invalidateAll();
+		countCache.put("team=1", 1l, generation);
+		assertNull(countCache.get("team=1"));
+		countCache.put("team=1", 2l, countCache.getGeneration());
+		assertEquals(2l, countCache.get("team=1").longValue());
+	}
+}
@@ -0,0 +1,78 @@
+package org.opensrp.web.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.opensrp.web.rest.LocationResource;
+import org.smartregister.domain.Geometry;
+import org.smartregister.domain.PhysicalLocation;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+
+public class GeometryCacheTest {
+
+	private static final String SQUARE = "[[[32.5,-14.1],[32.50000001,-14.10000002],[32.6,-14.1],[32.6,-14.2],"
+	        + "[32.55,-14.20004],[32.5,-14.2],[32.5,-14.1]]]";
+
+	@Test
+	public void testSimplifyDropsVerticesWithinTheToleranceAndRoundsCoordinates() {
+		JsonArray coordinates = parse(SQUARE);
+
+		assertSame(coordinates, GeometrySimplifier.simplify(Geometry.GeometryType.POLYGON, coordinates, 0));
+		assertEquals(parse("[[[32.5,-14.1],[32.6,-14.1],[32.6,-14.2],[32.55,-14.20004],[32.5,-14.2],[32.5,-14.1]]]"),
+		    GeometrySimplifier.simplify(Geometry.GeometryType.POLYGON, coordinates, 1));
+		assertEquals(parse("[[[32.5,-14.1],[32.6,-14.1],[32.6,-14.2],[32.5,-14.2],[32.5,-14.1]]]"),
+		    GeometrySimplifier.simplify(Geometry.GeometryType.POLYGON, coordinates, 3));
+		assertEquals(parse("[32.1235,-14.1235]"),
+		    GeometrySimplifier.simplify(Geometry.GeometryType.POINT, parse("[32.123456,-14.123456]"), 3));
+	}
+
+	@Test
+	public void testSimplifyKeepsRingsTooSmallForTheTolerance() {
+		JsonArray ring = parse("[[[32.5,-14.1],[32.5001,-14.1],[32.5001,-14.1001],[32.5,-14.1]]]");
+
+		assertEquals(ring, GeometrySimplifier.simplify(Geometry.GeometryType.POLYGON, ring, 3));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSimplifyRejectsUnknownLevels() {
+		GeometrySimplifier.simplify(Geometry.GeometryType.POLYGON, parse(SQUARE), GeometrySimplifier.MAX_GEOMETRY_LEVEL + 1);
+	}
+
+	@Test
+	public void testGeometriesAreCachedPerServerVersionWithinTheMaximumSize() {
+		GeometryCache geometryCache = new GeometryCache(1000);
+		List<PhysicalLocation> locations = geometryCache.simplify(Arrays.asList(createLocation("a", 1l), createLocation("b", 1l)), 3);
+		JsonArray cached = locations.get(1).getGeometry().getCoordinates();
+		assertEquals(5, GeometrySimplifier.countPositions(cached));
+		assertTrue(geometryCache.size() <= 1000);
+
+		assertSame(cached, geometryCache.simplify(createLocation("b", 1l), 3).getGeometry().getCoordinates());
+		JsonArray newVersion = geometryCache.simplify(createLocation("b", 2l), 3).getGeometry().getCoordinates();
+		assertEquals(cached, newVersion);
+		assertTrue(cached != newVersion);
+
+		GeometryCache disabled = new GeometryCache(0);
+		disabled.simplify(createLocation("a", 1l), 3);
+		assertEquals(0, disabled.size());
+	}
+
+	private PhysicalLocation createLocation(String id, long serverVersion) {
+		PhysicalLocation location = LocationResource.gson.fromJson("{\"type\":\"Feature\",\"id\":\"" + id
+		        + "\",\"geometry\":{\"type\":\"Polygon\",\"coordinates\":" + SQUARE + "},\"properties\":{\"status\":\"Active\","
+		        + "\"name\":\"" + id + "\",\"version\":0}}",
+		    PhysicalLocation.class);
+		location.setServerVersion(serverVersion);
+		return location;
+	}
+
+	private JsonArray parse(String json) {
+		return new JsonParser().parse(json).getAsJsonArray();
+	}
+}
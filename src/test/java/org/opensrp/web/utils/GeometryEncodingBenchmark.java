@@ -0,0 +1,82 @@
+package org.opensrp.web.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.opensrp.web.rest.LocationResource;
+import org.smartregister.domain.PhysicalLocation;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Compares the size and serialization time of a structure sync response in JSON and in
+ * {@link GeometryEncoding}, both written to a stream as the structure sync writes them. It is not
+ * run with the tests:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.opensrp.web.utils.GeometryEncodingBenchmark
+ * </pre>
+ *
+ * The arguments are the number of structures, the number of vertices of each structure and the
+ * number of timed iterations, by default 1000 structures of 50 vertices over 50 iterations.
+ */
+public class GeometryEncodingBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		int structures = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int vertices = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+		int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+
+		List<PhysicalLocation> locations = GeometryEncodingTest.createStructures(structures, vertices);
+		int jsonBytes = writeJson(locations);
+		int binaryBytes = writeBinary(locations);
+
+		// warm up both paths before timing them
+		for (int i = 0; i < iterations; i++) {
+			writeJson(locations);
+			writeBinary(locations);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			writeJson(locations);
+		}
+		double jsonMillis = (System.nanoTime() - start) / 1e6 / iterations;
+		start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			writeBinary(locations);
+		}
+		double binaryMillis = (System.nanoTime() - start) / 1e6 / iterations;
+
+		System.out.printf("%d structures of %d vertices%n", structures, vertices);
+		System.out.printf("json:   %,10d bytes %8.2f ms%n", jsonBytes, jsonMillis);
+		System.out.printf("binary: %,10d bytes %8.2f ms%n", binaryBytes, binaryMillis);
+		System.out.printf("ratio:  %10.2fx %8.2fx%n", (double) jsonBytes / binaryBytes, jsonMillis / binaryMillis);
+	}
+
+	/**
+	 * @return the number of bytes of the JSON body
+	 */
+	private static int writeJson(List<PhysicalLocation> locations) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (JsonWriter writer = LocationResource.gson.newJsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+			writer.beginArray();
+			for (PhysicalLocation location : locations) {
+				LocationResource.gson.toJson(location, PhysicalLocation.class, writer);
+			}
+			writer.endArray();
+		}
+		return out.size();
+	}
+
+	/**
+	 * @return the number of bytes of the binary body
+	 */
+	private static int writeBinary(List<PhysicalLocation> locations) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GeometryEncoding.encode(LocationResource.gson, locations, out);
+		return out.size();
+	}
+}
@@ -0,0 +1,118 @@
+package org.opensrp.web.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.opensrp.web.rest.LocationResource;
+import org.smartregister.domain.PhysicalLocation;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+public class GeometryEncodingTest {
+
+	private static final String MULTI_POLYGON = "{\"type\":\"Feature\",\"id\":\"3734\",\"geometry\":{\"type\":\"MultiPolygon\","
+	        + "\"coordinates\":[[[[32.5978597,-14.1699446],[32.5978956,-14.1699609],[32.5978794,-14.1699947],"
+	        + "[32.5978597,-14.1699446]]],[[[-0.1,51.5,12.5],[0.1,51.5,12.5],[0.1,51.6,13],[-0.1,51.5,12.5]]]]},"
+	        + "\"properties\":{\"status\":\"Active\",\"parentId\":\"21\",\"name\":\"01_5\",\"version\":0}}";
+
+	private static final String WITHOUT_GEOMETRY = "{\"type\":\"Feature\",\"id\":\"3735\",\"properties\":{\"status\":\"Active\","
+	        + "\"parentId\":\"21\",\"name\":\"01_6\",\"version\":0}}";
+
+	@Test
+	public void testIsAccepted() {
+		assertTrue(GeometryEncoding.isAccepted("application/json;q=0.5, " + GeometryEncoding.MEDIA_TYPE_VALUE));
+		assertFalse(GeometryEncoding.isAccepted("application/json, */*"));
+		assertFalse(GeometryEncoding.isAccepted(null));
+		assertFalse(GeometryEncoding.isAccepted("not a media type"));
+		assertFalse(GeometryEncoding.isAccepted(GeometryEncoding.MEDIA_TYPE_VALUE + ";q=0"));
+		assertFalse(GeometryEncoding.isAccepted("application/json, " + GeometryEncoding.MEDIA_TYPE_VALUE + ";q=0.5"));
+		assertFalse(GeometryEncoding.isAccepted("*/*, " + GeometryEncoding.MEDIA_TYPE_VALUE + ";q=0.9"));
+		assertTrue(GeometryEncoding.isAccepted(GeometryEncoding.MEDIA_TYPE_VALUE + ";q=0.8, */*;q=0.1"));
+	}
+
+	@Test
+	public void testEncodingIsAFractionOfTheJsonSize() {
+		List<PhysicalLocation> structures = createStructures(200, 50);
+
+		int jsonBytes = LocationResource.gson.toJson(structures).getBytes(StandardCharsets.UTF_8).length;
+		byte[] body = GeometryEncoding.encode(LocationResource.gson, structures);
+
+		assertTrue(body.length * 3 < jsonBytes);
+		assertEquals(structures.size(), GeometryEncoding.decode(body).size());
+	}
+
+	@Test
+	public void testEncodeWritesToTheStream() throws IOException {
+		List<PhysicalLocation> structures = createStructures(3, 5);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		GeometryEncoding.encode(LocationResource.gson, structures, out);
+
+		assertArrayEquals(GeometryEncoding.encode(LocationResource.gson, structures), out.toByteArray());
+	}
+
+	@Test
+	public void testDecodeReturnsTheEncodedLocations() {
+		byte[] body = GeometryEncoding.encode(LocationResource.gson,
+		    Arrays.asList(LocationResource.gson.fromJson(MULTI_POLYGON, PhysicalLocation.class),
+		        LocationResource.gson.fromJson(WITHOUT_GEOMETRY, PhysicalLocation.class)));
+
+		JsonArray expected = new JsonArray();
+		expected.add(toSyncJson(MULTI_POLYGON));
+		expected.add(toSyncJson(WITHOUT_GEOMETRY));
+		assertEquals(expected, GeometryEncoding.decode(body));
+		assertEquals(0, GeometryEncoding.decode(new byte[0]).size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDecodeRejectsTruncatedBodies() {
+		byte[] body = GeometryEncoding.encode(LocationResource.gson,
+		    Arrays.asList(LocationResource.gson.fromJson(MULTI_POLYGON, PhysicalLocation.class)));
+
+		GeometryEncoding.decode(Arrays.copyOf(body, body.length - 3));
+	}
+
+	/**
+	 * Creates structures shaped like building outlines, with coordinates at the 15 decimal places
+	 * the reveal geometries are stored with, also used by {@link GeometryEncodingBenchmark}
+	 */
+	static List<PhysicalLocation> createStructures(int structures, int vertices) {
+		Random random = new Random(42);
+		List<PhysicalLocation> locations = new ArrayList<>(structures);
+		for (int i = 0; i < structures; i++) {
+			double longitude = 32.5 + random.nextDouble() / 10;
+			double latitude = -14.1 - random.nextDouble() / 10;
+			StringBuilder ring = new StringBuilder();
+			for (int v = 0; v < vertices; v++) {
+				double angle = 2 * Math.PI * v / vertices;
+				double radius = 0.0001 * (1 + random.nextDouble() / 5);
+				ring.append('[').append(longitude + radius * Math.cos(angle)).append(',')
+				        .append(latitude + radius * Math.sin(angle)).append("],");
+			}
+			ring.append('[').append(longitude + 0.0001).append(',').append(latitude).append(']');
+			locations.add(LocationResource.gson.fromJson("{\"type\":\"Feature\",\"id\":\"structure-" + i
+			        + "\",\"geometry\":{\"type\":\"Polygon\",\"coordinates\":[[" + ring + "]]},\"properties\":{\"uid\":\""
+			        + i + "\",\"type\":\"Residential Structure\",\"status\":\"Active\",\"parentId\":\"3734\","
+			        + "\"geographicLevel\":5,\"effectiveStartDate\":\"2017-01-10T0000\",\"version\":0}}",
+			    PhysicalLocation.class));
+		}
+		return locations;
+	}
+
+	private JsonElement toSyncJson(String location) {
+		return new JsonParser().parse(LocationResource.gson.toJson(LocationResource.gson.fromJson(location, PhysicalLocation.class)));
+	}
+}
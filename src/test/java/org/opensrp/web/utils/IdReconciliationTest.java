@@ -0,0 +1,133 @@
+package org.opensrp.web.utils;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+public class IdReconciliationTest {
+
+	private final List<String> ids = Arrays.asList("client-0001", "client-0002", "client-0003", "client-0004",
+	    "client-0005");
+
+	private final List<Long> fetchedFrom = new ArrayList<>();
+
+	/* ids are at server versions 1 to 5 and the page boundary version is returned again */
+	private Pair<List<String>, Long> fetch(long serverVersion, int limit) {
+		fetchedFrom.add(serverVersion);
+		int from = (int) Math.max(serverVersion - 1, 0);
+		List<String> page = ids.subList(Math.min(from, ids.size()), Math.min(from + limit, ids.size()));
+		return Pair.of(page, page.isEmpty() ? null : (long) from + page.size());
+	}
+
+	private byte[] filterOf(String... heldIds) throws IOException {
+		BloomFilter<CharSequence> filter = BloomFilter.create(Funnels.stringFunnel(UTF_8), 100, 0.0001);
+		for (String id : heldIds) {
+			filter.put(id);
+		}
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		filter.writeTo(outputStream);
+		return outputStream.toByteArray();
+	}
+
+	@Test
+	public void testWriteMissingIdsReturnsOnlyIdsNotHeld() throws IOException {
+		BloomFilter<CharSequence> heldIds = IdReconciliation
+		        .readFilter(new ByteArrayInputStream(filterOf("client-0001", "client-0004")));
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+		assertEquals(3, IdReconciliation.writeMissingIds(this::fetch, 0, 2, heldIds, outputStream));
+
+		List<String> missingIds = new ArrayList<>();
+		InputStream inputStream = new ByteArrayInputStream(outputStream.toByteArray());
+		assertEquals(5, decode(inputStream, missingIds));
+		assertEquals(Arrays.asList("client-0002", "client-0003", "client-0005"), missingIds);
+		assertEquals(-1, inputStream.read());
+		assertEquals(Arrays.asList(0l, 2l, 3l, 4l, 5l), fetchedFrom);
+	}
+
+	@Test
+	public void testWriteMissingIdsReadsPastIdsSharingAServerVersion() throws IOException {
+		BloomFilter<CharSequence> heldIds = IdReconciliation.readFilter(new ByteArrayInputStream(filterOf("client-0003")));
+		List<Long> serverVersions = Arrays.asList(1l, 2l, 2l, 2l, 2l);
+		List<Pair<Long, Integer>> fetches = new ArrayList<>();
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+		/* every page starts at the first id at or after the server version */
+		assertEquals(4, IdReconciliation.writeMissingIds((serverVersion, limit) -> {
+			fetches.add(Pair.of(serverVersion, limit));
+			int from = (int) serverVersions.stream().filter(version -> version < serverVersion).count();
+			int to = Math.min(from + limit, ids.size());
+			return Pair.of(ids.subList(from, to), serverVersions.get(to - 1));
+		}, 0, 2, heldIds, outputStream));
+
+		List<String> missingIds = new ArrayList<>();
+		assertEquals(2, decode(new ByteArrayInputStream(outputStream.toByteArray()), missingIds));
+		assertEquals(Arrays.asList("client-0001", "client-0002", "client-0004", "client-0005"), missingIds);
+		assertEquals(Arrays.asList(Pair.of(0l, 2), Pair.of(2l, 2), Pair.of(2l, 4), Pair.of(2l, 8)), fetches);
+	}
+
+	@Test
+	public void testIdsAreFrontCoded() throws IOException {
+		BloomFilter<CharSequence> heldIds = IdReconciliation.readFilter(new ByteArrayInputStream(filterOf()));
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+		IdReconciliation.writeMissingIds(this::fetch, 0, 10, heldIds, outputStream);
+
+		/* the first id in full then 3 bytes per id sharing the "client-000" prefix, plus the trailer */
+		assertEquals(2 + 11 + 4 * 3 + 2, outputStream.size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testReadFilterRejectsTruncatedFilter() throws IOException {
+		byte[] filter = filterOf("client-0001");
+		IdReconciliation.readFilter(new ByteArrayInputStream(Arrays.copyOf(filter, filter.length - 1)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testReadFilterRejectsGarbage() throws IOException {
+		IdReconciliation.readFilter(new ByteArrayInputStream("[\"client-0001\"]".getBytes(UTF_8)));
+	}
+
+	/**
+	 * Decodes the ids into the list and returns the trailing server version
+	 */
+	private long decode(InputStream inputStream, List<String> decodedIds) throws IOException {
+		byte[] previousId = new byte[0];
+		long length;
+		while ((length = readVarint(inputStream)) != 0) {
+			int shared = (int) readVarint(inputStream);
+			byte[] id = Arrays.copyOf(previousId, shared + (int) length - 1);
+			for (int i = shared; i < id.length; i++) {
+				id[i] = (byte) inputStream.read();
+			}
+			decodedIds.add(new String(id, UTF_8));
+			previousId = id;
+		}
+		return readVarint(inputStream);
+	}
+
+	private long readVarint(InputStream inputStream) throws IOException {
+		long value = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = inputStream.read();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+}
@@ -0,0 +1,115 @@
+package org.opensrp.web.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.smartregister.domain.LocationProperty;
+import org.smartregister.domain.LocationProperty.PropertyStatus;
+import org.smartregister.domain.PhysicalLocation;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class LocationHierarchyTest {
+
+	private MeterRegistry meterRegistry;
+
+	private LocationHierarchy locationHierarchy;
+
+	private List<PhysicalLocation> locations;
+
+	@Before
+	public void setUp() {
+		meterRegistry = new SimpleMeterRegistry();
+		locationHierarchy = new LocationHierarchy(true, meterRegistry);
+		locations = new ArrayList<>(Arrays.asList(createLocation("country", null, 1l),
+		    createLocation("province", "country", 2l), createLocation("district-a", "province", 2l),
+		    createLocation("district-b", "province", 3l), createLocation("village", "district-a", 4l),
+		    createLocation("loop-a", "loop-b", 4l), createLocation("loop-b", "loop-a", 4l)));
+	}
+
+	private List<PhysicalLocation> fetch(long serverVersion, int limit) {
+		return locations.stream().filter(location -> location.getServerVersion() >= serverVersion).limit(limit)
+		        .collect(Collectors.toList());
+	}
+
+	@Test
+	public void testSnapshotIsNotAvailableBeforeTheFirstRefresh() {
+		assertNull(locationHierarchy.getSnapshot());
+		assertNull(new LocationHierarchy(false, meterRegistry).getSnapshot());
+	}
+
+	@Test
+	public void testRefreshBuildsTheHierarchyInPages() {
+		locationHierarchy.refresh(this::fetch, 2);
+		LocationHierarchySnapshot snapshot = locationHierarchy.getSnapshot();
+
+		assertEquals(5, snapshot.size());
+		assertEquals(4, snapshot.getServerVersion());
+		assertFalse(snapshot.contains("loop-a"));
+		assertEquals(Arrays.asList("district-a", "village", "district-b"), snapshot.getDescendants("province"));
+		assertEquals(Arrays.asList("district-a", "province", "country"), snapshot.getAncestors("village"));
+		assertTrue(snapshot.isAncestor("country", "village"));
+		assertFalse(snapshot.isAncestor("district-b", "village"));
+		assertFalse(snapshot.isAncestor("village", "village"));
+		assertEquals(5, meterRegistry.get(LocationHierarchy.SIZE_METRIC).gauge().value(), 0);
+	}
+
+	@Test
+	public void testRefreshSwapsInANewSnapshotOnlyWhenLocationsChange() {
+		locationHierarchy.refresh(this::fetch, 10);
+		LocationHierarchySnapshot snapshot = locationHierarchy.getSnapshot();
+
+		locationHierarchy.refresh(this::fetch, 10);
+		assertSame(snapshot, locationHierarchy.getSnapshot());
+
+		PhysicalLocation inactive = createLocation("district-a", "province", 6l);
+		inactive.getProperties().setStatus(PropertyStatus.INACTIVE);
+		locations.addAll(Arrays.asList(createLocation("village", "district-b", 5l), inactive));
+		locationHierarchy.refresh(this::fetch, 10);
+
+		LocationHierarchySnapshot refreshed = locationHierarchy.getSnapshot();
+		assertNotSame(snapshot, refreshed);
+		assertEquals(Arrays.asList("district-b", "province", "country"), refreshed.getAncestors("village"));
+		assertFalse(refreshed.contains("district-a"));
+		assertEquals(Arrays.asList("district-a", "province", "country"), snapshot.getAncestors("village"));
+	}
+
+	@Test
+	public void testTreesHoldTheSelectedLocations() {
+		locationHierarchy.refresh(this::fetch, 10);
+		LocationHierarchySnapshot snapshot = locationHierarchy.getSnapshot();
+
+		assertEquals(Collections.singleton("province"),
+		    snapshot.buildTree("province", false).getLocationsHierarchy().keySet());
+		assertEquals(Collections.singleton("country"),
+		    snapshot.buildTreeWithAncestors("district-a", false).getLocationsHierarchy().keySet());
+		assertEquals(Collections.singleton("country"),
+		    snapshot.buildAncestorTree(Arrays.asList("village", "district-b"), true).getLocationsHierarchy().keySet());
+		assertTrue(snapshot.getDescendants("unknown").isEmpty());
+	}
+
+	private PhysicalLocation createLocation(String id, String parentId, long serverVersion) {
+		PhysicalLocation location = new PhysicalLocation();
+		location.setId(id);
+		location.setServerVersion(serverVersion);
+		LocationProperty properties = new LocationProperty();
+		properties.setName(id);
+		properties.setParentId(parentId);
+		properties.setStatus(PropertyStatus.ACTIVE);
+		location.setProperties(properties);
+		return location;
+	}
+}
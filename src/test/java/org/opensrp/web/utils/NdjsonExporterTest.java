@@ -0,0 +1,79 @@
+package org.opensrp.web.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+
+public class NdjsonExporterTest {
+
+	private final List<Pair<Long, String>> records = Arrays.asList(Pair.of(1l, "a"), Pair.of(2l, "b"), Pair.of(2l, "c"),
+	    Pair.of(2l, "d"), Pair.of(3l, "e"), Pair.of(4l, "f"));
+
+	private final List<Long> fetchedFrom = new ArrayList<>();
+
+	private List<Pair<Long, String>> fetch(long serverVersion, int limit) {
+		synchronized (fetchedFrom) {
+			fetchedFrom.add(serverVersion);
+		}
+		return records.stream().filter(record -> record.getLeft() >= serverVersion).limit(limit)
+		        .collect(Collectors.toList());
+	}
+
+	@Test
+	public void testExportWritesEveryRecordOncePerLine() throws Exception {
+		NdjsonExporter<Pair<Long, String>> exporter = new NdjsonExporter<>(this::fetch, Pair::getLeft, Pair::getRight, 2,
+		        null);
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+		assertEquals(6, exporter.export(0, Pair::getRight, outputStream));
+		assertEquals("a\nb\nc\nd\ne\nf\n", new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+		assertEquals(Arrays.asList(0l, 2l, 2l, 4l), fetchedFrom);
+	}
+
+	@Test
+	public void testExportPrefetchesOnExecutor() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			NdjsonExporter<Pair<Long, String>> exporter = new NdjsonExporter<>(this::fetch, Pair::getLeft,
+			        Pair::getRight, 4, executor);
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+			assertEquals(5, exporter.export(2, Pair::getRight, outputStream));
+			assertEquals("b\nc\nd\ne\nf\n", new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testExportWritesRelatedRecordsBeforeEachChunk() throws Exception {
+		NdjsonExporter<Pair<Long, String>> exporter = new NdjsonExporter<>(this::fetch, Pair::getLeft, Pair::getRight, 3,
+		        null).withRelated(chunk -> Collections.singletonList(chunk.size()), String::valueOf);
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+		assertEquals(6, exporter.export(0, Pair::getRight, outputStream));
+		assertEquals("3\na\nb\nc\n3\nd\ne\nf\n", new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testExportOfNothingWritesNothing() throws Exception {
+		NdjsonExporter<Pair<Long, String>> exporter = new NdjsonExporter<>(this::fetch, Pair::getLeft, Pair::getRight, 2,
+		        null);
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+		assertEquals(0, exporter.export(5, Pair::getRight, outputStream));
+		assertEquals(0, outputStream.size());
+	}
+}
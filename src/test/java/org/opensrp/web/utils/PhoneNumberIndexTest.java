@@ -0,0 +1,139 @@
+package org.opensrp.web.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.smartregister.domain.Event;
+import org.smartregister.domain.Obs;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class PhoneNumberIndexTest {
+
+	private MeterRegistry meterRegistry;
+
+	private PhoneNumberIndex phoneNumberIndex;
+
+	private List<Event> events;
+
+	private final List<Long> fetchedFrom = new ArrayList<>();
+
+	@Before
+	public void setUp() {
+		meterRegistry = new SimpleMeterRegistry();
+		phoneNumberIndex = new PhoneNumberIndex(true, "+62", meterRegistry);
+		events = new ArrayList<>(Arrays.asList(createEvent("client-1", "0812-3456-789", 1l),
+		    createEvent("client-2", "+62 812 3456 789", 2l), createEvent("client-3", "0813 1111 2222", 2l),
+		    createEvent("client-1", "00628123456789", 3l)));
+	}
+
+	private List<Event> fetch(long serverVersion, int limit) {
+		fetchedFrom.add(serverVersion);
+		return events.stream().filter(event -> event.getServerVersion() >= serverVersion).limit(limit)
+		        .collect(Collectors.toList());
+	}
+
+	@Test
+	public void testNormalizeWritesNumbersInE164() {
+		assertEquals("+628123456789", phoneNumberIndex.normalize("0812-3456-789"));
+		assertEquals("+628123456789", phoneNumberIndex.normalize("+62 (812) 3456-789"));
+		assertEquals("+628123456789", phoneNumberIndex.normalize("00628123456789"));
+		assertEquals("+628123456789", phoneNumberIndex.normalize("8123456789"));
+		assertEquals("+254712345678", phoneNumberIndex.normalize("+254 712 345678"));
+		assertNull(phoneNumberIndex.normalize("not a number"));
+		assertNull(phoneNumberIndex.normalize("1"));
+		assertEquals("0712345678", new PhoneNumberIndex(true, null, meterRegistry).normalize("0712 345 678"));
+	}
+
+	@Test
+	public void testFindIsNotServedBeforeTheFirstRefresh() {
+		phoneNumberIndex.index(events.get(0));
+
+		assertNull(phoneNumberIndex.find("0812 3456 789"));
+	}
+
+	@Test
+	public void testRefreshIndexesEveryEventInPages() {
+		assertEquals(5, phoneNumberIndex.refresh(this::fetch, 2));
+
+		assertEquals(Arrays.asList(0l, 2l, 2l), fetchedFrom);
+		assertEquals(3, phoneNumberIndex.getLastServerVersion());
+		assertEquals(Arrays.asList("client-1", "client-2"), phoneNumberIndex.find("+62 812 3456 789"));
+		assertEquals(Collections.singletonList("client-3"), phoneNumberIndex.find("081311112222"));
+		assertTrue(phoneNumberIndex.find("0819 0000 0000").isEmpty());
+		assertEquals(3, meterRegistry.get(PhoneNumberIndex.INDEXED_METRIC).counter().count(), 0);
+		assertEquals(2, meterRegistry.get(PhoneNumberIndex.SIZE_METRIC).gauge().value(), 0);
+	}
+
+	@Test
+	public void testNewerEventReplacesTheNumbersOfTheClient() {
+		phoneNumberIndex.refresh(this::fetch, 10);
+
+		phoneNumberIndex.index(createEvent("client-1", "0819 0000 0000", 4l));
+		phoneNumberIndex.index(createEvent("client-1", "0813 1111 2222", 2l));
+
+		assertEquals(Collections.singletonList("client-2"), phoneNumberIndex.find("08123456789"));
+		assertEquals(Collections.singletonList("client-1"), phoneNumberIndex.find("081900000000"));
+		assertEquals(Collections.singletonList("client-3"), phoneNumberIndex.find("081311112222"));
+		assertEquals(3, meterRegistry.get(PhoneNumberIndex.SIZE_METRIC).gauge().value(), 0);
+	}
+
+	@Test
+	public void testVoidedEventIsNotIndexedAndRemovesTheNumbersReadFromIt() {
+		Event event = createEvent("client-4", "0819 0000 0000", 4l);
+		event.setFormSubmissionId("form-submission-4");
+		events.add(event);
+		phoneNumberIndex.refresh(this::fetch, 10);
+		Event voided = createEvent("client-5", "0819 0000 0000", 5l);
+		voided.setDateVoided(new DateTime());
+		phoneNumberIndex.index(voided);
+
+		assertEquals(Collections.singletonList("client-4"), phoneNumberIndex.find("081900000000"));
+
+		voided = createEvent("client-4", "0819 0000 0000", 6l);
+		voided.setFormSubmissionId("form-submission-4");
+		voided.setDateVoided(new DateTime());
+		phoneNumberIndex.index(voided);
+
+		assertTrue(phoneNumberIndex.find("081900000000").isEmpty());
+	}
+
+	@Test
+	public void testFindFallsBackForNumbersThatCannotBeNormalized() {
+		phoneNumberIndex.refresh(this::fetch, 10);
+
+		assertNull(phoneNumberIndex.find("0812-3456-789 ext 1"));
+		assertNull(phoneNumberIndex.find("123"));
+	}
+
+	@Test
+	public void testDisabledIndexAnswersNoLookups() {
+		PhoneNumberIndex disabled = new PhoneNumberIndex(false, "62", new SimpleMeterRegistry());
+
+		disabled.refresh(this::fetch, 10);
+
+		assertNull(disabled.find("08123456789"));
+	}
+
+	private Event createEvent(String baseEntityId, String phoneNumber, long serverVersion) {
+		Event event = new Event();
+		event.setBaseEntityId(baseEntityId);
+		event.setServerVersion(serverVersion);
+		Obs obs = new Obs();
+		obs.setFieldCode(PhoneNumberIndex.CONTACT_PHONE_NUMBER_CONCEPT);
+		obs.setValues(Collections.singletonList(phoneNumber));
+		event.addObs(obs);
+		return event;
+	}
+}
@@ -0,0 +1,127 @@
+package org.opensrp.web.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.opensrp.common.AllConstants.BaseEntity.BASE_ENTITY_ID;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.opensrp.service.ClientService;
+import org.smartregister.domain.Client;
+
+public class RelationshipExpanderTest {
+
+	private ClientService clientService;
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		clientService = mock(ClientService.class);
+		executor = Executors.newFixedThreadPool(2);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testFindRelationshipsFetchesEachLevelOnce() {
+		Client child1 = createClient("child-1", "mother", "mother-1");
+		Client child2 = createClient("child-2", "mother", "mother-1");
+		Client mother = createClient("mother-1", "grandmother", "grandmother-1");
+		Client grandmother = createClient("grandmother-1", "mother", "child-1");
+		when(clientService.findByFieldValue(BASE_ENTITY_ID, Collections.singletonList("mother-1")))
+		        .thenReturn(Collections.singletonList(mother));
+		when(clientService.findByFieldValue(BASE_ENTITY_ID, Collections.singletonList("grandmother-1")))
+		        .thenReturn(Collections.singletonList(grandmother));
+		RelationshipExpander relationshipExpander = new RelationshipExpander(clientService, executor, 100);
+
+		List<Client> related = relationshipExpander.findRelationships(Arrays.asList(child1, child2),
+		    Arrays.asList("mother", "grandmother"), 3);
+
+		assertEquals(Arrays.asList("mother-1", "grandmother-1"), baseEntityIdsOf(related));
+		verify(clientService, times(2)).findByFieldValue(eq(BASE_ENTITY_ID), anyList());
+	}
+
+	@Test
+	public void testFindRelationshipsLooksUpReferencesThatAreNotBaseEntityIdsAsIdentifiers() {
+		Client child = createClient("child-1", "mother", "OPENSRP-ID-1");
+		Client mother = createClient("mother-1", null, null);
+		when(clientService.findByFieldValue(BASE_ENTITY_ID, Collections.singletonList("OPENSRP-ID-1")))
+		        .thenReturn(Collections.emptyList());
+		when(clientService.find("OPENSRP-ID-1")).thenReturn(mother);
+		RelationshipExpander relationshipExpander = new RelationshipExpander(clientService, executor, 100);
+
+		List<Client> related = relationshipExpander.findRelationships(Collections.singletonList(child),
+		    Collections.singletonList("mother"), 1);
+
+		assertEquals(Collections.singletonList("mother-1"), baseEntityIdsOf(related));
+	}
+
+	@Test
+	public void testFindDependantsRemovesClientsWithoutDependants() {
+		Client household = createClient("household-1", null, null);
+		Client emptyHousehold = createClient("household-2", null, null);
+		Client member = createClient("member-1", "family", "household-1");
+		Client child = createClient("child-1", "family", "member-1");
+		when(clientService.findByRelationshipIdAndType("family", "household-1")).thenReturn(Collections.singletonList(member));
+		when(clientService.findByRelationshipIdAndType("family", "member-1")).thenReturn(Collections.singletonList(child));
+		RelationshipExpander relationshipExpander = new RelationshipExpander(clientService, executor, 100);
+		List<Client> clients = new ArrayList<>(Arrays.asList(household, emptyHousehold));
+
+		List<Client> dependants = relationshipExpander.findDependants(clients, "family", 2);
+
+		assertEquals(Arrays.asList("member-1", "child-1"), baseEntityIdsOf(dependants));
+		assertEquals(Collections.singletonList("household-1"), baseEntityIdsOf(clients));
+	}
+
+	@Test
+	public void testExpansionStopsAtMaxResults() {
+		Client mother = createClient("mother-1", null, null);
+		when(clientService.findByRelationshipIdAndType("mother", "mother-1")).thenReturn(Arrays.asList(
+		    createClient("child-1", "mother", "mother-1"), createClient("child-2", "mother", "mother-1"),
+		    createClient("child-3", "mother", "mother-1")));
+		RelationshipExpander relationshipExpander = new RelationshipExpander(clientService, executor, 2);
+
+		List<Client> dependants = relationshipExpander.findDependants(new ArrayList<>(Collections.singletonList(mother)),
+		    "mother", 3);
+
+		assertEquals(Arrays.asList("child-1", "child-2"), baseEntityIdsOf(dependants));
+		ArgumentCaptor<String> idCaptor = ArgumentCaptor.forClass(String.class);
+		verify(clientService).findByRelationshipIdAndType(eq("mother"), idCaptor.capture());
+		assertEquals("mother-1", idCaptor.getValue());
+	}
+
+	private Client createClient(String baseEntityId, String relationshipType, String relationalId) {
+		Client client = new Client(baseEntityId);
+		if (relationshipType != null) {
+			Map<String, List<String>> relationships = new HashMap<>();
+			relationships.put(relationshipType, Collections.singletonList(relationalId));
+			client.setRelationships(relationships);
+		}
+		return client;
+	}
+
+	private List<String> baseEntityIdsOf(List<Client> clients) {
+		return clients.stream().map(Client::getBaseEntityId).collect(Collectors.toList());
+	}
+}
@@ -1,5 +1,7 @@
 package org.opensrp.web.utils;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.atLeastOnce;
@@ -7,6 +9,8 @@ import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Paths;
@@ -14,8 +18,10 @@ import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
+import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 import org.opensrp.common.AllConstants.Client;
 import org.opensrp.domain.Multimedia;
@@ -61,4 +67,26 @@ public class RestUtilsTest {
 		verify(zipOutputStream, atLeastOnce()).write(anyInt());
 		verify(zipOutputStream, atLeastOnce()).closeEntry();
 	}
+
+	@Test
+	public void testWriteFileToZipShouldOnlyCompressWhenAsked() throws IOException {
+		File file = new File(Paths.get("").toAbsolutePath().toString() + "/src/test/resources/sample/Midwifery Kit.jpeg");
+		ByteArrayOutputStream zipBytes = new ByteArrayOutputStream();
+		try (ZipOutputStream zipOutputStream = new ZipOutputStream(zipBytes)) {
+			RestUtils.writeFileToZip(zipOutputStream, "kit.jpeg", file, new byte[1024], false);
+			RestUtils.writeFileToZip(zipOutputStream, "kit_deflated.jpeg", file, new byte[1024], true);
+		}
+
+		try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(zipBytes.toByteArray()))) {
+			ZipEntry entry = zipInputStream.getNextEntry();
+			assertEquals("kit.jpeg", entry.getName());
+			assertEquals(file.length(), IOUtils.toByteArray(zipInputStream).length);
+			long storedSize = entry.getCompressedSize();
+			assertTrue(storedSize >= file.length());
+			entry = zipInputStream.getNextEntry();
+			assertEquals("kit_deflated.jpeg", entry.getName());
+			assertEquals(file.length(), IOUtils.toByteArray(zipInputStream).length);
+			assertTrue(entry.getCompressedSize() < storedSize);
+		}
+	}
 }
@@ -269,4 +269,46 @@ public class SearchHelperTest {
 		Assert.assertEquals("2093980", result.get("NRC_Number"));
 	}
 
+	@Test
+	public void testProcessSearchResultPairsEveryChildWithItsMothers() {
+		Client motherA = new Client("Mother-A");
+		Client motherB = new Client("mother-b");
+		Client childA1 = createChild("child-a1", "mother-a");
+		Client childB = createChild("child-b", "mother-b");
+		Client childA2 = createChild("child-a2", "mother-a");
+		Client orphan = createChild("child-c", "mother-c");
+
+		List<ChildMother> childMothers = SearchHelper.processSearchResult(
+		    Arrays.asList(childA1, childB, orphan, childA2), Arrays.asList(motherA, motherB), "mother");
+
+		Assert.assertEquals(3, childMothers.size());
+		Assert.assertEquals(childA1, childMothers.get(0).getChild());
+		Assert.assertEquals(motherA, childMothers.get(0).getMother());
+		Assert.assertEquals(childB, childMothers.get(1).getChild());
+		Assert.assertEquals(motherB, childMothers.get(1).getMother());
+		Assert.assertEquals(childA2, childMothers.get(2).getChild());
+		Assert.assertEquals(motherA, childMothers.get(2).getMother());
+	}
+
+	@Test
+	public void testAddAllMissingAddsClientsNotInTheList() {
+		Client existing = new Client("mother-1");
+		List<Client> mothers = new ArrayList<>(Arrays.asList(existing));
+
+		SearchHelper.addAllMissing(mothers,
+		    Arrays.asList(new Client("mother-1"), new Client("mother-2"), new Client("mother-2")));
+
+		Assert.assertEquals(2, mothers.size());
+		Assert.assertEquals(existing, mothers.get(0));
+		Assert.assertEquals("mother-2", mothers.get(1).getBaseEntityId());
+	}
+
+	private Client createChild(String baseEntityId, String motherBaseEntityId) {
+		Client child = new Client(baseEntityId);
+		Map<String, List<String>> relationships = new HashMap<>();
+		relationships.put("mother", Arrays.asList(motherBaseEntityId));
+		child.setRelationships(relationships);
+		return child;
+	}
+
 }
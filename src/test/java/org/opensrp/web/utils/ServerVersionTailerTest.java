@@ -0,0 +1,39 @@
+package org.opensrp.web.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+public class ServerVersionTailerTest {
+
+	private final List<Long> serverVersions = Arrays.asList(1l, 2l, 2l, 2l, 3l);
+
+	private final List<String> fetches = new ArrayList<>();
+
+	private List<Long> fetch(long serverVersion, int limit) {
+		fetches.add(serverVersion + ":" + limit);
+		return serverVersions.stream().filter(version -> version >= serverVersion).limit(limit)
+		        .collect(Collectors.toList());
+	}
+
+	@Test
+	public void testTailReadsPastServerVersionsSharedByAFullPage() {
+		ServerVersionTailer<Long> tailer = new ServerVersionTailer<>(version -> version);
+		List<List<Long>> pages = new ArrayList<>();
+
+		assertEquals(7, tailer.tail(this::fetch, 2, pages::add));
+
+		assertEquals(Arrays.asList("0:2", "2:2", "2:4", "3:2"), fetches);
+		assertEquals(Arrays.asList(Arrays.asList(1l, 2l), Arrays.asList(2l, 2l, 2l, 3l), Arrays.asList(3l)), pages);
+		assertEquals(3, tailer.getLastServerVersion());
+
+		fetches.clear();
+		assertEquals(1, tailer.tail(this::fetch, 2, pages::add));
+		assertEquals(Arrays.asList("3:2"), fetches);
+	}
+}
@@ -0,0 +1,154 @@
+package org.opensrp.web.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opensrp.domain.StructureDetails;
+import org.opensrp.web.rest.LocationResource;
+import org.smartregister.domain.LocationProperty.PropertyStatus;
+import org.smartregister.domain.PhysicalLocation;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class StructureIndexTest {
+
+	private static final double LATITUDE = -14.1619809;
+
+	private static final double LONGITUDE = 32.5978597;
+
+	private static final double FIFTY_METERS = 50 / (6371008.8 * Math.PI / 180);
+
+	private MeterRegistry meterRegistry;
+
+	private StructureIndex structureIndex;
+
+	private List<PhysicalLocation> structures;
+
+	@Before
+	public void setUp() {
+		meterRegistry = new SimpleMeterRegistry();
+		structureIndex = new StructureIndex(true, 0.001, meterRegistry);
+		structures = new ArrayList<>(Arrays.asList(createPoint("at-point", LATITUDE, LONGITUDE, 1l),
+		    createPoint("fifty-meters-north", LATITUDE + FIFTY_METERS, LONGITUDE, 1l),
+		    createPoint("far-east", LATITUDE, LONGITUDE + 0.005, 2l),
+		    createSquare("square-north", LATITUDE + 0.0007, LONGITUDE - 0.0002, LATITUDE + 0.0012, LONGITUDE + 0.0002, 3l)));
+	}
+
+	private List<PhysicalLocation> fetch(long serverVersion, int limit) {
+		return structures.stream().filter(structure -> structure.getServerVersion() >= serverVersion).limit(limit)
+		        .collect(Collectors.toList());
+	}
+
+	@Test
+	public void testQueriesAreNotServedBeforeTheFirstRefresh() {
+		assertNull(structureIndex.findWithinRadius(LATITUDE, LONGITUDE, 100));
+	}
+
+	@Test
+	public void testFindWithinRadiusReturnsStructuresByDistance() {
+		assertEquals(4, structureIndex.refresh(this::fetch, 10));
+
+		assertEquals(toJson("at-point", "fifty-meters-north", "square-north"),
+		    LocationResource.gson.toJson(structureIndex.findWithinRadius(LATITUDE, LONGITUDE, 100)));
+		assertEquals(toJson("square-north"),
+		    LocationResource.gson.toJson(structureIndex.findWithinRadius(LATITUDE + 0.001, LONGITUDE, 10)));
+		assertEquals(4, meterRegistry.get(StructureIndex.SIZE_METRIC).gauge().value(), 0);
+		assertTrue(meterRegistry.get(StructureIndex.MEMORY_METRIC).gauge().value() > 0);
+	}
+
+	@Test
+	public void testStructuresAtTheRadiusAreLeftToTheDatabase() {
+		structureIndex.refresh(this::fetch, 10);
+
+		assertNull(structureIndex.findWithinRadius(LATITUDE, LONGITUDE, 50));
+		assertNull(structureIndex.findWithinRadius(LATITUDE, LONGITUDE, StructureIndex.MAX_RADIUS + 1));
+		assertEquals(1, meterRegistry.get(StructureIndex.FALLBACK_METRIC).counter().count(), 0);
+	}
+
+	@Test
+	public void testRefreshMovesChangedStructuresAndRemovesInactiveStructures() {
+		structureIndex.refresh(this::fetch, 10);
+		PhysicalLocation inactive = createPoint("at-point", LATITUDE, LONGITUDE, 4l);
+		inactive.getProperties().setStatus(PropertyStatus.INACTIVE);
+		structures.addAll(Arrays.asList(inactive, createPoint("far-east", LATITUDE, LONGITUDE + 0.0001, 5l)));
+
+		structureIndex.refresh(this::fetch, 10);
+
+		assertEquals(toJson("far-east", "fifty-meters-north"),
+		    LocationResource.gson.toJson(structureIndex.findWithinRadius(LATITUDE, LONGITUDE, 70)));
+		assertEquals(3, structureIndex.size());
+	}
+
+	@Test
+	public void testInactiveStructureReadWithoutGeometryIsRemoved() {
+		structureIndex.refresh(this::fetch, 10);
+		PhysicalLocation inactive = createStructure("square-north", "null", 3l);
+		inactive.getProperties().setStatus(PropertyStatus.INACTIVE);
+
+		structureIndex.indexAll(Collections.singletonList(inactive));
+
+		assertEquals(toJson("at-point", "fifty-meters-north"),
+		    LocationResource.gson.toJson(structureIndex.findWithinRadius(LATITUDE, LONGITUDE, 100)));
+		assertEquals(3, structureIndex.size());
+	}
+
+	@Test
+	public void testGeometriesAreHeldSimplified() {
+		StringBuilder edge = new StringBuilder();
+		for (int i = 1; i < 100; i++) {
+			edge.append("[").append(LONGITUDE + 0.001 * i / 100).append(",").append(LATITUDE).append("],");
+		}
+		structures = new ArrayList<>(Arrays.asList(createTriangle(edge.toString())));
+		StructureIndex detailed = new StructureIndex(true, 0.001, new SimpleMeterRegistry());
+		detailed.refresh(this::fetch, 10);
+		structures = new ArrayList<>(Arrays.asList(createTriangle("")));
+		structureIndex.refresh(this::fetch, 10);
+
+		assertEquals(structureIndex.estimateMemory(), detailed.estimateMemory());
+		assertEquals(toJson("triangle"),
+		    LocationResource.gson.toJson(detailed.findWithinRadius(LATITUDE + 0.0001, LONGITUDE + 0.0005, 5)));
+	}
+
+	private String toJson(String... ids) {
+		return LocationResource.gson.toJson(
+		    Arrays.stream(ids).map(id -> new StructureDetails(id, "3734", id)).collect(Collectors.toList()));
+	}
+
+	private PhysicalLocation createPoint(String id, double latitude, double longitude, long serverVersion) {
+		return createStructure(id, "{\"type\":\"Point\",\"coordinates\":[" + longitude + "," + latitude + "]}",
+		    serverVersion);
+	}
+
+	private PhysicalLocation createSquare(String id, double minLatitude, double minLongitude, double maxLatitude,
+	        double maxLongitude, long serverVersion) {
+		String ring = "[" + minLongitude + "," + minLatitude + "],[" + maxLongitude + "," + minLatitude + "],["
+		        + maxLongitude + "," + maxLatitude + "],[" + minLongitude + "," + maxLatitude + "],[" + minLongitude + ","
+		        + minLatitude + "]";
+		return createStructure(id, "{\"type\":\"Polygon\",\"coordinates\":[[" + ring + "]]}", serverVersion);
+	}
+
+	private PhysicalLocation createTriangle(String bottomEdge) {
+		String ring = "[" + LONGITUDE + "," + LATITUDE + "]," + bottomEdge + "[" + (LONGITUDE + 0.001) + "," + LATITUDE
+		        + "],[" + (LONGITUDE + 0.001) + "," + (LATITUDE + 0.001) + "],[" + LONGITUDE + "," + LATITUDE + "]";
+		return createStructure("triangle", "{\"type\":\"Polygon\",\"coordinates\":[[" + ring + "]]}", 1l);
+	}
+
+	private PhysicalLocation createStructure(String id, String geometry, long serverVersion) {
+		PhysicalLocation structure = LocationResource.gson.fromJson("{\"type\":\"Feature\",\"id\":\"" + id
+		        + "\",\"geometry\":" + geometry + ",\"properties\":{\"status\":\"Active\",\"parentId\":\"3734\",\"name\":\""
+		        + id + "\",\"version\":0}}",
+		    PhysicalLocation.class);
+		structure.setServerVersion(serverVersion);
+		return structure;
+	}
+}
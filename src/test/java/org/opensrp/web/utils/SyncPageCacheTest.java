@@ -0,0 +1,143 @@
+package org.opensrp.web.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.opensrp.common.AllConstants.Event.LOCATION_ID;
+import static org.opensrp.common.AllConstants.Event.TEAM_ID;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.smartregister.domain.Event;
+
+public class SyncPageCacheTest {
+	
+	private AtomicInteger loads = new AtomicInteger();
+	
+	@Test
+	public void testGetLoadsPageOnce() {
+		SyncPageCache syncPageCache = new SyncPageCache(100, 60000);
+		SyncPageCache.Page page = syncPageCache.get("team=1", () -> load("page", "c1", "team1"));
+		assertSame(page, syncPageCache.get("team=1", () -> load("page", "c1", "team1")));
+		assertEquals(1, loads.get());
+	}
+	
+	@Test
+	public void testDisabledCacheAlwaysLoads() {
+		SyncPageCache syncPageCache = new SyncPageCache(0, 60000);
+		syncPageCache.get("team=1", () -> load("page", "c1", "team1"));
+		syncPageCache.get("team=1", () -> load("page", "c1", "team1"));
+		assertEquals(2, loads.get());
+	}
+	
+	@Test
+	public void testLeastRecentlyUsedPagesAreEvictedBySize() {
+		// each page body of 5 chars takes 10 bytes
+		SyncPageCache syncPageCache = new SyncPageCache(20, 60000);
+		syncPageCache.get("team=1", () -> load("12345", "c1", "team1"));
+		syncPageCache.get("team=2", () -> load("12345", "c2", "team2"));
+		syncPageCache.get("team=1", () -> load("12345", "c1", "team1"));
+		syncPageCache.get("team=3", () -> load("12345", "c3", "team3"));
+		assertEquals(3, loads.get());
+		
+		syncPageCache.get("team=1", () -> load("12345", "c1", "team1"));
+		assertEquals(3, loads.get());
+		syncPageCache.get("team=2", () -> load("12345", "c2", "team2"));
+		assertEquals(4, loads.get());
+	}
+	
+	@Test
+	public void testSavedEventsAndClientsInvalidateTheirPages() {
+		SyncPageCache syncPageCache = new SyncPageCache(100, 60000);
+		syncPageCache.get("team=1", () -> load("page1", "c1", "team1"));
+		syncPageCache.get("team=2", () -> load("page2", "c2", "team2"));
+		Event event = new Event();
+		event.setTeamId("team1");
+		
+		syncPageCache.invalidate(event);
+		syncPageCache.get("team=1", () -> load("page1", "c1", "team1"));
+		syncPageCache.get("team=2", () -> load("page2", "c2", "team2"));
+		assertEquals(3, loads.get());
+		
+		syncPageCache.invalidateClient("c2");
+		syncPageCache.get("team=2", () -> load("page2", "c2", "team2"));
+		assertEquals(4, loads.get());
+	}
+	
+	@Test
+	public void testSavedEventsOnlyInvalidatePagesOfTheirFilters() {
+		SyncPageCache syncPageCache = new SyncPageCache(100, 60000);
+		syncPageCache.get("team=1", () -> load("page1", "c1", "team1,team3"));
+		syncPageCache.get("team=2", () -> load("page2", "c2", "team2"));
+		syncPageCache.get("location=1", () -> {
+			loads.incrementAndGet();
+			return new SyncPageCache.Page("page3", 1l, null, Collections.singleton("c3"),
+			        Collections.singletonMap(LOCATION_ID, "location1"));
+		});
+		Event event = new Event();
+		event.setTeamId("team3");
+		event.setLocationId("location2");
+		
+		syncPageCache.invalidate(event);
+		syncPageCache.get("team=1", () -> load("page1", "c1", "team1,team3"));
+		syncPageCache.get("team=2", () -> load("page2", "c2", "team2"));
+		syncPageCache.get("location=1", () -> load("page3", "c3", "team1"));
+		assertEquals(4, loads.get());
+		
+		// an event without a team may belong to any team page
+		event.setTeamId(null);
+		event.setLocationId("location1");
+		syncPageCache.invalidate(event);
+		syncPageCache.get("team=1", () -> load("page1", "c1", "team1,team3"));
+		syncPageCache.get("team=2", () -> load("page2", "c2", "team2"));
+		syncPageCache.get("location=1", () -> load("page3", "c3", "team1"));
+		assertEquals(7, loads.get());
+	}
+	
+	@Test
+	public void testConcurrentRequestsShareOneLoad() throws Exception {
+		SyncPageCache syncPageCache = new SyncPageCache(100, 60000);
+		CountDownLatch loading = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<SyncPageCache.Page> first = executor.submit(() -> syncPageCache.get("team=1", () -> {
+				loading.countDown();
+				await(release);
+				return load("page", "c1", "team1");
+			}));
+			loading.await(5, TimeUnit.SECONDS);
+			Future<SyncPageCache.Page> second = executor.submit(() -> syncPageCache.get("team=1",
+			    () -> load("other", "c1", "team1")));
+			Thread.sleep(100);
+			release.countDown();
+			
+			assertSame(first.get(5, TimeUnit.SECONDS), second.get(5, TimeUnit.SECONDS));
+			assertEquals(1, loads.get());
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	private SyncPageCache.Page load(String body, String baseEntityId, String teamId) {
+		loads.incrementAndGet();
+		return new SyncPageCache.Page(body, 1l, null, Collections.singleton(baseEntityId),
+		        Collections.singletonMap(TEAM_ID, teamId));
+	}
+	
+	private void await(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
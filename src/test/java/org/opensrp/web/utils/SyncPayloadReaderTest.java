@@ -0,0 +1,101 @@
+package org.opensrp.web.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+import org.smartregister.domain.Client;
+import org.smartregister.domain.Event;
+import org.smartregister.utils.DateTimeTypeConverter;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+public class SyncPayloadReaderTest {
+	
+	private Gson gson = new GsonBuilder().registerTypeAdapter(DateTime.class, new DateTimeTypeConverter()).create();
+	
+	private List<String> handled = new ArrayList<>();
+	
+	@Test
+	public void testReadHandsOverRecordsInBatches() throws Exception {
+		String payload = "{\"clients\":[{\"baseEntityId\":\"c1\"},{\"baseEntityId\":\"c2\"},{\"baseEntityId\":\"c3\"}],"
+		        + "\"events\":[{\"baseEntityId\":\"c1\",\"eventType\":\"Registration\"}]}";
+		
+		assertTrue(read(payload, 2));
+		assertEquals("[clients:c1,c2, clients:c3, events:c1]", handled.toString());
+	}
+	
+	@Test
+	public void testReadAcceptsStringEncodedArrays() throws Exception {
+		String payload = "{\"events\":\"[{\\\"baseEntityId\\\":\\\"c1\\\"}]\",\"clients\":\"[{\\\"baseEntityId\\\":\\\"c1\\\"}]\"}";
+		
+		assertTrue(read(payload, 10));
+		assertEquals("[clients:c1, events:c1]", handled.toString());
+	}
+	
+	@Test
+	public void testReadHandsOverEventsThatPrecedeClientsAfterTheClients() throws Exception {
+		String payload = "{\"events\":[{\"baseEntityId\":\"c1\"},{\"baseEntityId\":\"c2\"}],\"other\":{\"a\":1},"
+		        + "\"clients\":[{\"baseEntityId\":\"c1\"}]}";
+		
+		assertTrue(read(payload, 1));
+		assertEquals("[clients:c1, events:c1, events:c2]", handled.toString());
+	}
+	
+	@Test
+	public void testReadHandsOverEventsWithoutClients() throws Exception {
+		assertTrue(read("{\"events\":[{\"baseEntityId\":\"c1\"}]}", 10));
+		assertEquals("[events:c1]", handled.toString());
+	}
+	
+	@Test(expected = JsonParseException.class)
+	public void testReadReportsPayloadOfTheWrongShapeAsMalformed() throws Exception {
+		read("[{\"clients\":[]}]", 10);
+	}
+	
+	@Test
+	public void testReadHandsOverBatchesReadBeforeMalformedRecord() throws Exception {
+		String payload = "{\"clients\":[],\"events\":[{\"baseEntityId\":\"c1\"},{\"baseEntityId\":\"c2\"},"
+		        + "{\"baseEntityId\":[}]}";
+		
+		try {
+			read(payload, 1);
+			fail("Expected a malformed payload");
+		}
+		catch (JsonParseException | IOException e) {
+			assertEquals("[events:c1, events:c2]", handled.toString());
+		}
+	}
+	
+	@Test
+	public void testReadReturnsFalseWithoutClientsOrEvents() throws Exception {
+		assertFalse(read("{\"other\":[]}", 10));
+		assertTrue(handled.isEmpty());
+	}
+	
+	private boolean read(String payload, int batchSize) throws Exception {
+		return new SyncPayloadReader(gson, batchSize).read(new StringReader(payload), clients -> {
+			List<String> ids = new ArrayList<>();
+			for (Client client : clients) {
+				ids.add(client.getBaseEntityId());
+			}
+			handled.add("clients:" + String.join(",", ids));
+		}, events -> {
+			List<String> ids = new ArrayList<>();
+			for (Event event : events) {
+				ids.add(event.getBaseEntityId());
+			}
+			handled.add("events:" + String.join(",", ids));
+		});
+	}
+}